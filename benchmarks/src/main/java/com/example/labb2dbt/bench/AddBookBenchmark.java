@@ -0,0 +1,64 @@
+package com.example.labb2dbt.bench;
+
+import com.example.labb2dbt.model.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares inserting books one by one with addBook against batched inserts with addBooks,
+ * on a local mongod. Each invocation inserts the same number of books into an emptied
+ * collection, so the scores are directly comparable.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AddBookBenchmark {
+
+    @Param({"10000"})
+    public int books;
+
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private BooksDbImpl booksDb;
+    private List<Book> catalogue;
+
+    @Setup(Level.Trial)
+    public void setUp() throws BooksDbException {
+        booksDb = BenchmarkDatabase.connectEmpty("bench_insert", true);
+        booksDb.setBulkBatchSize(batchSize);
+        booksDb.setBulkParallelism(parallelism);
+        catalogue = CatalogueGenerator.bookList(books, CatalogueGenerator.DEFAULT_SEED);
+    }
+
+    @Setup(Level.Invocation)
+    public void emptyCollection() {
+        // deleteMany keeps the indexes, so every invocation pays for maintaining them
+        booksDb.mongoDatabase.getCollection("books").deleteMany(new org.bson.Document());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws BooksDbException {
+        booksDb.disconnect();
+    }
+
+    @Benchmark
+    public void addBookOneByOne() throws BooksDbException {
+        for (Book book : catalogue) {
+            booksDb.addBook(book);
+        }
+    }
+
+    @Benchmark
+    public BulkImportResult addBooksBatched() throws BooksDbException {
+        return booksDb.addBooks(catalogue);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.labb2dbt.bench;
+
+import com.example.labb2dbt.model.AsyncBooksDbImpl;
+import com.example.labb2dbt.model.BooksDbException;
+import com.example.labb2dbt.model.BooksDbImpl;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Connects the benchmarks to a local mongod and seeds a generated catalogue of the
+ * requested size, once per size: a database named bench_&lt;size&gt; is reused as long
+ * as it holds the right number of books.
+ */
+public final class BenchmarkDatabase {
+
+    /** The connection string, overridable with -Dbooks.bench.uri=... */
+    public static final String URI = System.getProperty("books.bench.uri", "mongodb://localhost:27017");
+
+    private BenchmarkDatabase() {
+    }
+
+    /**
+     * Connects to the benchmark database of a catalogue size, generating the catalogue if needed.
+     *
+     * @param catalogueSize The number of books.
+     * @return The connected database.
+     * @throws BooksDbException If the database cannot be reached or seeded.
+     */
+    public static BooksDbImpl connectSeeded(long catalogueSize) throws BooksDbException {
+        BooksDbImpl booksDb = connectEmpty("bench_" + catalogueSize, false);
+        long existing = booksDb.mongoDatabase.getCollection("books").countDocuments();
+        if (existing != catalogueSize) {
+            booksDb.mongoDatabase.getCollection("books").drop();
+            booksDb.disconnect();
+            // reconnect so the indexes are created on the fresh collection
+            booksDb = connectEmpty("bench_" + catalogueSize, false);
+            System.out.println("Seeding " + catalogueSize + " books: "
+                    + booksDb.addBooks(CatalogueGenerator.books(catalogueSize, CatalogueGenerator.DEFAULT_SEED)));
+        }
+        return booksDb;
+    }
+
+    /**
+     * Connects to a scratch database, optionally dropping its books first.
+     *
+     * @param dbName The database name.
+     * @param drop   {@code true} to start with an empty books collection.
+     * @return The connected database.
+     * @throws BooksDbException If the database cannot be reached.
+     */
+    public static BooksDbImpl connectEmpty(String dbName, boolean drop) throws BooksDbException {
+        BooksDbImpl booksDb = new BooksDbImpl();
+        if (drop) {
+            booksDb.connectToUri(URI, dbName);
+            booksDb.mongoDatabase.getCollection("books").drop();
+            booksDb.disconnect();
+            booksDb = new BooksDbImpl();
+        }
+        booksDb.connectToUri(URI, dbName);
+        return booksDb;
+    }
+
+    /**
+     * Connects the asynchronous implementation to the benchmark database of a catalogue
+     * size, generating the catalogue with the blocking implementation if needed.
+     *
+     * @param catalogueSize The number of books.
+     * @return The connected database.
+     * @throws BooksDbException If the database cannot be reached or seeded.
+     */
+    public static AsyncBooksDbImpl connectSeededAsync(long catalogueSize) throws BooksDbException {
+        connectSeeded(catalogueSize).disconnect();
+        AsyncBooksDbImpl booksDb = new AsyncBooksDbImpl();
+        try {
+            booksDb.connectToUri(URI, "bench_" + catalogueSize).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new BooksDbException("Could not connect to " + URI, e);
+        }
+        return booksDb;
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.labb2dbt.bench;
+
+import com.example.labb2dbt.model.*;
+import org.bson.Document;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Generates reproducible book catalogues of any size for the benchmarks. The same
+ * count and seed always give the same books, with unique ISBN-13s, titles built
+ * from a fixed vocabulary, a skewed author distribution and 1-3 genres per book.
+ * <p>
+ * Run as a program to write a catalogue to a JSON Lines file for BookImporter,
+ * or to insert it straight into a database:
+ * <pre>
+ *   java -cp target/benchmarks.jar com.example.labb2dbt.bench.CatalogueGenerator 1000000 books.jsonl
+ *   java -cp target/benchmarks.jar com.example.labb2dbt.bench.CatalogueGenerator 10000000 mongodb://localhost:27017 bench_10m
+ * </pre>
+ */
+public class CatalogueGenerator {
+
+    public static final long DEFAULT_SEED = 42;
+
+    static final String[] GENRES = {
+            "Fantasy", "Science Fiction", "Mystery", "Thriller", "Romance", "Horror", "History",
+            "Biography", "Poetry", "Drama", "Children", "Young Adult", "Crime", "Adventure",
+            "Philosophy", "Travel", "Cooking", "Science", "Art", "Humor"
+    };
+    static final String[] TITLE_WORDS = {
+            "Shadow", "River", "King", "Night", "Garden", "Stone", "Winter", "Crown", "Secret", "Island",
+            "Fire", "Song", "Empire", "Storm", "Mirror", "Forest", "Letter", "Silent", "Golden", "Last",
+            "Dragon", "House", "Star", "Ocean", "Road", "Glass", "Iron", "Memory", "Wolf", "Lantern"
+    };
+    static final String[] FIRST_NAMES = {
+            "Astrid", "Björn", "Clara", "David", "Elin", "Frida", "Gustav", "Hanna", "Ingrid", "Johan",
+            "Karin", "Lars", "Maja", "Nils", "Oskar", "Petra", "Rasmus", "Sara", "Tove", "Ulf"
+    };
+    static final String[] LAST_NAMES = {
+            "Andersson", "Berg", "Carlsson", "Dahl", "Ekström", "Forsberg", "Gustafsson", "Holm", "Isaksson",
+            "Johansson", "Karlsson", "Lindqvist", "Månsson", "Nyström", "Olsson", "Persson", "Sjöberg", "Åberg"
+    };
+    private static final String STORY_WORDS = "the of a in and to was it as his that with he for on at by";
+
+    private CatalogueGenerator() {
+    }
+
+    /**
+     * Creates a lazy sequence of books, generated as they are iterated.
+     *
+     * @param count The number of books.
+     * @param seed  The random seed.
+     * @return The books.
+     */
+    public static Iterable<Book> books(long count, long seed) {
+        return () -> new Iterator<>() {
+            private final Random random = new Random(seed);
+            private long next;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public Book next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return book(next++, random);
+            }
+        };
+    }
+
+    /**
+     * Creates a list of books, for benchmarks that need the whole catalogue in memory.
+     *
+     * @param count The number of books.
+     * @param seed  The random seed.
+     * @return The books.
+     */
+    public static List<Book> bookList(int count, long seed) {
+        List<Book> books = new ArrayList<>(count);
+        books(count, seed).forEach(books::add);
+        return books;
+    }
+
+    /**
+     * Gets the ISBN of the n:th generated book, e.g. to look it up in a benchmark.
+     *
+     * @param n The number of the book, starting at 0.
+     * @return The ISBN-13.
+     */
+    public static String isbn(long n) {
+        String digits = "978" + String.format("%09d", n);
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += (digits.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+
+    private static Book book(long n, Random random) {
+        String title = "The " + TITLE_WORDS[random.nextInt(TITLE_WORDS.length)]
+                + " of the " + TITLE_WORDS[random.nextInt(TITLE_WORDS.length)]
+                + " " + (n % 1000);
+        LocalDate published = LocalDate.of(1900 + random.nextInt(124), 1 + random.nextInt(12), 1 + random.nextInt(28));
+        Book book = new Book(isbn(n), title, published);
+        book.setRating(1 + random.nextInt(5));
+
+        Set<String> genreNames = new LinkedHashSet<>();
+        int genreCount = 1 + random.nextInt(3);
+        for (int i = 0; i < genreCount; i++) {
+            genreNames.add(GENRES[random.nextInt(GENRES.length)]);
+        }
+        ArrayList<Genre> genres = new ArrayList<>();
+        for (String name : genreNames) {
+            genres.add(new Genre(name));
+        }
+        book.setGenres(genres);
+
+        List<Author> authors = new ArrayList<>();
+        int authorCount = random.nextInt(10) == 0 ? 2 : 1;
+        for (int i = 0; i < authorCount; i++) {
+            // squaring skews the distribution so a few authors write many books
+            double skew = random.nextDouble() * random.nextDouble();
+            int authorNo = (int) (skew * FIRST_NAMES.length * LAST_NAMES.length);
+            String name = FIRST_NAMES[authorNo % FIRST_NAMES.length] + " " + LAST_NAMES[authorNo / FIRST_NAMES.length];
+            authors.add(new Author(name, LocalDate.of(1850 + authorNo % 150, 1 + authorNo % 12, 1 + authorNo % 28)));
+        }
+        book.setAuthors(authors);
+
+        String[] words = STORY_WORDS.split(" ");
+        StringBuilder story = new StringBuilder();
+        int storyWords = 40 + random.nextInt(160);
+        for (int i = 0; i < storyWords; i++) {
+            if (i > 0) story.append(' ');
+            story.append(random.nextInt(8) == 0 ? TITLE_WORDS[random.nextInt(TITLE_WORDS.length)].toLowerCase() : words[random.nextInt(words.length)]);
+        }
+        book.setStoryLine(story.toString());
+        return book;
+    }
+
+    /**
+     * Writes books to a JSON Lines file in the format read by BookImporter.
+     *
+     * @param books The books.
+     * @param file  The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void writeJsonLines(Iterable<Book> books, Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Book book : books) {
+                List<Document> authors = new ArrayList<>();
+                for (Author author : book.getAuthors()) {
+                    authors.add(new Document("name", author.getName())
+                            .append("dateOfBirth", String.valueOf(author.getBirthDate())));
+                }
+                List<String> genres = new ArrayList<>();
+                for (Genre genre : book.getGenres()) {
+                    genres.add(genre.getGenreName());
+                }
+                Document doc = new Document("isbn", book.getIsbn())
+                        .append("title", book.getTitle())
+                        .append("published", book.getPublished().toString())
+                        .append("rating", book.getRating())
+                        .append("genres", genres)
+                        .append("authors", authors)
+                        .append("description", book.getStoryLine());
+                writer.write(doc.toJson());
+                writer.newLine();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: CatalogueGenerator <count> <file.jsonl | mongodb-uri> [database]");
+            System.exit(1);
+        }
+        long count = Long.parseLong(args[0]);
+        if (args[1].startsWith("mongodb")) {
+            String dbName = args.length > 2 ? args[2] : "bench_" + count;
+            BooksDbImpl booksDb = new BooksDbImpl();
+            booksDb.connectToUri(args[1], dbName);
+            try {
+                BulkImportResult result = booksDb.addBooks(books(count, DEFAULT_SEED));
+                System.out.println(result);
+            } finally {
+                booksDb.disconnect();
+            }
+        } else {
+            writeJsonLines(books(count, DEFAULT_SEED), Path.of(args[1]));
+        }
+    }
+}
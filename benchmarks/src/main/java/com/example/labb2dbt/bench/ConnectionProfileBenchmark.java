@@ -0,0 +1,82 @@
+package com.example.labb2dbt.bench;
+
+import com.example.labb2dbt.model.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares connection profiles under concurrent load: 64 threads run ISBN lookups and
+ * Title prefix searches through one client. The pool statistics of each profile are
+ * printed after the run, to show how long the threads waited for a connection.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+@State(Scope.Benchmark)
+public class ConnectionProfileBenchmark {
+
+    private static final long CATALOGUE_SIZE = 100000;
+
+    @Param({"default", "pool8", "pool32", "pool128", "zlib", "secondaryPreferred"})
+    public String profile;
+
+    private BooksDbImpl booksDb;
+
+    @Setup
+    public void setUp() throws BooksDbException {
+        BenchmarkDatabase.connectSeeded(CATALOGUE_SIZE).disconnect();
+        booksDb = new BooksDbImpl();
+        booksDb.connect(profile(profile));
+    }
+
+    @TearDown
+    public void tearDown() throws BooksDbException {
+        System.out.println(profile + ": " + booksDb.getPoolStatistics());
+        booksDb.disconnect();
+    }
+
+    @Benchmark
+    public void isbnLookup(Blackhole blackhole) throws BooksDbException {
+        String isbn = CatalogueGenerator.isbn(ThreadLocalRandom.current().nextLong(CATALOGUE_SIZE));
+        booksDb.searchBooks(SearchMode.ISBN, MatchMode.Exact, isbn, BookProjection.Summary,
+                BooksDbInterface.DEFAULT_BATCH_SIZE, blackhole::consume);
+    }
+
+    @Benchmark
+    public void titlePrefix(Blackhole blackhole) throws BooksDbException {
+        booksDb.searchBooks(SearchMode.Title, MatchMode.NormalizedPrefix, "the shadow of the river 1", BookProjection.Summary,
+                BooksDbInterface.DEFAULT_BATCH_SIZE, blackhole::consume);
+    }
+
+    static ConnectionProfile profile(String name) throws BooksDbException {
+        ConnectionProfile.Builder builder = ConnectionProfile.builder(BenchmarkDatabase.URI)
+                .name(name)
+                .database("bench_" + CATALOGUE_SIZE);
+        switch (name) {
+            case "pool8":
+                builder.maxPoolSize(8);
+                break;
+            case "pool32":
+                builder.maxPoolSize(32).minPoolSize(32);
+                break;
+            case "pool128":
+                builder.maxPoolSize(128);
+                break;
+            case "zlib":
+                builder.compressor("zlib");
+                break;
+            case "secondaryPreferred":
+                builder.readPreference("secondaryPreferred");
+                break;
+            default:
+                break;
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.labb2dbt.bench;
+
+import com.example.labb2dbt.model.Book;
+import com.example.labb2dbt.model.FullTextIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the full-text index on its own: ranked top-10 searches for a rare word next
+ * to common ones, for a single common word, and loading the saved index. The index of
+ * each catalogue size is built once and saved in the temporary directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class FullTextBenchmark {
+
+    private static final Path DIRECTORY = Path.of(System.getProperty("java.io.tmpdir"), "books-bench-fulltext");
+
+    @Param({"100000", "1000000"})
+    public long catalogueSize;
+
+    private FullTextIndex index;
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = DIRECTORY.resolve("fulltext_" + catalogueSize + ".fts");
+        if (Files.exists(file)) {
+            index = FullTextIndex.load(file);
+            if (index.size() == catalogueSize) return;
+        }
+        index = new FullTextIndex();
+        for (Book book : CatalogueGenerator.books(catalogueSize, CatalogueGenerator.DEFAULT_SEED)) {
+            index.add(book);
+        }
+        index.save(file);
+        System.out.println("Built " + index.size() + " books, " + index.getPostingBytes() / 1024 + " KB of postings");
+    }
+
+    @Benchmark
+    public List<FullTextIndex.Hit> rareAndCommonWords() {
+        return index.search("the golden lantern 12", 10);
+    }
+
+    @Benchmark
+    public List<FullTextIndex.Hit> commonWords() {
+        return index.search("silent river", 10);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public int load() throws IOException {
+        return FullTextIndex.load(file).size();
+    }
+}
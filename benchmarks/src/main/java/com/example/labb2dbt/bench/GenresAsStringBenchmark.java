@@ -0,0 +1,56 @@
+package com.example.labb2dbt.bench;
+
+import com.example.labb2dbt.model.Book;
+import com.example.labb2dbt.model.BookSnapshot;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Book.getGenresAsString, which the Genres column calls for every visible
+ * row whenever the table is redrawn, and reading all the cells of a row from the book's
+ * snapshot. Both are built once per change of a book, so with {@code -prof gc} the
+ * allocation per row should be close to zero.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GenresAsStringBenchmark {
+
+    // about one screen of table rows
+    private static final int ROWS = 40;
+
+    private List<Book> books;
+
+    @Setup
+    public void setUp() {
+        books = CatalogueGenerator.bookList(ROWS, CatalogueGenerator.DEFAULT_SEED);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void genresAsString(Blackhole blackhole) {
+        for (Book book : books) {
+            blackhole.consume(book.getGenresAsString());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void rowCells(Blackhole blackhole) {
+        for (Book book : books) {
+            BookSnapshot snapshot = book.snapshot();
+            blackhole.consume(snapshot.getTitle());
+            blackhole.consume(snapshot.getIsbn());
+            blackhole.consume(snapshot.getPublished());
+            blackhole.consume(snapshot.getStoryLine());
+            blackhole.consume(snapshot.getRating());
+            blackhole.consume(snapshot.getGenresAsString());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.labb2dbt.bench;
+
+import com.example.labb2dbt.model.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Keeps a number of ISBN lookups in flight at once, with the asynchronous implementation
+ * and with the blocking one on a pool of {@code threads} workers, and measures how long
+ * the whole wave takes. The blocking variant can never have more than {@code threads}
+ * lookups in flight, the asynchronous one only waits for connections from the pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InFlightSearchBenchmark {
+
+    private static final long CATALOGUE_SIZE = 10000;
+
+    @Param({"100", "1000", "5000"})
+    public int inFlight;
+
+    @Param({"8"})
+    public int threads;
+
+    private AsyncBooksDbImpl asyncDb;
+    private BooksDbImpl booksDb;
+    private ExecutorService workers;
+    private String[] isbns;
+
+    @Setup
+    public void setUp() throws BooksDbException {
+        asyncDb = BenchmarkDatabase.connectSeededAsync(CATALOGUE_SIZE);
+        booksDb = BenchmarkDatabase.connectSeeded(CATALOGUE_SIZE);
+        workers = Executors.newFixedThreadPool(threads);
+        isbns = new String[inFlight];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < inFlight; i++) {
+            isbns[i] = CatalogueGenerator.isbn(random.nextLong(CATALOGUE_SIZE));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws BooksDbException {
+        workers.shutdownNow();
+        asyncDb.disconnect();
+        booksDb.disconnect();
+    }
+
+    @Benchmark
+    public int async() {
+        List<CompletableFuture<List<Book>>> searches = new ArrayList<>(inFlight);
+        for (String isbn : isbns) {
+            searches.add(asyncDb.searchBooks(SearchMode.ISBN, MatchMode.Exact, isbn, BookProjection.Summary));
+        }
+        return CompletableFuture.allOf(searches.toArray(CompletableFuture[]::new))
+                .thenApply(done -> searches.size()).join();
+    }
+
+    @Benchmark
+    public int blockingPool() throws Exception {
+        List<Future<List<Book>>> searches = new ArrayList<>(inFlight);
+        for (String isbn : isbns) {
+            searches.add(workers.submit(() -> {
+                List<Book> result = new ArrayList<>();
+                booksDb.searchBooks(SearchMode.ISBN, MatchMode.Exact, isbn, BookProjection.Summary,
+                        BooksDbInterface.DEFAULT_BATCH_SIZE, result::addAll);
+                return result;
+            }));
+        }
+        int found = 0;
+        for (Future<List<Book>> search : searches) {
+            found += search.get().size();
+        }
+        return found;
+    }
+}
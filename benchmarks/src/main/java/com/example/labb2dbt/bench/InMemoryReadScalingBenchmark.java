@@ -0,0 +1,95 @@
+package com.example.labb2dbt.bench;
+
+import com.example.labb2dbt.model.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the in-memory store's indexed searches scale with the number of reading
+ * threads, alone and while a writer keeps changing ratings. Run it once per thread count,
+ * e.g. {@code -t 1}, {@code -t 4}, {@code -t 16}; linear scaling shows as a constant
+ * time per search. The 10 million book catalogue needs a heap of about 24 GB, e.g.
+ * {@code -jvmArgsAppend -Xmx24g}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InMemoryReadScalingBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public long catalogueSize;
+
+    private InMemoryBooksDb booksDb;
+
+    @Setup
+    public void setUp() throws BooksDbException {
+        booksDb = new InMemoryBooksDb();
+        booksDb.connect("memory", "", "");
+        long started = System.nanoTime();
+        BulkImportResult result = booksDb.addBooks(CatalogueGenerator.books(catalogueSize, CatalogueGenerator.DEFAULT_SEED));
+        System.out.println("Seeded " + result.getInserted() + " books in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+    }
+
+    @TearDown
+    public void tearDown() {
+        booksDb.disconnect();
+    }
+
+    @Benchmark
+    public void isbnLookup(Blackhole blackhole) throws BooksDbException {
+        lookUp(blackhole);
+    }
+
+    @Benchmark
+    public void titleExact(Blackhole blackhole) throws BooksDbException {
+        booksDb.searchBooks(SearchMode.Title, MatchMode.Exact, randomTitle(), BookProjection.Full,
+                BooksDbInterface.DEFAULT_BATCH_SIZE, blackhole::consume);
+    }
+
+    @Benchmark
+    public void titlePrefix(Blackhole blackhole) throws BooksDbException {
+        booksDb.searchBooks(SearchMode.Title, MatchMode.NormalizedPrefix, randomTitle(), BookProjection.Full,
+                BooksDbInterface.DEFAULT_BATCH_SIZE, blackhole::consume);
+    }
+
+    @Benchmark
+    @Group("underWrites")
+    @GroupThreads(3)
+    public void readsUnderWrites(Blackhole blackhole) throws BooksDbException {
+        lookUp(blackhole);
+    }
+
+    @Benchmark
+    @Group("underWrites")
+    @GroupThreads(1)
+    public void ratingWrites() throws BooksDbException {
+        Book book = new Book(randomIsbn(), "", null);
+        try {
+            booksDb.updateBookRating(book, 1 + ThreadLocalRandom.current().nextInt(5));
+        } catch (BooksDbException e) {
+            // the rating was unchanged
+        }
+    }
+
+    private void lookUp(Blackhole blackhole) throws BooksDbException {
+        booksDb.searchBooks(SearchMode.ISBN, MatchMode.Exact, randomIsbn(), BookProjection.Full,
+                BooksDbInterface.DEFAULT_BATCH_SIZE, blackhole::consume);
+    }
+
+    private String randomIsbn() {
+        return CatalogueGenerator.isbn(ThreadLocalRandom.current().nextLong(catalogueSize));
+    }
+
+    private static String randomTitle() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String[] words = CatalogueGenerator.TITLE_WORDS;
+        return "The " + words[random.nextInt(words.length)] + " of the " + words[random.nextInt(words.length)]
+                + " " + random.nextInt(1000);
+    }
+}
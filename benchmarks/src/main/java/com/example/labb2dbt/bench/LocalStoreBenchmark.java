@@ -0,0 +1,88 @@
+package com.example.labb2dbt.bench;
+
+import com.example.labb2dbt.model.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the local log-structured store: replaying the log on connect, lookups by
+ * ISBN through the index and full-log title scans. The store of each catalogue size
+ * is generated once in the temporary directory and reused.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LocalStoreBenchmark {
+
+    private static final Path STORE = Path.of(System.getProperty("java.io.tmpdir"), "books-bench-local");
+
+    @Param({"100000", "1000000"})
+    public long catalogueSize;
+
+    private LocalBooksDb booksDb;
+
+    @Setup
+    public void setUp() throws BooksDbException {
+        booksDb = open(catalogueSize);
+        if (booksDb.getBookCount() != catalogueSize) {
+            // rebuild from scratch
+            booksDb.disconnect();
+            try {
+                Files.deleteIfExists(STORE.resolve("local_" + catalogueSize + ".log"));
+            } catch (IOException e) {
+                throw new BooksDbException("Could not delete the old store", e);
+            }
+            booksDb = open(catalogueSize);
+            booksDb.setSyncOnWrite(false);
+            System.out.println("Seeding " + catalogueSize + " books: "
+                    + booksDb.addBooks(CatalogueGenerator.books(catalogueSize, CatalogueGenerator.DEFAULT_SEED)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws BooksDbException {
+        booksDb.disconnect();
+    }
+
+    private static LocalBooksDb open(long catalogueSize) throws BooksDbException {
+        LocalBooksDb store = new LocalBooksDb(STORE);
+        store.connect("local_" + catalogueSize, "", "");
+        return store;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public int replay() throws BooksDbException {
+        LocalBooksDb replayed = open(catalogueSize);
+        int count = replayed.getBookCount();
+        replayed.disconnect();
+        return count;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void isbnLookup(Blackhole blackhole) throws BooksDbException {
+        String isbn = CatalogueGenerator.isbn(ThreadLocalRandom.current().nextLong(catalogueSize));
+        booksDb.searchBooks(SearchMode.ISBN, MatchMode.Exact, isbn, BookProjection.Full,
+                BooksDbInterface.DEFAULT_BATCH_SIZE, blackhole::consume);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void titleScan(Blackhole blackhole) throws BooksDbException {
+        booksDb.searchBooks(SearchMode.Title, MatchMode.NormalizedPrefix, "the shadow of the river 1", BookProjection.Full,
+                BooksDbInterface.DEFAULT_BATCH_SIZE, blackhole::consume);
+    }
+}
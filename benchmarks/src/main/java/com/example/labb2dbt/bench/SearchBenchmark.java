@@ -0,0 +1,73 @@
+package com.example.labb2dbt.bench;
+
+import com.example.labb2dbt.model.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each search mode in each match mode against a seeded local mongod, including
+ * reading and mapping the whole result. The first run for a catalogue size seeds it,
+ * which takes a while for the larger sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    public long catalogueSize;
+
+    @Param({"Title", "ISBN", "Author", "Genre", "Rating"})
+    public SearchMode mode;
+
+    @Param({"Exact", "Prefix", "NormalizedPrefix", "Substring"})
+    public MatchMode match;
+
+    @Param({"Summary", "Full"})
+    public BookProjection projection;
+
+    private BooksDbImpl booksDb;
+    private String searchFor;
+
+    @Setup
+    public void setUp() throws BooksDbException {
+        booksDb = BenchmarkDatabase.connectSeeded(catalogueSize);
+        searchFor = queryFor(mode, match);
+    }
+
+    @TearDown
+    public void tearDown() throws BooksDbException {
+        booksDb.disconnect();
+    }
+
+    @Benchmark
+    public void search(Blackhole blackhole) throws BooksDbException {
+        booksDb.searchBooks(mode, match, searchFor, projection, BooksDbInterface.DEFAULT_BATCH_SIZE, blackhole::consume);
+    }
+
+    /**
+     * Picks a search string that matches some generated books in the given match mode.
+     */
+    static String queryFor(SearchMode mode, MatchMode match) {
+        boolean exact = match == MatchMode.Exact;
+        switch (mode) {
+            case Title:
+                return exact ? "The Shadow of the River 7" : match == MatchMode.NormalizedPrefix ? "the shadow of" : "The Shadow of";
+            case ISBN:
+                String isbn = CatalogueGenerator.isbn(4711);
+                return exact ? isbn : isbn.substring(0, 10);
+            case Author:
+                return exact ? "Astrid Andersson" : match == MatchMode.NormalizedPrefix ? "bjorn" : "Björn";
+            case Genre:
+                return exact ? "Fantasy" : match == MatchMode.NormalizedPrefix ? "science" : "Science";
+            case Rating:
+            default:
+                return "4";
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.labb2dbt.model;
+
+import com.example.labb2dbt.bench.CatalogueGenerator;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading and writing books through a Document, as BooksDbImpl did for every
+ * search result and insert, with BookCodec, which goes straight between BSON and Book.
+ * The documents are the BSON bytes a server would send, so the decoding is the work the
+ * driver does per result. Run with {@code -prof gc} to see the allocation per book.
+ * Lives in the model package to reach the package-private codecs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class BookCodecBenchmark {
+
+    @Param({"1000", "100000"})
+    public int documents;
+
+    private final Codec<Document> documentCodec = BookDocuments.CODECS.get(Document.class);
+    private final Codec<Book> bookCodec = BookDocuments.CODECS.get(Book.class);
+    private List<Book> books;
+    private List<byte[]> encoded;
+
+    @Setup
+    public void setUp() {
+        books = new ArrayList<>(documents);
+        encoded = new ArrayList<>(documents);
+        for (Book book : CatalogueGenerator.books(documents, CatalogueGenerator.DEFAULT_SEED)) {
+            books.add(book);
+            encoded.add(encode(bookCodec, book));
+        }
+    }
+
+    @Benchmark
+    public void decodeThroughDocument(Blackhole blackhole) {
+        for (byte[] bytes : encoded) {
+            try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes))) {
+                blackhole.consume(BookDocuments.toBook(documentCodec.decode(reader, DecoderContext.builder().build())));
+            }
+        }
+    }
+
+    @Benchmark
+    public void decodeWithBookCodec(Blackhole blackhole) {
+        for (byte[] bytes : encoded) {
+            try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes))) {
+                blackhole.consume(bookCodec.decode(reader, DecoderContext.builder().build()));
+            }
+        }
+    }
+
+    @Benchmark
+    public void encodeThroughDocument(Blackhole blackhole) {
+        for (Book book : books) {
+            blackhole.consume(encode(documentCodec, BookDocuments.toDocument(book)));
+        }
+    }
+
+    @Benchmark
+    public void encodeWithBookCodec(Blackhole blackhole) {
+        for (Book book : books) {
+            blackhole.consume(encode(bookCodec, book));
+        }
+    }
+
+    private static <T> byte[] encode(Codec<T> codec, T value) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer(512);
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            codec.encode(writer, value, EncoderContext.builder().build());
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.labb2dbt.model;
+
+import com.example.labb2dbt.bench.CatalogueGenerator;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the heap held by a decoded search result, with the genres and authors shared
+ * through Genre.of and Author.of as BookCodec decodes them, and with a copy of each per
+ * book, names and dates included, as BookCodec decoded them before. The
+ * retainedMegabytes counter is the heap in use after a full collection with the result
+ * still referenced, minus the heap in use before decoding. The books are encoded without story lines, like the summary results
+ * the table shows, so the counter is not dominated by the text.
+ * Lives in the model package to reach the package-private codecs.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BookInterningBenchmark {
+
+    @Param({"1000000"})
+    public int documents;
+
+    private final Codec<Book> bookCodec = BookDocuments.CODECS.get(Book.class);
+    private List<byte[]> encoded;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Heap {
+        public double retainedMegabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retainedMegabytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        encoded = new ArrayList<>(documents);
+        for (Book book : CatalogueGenerator.books(documents, CatalogueGenerator.DEFAULT_SEED)) {
+            book.setStoryLine(null);
+            encoded.add(encode(book));
+        }
+    }
+
+    @Benchmark
+    public List<Book> decodeShared(Heap heap) {
+        long before = usedAfterGc();
+        List<Book> books = decodeAll();
+        heap.retainedMegabytes = (usedAfterGc() - before) / (1024.0 * 1024.0);
+        return books;
+    }
+
+    @Benchmark
+    public List<Book> decodeCopies(Heap heap) {
+        long before = usedAfterGc();
+        List<Book> books = decodeAll();
+        for (Book book : books) {
+            ArrayList<Genre> genres = new ArrayList<>();
+            // a name and date of their own, like decoding them from each document
+            for (Genre genre : book.getGenres()) genres.add(new Genre(new String(genre.getGenreName())));
+            book.setGenres(genres);
+            List<Author> authors = new ArrayList<>();
+            for (Author author : book.getAuthors()) {
+                LocalDate birthDate = author.getBirthDate();
+                authors.add(new Author(new String(author.getName()),
+                        birthDate == null ? null : LocalDate.ofEpochDay(birthDate.toEpochDay())));
+            }
+            book.setAuthors(authors);
+        }
+        heap.retainedMegabytes = (usedAfterGc() - before) / (1024.0 * 1024.0);
+        return books;
+    }
+
+    private List<Book> decodeAll() {
+        List<Book> books = new ArrayList<>(encoded.size());
+        for (byte[] bytes : encoded) {
+            try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes))) {
+                books.add(bookCodec.decode(reader, DecoderContext.builder().build()));
+            }
+        }
+        return books;
+    }
+
+    private static long usedAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private byte[] encode(Book book) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer(256);
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            bookCodec.encode(writer, book, EncoderContext.builder().build());
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.labb2dbt.model;
+
+import com.example.labb2dbt.bench.CatalogueGenerator;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the document-to-Book mapping done by BooksDbImpl for every search result,
+ * without a database. The documents look like the ones the driver returns: dates as
+ * java.util.Date and embedded genres and authors as nested documents. Lives in the
+ * model package to reach the package-private mapping.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BookMappingBenchmark {
+
+    @Param({"1000"})
+    public int documents;
+
+    private BooksDbImpl booksDb;
+    private List<Document> docs;
+
+    @Setup
+    public void setUp() {
+        booksDb = new BooksDbImpl();
+        docs = new ArrayList<>(documents);
+        for (Book book : CatalogueGenerator.books(documents, CatalogueGenerator.DEFAULT_SEED)) {
+            docs.add(toDriverDocument(book));
+        }
+    }
+
+    @Benchmark
+    public void mapDocuments(Blackhole blackhole) {
+        for (Document doc : docs) {
+            blackhole.consume(booksDb.toBook(doc));
+        }
+    }
+
+    static Document toDriverDocument(Book book) {
+        List<Document> genres = new ArrayList<>();
+        for (Genre genre : book.getGenres()) {
+            genres.add(new Document("name", genre.getGenreName()));
+        }
+        List<Document> authors = new ArrayList<>();
+        for (Author author : book.getAuthors()) {
+            authors.add(new Document("name", author.getName())
+                    .append("dateOfBirth", toDate(author.getBirthDate().atStartOfDay().toInstant(ZoneOffset.UTC))));
+        }
+        return new Document("_id", new org.bson.types.ObjectId())
+                .append("title", book.getTitle())
+                .append("isbn", book.getIsbn())
+                .append("dateOfRelease", toDate(book.getPublished().atStartOfDay().toInstant(ZoneOffset.UTC)))
+                .append("description", book.getStoryLine())
+                .append("rating", book.getRating())
+                .append("genres", genres)
+                .append("authors", authors);
+    }
+
+    private static Date toDate(java.time.Instant instant) {
+        return Date.from(instant);
+    }
+}
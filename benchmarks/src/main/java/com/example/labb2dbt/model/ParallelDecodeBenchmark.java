@@ -0,0 +1,67 @@
+package com.example.labb2dbt.model;
+
+import com.example.labb2dbt.bench.CatalogueGenerator;
+import org.bson.BsonBinaryWriter;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding a large search result with ParallelBookDecoder, as BooksDbImpl does,
+ * for a number of batches decoded at the same time; parallelism 1 is the single-threaded
+ * decoding BooksDbImpl did before. The documents are the raw BSON a cursor hands out, so
+ * reading them costs nothing here and the result shows the decoding alone; against a
+ * server the reading overlaps the decoding as well.
+ * Lives in the model package to reach the package-private codecs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ParallelDecodeBenchmark {
+
+    @Param({"100000"})
+    public int documents;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    @Param({"1000"})
+    public int batchSize;
+
+    private final Codec<Book> bookCodec = BookDocuments.CODECS.get(Book.class);
+    private List<RawBsonDocument> encoded;
+    private ParallelBookDecoder decoder;
+
+    @Setup
+    public void setUp() {
+        encoded = new ArrayList<>(documents);
+        for (Book book : CatalogueGenerator.books(documents, CatalogueGenerator.DEFAULT_SEED)) {
+            encoded.add(new RawBsonDocument(encode(book)));
+        }
+        decoder = new ParallelBookDecoder(bookCodec, ForkJoinPool.commonPool(), parallelism);
+    }
+
+    @Benchmark
+    public long decode(Blackhole blackhole) throws BooksDbException {
+        return decoder.decode(encoded.iterator(), batchSize, book -> { }, blackhole::consume);
+    }
+
+    private byte[] encode(Book book) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer(512);
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            bookCodec.encode(writer, book, EncoderContext.builder().build());
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -2,11 +2,24 @@ package com.example.labb2dbt;
 
 import com.example.labb2dbt.model.BooksDbException;
 import com.example.labb2dbt.model.BooksDbImpl;
+import com.example.labb2dbt.model.BooksDbInterface;
+import com.example.labb2dbt.model.BooksDbMetrics;
+import com.example.labb2dbt.model.CachingBooksDb;
+import com.example.labb2dbt.model.InMemoryBooksDb;
+import com.example.labb2dbt.model.InstrumentedBooksDb;
+import com.example.labb2dbt.model.LocalBooksDb;
+import com.example.labb2dbt.model.MetricsHttpServer;
+import com.example.labb2dbt.model.SlowQueryLog;
+import com.example.labb2dbt.model.WriteBehindBooksDb;
 import com.example.labb2dbt.view.BooksPane;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 /**
  * Application start up.
  *
@@ -17,19 +30,65 @@ public class Main extends Application {
     @Override
     public void start(Stage primaryStage) throws BooksDbException {
 
-        BooksDbImpl booksDb = new BooksDbImpl(); // model
+        // model, with hot searches answered from memory; -Dbooks.db.local=<dir> (or
+        // BOOKS_DB_LOCAL) uses a local store instead of MongoDB, e.g. when offline, and
+        // -Dbooks.db.memory (or BOOKS_DB_MEMORY) a store that is lost on exit
+        String localStore = System.getProperty("books.db.local", System.getenv("BOOKS_DB_LOCAL"));
+        boolean memoryStore = System.getProperty("books.db.memory", System.getenv("BOOKS_DB_MEMORY")) != null;
+        BooksDbInterface backend = localStore != null ? new LocalBooksDb(Path.of(localStore))
+                : memoryStore ? new InMemoryBooksDb() : new BooksDbImpl();
+        BooksDbInterface cached = new CachingBooksDb(backend);
+
+        // -Dbooks.db.slowQueryMillis=<ms> (or BOOKS_DB_SLOW_QUERY_MILLIS) sets when a MongoDB
+        // search is logged as slow; the slowest query shapes are printed on exit
+        String slowQueryMillis = System.getProperty("books.db.slowQueryMillis", System.getenv("BOOKS_DB_SLOW_QUERY_MILLIS"));
+        SlowQueryLog slowQueries = backend instanceof BooksDbImpl mongoBackend ? mongoBackend.getSlowQueryLog() : null;
+        if (slowQueries != null && slowQueryMillis != null) {
+            try {
+                slowQueries.setThresholdMillis(Long.parseLong(slowQueryMillis.trim()));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid slow query threshold " + slowQueryMillis + ": " + e.getMessage());
+            }
+        }
+
+        // -Dbooks.db.metrics=<port> (or BOOKS_DB_METRICS) times every call, publishes the
+        // metrics as JMX MXBeans and serves them to Prometheus on localhost:<port>/metrics
+        String metricsPort = System.getProperty("books.db.metrics", System.getenv("BOOKS_DB_METRICS"));
+        MetricsHttpServer metricsServer = null;
+        BooksDbInterface booksDb = cached;
+        if (metricsPort != null) {
+            BooksDbMetrics metrics = new BooksDbMetrics();
+            if (backend instanceof BooksDbImpl mongoBackend) mongoBackend.addCommandListener(metrics);
+            metrics.registerMBeans();
+            booksDb = new InstrumentedBooksDb(cached, metrics);
+            metricsServer = new MetricsHttpServer(metrics);
+            try {
+                metricsServer.start(Integer.parseInt(metricsPort.trim()));
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Could not serve metrics on port " + metricsPort + ": " + e.getMessage());
+                metricsServer = null;
+            }
+        }
+        // rating changes are buffered and written in batches, see WriteBehindBooksDb
+        final BooksDbInterface openDb = new WriteBehindBooksDb(booksDb);
+        final MetricsHttpServer openMetricsServer = metricsServer;
 
-        BooksPane root = new BooksPane(booksDb);
+        BooksPane root = new BooksPane(openDb);
 
         Scene scene = new Scene(root, 800, 600);
 
         primaryStage.setTitle("Books Database Client");
-        // add an exit handler to the stage (X) ?
+        // the close button and File > Exit: the window stays open until the buffered ratings
+        // are written and the client is disconnected, off the FX thread
         primaryStage.setOnCloseRequest(event -> {
-            try {
-                booksDb.disconnect();
-                System.out.println("disconnected from DB");
-            } catch (Exception e) {}
+            event.consume();
+            root.exit(() -> {
+                if (slowQueries != null && !slowQueries.getTopShapes(1).isEmpty()) {
+                    System.out.print(slowQueries.getReport(10));
+                }
+                if (openMetricsServer != null) openMetricsServer.stop();
+                Platform.exit();
+            });
         });
         primaryStage.setScene(scene);
         primaryStage.show();
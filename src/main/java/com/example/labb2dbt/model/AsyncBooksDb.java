@@ -0,0 +1,165 @@
+package com.example.labb2dbt.model;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * Non-blocking counterpart of {@link BooksDbInterface}. Every operation returns at once
+ * and completes its future, or publishes its books, when the server has answered, so
+ * thousands of operations can be in flight without a thread waiting for each of them.
+ *
+ * Errors complete the futures exceptionally with a BooksDbException, the same exception
+ * the blocking interface throws. The futures compose, e.g. search then update:
+ * <pre>
+ *     booksDb.searchBooks(SearchMode.Title, MatchMode.Exact, title, BookProjection.Summary)
+ *            .thenCompose(books -&gt; booksDb.updateBookRating(books.get(0), 5))
+ *            .orTimeout(2, TimeUnit.SECONDS);
+ * </pre>
+ * Futures and publishers complete on the driver's I/O threads, so dependent stages that
+ * block or take long should be run with the *Async variants on an executor of their own.
+ */
+public interface AsyncBooksDb {
+
+    /**
+     * The time after which an operation fails when no timeout has been set.
+     */
+    Duration DEFAULT_OPERATION_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * Establishes a connection to a MongoDB server and database.
+     *
+     * @param database The database to connect to.
+     * @param username The name of the MongoDB user.
+     * @param password the password of the user.
+     * @return Completes with {@code true} when the server has answered a ping.
+     */
+    CompletableFuture<Boolean> connect(String database, String username, String password);
+
+    /**
+     * Establishes a connection described by a connection profile.
+     *
+     * @param profile The connection profile.
+     * @return Completes with {@code true} when the server has answered a ping.
+     */
+    CompletableFuture<Boolean> connect(ConnectionProfile profile);
+
+    /**
+     * Disconnects from the database. Operations still in flight fail.
+     *
+     * @return Completes when the client has been closed.
+     */
+    CompletableFuture<Void> disconnect();
+
+    /**
+     * Sets the time after which an operation fails with a TimeoutException and its
+     * server-side work is cancelled. Applies to operations started afterwards.
+     *
+     * @param operationTimeout The timeout, positive.
+     */
+    void setOperationTimeout(Duration operationTimeout);
+
+    /**
+     * Adds a new book to the database.
+     *
+     * @param book The book to be added.
+     * @return Completes when the book has been added.
+     */
+    CompletableFuture<Void> addBook(Book book);
+
+    /**
+     * Inserts a new author into the database.
+     *
+     * @param author The author to be added.
+     * @return Completes when the author has been added.
+     */
+    CompletableFuture<Void> addAuthor(Author author);
+
+    /**
+     * Updates the information of an existing book.
+     *
+     * @param isbn The ISBN of the book to update.
+     * @param book The book object containing the updated information.
+     * @return Completes when the book has been updated.
+     */
+    CompletableFuture<Void> updateBook(String isbn, Book book);
+
+    /**
+     * Deletes a book from the database.
+     *
+     * @param book The book to be deleted.
+     * @return Completes when the book has been deleted.
+     */
+    CompletableFuture<Void> deleteBook(Book book);
+
+    /**
+     * Updates the rating of a book in the database.
+     *
+     * @param book      The book to update.
+     * @param newRating The new rating to set for the book.
+     * @return Completes when the rating has been updated.
+     */
+    CompletableFuture<Void> updateBookRating(Book book, int newRating);
+
+    /**
+     * Searches for books and collects the whole result. Cancelling the returned future,
+     * or letting it time out, kills the cursor on the server.
+     *
+     * @param mode       The field to search on.
+     * @param match      How the search string is matched against the field.
+     * @param searchFor  The value to search for.
+     * @param projection Which fields of the books to read.
+     * @return Completes with the matching books.
+     */
+    CompletableFuture<List<Book>> searchBooks(SearchMode mode, MatchMode match, String searchFor, BookProjection projection);
+
+    /**
+     * Searches for books and publishes them as they are read, at the pace the subscriber
+     * requests them. Cancelling the subscription kills the cursor on the server. Nothing
+     * is sent to the server until a subscriber subscribes.
+     *
+     * @param mode       The field to search on.
+     * @param match      How the search string is matched against the field.
+     * @param searchFor  The value to search for.
+     * @param projection Which fields of the books to read.
+     * @param batchSize  The number of books fetched from the server per round trip.
+     * @return The publisher of the matching books.
+     */
+    Flow.Publisher<Book> streamBooks(SearchMode mode, MatchMode match, String searchFor, BookProjection projection, int batchSize);
+
+    /**
+     * Loads the story line and authors of a book returned by a Summary search.
+     *
+     * @param book The book to load the details of.
+     * @return Completes when the details have been set on the book.
+     */
+    CompletableFuture<Void> loadBookDetails(Book book);
+
+    /**
+     * Retrieves all authors.
+     *
+     * @return Completes with all authors in the database.
+     */
+    CompletableFuture<List<Author>> getAllAuthors();
+
+    /**
+     * Sets the rating of every book matching a search, composing the search with one
+     * concurrent update per book. Books that already have the rating are left alone.
+     *
+     * @param mode      The field to search on.
+     * @param match     How the search string is matched against the field.
+     * @param searchFor The value to search for.
+     * @param newRating The new rating.
+     * @return Completes with the number of updated books.
+     */
+    default CompletableFuture<Integer> updateRatings(SearchMode mode, MatchMode match, String searchFor, int newRating) {
+        return searchBooks(mode, match, searchFor, BookProjection.Summary).thenCompose(books -> {
+            List<Book> changed = books.stream().filter(book -> book.getRating() != newRating).toList();
+            CompletableFuture<?>[] updates = changed.stream()
+                    .map(book -> updateBookRating(book, newRating))
+                    .toArray(CompletableFuture[]::new);
+            return CompletableFuture.allOf(updates).thenApply(done -> changed.size());
+        });
+    }
+}
@@ -0,0 +1,294 @@
+package com.example.labb2dbt.model;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+
+/**
+ * Implementation of AsyncBooksDb on the MongoDB Reactive Streams driver. It reads and
+ * writes the same documents as BooksDbImpl, which also provisions the indexes and
+ * normalized fields the searches rely on, so the two can be used on the same database.
+ *
+ * The driver multiplexes all operations over its connection pool with a few I/O threads;
+ * an operation waiting for a free connection holds no thread.
+ */
+public class AsyncBooksDbImpl implements AsyncBooksDb {
+
+    private volatile MongoClient mongoClient;
+    private volatile MongoCollection<Document> booksCollection;
+    private volatile MongoCollection<Document> authorsCollection;
+    private volatile Duration operationTimeout = DEFAULT_OPERATION_TIMEOUT;
+    private volatile PoolStatistics poolStatistics;
+    // lets a Summary result load its details on demand, blocking the caller like BooksDbImpl does
+    private final BookDetailsLoader detailsLoader = book -> ReactiveFutures.await(loadBookDetails(book));
+
+    /**
+     * Connects to the MongoDB Atlas cluster of the application.
+     *
+     * @param dbName   The name of the MongoDB database to connect to.
+     * @param username The username for authentication.
+     * @param password The password for authentication.
+     * @return Completes with true when the server has answered.
+     */
+    @Override
+    public CompletableFuture<Boolean> connect(String dbName, String username, String password) {
+        return connect(ConnectionProfile.atlas(dbName, username, password));
+    }
+
+    /**
+     * Connects to the MongoDB database using a connection string, e.g. "mongodb://localhost:27017".
+     *
+     * @param uri    The MongoDB connection string.
+     * @param dbName The name of the MongoDB database to connect to.
+     * @return Completes with true when the server has answered.
+     */
+    public CompletableFuture<Boolean> connectToUri(String uri, String dbName) {
+        try {
+            return connect(ConnectionProfile.builder(uri).database(dbName).build());
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new BooksDbException("Invalid connection string", e));
+        }
+    }
+
+    /**
+     * Connects to the MongoDB database described by a connection profile, e.g. with the
+     * connection pool sized for the number of operations kept in flight.
+     *
+     * @param profile The connection profile.
+     * @return Completes with true when the server has answered.
+     */
+    @Override
+    public CompletableFuture<Boolean> connect(ConnectionProfile profile) {
+        String dbName = profile.getDatabase();
+        PoolStatistics statistics = new PoolStatistics();
+        MongoClient client;
+        try {
+            client = MongoClients.create(profile.toSettings(statistics));
+        } catch (MongoException e) {
+            return CompletableFuture.failedFuture(new BooksDbException("Could not connect to MongoDB database", e));
+        }
+        MongoDatabase database = client.getDatabase(dbName);
+        return ReactiveFutures.first(database.runCommand(new Document("ping", 1)), operationTimeout,
+                        "Could not connect to MongoDB database")
+                .handle((pong, error) -> {
+                    if (error != null) {
+                        client.close();
+                        throw new CompletionException(error);
+                    }
+                    this.booksCollection = database.getCollection("books");
+                    this.authorsCollection = database.getCollection("authors");
+                    this.mongoClient = client;
+                    this.poolStatistics = statistics;
+                    System.out.println("Connected asynchronously to database: " + dbName);
+                    return true;
+                });
+    }
+
+    /**
+     * Closes the client. Operations still in flight fail.
+     *
+     * @return Completes when the client has been closed.
+     */
+    @Override
+    public CompletableFuture<Void> disconnect() {
+        MongoClient client = mongoClient;
+        if (client == null) {
+            return CompletableFuture.failedFuture(new BooksDbException("Not connected to the database"));
+        }
+        mongoClient = null;
+        booksCollection = null;
+        authorsCollection = null;
+        try {
+            client.close();
+            return CompletableFuture.completedFuture(null);
+        } catch (MongoException e) {
+            return CompletableFuture.failedFuture(new BooksDbException("Error closing MongoDB connection", e));
+        }
+    }
+
+    @Override
+    public void setOperationTimeout(Duration operationTimeout) {
+        if (operationTimeout.isZero() || operationTimeout.isNegative()) {
+            throw new IllegalArgumentException("operationTimeout must be positive");
+        }
+        this.operationTimeout = operationTimeout;
+    }
+
+    /**
+     * Gets the connection pool statistics of the current connection.
+     *
+     * @return The statistics, or null if never connected.
+     */
+    public PoolStatistics getPoolStatistics() {
+        return poolStatistics;
+    }
+
+    /**
+     * Gets the time after which an operation fails.
+     *
+     * @return The operation timeout.
+     */
+    public Duration getOperationTimeout() {
+        return operationTimeout;
+    }
+
+    @Override
+    public CompletableFuture<Void> addBook(Book book) {
+        return withBooks(books -> ReactiveFutures.first(books.insertOne(BookDocuments.toDocument(book)), operationTimeout,
+                "Error adding book to MongoDB database").thenApply(inserted -> null));
+    }
+
+    @Override
+    public CompletableFuture<Void> addAuthor(Author author) {
+        MongoCollection<Document> authors = authorsCollection;
+        if (authors == null) return notConnected();
+        return ReactiveFutures.first(authors.insertOne(BookDocuments.toDocument(author)), operationTimeout,
+                "Error adding author to MongoDB database").thenApply(inserted -> null);
+    }
+
+    @Override
+    public CompletableFuture<Void> updateBook(String isbn, Book book) {
+        return withBooks(books -> ReactiveFutures.first(books.updateOne(Filters.eq("isbn", isbn), BookDocuments.toUpdate(book)),
+                        operationTimeout, "Error updating book in MongoDB database")
+                .thenCompose(result -> checkUpdated(result, isbn, "Book not updated for ISBN: ")));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteBook(Book book) {
+        String isbn = book.getIsbn();
+        return withBooks(books -> ReactiveFutures.first(books.deleteOne(Filters.eq("isbn", isbn)), operationTimeout,
+                        "Error deleting book from MongoDB database")
+                .thenCompose(result -> checkDeleted(result, isbn)));
+    }
+
+    @Override
+    public CompletableFuture<Void> updateBookRating(Book book, int newRating) {
+        String isbn = book.getIsbn();
+        return withBooks(books -> ReactiveFutures.first(books.updateOne(Filters.eq("isbn", isbn), Updates.set("rating", newRating)),
+                        operationTimeout, "Error updating book rating in MongoDB database")
+                .thenCompose(result -> checkUpdated(result, isbn, "Book rating not updated for ISBN: ")));
+    }
+
+    @Override
+    public CompletableFuture<List<Book>> searchBooks(SearchMode mode, MatchMode match, String searchFor, BookProjection projection) {
+        return withBooks(books -> {
+            FindPublisher<Document> found = find(books, mode, match, searchFor, projection);
+            return ReactiveFutures.toList(found, operationTimeout, "Error searching books by " + mode)
+                    .thenApply(docs -> docs.stream().map(doc -> toBook(doc, projection)).toList());
+        });
+    }
+
+    @Override
+    public Flow.Publisher<Book> streamBooks(SearchMode mode, MatchMode match, String searchFor, BookProjection projection, int batchSize) {
+        MongoCollection<Document> books = booksCollection;
+        BooksDbException error = books == null ? new BooksDbException("Not connected to the database")
+                : batchSize < 1 ? new BooksDbException("Invalid batch size: " + batchSize) : null;
+        FindPublisher<Document> found = null;
+        if (error == null) {
+            try {
+                found = find(books, mode, match, searchFor, projection).batchSize(batchSize);
+            } catch (BooksDbException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            return ReactiveFutures.failed(error);
+        }
+        return ReactiveFutures.map(found, doc -> toBook(doc, projection), "Error searching books by " + mode);
+    }
+
+    @Override
+    public CompletableFuture<Void> loadBookDetails(Book book) {
+        return withBooks(books -> ReactiveFutures.first(books.find(Filters.eq("isbn", book.getIsbn())).projection(BookDocuments.DETAIL_FIELDS).first(),
+                        operationTimeout, "Error loading book details from MongoDB database")
+                .thenCompose(doc -> {
+                    if (doc == null) {
+                        return CompletableFuture.failedFuture(new BooksDbException("No book found with ISBN: " + book.getIsbn()));
+                    }
+                    book.setDetails(doc.getString("description"), BookDocuments.toAuthors(doc));
+                    return CompletableFuture.completedFuture(null);
+                }));
+    }
+
+    @Override
+    public CompletableFuture<List<Author>> getAllAuthors() {
+        MongoCollection<Document> authors = authorsCollection;
+        if (authors == null) return notConnected();
+        return ReactiveFutures.toList(authors.find().projection(BookDocuments.AUTHOR_FIELDS), operationTimeout,
+                        "Error retrieving authors from MongoDB database")
+                .thenApply(docs -> docs.stream().map(BookDocuments::toAuthor).toList());
+    }
+
+    /**
+     * Starts an operation on the books collection, or fails at once when not connected.
+     * A BooksDbException thrown while building the query fails the future as well.
+     */
+    private <T> CompletableFuture<T> withBooks(BooksOperation<T> operation) {
+        MongoCollection<Document> books = booksCollection;
+        if (books == null) return notConnected();
+        try {
+            return operation.start(books);
+        } catch (BooksDbException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface BooksOperation<T> {
+        CompletableFuture<T> start(MongoCollection<Document> books) throws BooksDbException;
+    }
+
+    private FindPublisher<Document> find(MongoCollection<Document> books, SearchMode mode, MatchMode match,
+                                         String searchFor, BookProjection projection) throws BooksDbException {
+        Bson filter = BookDocuments.filterFor(mode, match, searchFor);
+        FindPublisher<Document> found = books.find(filter);
+        if (projection == BookProjection.Summary) {
+            found = found.projection(BookDocuments.SUMMARY_FIELDS);
+        }
+        return found;
+    }
+
+    private Book toBook(Document doc, BookProjection projection) {
+        Book book = BookDocuments.toBook(doc);
+        if (projection == BookProjection.Summary) {
+            book.setDetailsLoader(detailsLoader);
+        }
+        return book;
+    }
+
+    private static CompletableFuture<Void> checkUpdated(UpdateResult result, String isbn, String notModifiedMessage) {
+        if (result.getMatchedCount() == 0) {
+            return CompletableFuture.failedFuture(new BooksDbException("No book found with ISBN: " + isbn));
+        }
+        if (result.getModifiedCount() == 0) {
+            return CompletableFuture.failedFuture(new BooksDbException(notModifiedMessage + isbn));
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private static CompletableFuture<Void> checkDeleted(DeleteResult result, String isbn) {
+        if (result.getDeletedCount() == 0) {
+            return CompletableFuture.failedFuture(new BooksDbException("No book found with ISBN: " + isbn));
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private static <T> CompletableFuture<T> notConnected() {
+        return CompletableFuture.failedFuture(new BooksDbException("Not connected to the database"));
+    }
+}
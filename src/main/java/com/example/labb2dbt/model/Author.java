@@ -6,8 +6,15 @@ import java.util.ArrayList;
 /**
  * The Author class represents an author of books.
  * It contains information such as author ID, name, birthdate, and a list of books associated with the author.
+ * The books read from a database share one Author per name and birthdate, see {@link #of}.
  */
 public class Author {
+
+    private record Key(String name, LocalDate birthDate) {
+    }
+
+    private static final Interner<Key, Author> SHARED =
+            new Interner<>(key -> new Author(key.name(), key.birthDate()));
     private int authorId;
     private String name;
     private LocalDate birthDate;
@@ -37,6 +44,28 @@ public class Author {
         this.birthDate = birthDate;
     }
 
+    /**
+     * Gets the Author shared by all books of an author, creating it for an author not
+     * seen before. A shared Author is kept as long as some book refers to it; it must
+     * not be changed, since the change would show in all those books.
+     *
+     * @param name      The name of the author.
+     * @param birthDate The birthdate of the author, or null if unknown.
+     * @return The shared Author, or a new one if the name is null.
+     */
+    public static Author of(String name, LocalDate birthDate) {
+        return name == null ? new Author(null, birthDate) : SHARED.intern(new Key(name, birthDate));
+    }
+
+    /**
+     * Gets the number of shared authors still in use.
+     *
+     * @return The number of authors.
+     */
+    static int sharedCount() {
+        return SHARED.size();
+    }
+
     /**
      * Gets the name of the author.
      *
@@ -47,7 +76,7 @@ public class Author {
     }
 
     /**
-     * Sets the name of the author.
+     * Sets the name of the author. Not for an Author returned by {@link #of}.
      *
      * @param name The new name of the author.
      */
@@ -65,7 +94,7 @@ public class Author {
     }
 
     /**
-     * Sets the birthdate of the author.
+     * Sets the birthdate of the author. Not for an Author returned by {@link #of}.
      *
      * @param birthDate The new birthdate of the author.
      */
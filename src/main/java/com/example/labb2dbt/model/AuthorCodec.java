@@ -0,0 +1,104 @@
+package com.example.labb2dbt.model;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.time.LocalDate;
+
+/**
+ * Reads and writes author documents straight between BSON and Author objects, with the
+ * same layout as BookDocuments.toDocument(Author). Also used by BookCodec for the
+ * authors embedded in a book, which carry a normalized name as well.
+ */
+final class AuthorCodec implements Codec<Author> {
+
+    @Override
+    public void encode(BsonWriter writer, Author author, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "name", author.getName());
+        writeDate(writer, "dateOfBirth", author.getBirthDate());
+        writer.writeEndDocument();
+    }
+
+    /**
+     * Writes an author embedded in a book, including the normalized name searched by
+     * NormalizedPrefix author searches.
+     */
+    void encodeEmbedded(BsonWriter writer, Author author) {
+        writer.writeStartDocument();
+        writeString(writer, "name", author.getName());
+        writeString(writer, "nameNorm", SearchNormalizer.normalize(author.getName()));
+        writeDate(writer, "dateOfBirth", author.getBirthDate());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Author decode(BsonReader reader, DecoderContext decoderContext) {
+        String name = null;
+        LocalDate dateOfBirth = null;
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "name":
+                    name = readString(reader);
+                    break;
+                case "dateOfBirth":
+                    dateOfBirth = readDate(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return Author.of(name, dateOfBirth);
+    }
+
+    @Override
+    public Class<Author> getEncoderClass() {
+        return Author.class;
+    }
+
+    /**
+     * Writes a string field, or null.
+     */
+    static void writeString(BsonWriter writer, String name, String value) {
+        if (value == null) {
+            writer.writeNull(name);
+        } else {
+            writer.writeString(name, value);
+        }
+    }
+
+    /**
+     * Writes a date field as midnight UTC, like the driver's LocalDate codec, or null.
+     */
+    static void writeDate(BsonWriter writer, String name, LocalDate value) {
+        if (value == null) {
+            writer.writeNull(name);
+        } else {
+            writer.writeDateTime(name, value.toEpochDay() * BookDocuments.MILLIS_PER_DAY);
+        }
+    }
+
+    /**
+     * Reads the current string value, or null if it is not a string.
+     */
+    static String readString(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.STRING) return reader.readString();
+        reader.skipValue();
+        return null;
+    }
+
+    /**
+     * Reads the current date value as a date in the system time zone, or null if it is not a date.
+     */
+    static LocalDate readDate(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.DATE_TIME) return BookDocuments.toLocalDate(reader.readDateTime());
+        reader.skipValue();
+        return null;
+    }
+}
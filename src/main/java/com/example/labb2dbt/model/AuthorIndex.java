@@ -0,0 +1,108 @@
+package com.example.labb2dbt.model;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * An in-memory, prefix-searchable index of all authors, used by the author picker so
+ * the Add Book dialog never has to read the authors collection. Each author is indexed
+ * under the normalized full name and under the start of every later word in the name,
+ * so "tol" finds "J.R.R. Tolkien". Searching is a range scan over a sorted map and
+ * costs the same whether the index holds a hundred or a million authors.
+ * <p>
+ * The index is safe to search from the FX thread while it is loaded or updated
+ * from a background thread.
+ */
+public class AuthorIndex {
+
+    // separates the search key from a unique suffix, and sorts before any real character
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private final ConcurrentSkipListMap<String, Author> index = new ConcurrentSkipListMap<>();
+    private volatile boolean loaded;
+
+    /**
+     * Replaces the contents of the index with all authors of a database. Meant to
+     * run in the background; searches return the old contents until it is done.
+     *
+     * @param booksDb The database to read the authors from.
+     * @throws BooksDbException If the authors cannot be read.
+     */
+    public void load(BooksDbInterface booksDb) throws BooksDbException {
+        List<Author> authors = booksDb.getAllAuthors();
+        Set<String> keys = new HashSet<>();
+        for (Author author : authors) {
+            keys.addAll(add(author));
+        }
+        // drop authors removed from the database since a previous load
+        index.keySet().retainAll(keys);
+        loaded = true;
+    }
+
+    /**
+     * Adds an author, e.g. right after it was added to the database.
+     *
+     * @param author The author.
+     * @return The keys the author was indexed under.
+     */
+    public List<String> add(Author author) {
+        String unique = KEY_SEPARATOR + author.getName() + KEY_SEPARATOR + author.getBirthDate();
+        List<String> keys = new ArrayList<>();
+        for (String term : termsOf(author.getName())) {
+            String key = term + unique;
+            index.put(key, author);
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    /**
+     * Finds authors whose name, or a word in it, starts with the given text, ignoring case
+     * and accents. Authors matching on the start of the full name come first.
+     *
+     * @param prefix The text typed so far.
+     * @param limit  The maximum number of authors to return.
+     * @return The matching authors, in name order.
+     */
+    public List<Author> search(String prefix, int limit) {
+        String normalized = SearchNormalizer.normalize(prefix == null ? "" : prefix);
+        Map<String, Author> found = new LinkedHashMap<>();
+        for (Author author : index.subMap(normalized, true, normalized + Character.MAX_VALUE, true).values()) {
+            found.putIfAbsent(author.getName() + KEY_SEPARATOR + author.getBirthDate(), author);
+            if (found.size() == limit) break;
+        }
+        return new ArrayList<>(found.values());
+    }
+
+    /**
+     * Checks whether the index has been loaded from the database at least once.
+     *
+     * @return {@code true} once the first load has finished.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Gets the number of distinct authors in the index.
+     *
+     * @return The author count.
+     */
+    public long size() {
+        return index.values().stream().distinct().count();
+    }
+
+    /**
+     * Gets the terms an author name is indexed under: the normalized name and its suffixes
+     * starting at each later word.
+     */
+    private static List<String> termsOf(String name) {
+        List<String> terms = new ArrayList<>();
+        String normalized = SearchNormalizer.normalize(name == null ? "" : name);
+        terms.add(normalized);
+        for (int i = normalized.indexOf(' '); i >= 0; i = normalized.indexOf(' ', i + 1)) {
+            terms.add(normalized.substring(i + 1));
+        }
+        return terms;
+    }
+}
@@ -2,16 +2,24 @@ package com.example.labb2dbt.model;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Representation of a book.
+ * <p>
+ * Code reading a book often, e.g. to draw it, reads its {@link #snapshot}, which is
+ * kept until the book changes; new and edited books are made with a {@link Builder}.
  *
  * @author anderslm@kth.se
  */
 public class Book {
 
+    private static final AtomicIntegerFieldUpdater<Book> VERSION =
+            AtomicIntegerFieldUpdater.newUpdater(Book.class, "version");
+
     private int bookId;
     private String isbn;
     private String title;
@@ -22,6 +30,14 @@ public class Book {
     private ArrayList<Genre> genres;
     private ArrayList<Author> authors;
 
+    // story line and authors are left out of Summary searches and loaded on first access
+    private boolean detailsLoaded = true;
+    private BookDetailsLoader detailsLoader;
+
+    // counts the changes, so a snapshot made before a change is not handed out after it
+    private volatile int version;
+    private volatile BookSnapshot snapshot;
+
     /**
      * Constructs a Book object with the specified book ID, ISBN, title, and published date.
      *
@@ -60,6 +76,7 @@ public class Book {
      */
     public void setRating(int rating) {
         this.rating = rating;
+        changed();
     }
 
     /**
@@ -82,6 +99,7 @@ public class Book {
      */
     public void setBookId(int bookId) {
         this.bookId = bookId;
+        changed();
     }
 
     /**
@@ -91,6 +109,7 @@ public class Book {
      */
     public void setGenres(ArrayList<Genre> genres) {
         this.genres = genres;
+        changed();
     }
 
     /**
@@ -100,6 +119,7 @@ public class Book {
      */
     public void setAuthors(List<Author> authors) {
         this.authors = new ArrayList<>(authors);
+        changed();
     }
 
     /**
@@ -135,23 +155,84 @@ public class Book {
         return published;
     }
     /**
-     * Gets the story line of the book.
+     * Gets the story line of the book. If the book came from a Summary search,
+     * the story line is loaded from the database on the first call.
      *
      * @return The story line of the book.
      */
     public String getStoryLine() {
+        ensureDetailsLoaded();
         return this.storyLine;
     }
 
     /**
-     * Gets a copy of the list of authors associated with the book.
+     * Gets a copy of the list of authors associated with the book. If the book came
+     * from a Summary search, the authors are loaded from the database on the first call.
      *
      * @return A copy of the list of authors.
      */
     public ArrayList<Author> getAuthors() {
+        ensureDetailsLoaded();
         return new ArrayList<>(authors);
     }
 
+    /**
+     * Gets the authors associated with the book without copying them. If the book came
+     * from a Summary search, the authors are loaded from the database on the first call.
+     *
+     * @return An unmodifiable view of the list of authors.
+     */
+    public List<Author> getAuthorsView() {
+        ensureDetailsLoaded();
+        return Collections.unmodifiableList(authors);
+    }
+
+    /**
+     * Marks the story line and authors as not loaded yet, to be fetched with the
+     * given loader on first access.
+     *
+     * @param detailsLoader The loader fetching the details from the database.
+     */
+    public synchronized void setDetailsLoader(BookDetailsLoader detailsLoader) {
+        this.detailsLoader = detailsLoader;
+        this.detailsLoaded = false;
+        changed();
+    }
+
+    /**
+     * Checks whether the story line and authors are loaded, so reading them
+     * does not cause a database round-trip.
+     *
+     * @return {@code true} if the details are loaded.
+     */
+    public synchronized boolean isDetailsLoaded() {
+        return detailsLoaded;
+    }
+
+    /**
+     * Sets the story line and authors loaded from the database and marks the details as loaded.
+     *
+     * @param storyLine The story line.
+     * @param authors   The authors.
+     */
+    public synchronized void setDetails(String storyLine, List<Author> authors) {
+        this.storyLine = storyLine;
+        this.authors = new ArrayList<>(authors);
+        this.detailsLoaded = true;
+        this.detailsLoader = null;
+        changed();
+    }
+
+    private synchronized void ensureDetailsLoaded() {
+        if (detailsLoaded || detailsLoader == null) return;
+        try {
+            detailsLoader.loadBookDetails(this);
+        } catch (BooksDbException e) {
+            // keep the loader so the next access tries again
+            System.err.println("Could not load details of book " + isbn + ": " + e.getMessage());
+        }
+    }
+
     /**
      * Adds an author to the list of authors associated with the book.
      *
@@ -159,6 +240,7 @@ public class Book {
      */
     public void addAuthor(Author author) {
         if (!authors.contains(author)) authors.add(author);
+        changed();
     }
 
     /**
@@ -168,6 +250,7 @@ public class Book {
      */
     public void removeAuthor(Author author) {
         authors.remove(author);
+        changed();
     }
 
     /**
@@ -177,6 +260,7 @@ public class Book {
      */
     public void addGenre(Genre genre) {
         if (!genres.contains(genre)) genres.add(genre);
+        changed();
     }
 
     /**
@@ -186,6 +270,7 @@ public class Book {
      */
     public void removeGenre(Genre genre) {
         genres.remove(genre);
+        changed();
     }
 
     /**
@@ -197,6 +282,15 @@ public class Book {
         return new ArrayList<>(genres);
     }
 
+    /**
+     * Gets the genres associated with the book without copying them.
+     *
+     * @return An unmodifiable view of the list of genres.
+     */
+    public List<Genre> getGenresView() {
+        return Collections.unmodifiableList(genres);
+    }
+
     /**
      * Sets the story line of the book.
      *
@@ -204,6 +298,7 @@ public class Book {
      */
     public void setStoryLine(String storyLine) {
         this.storyLine = storyLine;
+        changed();
     }
     /**
      * Sets the published date of the book.
@@ -212,6 +307,7 @@ public class Book {
      */
     public void setPublished(LocalDate published) {
         this.published = published;
+        changed();
     }
 
     /**
@@ -221,6 +317,7 @@ public class Book {
      */
     public void setIsbn(String isbn) {
         this.isbn = isbn;
+        changed();
     }
 
     /**
@@ -230,6 +327,7 @@ public class Book {
      */
     public void setTitle(String title) {
         this.title = title;
+        changed();
     }
     /**
      * Gets the rating of the book.
@@ -241,14 +339,76 @@ public class Book {
     }
 
     /**
-     * Gets the genres associated with the book as a string.
+     * Gets the genres associated with the book as a string, built once per change of the book.
      *
      * @return A string representation of the genres, separated by commas.
      */
     public String getGenresAsString() {
-        return genres.stream()
-                .map(Genre::getGenreName) // Assuming Genre has a getGenreName() method
-                .collect(Collectors.joining(", "));
+        return snapshot().getGenresAsString();
+    }
+
+    /**
+     * Gets the loaded authors of the book as a string, built once per change of the book.
+     *
+     * @return The author names, separated by commas, empty if the details are not loaded.
+     */
+    public String getAuthorsAsString() {
+        return snapshot().getAuthorsAsString();
+    }
+
+    /**
+     * Gets an unchangeable copy of the fields of the book. The copy is kept and handed
+     * out again until the book changes, so reading a book that did not change allocates
+     * nothing. The details are not loaded for it.
+     *
+     * @return The snapshot.
+     */
+    public BookSnapshot snapshot() {
+        int current = version;
+        BookSnapshot cached = snapshot;
+        if (cached != null && cached.getVersion() == current) return cached;
+        boolean loaded = detailsLoaded;
+        cached = new BookSnapshot(current, bookId, isbn, title, published, rating,
+                loaded ? storyLine : null, loaded, genres, loaded ? authors : List.of());
+        snapshot = cached;
+        return cached;
+    }
+
+    /**
+     * Creates a builder for a Book with the fields of this one, e.g. to edit it.
+     * The details are loaded first if they are not.
+     *
+     * @return The builder.
+     * @throws IllegalStateException If the details could not be loaded; a Book built
+     *                               without them would overwrite them when written back.
+     */
+    public Builder toBuilder() {
+        ensureDetailsLoaded();
+        if (!isDetailsLoaded()) {
+            throw new IllegalStateException("The details of book " + isbn + " could not be loaded");
+        }
+        return builder()
+                .bookId(bookId)
+                .isbn(isbn)
+                .title(title)
+                .published(published)
+                .rating(rating)
+                .storyLine(getStoryLine())
+                .genres(genres)
+                .authors(getAuthorsView());
+    }
+
+    /**
+     * Creates a builder for a new Book.
+     *
+     * @return The builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private void changed() {
+        VERSION.incrementAndGet(this);
     }
     /**
      * Provides a string representation of the Book object.
@@ -268,5 +428,122 @@ public class Book {
                 '}';
     }
 
+    /**
+     * Builds a Book, e.g. from the fields of an edit dialog.
+     */
+    public static final class Builder {
+        private int bookId;
+        private String isbn;
+        private String title;
+        private LocalDate published;
+        private String storyLine;
+        private int rating;
+        private final ArrayList<Genre> genres = new ArrayList<>();
+        private final ArrayList<Author> authors = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the book ID.
+         *
+         * @param bookId The book ID.
+         * @return This builder.
+         */
+        public Builder bookId(int bookId) {
+            this.bookId = bookId;
+            return this;
+        }
 
+        /**
+         * Sets the ISBN.
+         *
+         * @param isbn The ISBN.
+         * @return This builder.
+         */
+        public Builder isbn(String isbn) {
+            this.isbn = isbn;
+            return this;
+        }
+
+        /**
+         * Sets the title.
+         *
+         * @param title The title.
+         * @return This builder.
+         */
+        public Builder title(String title) {
+            this.title = title;
+            return this;
+        }
+
+        /**
+         * Sets the published date.
+         *
+         * @param published The published date.
+         * @return This builder.
+         */
+        public Builder published(LocalDate published) {
+            this.published = published;
+            return this;
+        }
+
+        /**
+         * Sets the story line.
+         *
+         * @param storyLine The story line.
+         * @return This builder.
+         */
+        public Builder storyLine(String storyLine) {
+            this.storyLine = storyLine;
+            return this;
+        }
+
+        /**
+         * Sets the rating.
+         *
+         * @param rating The rating.
+         * @return This builder.
+         */
+        public Builder rating(int rating) {
+            this.rating = rating;
+            return this;
+        }
+
+        /**
+         * Replaces the genres.
+         *
+         * @param genres The genres.
+         * @return This builder.
+         */
+        public Builder genres(Collection<Genre> genres) {
+            this.genres.clear();
+            this.genres.addAll(genres);
+            return this;
+        }
+
+        /**
+         * Replaces the authors.
+         *
+         * @param authors The authors.
+         * @return This builder.
+         */
+        public Builder authors(Collection<Author> authors) {
+            this.authors.clear();
+            this.authors.addAll(authors);
+            return this;
+        }
+
+        /**
+         * Builds the Book. The builder can be changed and used again afterwards.
+         *
+         * @return The new Book.
+         */
+        public Book build() {
+            Book book = new Book(bookId, isbn, title, published, new ArrayList<>(genres), new ArrayList<>(authors));
+            book.storyLine = storyLine;
+            book.rating = rating;
+            return book;
+        }
+    }
 }
@@ -0,0 +1,52 @@
+package com.example.labb2dbt.model;
+
+/**
+ * A change of a book in the database, made by this or another client, as delivered to
+ * the listener of {@link BooksDbInterface#watchBooks}.
+ *
+ * @param kind         What happened to the book.
+ * @param isbn         The ISBN of the book; null for a Reset.
+ * @param previousIsbn The ISBN before an Update, if it changed and is known, otherwise null.
+ * @param book         The book after an Insert or Update, otherwise null.
+ */
+public record BookChange(Kind kind, String isbn, String previousIsbn, Book book) {
+
+    /**
+     * What happened to a book.
+     */
+    public enum Kind {
+        Insert, Update, Delete,
+        /**
+         * Changes were missed or could not be tied to a book, e.g. a delete without
+         * a pre-image or a stream resumed too late; whatever was read must be read again.
+         */
+        Reset
+    }
+
+    static BookChange inserted(Book book) {
+        return new BookChange(Kind.Insert, book.getIsbn(), null, book);
+    }
+
+    static BookChange updated(Book book, String previousIsbn) {
+        return new BookChange(Kind.Update, book.getIsbn(),
+                previousIsbn == null || previousIsbn.equals(book.getIsbn()) ? null : previousIsbn, book);
+    }
+
+    static BookChange deleted(String isbn) {
+        return new BookChange(Kind.Delete, isbn, null, null);
+    }
+
+    static BookChange reset() {
+        return new BookChange(Kind.Reset, null, null, null);
+    }
+
+    /**
+     * Gets the ISBN the book had before this change, i.e. the one to look for among
+     * the books read earlier.
+     *
+     * @return The previous ISBN if it changed, otherwise the ISBN.
+     */
+    public String getOldIsbn() {
+        return previousIsbn != null ? previousIsbn : isbn;
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.labb2dbt.model;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import org.bson.BsonDocument;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Reads the change stream of the books collection on a daemon thread and delivers each
+ * change as a BookChange. Updates come with the whole book, looked up by the server,
+ * and, when the collection keeps pre-images, the ISBN the book had before; deletes can
+ * only be tied to an ISBN through the pre-image and are delivered as a Reset otherwise.
+ * <p>
+ * The stream resumes after its last resume token when the connection fails, so no
+ * change is lost or delivered twice; when the server no longer has the changes since
+ * that token, a Reset is delivered and the stream starts over from the present.
+ * Change streams need a replica set, e.g. a single-node one for a local server.
+ */
+class BookChangeStream implements BookSubscription {
+
+    private static final long MAX_AWAIT_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+    // the errors after which retrying is pointless
+    private static final int NOT_A_REPLICA_SET = 40573;
+    private static final int UNAUTHORIZED = 13;
+    // the errors after which the resume token is useless
+    private static final int HISTORY_LOST = 286;
+    private static final int FATAL = 280;
+
+    private final MongoCollection<Book> books;
+    private final Consumer<BookChange> listener;
+    private final Consumer<BooksDbException> errors;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private BsonDocument resumeToken; // accessed by the stream thread only
+
+    BookChangeStream(MongoCollection<Book> books, Consumer<BookChange> listener, Consumer<BooksDbException> errors) {
+        this.books = books;
+        this.listener = listener;
+        this.errors = errors;
+        this.thread = new Thread(this::run, "books-change-stream");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+    }
+
+    private void run() {
+        long retryDelay = 0;
+        while (running) {
+            ChangeStreamIterable<Book> stream = books.watch()
+                    .fullDocument(FullDocument.UPDATE_LOOKUP)
+                    .fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE)
+                    .maxAwaitTime(MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS);
+            if (resumeToken != null) {
+                stream.resumeAfter(resumeToken);
+            }
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Book>> cursor = stream.cursor()) {
+                retryDelay = 0;
+                while (running) {
+                    ChangeStreamDocument<Book> event = cursor.tryNext();
+                    // also advanced by empty batches, so a resume skips what was already seen
+                    resumeToken = cursor.getResumeToken();
+                    if (event != null && !deliver(event)) {
+                        break;
+                    }
+                }
+            } catch (MongoException e) {
+                if (!running) return;
+                int code = e instanceof MongoCommandException command ? command.getErrorCode() : e.getCode();
+                if (code == NOT_A_REPLICA_SET || code == UNAUTHORIZED) {
+                    running = false;
+                    errors.accept(new BooksDbException("Live updates are not available: " + e.getMessage(), e));
+                    return;
+                }
+                if (code == HISTORY_LOST || code == FATAL) {
+                    resumeToken = null;
+                    listener.accept(BookChange.reset());
+                }
+                retryDelay = Math.min(MAX_RETRY_DELAY_MILLIS, Math.max(1000, retryDelay * 2));
+                System.err.println("Change stream failed, retrying in " + retryDelay + " ms: " + e.getMessage());
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            } catch (RuntimeException e) {
+                // e.g. the client was closed while the cursor was read
+                if (!running) return;
+                running = false;
+                errors.accept(new BooksDbException("Live updates stopped", e));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Delivers an event.
+     *
+     * @return false if the stream was invalidated and must be opened again.
+     */
+    private boolean deliver(ChangeStreamDocument<Book> event) {
+        Book before = event.getFullDocumentBeforeChange();
+        switch (event.getOperationType()) {
+            case INSERT:
+                listener.accept(BookChange.inserted(event.getFullDocument()));
+                return true;
+            case UPDATE:
+            case REPLACE:
+                Book after = event.getFullDocument();
+                if (after == null) {
+                    // deleted before the lookup, the delete follows
+                    return true;
+                }
+                if (before == null && isbnUpdated(event.getUpdateDescription())) {
+                    // the row showing the old ISBN cannot be found
+                    listener.accept(BookChange.reset());
+                } else {
+                    listener.accept(BookChange.updated(after, before == null ? null : before.getIsbn()));
+                }
+                return true;
+            case DELETE:
+                listener.accept(before != null ? BookChange.deleted(before.getIsbn()) : BookChange.reset());
+                return true;
+            case DROP:
+            case RENAME:
+            case DROP_DATABASE:
+            case INVALIDATE:
+                listener.accept(BookChange.reset());
+                resumeToken = null;
+                return event.getOperationType() != OperationType.INVALIDATE;
+            default:
+                return true;
+        }
+    }
+
+    private static boolean isbnUpdated(UpdateDescription update) {
+        // a replacement has no update description and may change anything
+        return update == null || update.getUpdatedFields() == null || update.getUpdatedFields().containsKey("isbn");
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.labb2dbt.model;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+
+import static com.example.labb2dbt.model.AuthorCodec.*;
+
+/**
+ * Reads and writes book documents straight between BSON and Book objects, with the
+ * same layout as BookDocuments.toDocument(Book), including the normalized shadow fields.
+ * Decoding skips the Document tree the default codec builds for every result, and the
+ * java.util.Date values it holds; fields left out by a projection keep their defaults,
+ * like in BookDocuments.toBook(Document).
+ */
+final class BookCodec implements Codec<Book> {
+
+    private final AuthorCodec authorCodec;
+
+    BookCodec(AuthorCodec authorCodec) {
+        this.authorCodec = authorCodec;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Book book, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "title", book.getTitle());
+        writeString(writer, "isbn", book.getIsbn());
+        writeDate(writer, "dateOfRelease", book.getPublished());
+        writeString(writer, "description", book.getStoryLine());
+        writer.writeInt32("rating", book.getRating());
+        // normalized shadow fields used by the NormalizedPrefix search mode
+        writeString(writer, "titleNorm", SearchNormalizer.normalize(book.getTitle()));
+        writeString(writer, "isbnNorm", SearchNormalizer.normalizeIsbn(book.getIsbn()));
+
+        writer.writeStartArray("genres");
+        for (Genre genre : book.getGenresView()) {
+            writer.writeStartDocument();
+            writeString(writer, "name", genre.getGenreName());
+            writeString(writer, "nameNorm", SearchNormalizer.normalize(genre.getGenreName()));
+            writer.writeEndDocument();
+        }
+        writer.writeEndArray();
+        writer.writeStartArray("authors");
+        for (Author author : book.getAuthorsView()) {
+            authorCodec.encodeEmbedded(writer, author);
+        }
+        writer.writeEndArray();
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Book decode(BsonReader reader, DecoderContext decoderContext) {
+        String title = null;
+        String isbn = null;
+        LocalDate dateOfRelease = null;
+        String description = null;
+        int rating = 0;
+        ArrayList<Genre> genres = null;
+        ArrayList<Author> authors = null;
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "title":
+                    title = readString(reader);
+                    break;
+                case "isbn":
+                    isbn = readString(reader);
+                    break;
+                case "dateOfRelease":
+                    dateOfRelease = readDate(reader);
+                    break;
+                case "description":
+                    description = readString(reader);
+                    break;
+                case "rating":
+                    rating = readRating(reader);
+                    break;
+                case "genres":
+                    genres = readGenres(reader);
+                    break;
+                case "authors":
+                    authors = readAuthors(reader, decoderContext);
+                    break;
+                default:
+                    // _id and the normalized shadow fields
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        Book book = new Book(0, isbn, title, dateOfRelease,
+                genres != null ? genres : new ArrayList<>(), authors != null ? authors : new ArrayList<>());
+        book.setStoryLine(description);
+        book.setRating(rating);
+        return book;
+    }
+
+    @Override
+    public Class<Book> getEncoderClass() {
+        return Book.class;
+    }
+
+    private static int readRating(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return (int) reader.readInt64();
+            case DOUBLE:
+                return (int) reader.readDouble();
+            default:
+                reader.skipValue();
+                return 0;
+        }
+    }
+
+    private static ArrayList<Genre> readGenres(BsonReader reader) {
+        if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+        ArrayList<Genre> genres = new ArrayList<>();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = null;
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                if (reader.readName().equals("name")) {
+                    name = readString(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.readEndDocument();
+            genres.add(Genre.of(name));
+        }
+        reader.readEndArray();
+        return genres;
+    }
+
+    private ArrayList<Author> readAuthors(BsonReader reader, DecoderContext decoderContext) {
+        if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+        ArrayList<Author> authors = new ArrayList<>();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            authors.add(authorCodec.decode(reader, decoderContext));
+        }
+        reader.readEndArray();
+        return authors;
+    }
+}
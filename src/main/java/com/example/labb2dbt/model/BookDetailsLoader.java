@@ -0,0 +1,18 @@
+package com.example.labb2dbt.model;
+
+/**
+ * Loads the fields a Summary search leaves out, i.e. the story line and the
+ * authors, into a book. Implemented by the database that returned the book.
+ */
+@FunctionalInterface
+public interface BookDetailsLoader {
+
+    /**
+     * Loads the story line and authors of a book and sets them with
+     * {@link Book#setDetails(String, java.util.List)}.
+     *
+     * @param book The book to load the details of.
+     * @throws BooksDbException If an error occurs while reading from the database.
+     */
+    void loadBookDetails(Book book) throws BooksDbException;
+}
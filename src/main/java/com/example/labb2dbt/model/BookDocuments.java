@@ -0,0 +1,424 @@
+package com.example.labb2dbt.model;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The MongoDB document layout of books and authors, and the query filters of the
+ * searches. Shared by the blocking and the asynchronous implementation so both
+ * read and write exactly the same documents.
+ */
+final class BookDocuments {
+
+    static final ZoneId ZONE = ZoneId.systemDefault();
+
+    static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    // the offset of a zone without daylight saving time, so dates are converted with arithmetic alone
+    private static final ZoneOffset FIXED_OFFSET = ZONE.getRules().isFixedOffset()
+            ? ZONE.getRules().getOffset(Instant.EPOCH)
+            : null;
+
+    /**
+     * The codecs reading and writing books and authors without a Document in between,
+     * in front of the driver's default codecs.
+     */
+    static final CodecRegistry CODECS = createCodecs();
+
+    /**
+     * The fields read by a Summary search, i.e. the ones shown in the table.
+     */
+    static final Bson SUMMARY_FIELDS = Projections.include("title", "isbn", "dateOfRelease", "rating", "genres.name");
+
+    /**
+     * The fields read when the details of a Summary search result are loaded.
+     */
+    static final Bson DETAIL_FIELDS = Projections.include("description", "authors.name", "authors.dateOfBirth");
+
+    /**
+     * The fields read when all authors are listed.
+     */
+    static final Bson AUTHOR_FIELDS = Projections.fields(Projections.include("name", "dateOfBirth"), Projections.excludeId());
+
+    private BookDocuments() {
+    }
+
+    private static CodecRegistry createCodecs() {
+        AuthorCodec authorCodec = new AuthorCodec();
+        return CodecRegistries.fromRegistries(
+                CodecRegistries.fromCodecs(new BookCodec(authorCodec), authorCodec),
+                MongoClientSettings.getDefaultCodecRegistry());
+    }
+
+    /**
+     * Creates the MongoDB document of a book, including the normalized shadow fields.
+     *
+     * @param book The book.
+     * @return The document.
+     */
+    static Document toDocument(Book book) {
+        Document doc = new Document();
+        doc.put("title", book.getTitle());
+        doc.put("isbn", book.getIsbn());
+        doc.put("dateOfRelease", book.getPublished());
+        doc.put("description", book.getStoryLine());
+        doc.put("rating", book.getRating());
+        // normalized shadow fields used by the NormalizedPrefix search mode
+        doc.put("titleNorm", SearchNormalizer.normalize(book.getTitle()));
+        doc.put("isbnNorm", SearchNormalizer.normalizeIsbn(book.getIsbn()));
+
+        doc.put("genres", toGenreDocuments(book));
+        doc.put("authors", toAuthorDocuments(book));
+        return doc;
+    }
+
+    /**
+     * Creates the MongoDB document of an author.
+     *
+     * @param author The author.
+     * @return The document.
+     */
+    static Document toDocument(Author author) {
+        return new Document()
+                .append("name", author.getName())
+                .append("dateOfBirth", author.getBirthDate());
+    }
+
+    /**
+     * Creates the update that replaces all fields of a book with the given values.
+     *
+     * @param book The book holding the new values.
+     * @return The update.
+     */
+    static Bson toUpdate(Book book) {
+        return Updates.combine(
+                Updates.set("title", book.getTitle()),
+                Updates.set("isbn", book.getIsbn()),
+                Updates.set("dateOfRelease", book.getPublished()),
+                Updates.set("description", book.getStoryLine()),
+                Updates.set("rating", book.getRating()),
+                Updates.set("titleNorm", SearchNormalizer.normalize(book.getTitle())),
+                Updates.set("isbnNorm", SearchNormalizer.normalizeIsbn(book.getIsbn())),
+                Updates.set("genres", toGenreDocuments(book)),
+                Updates.set("authors", toAuthorDocuments(book))
+        );
+    }
+
+    /**
+     * Creates the embedded genre documents of a book, including the normalized names.
+     */
+    static List<Document> toGenreDocuments(Book book) {
+        List<Document> genreList = new ArrayList<>();
+        for (Genre g : book.getGenresView()) {
+            genreList.add(new Document("name", g.getGenreName())
+                    .append("nameNorm", SearchNormalizer.normalize(g.getGenreName())));
+        }
+        return genreList;
+    }
+
+    /**
+     * Creates the embedded author documents of a book, including the normalized names.
+     */
+    static List<Document> toAuthorDocuments(Book book) {
+        List<Document> authorList = new ArrayList<>();
+        for (Author a : book.getAuthorsView()) {
+            authorList.add(new Document("name", a.getName())
+                    .append("nameNorm", SearchNormalizer.normalize(a.getName()))
+                    .append("dateOfBirth", a.getBirthDate()));
+        }
+        return authorList;
+    }
+
+    /**
+     * Creates the query filter for a search.
+     *
+     * @param mode      The field to search on.
+     * @param match     How the search string is matched against the field.
+     * @param searchFor The value to search for.
+     * @return The filter.
+     * @throws BooksDbException If the value is not valid for the search mode.
+     */
+    static Bson filterFor(SearchMode mode, MatchMode match, String searchFor) throws BooksDbException {
+        switch (mode) {
+            case Title:
+                return textFilter("title", "titleNorm", match, searchFor, SearchNormalizer.normalize(searchFor));
+            case ISBN:
+                return textFilter("isbn", "isbnNorm", match, searchFor, SearchNormalizer.normalizeIsbn(searchFor));
+            case Author:
+                return textFilter("authors.name", "authors.nameNorm", match, searchFor, SearchNormalizer.normalize(searchFor));
+            case Genre:
+                return textFilter("genres.name", "genres.nameNorm", match, searchFor, SearchNormalizer.normalize(searchFor));
+            case Rating:
+                // ratings are always matched exactly
+                try {
+                    return Filters.eq("rating", Integer.parseInt(searchFor.trim()));
+                } catch (NumberFormatException e) {
+                    throw new BooksDbException("Invalid rating format: " + searchFor, e);
+                }
+            default:
+                throw new BooksDbException("Unsupported search mode: " + mode);
+        }
+    }
+
+    /**
+     * Creates the query filter for a combined search. Nested combinations of the same
+     * kind are flattened, so the server sees one $and or $or it can plan with the
+     * indexes of its branches. A query with a position also gets the keyset condition.
+     *
+     * @param query The search.
+     * @return The filter, empty if the query has no criteria.
+     * @throws BooksDbException If a text criterion is not valid for its field.
+     */
+    static Bson filterFor(BookQuery query) throws BooksDbException {
+        Bson criteria = filterFor(query.getCriterion());
+        if (query.getAfter() == null) return criteria;
+        Bson keyset = keysetFilter(query);
+        return criteria.toBsonDocument().isEmpty() ? keyset : Filters.and(criteria, keyset);
+    }
+
+    /**
+     * Creates the condition for the books after the position of a query in its order
+     * (sort field, isbn). Missing values sort first, so they come last when descending.
+     * Release dates are stored as instants and read as dates of the local time zone, so
+     * a date stands for all instants of that day.
+     */
+    private static Bson keysetFilter(BookQuery query) {
+        BookQuery.Position after = query.getAfter();
+        boolean descending = query.isDescending();
+        String isbn = after.isbn();
+        Bson isbnAfter = descending ? Filters.lt("isbn", isbn) : Filters.gt("isbn", isbn);
+        String field = sortFieldOf(query.getSortField());
+        if (query.getSortField() == BookQuery.SortField.ISBN) {
+            return isbnAfter;
+        }
+        if (after.key() == null) {
+            return descending
+                    ? Filters.and(Filters.eq(field, null), isbnAfter)
+                    : Filters.or(Filters.ne(field, null), Filters.and(Filters.eq(field, null), isbnAfter));
+        }
+        Bson same;
+        Bson before;
+        Bson beyond;
+        if (after.key() instanceof LocalDate date) {
+            Date start = Date.from(date.atStartOfDay(ZONE).toInstant());
+            Date end = Date.from(date.plusDays(1).atStartOfDay(ZONE).toInstant());
+            same = new Document(field, new Document("$gte", start).append("$lt", end));
+            before = Filters.lt(field, start);
+            beyond = Filters.gte(field, end);
+        } else {
+            same = Filters.eq(field, after.key());
+            before = Filters.lt(field, after.key());
+            beyond = Filters.gt(field, after.key());
+        }
+        return descending
+                ? Filters.or(before, Filters.eq(field, null), Filters.and(same, isbnAfter))
+                : Filters.or(beyond, Filters.and(same, isbnAfter));
+    }
+
+    private static Bson filterFor(BookQuery.Criterion criterion) throws BooksDbException {
+        if (criterion instanceof BookQuery.TextCriterion text) {
+            return filterFor(text.field(), text.match(), text.value());
+        } else if (criterion instanceof BookQuery.RatingRange range) {
+            return range.min() == range.max()
+                    ? Filters.eq("rating", range.min())
+                    : rangeFilter("rating", range.min(), range.max());
+        } else if (criterion instanceof BookQuery.PublishedRange range) {
+            return rangeFilter("dateOfRelease", range.from(), range.to());
+        }
+        boolean all = criterion instanceof BookQuery.AllOf;
+        List<Bson> filters = new ArrayList<>();
+        addFilters(criterion, all, filters);
+        if (filters.isEmpty()) return Filters.empty();
+        if (filters.size() == 1) return filters.get(0);
+        return all ? Filters.and(filters) : Filters.or(filters);
+    }
+
+    private static void addFilters(BookQuery.Criterion criterion, boolean all, List<Bson> filters) throws BooksDbException {
+        List<BookQuery.Criterion> parts = all
+                ? ((BookQuery.AllOf) criterion).criteria()
+                : ((BookQuery.AnyOf) criterion).criteria();
+        for (BookQuery.Criterion part : parts) {
+            if (all ? part instanceof BookQuery.AllOf : part instanceof BookQuery.AnyOf) {
+                addFilters(part, all, filters);
+            } else {
+                filters.add(filterFor(part));
+            }
+        }
+    }
+
+    /**
+     * Creates a filter on both bounds of a range as one condition on the field,
+     * so the server scans a single index range.
+     */
+    private static Bson rangeFilter(String field, Object min, Object max) {
+        Document bounds = new Document();
+        if (min != null) bounds.append("$gte", min);
+        if (max != null) bounds.append("$lte", max);
+        return new Document(field, bounds);
+    }
+
+    /**
+     * Creates the sort of a combined search, ties broken by ISBN so that the order,
+     * and thereby a limited result or a page, is stable.
+     *
+     * @param query The search.
+     * @return The sort, or null if the order does not matter.
+     */
+    static Bson sortFor(BookQuery query) {
+        if (query.getSortField() == null) return null;
+        String field = sortFieldOf(query.getSortField());
+        if (query.getSortField() == BookQuery.SortField.ISBN) {
+            return query.isDescending() ? Sorts.descending(field) : Sorts.ascending(field);
+        }
+        // the ties are reversed too, so the compound (field, isbn) index serves both orders
+        return query.isDescending() ? Sorts.descending(field, "isbn") : Sorts.ascending(field, "isbn");
+    }
+
+    private static String sortFieldOf(BookQuery.SortField sortField) {
+        switch (sortField) {
+            case Title:
+                return "titleNorm";
+            case ISBN:
+                return "isbn";
+            case Published:
+                return "dateOfRelease";
+            case Rating:
+            default:
+                return "rating";
+        }
+    }
+
+    /**
+     * Creates the filter for a text field. Paths into the embedded author and genre
+     * arrays match if any element matches, and can use multikey indexes.
+     *
+     * @param field           The field holding the original value.
+     * @param normalizedField The shadow field holding the normalized value.
+     * @param match           How the search string is matched against the field.
+     * @param searchFor       The search string.
+     * @param normalized      The search string normalized the same way as the shadow field.
+     * @return The filter.
+     * @throws BooksDbException If the search string is empty after normalization.
+     */
+    private static Bson textFilter(String field, String normalizedField, MatchMode match, String searchFor, String normalized) throws BooksDbException {
+        switch (match) {
+            case Exact:
+                return Filters.eq(field, searchFor);
+            case Prefix:
+                return Filters.regex(field, SearchNormalizer.prefixRegex(searchFor));
+            case NormalizedPrefix:
+                if (normalized.isEmpty()) {
+                    throw new BooksDbException("Nothing to search for in: " + searchFor);
+                }
+                return Filters.regex(normalizedField, SearchNormalizer.prefixRegex(normalized));
+            case Substring:
+            default:
+                // Using regex to perform a case-insensitive search anywhere in the field
+                try {
+                    return Filters.regex(field, Pattern.compile(searchFor, Pattern.CASE_INSENSITIVE));
+                } catch (PatternSyntaxException e) {
+                    throw new BooksDbException("Invalid search pattern: " + searchFor, e);
+                }
+        }
+    }
+
+    /**
+     * Converts a MongoDB document representing a book to a Book object.
+     *
+     * @param doc The document to convert.
+     * @return The Book object.
+     */
+    static Book toBook(Document doc) {
+        String title = doc.getString("title");
+        String isbn = doc.getString("isbn");
+        Date dateOfRelease = doc.getDate("dateOfRelease");
+        String description = doc.getString("description");
+        int rating = doc.getInteger("rating", 0);
+
+        // Convert Date to LocalDate
+        LocalDate localDateOfRelease = toLocalDate(dateOfRelease);
+
+        Book book = new Book(isbn, title, localDateOfRelease);
+        book.setStoryLine(description);
+        book.setRating(rating);
+
+        // Process genres if they are present in the document
+        List<Document> genreDocs = doc.getList("genres", Document.class);
+        if (genreDocs != null) {
+            ArrayList<Genre> genres = new ArrayList<>();
+            for (Document genreDoc : genreDocs) {
+                genres.add(Genre.of(genreDoc.getString("name")));
+            }
+            book.setGenres(genres);
+        }
+        book.setAuthors(toAuthors(doc));
+
+        return book;
+    }
+
+    /**
+     * Converts the embedded author documents of a book document to Author objects.
+     *
+     * @param doc The book document.
+     * @return The authors, empty if the document has none or they were not projected.
+     */
+    static List<Author> toAuthors(Document doc) {
+        List<Author> authors = new ArrayList<>();
+        for (Document authorDoc : doc.getList("authors", Document.class, new ArrayList<>())) {
+            authors.add(toAuthor(authorDoc));
+        }
+        return authors;
+    }
+
+    /**
+     * Converts an author document, stand-alone or embedded in a book, to an Author object.
+     *
+     * @param doc The author document.
+     * @return The Author object.
+     */
+    static Author toAuthor(Document doc) {
+        Date dateOfBirth = doc.getDate("dateOfBirth");
+        return Author.of(doc.getString("name"), dateOfBirth == null ? null : toLocalDate(dateOfBirth));
+    }
+
+    /**
+     * Converts a Date object to a LocalDate object in the system time zone.
+     *
+     * @param date The Date object to be converted.
+     * @return The LocalDate representation of the input Date.
+     */
+    static LocalDate toLocalDate(Date date) {
+        return toLocalDate(date.getTime());
+    }
+
+    /**
+     * Converts a BSON date, in milliseconds since the epoch, to a LocalDate in the system time zone.
+     *
+     * @param millis The milliseconds since the epoch.
+     * @return The LocalDate.
+     */
+    static LocalDate toLocalDate(long millis) {
+        if (FIXED_OFFSET != null) {
+            return LocalDate.ofEpochDay(Math.floorDiv(millis + FIXED_OFFSET.getTotalSeconds() * 1000L, MILLIS_PER_DAY));
+        }
+        // LocalDate.ofInstant skips building a ZonedDateTime, and the zone is looked up once
+        return LocalDate.ofInstant(Instant.ofEpochMilli(millis), ZONE);
+    }
+}
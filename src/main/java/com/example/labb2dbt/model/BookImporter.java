@@ -0,0 +1,240 @@
+package com.example.labb2dbt.model;
+
+import org.bson.Document;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Imports books from a CSV or JSON Lines file through {@link BooksDbInterface#addBooks(Iterable)}.
+ * The file is read lazily while the batches are written, so files of any size can be imported.
+ * Lines that cannot be parsed are reported as failures and skipped.
+ * <p>
+ * CSV files start with the header line {@code isbn,title,published,rating,genres,authors,description}.
+ * Genres and authors are separated by semicolons, and an author may be followed by a birth date,
+ * e.g. {@code J.R.R. Tolkien|1892-01-03}. Fields containing commas are enclosed in double quotes,
+ * with quotes inside them doubled. Quoted fields cannot span lines.
+ * <p>
+ * JSON Lines files hold one book per line, e.g.
+ * {@code {"isbn": "...", "title": "...", "published": "1954-07-29", "rating": 5,
+ * "genres": ["Fantasy"], "authors": [{"name": "J.R.R. Tolkien", "dateOfBirth": "1892-01-03"}],
+ * "description": "..."}}.
+ */
+public class BookImporter {
+
+    private static final String[] CSV_HEADER = {"isbn", "title", "published", "rating", "genres", "authors", "description"};
+
+    private final BooksDbInterface booksDb;
+
+    /**
+     * Constructs a BookImporter writing to the given database.
+     *
+     * @param booksDb The database to add the books to.
+     */
+    public BookImporter(BooksDbInterface booksDb) {
+        this.booksDb = booksDb;
+    }
+
+    /**
+     * Imports a file, choosing the format from the file extension: .csv for CSV,
+     * anything else is read as JSON Lines.
+     *
+     * @param file The file to import.
+     * @return The result of the import, including lines that could not be parsed.
+     * @throws BooksDbException If the file cannot be read or the import fails as a whole.
+     */
+    public BulkImportResult importFile(Path file) throws BooksDbException {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv")
+                ? importCsv(file)
+                : importJsonLines(file);
+    }
+
+    /**
+     * Imports a CSV file.
+     *
+     * @param file The file to import.
+     * @return The result of the import, including lines that could not be parsed.
+     * @throws BooksDbException If the file cannot be read or the import fails as a whole.
+     */
+    public BulkImportResult importCsv(Path file) throws BooksDbException {
+        return importLines(file, true);
+    }
+
+    /**
+     * Imports a JSON Lines file.
+     *
+     * @param file The file to import.
+     * @return The result of the import, including lines that could not be parsed.
+     * @throws BooksDbException If the file cannot be read or the import fails as a whole.
+     */
+    public BulkImportResult importJsonLines(Path file) throws BooksDbException {
+        return importLines(file, false);
+    }
+
+    private BulkImportResult importLines(Path file, boolean csv) throws BooksDbException {
+        List<String> parseErrors = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (csv) {
+                String header = reader.readLine();
+                if (header == null || !Arrays.equals(parseCsvLine(header.trim()).toArray(), CSV_HEADER)) {
+                    throw new BooksDbException("Unexpected CSV header in " + file + ", expected " + String.join(",", CSV_HEADER));
+                }
+            }
+            BulkImportResult result = booksDb.addBooks(() -> new BookIterator(reader, csv, parseErrors));
+            for (String error : parseErrors) {
+                result.addFailure(-1, null, error);
+            }
+            return result;
+        } catch (IOException | UncheckedIOException e) {
+            throw new BooksDbException("Error reading " + file, e instanceof IOException ? (IOException) e : ((UncheckedIOException) e).getCause());
+        }
+    }
+
+    /**
+     * Reads one book per line, skipping blank and unparsable lines.
+     */
+    private static class BookIterator implements Iterator<Book> {
+        private final BufferedReader reader;
+        private final boolean csv;
+        private final List<String> parseErrors;
+        private int lineNo;
+        private Book next;
+
+        BookIterator(BufferedReader reader, boolean csv, List<String> parseErrors) {
+            this.reader = reader;
+            this.csv = csv;
+            this.parseErrors = parseErrors;
+            this.lineNo = csv ? 1 : 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    String line = reader.readLine();
+                    if (line == null) return false;
+                    lineNo++;
+                    if (line.isBlank()) continue;
+                    try {
+                        next = csv ? parseCsvBook(line) : parseJsonBook(line);
+                    } catch (RuntimeException e) {
+                        parseErrors.add("line " + lineNo + ": " + e.getMessage());
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Book next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Book book = next;
+            next = null;
+            return book;
+        }
+    }
+
+    static Book parseCsvBook(String line) {
+        List<String> fields = parseCsvLine(line);
+        if (fields.size() != CSV_HEADER.length) {
+            throw new IllegalArgumentException("expected " + CSV_HEADER.length + " fields but found " + fields.size());
+        }
+        Book book = new Book(fields.get(0), fields.get(1), parseDate(fields.get(2)));
+        book.setRating(fields.get(3).isBlank() ? 0 : Integer.parseInt(fields.get(3).trim()));
+
+        ArrayList<Genre> genres = new ArrayList<>();
+        for (String name : splitList(fields.get(4))) {
+            genres.add(new Genre(name));
+        }
+        book.setGenres(genres);
+
+        List<Author> authors = new ArrayList<>();
+        for (String author : splitList(fields.get(5))) {
+            int separator = author.indexOf('|');
+            authors.add(separator < 0
+                    ? new Author(author, null)
+                    : new Author(author.substring(0, separator).trim(), parseDate(author.substring(separator + 1))));
+        }
+        book.setAuthors(authors);
+        book.setStoryLine(fields.get(6));
+        return book;
+    }
+
+    static Book parseJsonBook(String line) {
+        Document doc = Document.parse(line);
+        Book book = new Book(doc.getString("isbn"), doc.getString("title"), parseDate(doc.getString("published")));
+        book.setRating(doc.getInteger("rating", 0));
+
+        ArrayList<Genre> genres = new ArrayList<>();
+        for (String name : doc.getList("genres", String.class, new ArrayList<>())) {
+            genres.add(new Genre(name));
+        }
+        book.setGenres(genres);
+
+        List<Author> authors = new ArrayList<>();
+        for (Document authorDoc : doc.getList("authors", Document.class, new ArrayList<>())) {
+            authors.add(new Author(authorDoc.getString("name"), parseDate(authorDoc.getString("dateOfBirth"))));
+        }
+        book.setAuthors(authors);
+        book.setStoryLine(doc.getString("description"));
+        return book;
+    }
+
+    private static LocalDate parseDate(String text) {
+        if (text == null || text.isBlank()) return null;
+        try {
+            return LocalDate.parse(text.trim());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("invalid date: " + text, e);
+        }
+    }
+
+    private static List<String> splitList(String field) {
+        List<String> values = new ArrayList<>();
+        for (String value : field.split(";")) {
+            if (!value.isBlank()) values.add(value.trim());
+        }
+        return values;
+    }
+
+    /**
+     * Splits a CSV line into fields, handling double-quoted fields with doubled quotes inside.
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quoted field");
+        fields.add(field.toString());
+        return fields;
+    }
+}
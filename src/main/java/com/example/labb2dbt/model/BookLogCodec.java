@@ -0,0 +1,175 @@
+package com.example.labb2dbt.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The binary layout of the payloads in the log of LocalBooksDb. A book payload starts
+ * with the ISBN so the log can be replayed without decoding whole books. Strings are a
+ * length followed by UTF-8 bytes, -1 for null; dates are epoch days, Long.MIN_VALUE for null.
+ */
+final class BookLogCodec {
+
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private BookLogCodec() {
+    }
+
+    /**
+     * Encodes a book: isbn, title, published, rating, story line, genres and authors.
+     */
+    static byte[] encodeBook(Book book) {
+        return encode(out -> writeBook(out, book));
+    }
+
+    /**
+     * Encodes a book replacing the book with another ISBN: the old ISBN, then the book.
+     */
+    static byte[] encodeReplacement(String oldIsbn, Book book) {
+        return encode(out -> {
+            writeString(out, oldIsbn);
+            writeBook(out, book);
+        });
+    }
+
+    /**
+     * Encodes the ISBN of a deleted book.
+     */
+    static byte[] encodeIsbn(String isbn) {
+        return encode(out -> writeString(out, isbn));
+    }
+
+    /**
+     * Encodes an author: name and birth date.
+     */
+    static byte[] encodeAuthor(Author author) {
+        return encode(out -> writeAuthor(out, author));
+    }
+
+    /**
+     * Decodes a book, advancing the buffer past it.
+     */
+    static Book decodeBook(ByteBuffer in) {
+        String isbn = readString(in);
+        String title = readString(in);
+        LocalDate published = readDate(in);
+        Book book = new Book(isbn, title, published);
+        book.setRating(in.getInt());
+        book.setStoryLine(readString(in));
+        int genreCount = in.getInt();
+        ArrayList<Genre> genres = new ArrayList<>(genreCount);
+        for (int i = 0; i < genreCount; i++) {
+            genres.add(Genre.of(readString(in)));
+        }
+        book.setGenres(genres);
+        int authorCount = in.getInt();
+        List<Author> authors = new ArrayList<>(authorCount);
+        for (int i = 0; i < authorCount; i++) {
+            authors.add(decodeAuthor(in));
+        }
+        book.setAuthors(authors);
+        return book;
+    }
+
+    /**
+     * Decodes only the leading fields of a book: isbn, title, published and rating.
+     * Enough to match title, ISBN and rating searches without decoding the rest.
+     */
+    static Book decodeBookHead(ByteBuffer in) {
+        String isbn = readString(in);
+        String title = readString(in);
+        Book book = new Book(isbn, title, readDate(in));
+        book.setRating(in.getInt());
+        return book;
+    }
+
+    /**
+     * Decodes an author, advancing the buffer past it.
+     */
+    static Author decodeAuthor(ByteBuffer in) {
+        String name = readString(in);
+        return Author.of(name, readDate(in));
+    }
+
+    /**
+     * Reads a string, advancing the buffer past it. Used to read the leading ISBN of a payload.
+     */
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(in.position(), bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static LocalDate readDate(ByteBuffer in) {
+        long epochDay = in.getLong();
+        return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    private static void writeBook(DataOutputStream out, Book book) throws IOException {
+        writeString(out, book.getIsbn());
+        writeString(out, book.getTitle());
+        writeDate(out, book.getPublished());
+        out.writeInt(book.getRating());
+        writeString(out, book.getStoryLine());
+        List<Genre> genres = book.getGenresView();
+        out.writeInt(genres.size());
+        for (Genre genre : genres) {
+            writeString(out, genre.getGenreName());
+        }
+        List<Author> authors = book.getAuthorsView();
+        out.writeInt(authors.size());
+        for (Author author : authors) {
+            writeAuthor(out, author);
+        }
+    }
+
+    private static void writeAuthor(DataOutputStream out, Author author) throws IOException {
+        writeString(out, author.getName());
+        writeDate(out, author.getBirthDate());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeDate(DataOutputStream out, LocalDate date) throws IOException {
+        out.writeLong(date == null ? NO_DATE : date.toEpochDay());
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(Writer writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not throw
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.labb2dbt.model;
+
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Decides in memory whether a book matches a search, with the same semantics as the
+ * queries BooksDbImpl sends to MongoDB: author and genre searches match if any of the
+ * book's authors or genres match, NormalizedPrefix compares SearchNormalizer output,
+ * Substring is a case-insensitive regex and ratings are always compared exactly.
+ */
+public final class BookMatcher {
+
+    private final SearchMode mode;
+    private final MatchMode match;
+    private final String searchFor;
+    private final String normalized;
+    private final Pattern pattern;
+    private final int rating;
+
+    private BookMatcher(SearchMode mode, MatchMode match, String searchFor) throws BooksDbException {
+        if (mode == SearchMode.FullText) {
+            // ranked searches depend on the whole catalogue, not on one book
+            throw new BooksDbException("Unsupported search mode: " + mode);
+        }
+        this.mode = mode;
+        this.match = match;
+        this.searchFor = searchFor;
+        this.normalized = mode == SearchMode.ISBN
+                ? SearchNormalizer.normalizeIsbn(searchFor)
+                : SearchNormalizer.normalize(searchFor);
+        try {
+            this.pattern = match == MatchMode.Substring && mode != SearchMode.Rating
+                    ? Pattern.compile(searchFor, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)
+                    : null;
+        } catch (PatternSyntaxException e) {
+            throw new BooksDbException("Invalid search pattern: " + searchFor, e);
+        }
+        try {
+            this.rating = mode == SearchMode.Rating ? Integer.parseInt(searchFor.trim()) : 0;
+        } catch (NumberFormatException e) {
+            throw new BooksDbException("Invalid rating format: " + searchFor, e);
+        }
+    }
+
+    /**
+     * Creates a matcher for a search.
+     *
+     * @param mode      The field to search on.
+     * @param match     How the search string is matched against the field.
+     * @param searchFor The value to search for.
+     * @return The matcher.
+     * @throws BooksDbException If the value is not valid for the search mode,
+     *                          or the search mode is FullText.
+     */
+    public static BookMatcher of(SearchMode mode, MatchMode match, String searchFor) throws BooksDbException {
+        return new BookMatcher(mode, match, searchFor);
+    }
+
+    /**
+     * Checks whether a book matches the search. Author searches read the book's authors,
+     * which loads them if the book came from a Summary search.
+     *
+     * @param book The book.
+     * @return {@code true} if the book would be part of the search result.
+     */
+    public boolean matches(Book book) {
+        switch (mode) {
+            case Title:
+                return matchesValue(book.getTitle());
+            case ISBN:
+                return matchesValue(book.getIsbn());
+            case Author:
+                return book.getAuthorsView().stream().anyMatch(author -> matchesValue(author.getName()));
+            case Genre:
+                List<Genre> genres = book.getGenresView();
+                return genres.stream().anyMatch(genre -> matchesValue(genre.getGenreName()));
+            case Rating:
+                return book.getRating() == rating;
+            default:
+                return false;
+        }
+    }
+
+    private boolean matchesValue(String value) {
+        if (value == null) return false;
+        switch (match) {
+            case Exact:
+                return value.equals(searchFor);
+            case Prefix:
+                return value.startsWith(searchFor);
+            case NormalizedPrefix:
+                String normalizedValue = mode == SearchMode.ISBN
+                        ? SearchNormalizer.normalizeIsbn(value)
+                        : SearchNormalizer.normalize(value);
+                return !normalized.isEmpty() && normalizedValue.startsWith(normalized);
+            case Substring:
+            default:
+                return pattern.matcher(value).find();
+        }
+    }
+
+    /**
+     * Gets the field this matcher searches on.
+     *
+     * @return The search mode.
+     */
+    public SearchMode getMode() {
+        return mode;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.labb2dbt.model;
+
+/**
+ * Enumeration representing which fields of a book a search loads.
+ */
+public enum BookProjection {
+    /**
+     * Only the fields shown in the books table: title, ISBN, release date, rating and genres.
+     * The story line and authors are fetched on first access, see {@link Book#getStoryLine()}.
+     */
+    Summary,
+    /** All fields. */
+    Full
+}
@@ -0,0 +1,552 @@
+package com.example.labb2dbt.model;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * A search combining several criteria, e.g. genre Fantasy, rating at least 4 and an author
+ * containing "Tolkien", with an order and a limit. BooksDbImpl sends it as a single query,
+ * so the server can use its indexes instead of the client filtering several results.
+ * <pre>
+ *     BookQuery query = BookQuery.builder()
+ *             .genre(MatchMode.Exact, "Fantasy")
+ *             .ratingBetween(4, 5)
+ *             .author(MatchMode.Substring, "Tolkien")
+ *             .sortBy(BookQuery.SortField.Rating, true)
+ *             .limit(50)
+ *             .build();
+ * </pre>
+ * The criteria added to the builder must all match, unless matchAny() is called;
+ * nested combinations are made with {@link #allOf} and {@link #anyOf}.
+ * <p>
+ * A long result is read page by page with keyset pagination: the next page is the
+ * same query with {@link Builder#after} the position of the last book read, which the
+ * server finds with the index on the sort field instead of skipping all earlier books.
+ */
+public final class BookQuery {
+
+    /**
+     * The fields a query can be ordered by. Titles are ordered by their normalized form.
+     */
+    public enum SortField {
+        Title, ISBN, Published, Rating
+    }
+
+    /**
+     * The place of a book in the order of a query: its value of the sort field and its
+     * ISBN, which breaks the ties.
+     *
+     * @param key  The normalized title, ISBN, release date or rating; null if the book has none.
+     * @param isbn The ISBN.
+     */
+    public record Position(Object key, String isbn) {
+        public Position {
+            Objects.requireNonNull(isbn, "isbn");
+        }
+    }
+
+    /**
+     * A condition on a book.
+     */
+    public sealed interface Criterion permits TextCriterion, RatingRange, PublishedRange, AllOf, AnyOf {
+    }
+
+    /**
+     * A title, ISBN, author or genre matched like a search in that mode.
+     *
+     * @param field The field, Title, ISBN, Author or Genre.
+     * @param match How the value is matched against the field.
+     * @param value The value to search for.
+     */
+    public record TextCriterion(SearchMode field, MatchMode match, String value) implements Criterion {
+        public TextCriterion {
+            if (field == SearchMode.Rating || field == SearchMode.FullText) {
+                throw new IllegalArgumentException("Not a text field: " + field);
+            }
+            Objects.requireNonNull(match, "match");
+            Objects.requireNonNull(value, "value");
+        }
+    }
+
+    /**
+     * A rating between two bounds, both included.
+     *
+     * @param min The lowest rating.
+     * @param max The highest rating.
+     */
+    public record RatingRange(int min, int max) implements Criterion {
+        public RatingRange {
+            if (min > max) throw new IllegalArgumentException("The lowest rating is above the highest: " + min + " > " + max);
+        }
+    }
+
+    /**
+     * A release date between two dates, both included.
+     *
+     * @param from The earliest date, or null for no lower bound.
+     * @param to   The latest date, or null for no upper bound.
+     */
+    public record PublishedRange(LocalDate from, LocalDate to) implements Criterion {
+        public PublishedRange {
+            if (from == null && to == null) throw new IllegalArgumentException("A date range needs at least one bound");
+            if (from != null && to != null && from.isAfter(to)) {
+                throw new IllegalArgumentException("The earliest date is after the latest: " + from + " > " + to);
+            }
+        }
+    }
+
+    /**
+     * All of the criteria match.
+     *
+     * @param criteria The criteria.
+     */
+    public record AllOf(List<Criterion> criteria) implements Criterion {
+        public AllOf {
+            criteria = List.copyOf(criteria);
+        }
+    }
+
+    /**
+     * At least one of the criteria matches.
+     *
+     * @param criteria The criteria.
+     */
+    public record AnyOf(List<Criterion> criteria) implements Criterion {
+        public AnyOf {
+            if (criteria.isEmpty()) throw new IllegalArgumentException("anyOf needs at least one criterion");
+            criteria = List.copyOf(criteria);
+        }
+    }
+
+    // the sort keys of one field are all strings, dates or integers
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final Comparator<Object> KEY_ORDER =
+            Comparator.nullsFirst((a, b) -> ((Comparable) a).compareTo(b));
+
+    private final Criterion criterion;
+    private final SortField sortField;
+    private final boolean descending;
+    private final int limit;
+    private final int skip;
+    private final Position after;
+
+    private BookQuery(Builder builder) {
+        this.criterion = builder.matchAny ? new AnyOf(builder.criteria) : new AllOf(builder.criteria);
+        this.sortField = builder.sortField;
+        this.descending = builder.descending;
+        this.limit = builder.limit;
+        this.skip = builder.skip;
+        this.after = builder.after;
+    }
+
+    /**
+     * Creates a builder for a query. A query without criteria finds all books.
+     *
+     * @return The builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a builder for a query with the criteria, order, limit and position of this
+     * one, e.g. to read the next page or to change the order.
+     *
+     * @return The builder.
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        if (criterion instanceof AnyOf any) {
+            builder.criteria.addAll(any.criteria());
+            builder.matchAny = true;
+        } else {
+            builder.criteria.addAll(((AllOf) criterion).criteria());
+        }
+        builder.sortField = sortField;
+        builder.descending = descending;
+        builder.limit = limit;
+        builder.skip = skip;
+        builder.after = after;
+        return builder;
+    }
+
+    /**
+     * Combines criteria that must all match.
+     *
+     * @param criteria The criteria.
+     * @return The combined criterion.
+     */
+    public static Criterion allOf(Criterion... criteria) {
+        return new AllOf(List.of(criteria));
+    }
+
+    /**
+     * Combines criteria of which at least one must match.
+     *
+     * @param criteria The criteria.
+     * @return The combined criterion.
+     */
+    public static Criterion anyOf(Criterion... criteria) {
+        return new AnyOf(List.of(criteria));
+    }
+
+    /**
+     * Creates a criterion on a title, ISBN, author or genre.
+     *
+     * @param field The field.
+     * @param match How the value is matched against the field.
+     * @param value The value to search for.
+     * @return The criterion.
+     */
+    public static Criterion text(SearchMode field, MatchMode match, String value) {
+        return new TextCriterion(field, match, value);
+    }
+
+    /**
+     * Gets the criterion of the query, an AllOf or AnyOf of the criteria given to the builder.
+     *
+     * @return The criterion.
+     */
+    public Criterion getCriterion() {
+        return criterion;
+    }
+
+    /**
+     * Gets the field the books are ordered by.
+     *
+     * @return The sort field, or null if the order does not matter.
+     */
+    public SortField getSortField() {
+        return sortField;
+    }
+
+    /**
+     * Checks whether the books are ordered from the highest value down.
+     *
+     * @return {@code true} for a descending order.
+     */
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * Gets the maximum number of books returned.
+     *
+     * @return The limit, or 0 for no limit.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Gets the number of books left out before the first one returned.
+     *
+     * @return The number of books, 0 for none.
+     */
+    public int getSkip() {
+        return skip;
+    }
+
+    /**
+     * Gets the position the books returned come after.
+     *
+     * @return The position, or null to start with the first book.
+     */
+    public Position getAfter() {
+        return after;
+    }
+
+    /**
+     * Gets the position of a book in the order of this query, e.g. of the last book of a
+     * page, to read the next page after it.
+     *
+     * @param book The book.
+     * @return The position.
+     * @throws IllegalStateException If the query is not ordered.
+     */
+    public Position positionOf(Book book) {
+        if (sortField == null) throw new IllegalStateException("The query is not ordered");
+        return new Position(sortKey(sortField, book), book.getIsbn());
+    }
+
+    /**
+     * Checks whether a book comes after the position of the query, with the same order as
+     * the server, so the in-memory fallback pages like the query sent to MongoDB.
+     *
+     * @param book The book.
+     * @return {@code true} if the book comes after the position, or the query has none.
+     */
+    boolean isAfterPosition(Book book) {
+        if (after == null) return true;
+        int order = KEY_ORDER.compare(sortKey(sortField, book), after.key());
+        if (order == 0) order = book.getIsbn().compareTo(after.isbn());
+        return descending ? order < 0 : order > 0;
+    }
+
+    private static Object sortKey(SortField field, Book book) {
+        switch (field) {
+            case Title:
+                return book.getTitle() == null ? null : SearchNormalizer.normalize(book.getTitle());
+            case ISBN:
+                return book.getIsbn();
+            case Published:
+                return book.getPublished();
+            case Rating:
+            default:
+                return book.getRating();
+        }
+    }
+
+    /**
+     * Compiles the criteria into a test of books in memory, with the same semantics as
+     * the filter BooksDbImpl sends to MongoDB. Patterns are compiled once, so the test
+     * can be applied to a whole catalogue.
+     *
+     * @return The test, {@code true} if a book would be part of the result before the limit.
+     * @throws BooksDbException If a text criterion is not valid for its field.
+     */
+    public Predicate<Book> matcher() throws BooksDbException {
+        return compile(criterion);
+    }
+
+    private static Predicate<Book> compile(Criterion criterion) throws BooksDbException {
+        if (criterion instanceof TextCriterion text) {
+            if (text.match() == MatchMode.NormalizedPrefix && normalize(text).isEmpty()) {
+                throw new BooksDbException("Nothing to search for in: " + text.value());
+            }
+            return BookMatcher.of(text.field(), text.match(), text.value())::matches;
+        } else if (criterion instanceof RatingRange range) {
+            return book -> book.getRating() >= range.min() && book.getRating() <= range.max();
+        } else if (criterion instanceof PublishedRange range) {
+            return book -> {
+                LocalDate published = book.getPublished();
+                return published != null
+                        && (range.from() == null || !published.isBefore(range.from()))
+                        && (range.to() == null || !published.isAfter(range.to()));
+            };
+        }
+        boolean all = criterion instanceof AllOf;
+        List<Criterion> parts = all ? ((AllOf) criterion).criteria() : ((AnyOf) criterion).criteria();
+        List<Predicate<Book>> compiled = new ArrayList<>(parts.size());
+        for (Criterion part : parts) compiled.add(compile(part));
+        if (compiled.size() == 1) return compiled.get(0);
+        return all
+                ? book -> compiled.stream().allMatch(test -> test.test(book))
+                : book -> compiled.stream().anyMatch(test -> test.test(book));
+    }
+
+    private static String normalize(TextCriterion text) {
+        return text.field() == SearchMode.ISBN
+                ? SearchNormalizer.normalizeIsbn(text.value())
+                : SearchNormalizer.normalize(text.value());
+    }
+
+    /**
+     * Gets the order of the query for books in memory, ties broken by ISBN like the
+     * server sort. Missing values come first in ascending order; a descending order is
+     * the ascending one reversed, ties included, so one index serves both.
+     *
+     * @return The comparator, or null if the order does not matter.
+     */
+    public Comparator<Book> comparator() {
+        if (sortField == null) return null;
+        SortField field = sortField;
+        Comparator<Book> order = Comparator.comparing((Book book) -> sortKey(field, book), KEY_ORDER)
+                .thenComparing(Book::getIsbn, Comparator.nullsFirst(Comparator.naturalOrder()));
+        return descending ? order.reversed() : order;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BookQuery other)) return false;
+        return descending == other.descending && limit == other.limit && skip == other.skip
+                && criterion.equals(other.criterion) && sortField == other.sortField && Objects.equals(after, other.after);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(criterion, sortField, descending, limit, skip, after);
+    }
+
+    @Override
+    public String toString() {
+        return "BookQuery{" + criterion + (sortField == null ? "" : ", sortBy=" + sortField + (descending ? " desc" : ""))
+                + (after == null ? "" : ", after=" + after) + (skip == 0 ? "" : ", skip=" + skip)
+                + (limit == 0 ? "" : ", limit=" + limit) + '}';
+    }
+
+    /**
+     * Builds a BookQuery.
+     */
+    public static final class Builder {
+        private final List<Criterion> criteria = new ArrayList<>();
+        private boolean matchAny;
+        private SortField sortField;
+        private boolean descending;
+        private int limit;
+        private int skip;
+        private Position after;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a criterion on the title.
+         *
+         * @param match How the value is matched against the title.
+         * @param title The value to search for.
+         * @return This builder.
+         */
+        public Builder title(MatchMode match, String title) {
+            return where(text(SearchMode.Title, match, title));
+        }
+
+        /**
+         * Adds a criterion on the ISBN.
+         *
+         * @param match How the value is matched against the ISBN.
+         * @param isbn  The value to search for.
+         * @return This builder.
+         */
+        public Builder isbn(MatchMode match, String isbn) {
+            return where(text(SearchMode.ISBN, match, isbn));
+        }
+
+        /**
+         * Adds a criterion matching if any of the authors matches.
+         *
+         * @param match  How the value is matched against the author names.
+         * @param author The value to search for.
+         * @return This builder.
+         */
+        public Builder author(MatchMode match, String author) {
+            return where(text(SearchMode.Author, match, author));
+        }
+
+        /**
+         * Adds a criterion matching if any of the genres matches.
+         *
+         * @param match How the value is matched against the genre names.
+         * @param genre The value to search for.
+         * @return This builder.
+         */
+        public Builder genre(MatchMode match, String genre) {
+            return where(text(SearchMode.Genre, match, genre));
+        }
+
+        /**
+         * Adds a rating range.
+         *
+         * @param min The lowest rating, included.
+         * @param max The highest rating, included.
+         * @return This builder.
+         */
+        public Builder ratingBetween(int min, int max) {
+            return where(new RatingRange(min, max));
+        }
+
+        /**
+         * Adds a release date range.
+         *
+         * @param from The earliest date, included, or null for no lower bound.
+         * @param to   The latest date, included, or null for no upper bound.
+         * @return This builder.
+         */
+        public Builder publishedBetween(LocalDate from, LocalDate to) {
+            return where(new PublishedRange(from, to));
+        }
+
+        /**
+         * Adds a criterion, e.g. one made with {@link BookQuery#anyOf}.
+         *
+         * @param criterion The criterion.
+         * @return This builder.
+         */
+        public Builder where(Criterion criterion) {
+            criteria.add(Objects.requireNonNull(criterion, "criterion"));
+            return this;
+        }
+
+        /**
+         * Makes the query match books matching any of the criteria instead of all of them.
+         *
+         * @return This builder.
+         */
+        public Builder matchAny() {
+            this.matchAny = true;
+            return this;
+        }
+
+        /**
+         * Orders the books by a field.
+         *
+         * @param sortField  The field.
+         * @param descending {@code true} to start with the highest value.
+         * @return This builder.
+         */
+        public Builder sortBy(SortField sortField, boolean descending) {
+            this.sortField = sortField;
+            this.descending = descending;
+            return this;
+        }
+
+        /**
+         * Limits the number of books returned.
+         *
+         * @param limit The maximum number of books, or 0 for no limit.
+         * @return This builder.
+         */
+        public Builder limit(int limit) {
+            if (limit < 0) throw new IllegalArgumentException("limit must not be negative");
+            this.limit = limit;
+            return this;
+        }
+
+        /**
+         * Leaves out a number of books before the first one returned. The server still
+         * reads the books it leaves out, so pages are better read {@link #after} a position.
+         *
+         * @param skip The number of books, or 0 for none.
+         * @return This builder.
+         */
+        public Builder skip(int skip) {
+            if (skip < 0) throw new IllegalArgumentException("skip must not be negative");
+            this.skip = skip;
+            return this;
+        }
+
+        /**
+         * Returns only the books after a position in the order of the query, e.g. the
+         * position of the last book of the previous page.
+         *
+         * @param after The position, or null to start with the first book.
+         * @return This builder.
+         */
+        public Builder after(Position after) {
+            this.after = after;
+            return this;
+        }
+
+        /**
+         * Builds the query.
+         *
+         * @return The query.
+         * @throws IllegalArgumentException If matchAny() was called without any criteria,
+         *                                  or a position is given for a query without an order.
+         */
+        public BookQuery build() {
+            if (matchAny && criteria.isEmpty()) {
+                throw new IllegalArgumentException("matchAny needs at least one criterion");
+            }
+            if (after != null && sortField == null) {
+                throw new IllegalArgumentException("A position needs an order");
+            }
+            return new BookQuery(this);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.labb2dbt.model;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An unchangeable copy of the fields of a Book at one moment, for code that reads a
+ * book often, e.g. the table cells drawn on every scroll. The genre and author lists
+ * are unmodifiable and the joined genre and author names are built once, so reading
+ * a snapshot allocates nothing. A snapshot never loads the details of a book: the
+ * story line is null and the authors are empty until they are loaded.
+ * <p>
+ * Snapshots are made by {@link Book#snapshot}, which keeps one until the book changes.
+ */
+public final class BookSnapshot {
+
+    private final int version; // the Book version the snapshot was made from
+    private final int bookId;
+    private final String isbn;
+    private final String title;
+    private final LocalDate published;
+    private final int rating;
+    private final String storyLine;
+    private final boolean detailsLoaded;
+    private final List<Genre> genres;
+    private final List<Author> authors;
+    private final String genresAsString;
+    private final String authorsAsString;
+
+    BookSnapshot(int version, int bookId, String isbn, String title, LocalDate published, int rating,
+                 String storyLine, boolean detailsLoaded, List<Genre> genres, List<Author> authors) {
+        this.version = version;
+        this.bookId = bookId;
+        this.isbn = isbn;
+        this.title = title;
+        this.published = published;
+        this.rating = rating;
+        this.storyLine = storyLine;
+        this.detailsLoaded = detailsLoaded;
+        this.genres = Collections.unmodifiableList(new ArrayList<>(genres));
+        this.authors = Collections.unmodifiableList(new ArrayList<>(authors));
+        this.genresAsString = joinGenres(this.genres);
+        this.authorsAsString = joinAuthors(this.authors);
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the unique identifier for the book.
+     *
+     * @return The book ID.
+     */
+    public int getBookId() {
+        return bookId;
+    }
+
+    /**
+     * Gets the ISBN of the book.
+     *
+     * @return The ISBN of the book.
+     */
+    public String getIsbn() {
+        return isbn;
+    }
+
+    /**
+     * Gets the title of the book.
+     *
+     * @return The title of the book.
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Gets the published date of the book.
+     *
+     * @return The published date of the book.
+     */
+    public LocalDate getPublished() {
+        return published;
+    }
+
+    /**
+     * Gets the rating of the book.
+     *
+     * @return The book's rating.
+     */
+    public int getRating() {
+        return rating;
+    }
+
+    /**
+     * Gets the story line of the book, if it was loaded.
+     *
+     * @return The story line, or null if the details were not loaded.
+     */
+    public String getStoryLine() {
+        return storyLine;
+    }
+
+    /**
+     * Checks whether the story line and authors were loaded when the snapshot was made.
+     *
+     * @return {@code true} if the details were loaded.
+     */
+    public boolean isDetailsLoaded() {
+        return detailsLoaded;
+    }
+
+    /**
+     * Gets the genres of the book.
+     *
+     * @return An unmodifiable list of the genres.
+     */
+    public List<Genre> getGenres() {
+        return genres;
+    }
+
+    /**
+     * Gets the authors of the book, if they were loaded.
+     *
+     * @return An unmodifiable list of the authors, empty if the details were not loaded.
+     */
+    public List<Author> getAuthors() {
+        return authors;
+    }
+
+    /**
+     * Gets the genres of the book as a string.
+     *
+     * @return The genre names, separated by commas.
+     */
+    public String getGenresAsString() {
+        return genresAsString;
+    }
+
+    /**
+     * Gets the authors of the book as a string.
+     *
+     * @return The author names, separated by commas, empty if the details were not loaded.
+     */
+    public String getAuthorsAsString() {
+        return authorsAsString;
+    }
+
+    /**
+     * Creates a builder for a Book with the fields of this snapshot, e.g. to edit it.
+     *
+     * @return The builder.
+     */
+    public Book.Builder toBuilder() {
+        return Book.builder()
+                .bookId(bookId)
+                .isbn(isbn)
+                .title(title)
+                .published(published)
+                .rating(rating)
+                .storyLine(storyLine)
+                .genres(genres)
+                .authors(authors);
+    }
+
+    private static String joinGenres(List<Genre> genres) {
+        if (genres.size() == 1) return String.valueOf(genres.get(0).getGenreName());
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < genres.size(); i++) {
+            if (i > 0) joined.append(", ");
+            joined.append(genres.get(i).getGenreName());
+        }
+        return joined.toString();
+    }
+
+    private static String joinAuthors(List<Author> authors) {
+        if (authors.size() == 1) return String.valueOf(authors.get(0).getName());
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < authors.size(); i++) {
+            if (i > 0) joined.append(", ");
+            joined.append(authors.get(i).getName());
+        }
+        return joined.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "BookSnapshot{" +
+                "isbn='" + isbn + '\'' +
+                ", title='" + title + '\'' +
+                ", published=" + published +
+                ", rating=" + rating +
+                ", genres=" + genresAsString +
+                ", authors=" + authorsAsString +
+                '}';
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.labb2dbt.model;
+
+/**
+ * A running subscription to the changes of the books, stopped by closing it.
+ */
+public interface BookSubscription extends AutoCloseable {
+
+    /**
+     * Stops delivering changes. Closing a closed subscription does nothing.
+     */
+    @Override
+    void close();
+}
@@ -1,31 +1,82 @@
 package com.example.labb2dbt.model;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoClientSettings;
 import com.mongodb.MongoException;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.*;
-import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.*;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
+import com.mongodb.event.CommandListener;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
-import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 /**
  * Implementation of the BooksDbInterface that interacts with a MongoDB database.
  * This class provides methods to connect, disconnect, and perform various operations on books, authors, and genres.
  */
 public class BooksDbImpl implements BooksDbInterface{
+    private static final int BACKFILL_BATCH_SIZE = 500;
+    private static final int AUTHORS_BATCH_SIZE = 5000;
+    public static final int DEFAULT_BULK_BATCH_SIZE = 1000;
+    public static final int DEFAULT_BULK_PARALLELISM = 4;
+    private static final int FULL_TEXT_BUILD_BATCH_SIZE = 5000;
+    private static final long COUNT_MAX_TIME_MILLIS = 2000;
+    public static final int DEFAULT_DECODE_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
     public MongoClient mongoClient;
     public MongoDatabase mongoDatabase;
 
     private MongoCollection<Document> booksCollection;
     private MongoCollection<Document> authorsCollection;
     private MongoCollection<Document> genresCollection;
+    // the same collections read and written through BookCodec and AuthorCodec
+    private MongoCollection<Book> typedBooks;
+    private MongoCollection<Author> typedAuthors;
+    // the search results, decoded into books by a ParallelBookDecoder
+    private MongoCollection<RawBsonDocument> rawBooks;
+    private IndexManager indexManager;
+    private final BookDetailsLoader detailsLoader = this::loadBookDetails;
+    private volatile int bulkBatchSize = DEFAULT_BULK_BATCH_SIZE;
+    private volatile int bulkParallelism = DEFAULT_BULK_PARALLELISM;
+    private volatile int decodeParallelism = DEFAULT_DECODE_PARALLELISM;
+    private volatile PoolStatistics poolStatistics;
+    private final List<CommandListener> commandListeners = new CopyOnWriteArrayList<>();
+    private final List<BookChangeStream> changeStreams = new CopyOnWriteArrayList<>();
+
+    // the full-text index is loaded or built by the first full-text search
+    private final Object fullTextLock = new Object();
+    private volatile FullTextIndex fullTextIndex; // ready for searches
+    private volatile FullTextIndex fullTextWrites; // kept up to date, also while being built
+    private volatile Path fullTextIndexFile;
+    private volatile int fullTextLimit = DEFAULT_FULL_TEXT_LIMIT;
+    private volatile SlowQueryLog slowQueryLog =
+            new SlowQueryLog(Path.of(System.getProperty("user.home"), ".books-db", "slow-queries.log"));
+    private String databaseName;
 
     /**
      * Connects to the MongoDB database using the provided credentials and database name.
@@ -38,15 +89,67 @@ public class BooksDbImpl implements BooksDbInterface{
      */
     @Override
     public boolean connect(String dbName, String username, String password) throws BooksDbException{
+        return connect(ConnectionProfile.atlas(dbName, username, password));
+    }
 
+    /**
+     * Connects to the MongoDB database using a connection string, e.g. "mongodb://localhost:27017"
+     * for a local server.
+     *
+     * @param uri     The MongoDB connection string.
+     * @param dbName  The name of the MongoDB database to connect to.
+     * @return true if the connection is successful, false otherwise.
+     * @throws BooksDbException If there are issues with the connection to the MongoDB database.
+     */
+    public boolean connectToUri(String uri, String dbName) throws BooksDbException {
         try {
-            String uri = "mongodb+srv://" + username + ":" + password + "@labb2dbt.qej8vzl.mongodb.net/?retryWrites=true&w=majority";
-            mongoClient = MongoClients.create(uri);
-            mongoDatabase = mongoClient.getDatabase(dbName);
+            return connect(ConnectionProfile.builder(uri).database(dbName).build());
+        } catch (IllegalArgumentException e) {
+            throw new BooksDbException("Invalid connection string", e);
+        }
+    }
+
+    /**
+     * Connects to the MongoDB database described by a connection profile, with its pool
+     * size, timeouts, compression, read preference and write concern. The statistics of
+     * the new connection pool are available from {@link #getPoolStatistics()}.
+     *
+     * @param profile The connection profile.
+     * @return true if the connection is successful, false otherwise.
+     * @throws BooksDbException If there are issues with the connection to the MongoDB database.
+     */
+    @Override
+    public boolean connect(ConnectionProfile profile) throws BooksDbException {
+        String dbName = profile.getDatabase();
+        try {
+            PoolStatistics statistics = new PoolStatistics();
+            MongoClientSettings.Builder settings = MongoClientSettings.builder(profile.toSettings(statistics));
+            commandListeners.forEach(settings::addCommandListener);
+            mongoClient = MongoClients.create(settings.build());
+            poolStatistics = statistics;
+            mongoDatabase = mongoClient.getDatabase(dbName).withCodecRegistry(BookDocuments.CODECS);
+            databaseName = dbName;
+            fullTextIndex = null;
+            fullTextWrites = null;
 
             this.booksCollection = this.mongoDatabase.getCollection("books");
             this.authorsCollection = this.mongoDatabase.getCollection("authors");
             this.genresCollection = this.mongoDatabase.getCollection("genres");
+            this.typedBooks = booksCollection.withDocumentClass(Book.class);
+            this.typedAuthors = authorsCollection.withDocumentClass(Author.class);
+            this.rawBooks = booksCollection.withDocumentClass(RawBsonDocument.class);
+
+            backfillNormalizedFields();
+            this.indexManager = new IndexManager(booksCollection);
+            try {
+                // creates the missing indexes and checks the usage of the existing ones and the search plans
+                IndexReport indexReport = verifyIndexes();
+                if (indexReport.hasFindings()) {
+                    System.out.println(indexReport);
+                }
+            } catch (BooksDbException e) {
+                System.err.println("Could not verify the indexes: " + e.getMessage());
+            }
 
             System.out.println("Connected successfully to database: " + dbName);
 
@@ -55,6 +158,111 @@ public class BooksDbImpl implements BooksDbInterface{
             throw new BooksDbException("Could not connect to MongoDB database", e);
         }
     }
+    /**
+     * Gets the connection pool statistics of the current connection.
+     *
+     * @return The statistics, or null if never connected.
+     */
+    public PoolStatistics getPoolStatistics() {
+        return poolStatistics;
+    }
+
+    /**
+     * Adds a listener to the commands sent to MongoDB, e.g. a BooksDbMetrics timing
+     * them. Listeners take effect at the next connect.
+     *
+     * @param listener The listener.
+     */
+    public void addCommandListener(CommandListener listener) {
+        commandListeners.add(listener);
+    }
+
+    /**
+     * Sets the log the slow searches are recorded in. By default searches taking more
+     * than {@value SlowQueryLog#DEFAULT_THRESHOLD_MILLIS} ms are logged to
+     * ~/.books-db/slow-queries.log.
+     *
+     * @param slowQueryLog The log, or null to not record slow searches.
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    /**
+     * Gets the log the slow searches are recorded in, e.g. to change its threshold or
+     * get the report of the slowest query shapes.
+     *
+     * @return The log, or null if slow searches are not recorded.
+     */
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Verifies the indexes of the books collection and explains the query of every
+     * search method in every match mode, to show which searches scan the whole collection.
+     *
+     * @return The index report.
+     * @throws BooksDbException If there are issues with the database connection or the verification.
+     */
+    public IndexReport verifyIndexes() throws BooksDbException {
+        if (mongoDatabase == null) {
+            throw new BooksDbException("Not connected to the database");
+        }
+        Map<String, Bson> queries = new LinkedHashMap<>();
+        for (SearchMode mode : SearchMode.values()) {
+            if (mode == SearchMode.FullText) continue; // answered by the in-process index
+            String sample = mode == SearchMode.Rating ? "3" : "a";
+            for (MatchMode match : MatchMode.values()) {
+                queries.put("searchBooksBy" + mode + " " + match, BookDocuments.filterFor(mode, match, sample));
+                if (mode == SearchMode.Rating) break; // ratings ignore the match mode
+            }
+        }
+        return indexManager.verify(queries);
+    }
+
+    /**
+     * Adds the normalized shadow fields to books stored before they were introduced.
+     * Only books without a titleNorm field are touched, so this is cheap once done.
+     * The first time on a large catalogue it takes long, so the progress is printed.
+     */
+    private void backfillNormalizedFields() {
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        long backfilled = 0;
+        FindIterable<Document> missing = booksCollection.find(Filters.exists("titleNorm", false))
+                .projection(Projections.include("title", "isbn", "genres.name", "authors.name"));
+        for (Document doc : missing) {
+            List<Document> genres = doc.getList("genres", Document.class, new ArrayList<>());
+            List<Document> authors = doc.getList("authors", Document.class, new ArrayList<>());
+            List<Bson> sets = new ArrayList<>();
+            sets.add(Updates.set("titleNorm", SearchNormalizer.normalize(doc.getString("title"))));
+            sets.add(Updates.set("isbnNorm", SearchNormalizer.normalizeIsbn(doc.getString("isbn"))));
+            // positional paths keep the other fields of each embedded document
+            for (int i = 0; i < genres.size(); i++) {
+                sets.add(Updates.set("genres." + i + ".nameNorm", SearchNormalizer.normalize(genres.get(i).getString("name"))));
+            }
+            for (int i = 0; i < authors.size(); i++) {
+                sets.add(Updates.set("authors." + i + ".nameNorm", SearchNormalizer.normalize(authors.get(i).getString("name"))));
+            }
+            updates.add(new UpdateOneModel<>(Filters.eq("_id", doc.get("_id")), Updates.combine(sets)));
+            if (updates.size() == BACKFILL_BATCH_SIZE) {
+                booksCollection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+                backfilled += updates.size();
+                updates.clear();
+                if (backfilled % (100L * BACKFILL_BATCH_SIZE) == 0) {
+                    System.out.println("Added normalized fields to " + backfilled + " books so far");
+                }
+            }
+        }
+        if (!updates.isEmpty()) {
+            booksCollection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+            backfilled += updates.size();
+        }
+        if (backfilled > 0) {
+            System.out.println("Added normalized fields to " + backfilled + " books");
+        }
+    }
+
     /**
      * Disconnects from the MongoDB database by closing the MongoClient.
      *
@@ -62,6 +270,16 @@ public class BooksDbImpl implements BooksDbInterface{
      */
     @Override
     public void disconnect() throws BooksDbException {
+        saveFullTextIndex();
+        fullTextIndex = null;
+        fullTextWrites = null;
+        SlowQueryLog slowQueries = slowQueryLog;
+        if (slowQueries != null && mongoClient != null) {
+            // the pending explains need the connection
+            slowQueries.awaitPending(2000);
+        }
+        changeStreams.forEach(BookChangeStream::close);
+        changeStreams.clear();
         try {
             if (mongoClient != null) {
                 mongoClient.close();
@@ -78,37 +296,158 @@ public class BooksDbImpl implements BooksDbInterface{
      */
     @Override
     public void addBook(Book book) throws BooksDbException {
-        Document doc = new Document();
-        doc.put("title", book.getTitle());
-        doc.put("isbn", book.getIsbn());
-        doc.put("dateOfRelease", book.getPublished());
-        doc.put("description", book.getStoryLine());
-        doc.put("rating", book.getRating());
-
-        List<Document> genreList = new ArrayList<>();
+        if (mongoDatabase == null) {
+            throw new BooksDbException("Not connected to the database");
+        }
 
-        for (Genre g : book.getGenres()){
-            Document genreDoc = new Document();
-            genreDoc.put("name", g.getGenreName());
-            genreList.add(genreDoc);
+        try {
+            this.typedBooks.insertOne(book);
+            FullTextIndex index = fullTextWrites;
+            if (index != null) index.add(book);
+        } catch (MongoException e) {
+            throw new BooksDbException("Error adding book to MongoDB database", e);
         }
+    }
 
-        List<Document> authorList = new ArrayList<>();
+    /**
+     * Adds many books to the MongoDB database with batched, unordered inserts. Batches are
+     * written by up to bulkParallelism threads, and no more batches than that are built
+     * ahead, so the books can come from a lazily read file of any size. A book that cannot
+     * be inserted, e.g. because of a duplicate ISBN, is reported in the result without
+     * stopping the rest of the import.
+     *
+     * @param books The books to add.
+     * @return The number of inserted books, the failures and the throughput.
+     * @throws BooksDbException If there are issues with the database connection, or the import was interrupted.
+     */
+    @Override
+    public BulkImportResult addBooks(Iterable<Book> books) throws BooksDbException {
+        if (mongoDatabase == null) {
+            throw new BooksDbException("Not connected to the database");
+        }
+        return bulkInsert(booksCollection, books, BookDocuments::toDocument, Book::getIsbn);
+    }
 
-        for (Author a : book.getAuthors()){
-            Document authorDoc = new Document();
-            authorDoc.put("name", a.getName());
-            authorDoc.put("dateOfBirth", a.getBirthDate());
-            authorList.add(authorDoc);
+    /**
+     * Adds many authors to the MongoDB database with batched, unordered inserts,
+     * in the same way as addBooks.
+     *
+     * @param authors The authors to add.
+     * @return The number of inserted authors, the failures and the throughput.
+     * @throws BooksDbException If there are issues with the database connection, or the import was interrupted.
+     */
+    @Override
+    public BulkImportResult addAuthors(Iterable<Author> authors) throws BooksDbException {
+        if (mongoDatabase == null) {
+            throw new BooksDbException("Not connected to the database");
         }
+        return bulkInsert(authorsCollection, authors, BookDocuments::toDocument, Author::getName);
+    }
 
-        doc.put("genres", genreList);
-        doc.put("authors", authorList);
+    /**
+     * Sets the number of documents written per batch by addBooks and addAuthors.
+     *
+     * @param bulkBatchSize The batch size, at least 1.
+     */
+    public void setBulkBatchSize(int bulkBatchSize) {
+        if (bulkBatchSize < 1) throw new IllegalArgumentException("bulkBatchSize must be at least 1");
+        this.bulkBatchSize = bulkBatchSize;
+    }
 
-        this.booksCollection.insertOne(doc);
+    /**
+     * Sets the number of batches written at the same time by addBooks and addAuthors.
+     *
+     * @param bulkParallelism The number of writer threads, at least 1.
+     */
+    public void setBulkParallelism(int bulkParallelism) {
+        if (bulkParallelism < 1) throw new IllegalArgumentException("bulkParallelism must be at least 1");
+        this.bulkParallelism = bulkParallelism;
+    }
 
-        System.out.println("insert success");
+    /**
+     * Sets the number of result batches of a search decoded into books at the same time,
+     * on the common fork-join pool, while the next batches are read from the server.
+     *
+     * @param decodeParallelism The number of batches, at least 1; 1 decodes on the searching thread.
+     */
+    public void setDecodeParallelism(int decodeParallelism) {
+        if (decodeParallelism < 1) throw new IllegalArgumentException("decodeParallelism must be at least 1");
+        this.decodeParallelism = decodeParallelism;
     }
+
+    private <T> BulkImportResult bulkInsert(MongoCollection<Document> collection, Iterable<T> items,
+                                            Function<T, Document> toDocument, Function<T, String> keyOf) throws BooksDbException {
+        BulkImportResult result = new BulkImportResult();
+        int batchSize = this.bulkBatchSize;
+        int parallelism = this.bulkParallelism;
+        ExecutorService writers = Executors.newFixedThreadPool(parallelism);
+        // bounds the batches in memory: one being filled plus the ones being written
+        Semaphore inFlight = new Semaphore(parallelism);
+        try {
+            long batchNo = 0;
+            List<Document> docs = new ArrayList<>(batchSize);
+            List<String> keys = new ArrayList<>(batchSize);
+            for (T item : items) {
+                docs.add(toDocument.apply(item));
+                keys.add(keyOf.apply(item));
+                if (docs.size() == batchSize) {
+                    submitBatch(writers, inFlight, collection, batchNo++, docs, keys, result);
+                    docs = new ArrayList<>(batchSize);
+                    keys = new ArrayList<>(batchSize);
+                }
+            }
+            if (!docs.isEmpty()) {
+                submitBatch(writers, inFlight, collection, batchNo, docs, keys, result);
+            }
+            // wait for the last batches
+            inFlight.acquire(parallelism);
+            inFlight.release(parallelism);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BooksDbException("Import interrupted after " + result.getInserted() + " inserts", e);
+        } finally {
+            writers.shutdownNow();
+            result.finish();
+        }
+        return result;
+    }
+
+    private void submitBatch(ExecutorService writers, Semaphore inFlight, MongoCollection<Document> collection,
+                             long batchNo, List<Document> docs, List<String> keys, BulkImportResult result) throws InterruptedException {
+        inFlight.acquire();
+        writers.execute(() -> {
+            try {
+                writeBatch(collection, batchNo, docs, keys, result);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void writeBatch(MongoCollection<Document> collection, long batchNo, List<Document> docs,
+                            List<String> keys, BulkImportResult result) {
+        try {
+            // unordered, so one bad document does not stop the rest of the batch
+            collection.insertMany(docs, new InsertManyOptions().ordered(false));
+            result.addInserted(docs.size());
+            if (collection == booksCollection) indexInserted(docs, Set.of());
+        } catch (MongoBulkWriteException e) {
+            result.addInserted(e.getWriteResult().getInsertedCount());
+            Set<Integer> failed = new HashSet<>();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                result.addFailure(batchNo, keys.get(error.getIndex()), error.getMessage());
+                failed.add(error.getIndex());
+            }
+            if (collection == booksCollection) indexInserted(docs, failed);
+        } catch (MongoException e) {
+            for (String key : keys) {
+                result.addFailure(batchNo, key, e.getMessage());
+            }
+        } finally {
+            result.addBatch();
+        }
+    }
+
     /**
      * Adds a new author to the MongoDB database.
      *
@@ -122,11 +461,7 @@ public class BooksDbImpl implements BooksDbInterface{
         }
 
         try {
-            Document authorDoc = new Document()
-                    .append("name", author.getName())
-                    .append("dateOfBirth", author.getBirthDate());
-
-            authorsCollection.insertOne(authorDoc);
+            typedAuthors.insertOne(author);
         } catch (MongoException e) {
             throw new BooksDbException("Error adding author to MongoDB database", e);
         }
@@ -149,16 +484,8 @@ public class BooksDbImpl implements BooksDbInterface{
             // Create a filter to find the book by ISBN
             Bson filter = Filters.eq("isbn", isbn);
 
-            // Create an update operation with the new values
-            Bson updateOperation = Updates.combine(
-                    Updates.set("title", book.getTitle()),
-                    Updates.set("isbn", book.getIsbn()),
-                    Updates.set("dateOfRelease", book.getPublished()),
-                    Updates.set("description", book.getStoryLine()),
-                    Updates.set("rating", book.getRating()),
-                    Updates.set("genres", book.getGenres().stream().map(genre -> new Document("name", genre.getGenreName())).collect(Collectors.toList())),
-                    Updates.set("authors", book.getAuthors().stream().map(author -> new Document("name", author.getName()).append("dateOfBirth", author.getBirthDate())).collect(Collectors.toList()))
-            );
+            // Create an update operation setting all fields, encoded by BookCodec
+            Bson updateOperation = new Document("$set", book);
 
             // Perform the update
             UpdateResult result = booksCollection.updateOne(filter, updateOperation);
@@ -169,6 +496,8 @@ public class BooksDbImpl implements BooksDbInterface{
             if (result.getModifiedCount() == 0) {
                 throw new BooksDbException("Book not updated for ISBN: " + isbn);
             }
+            FullTextIndex index = fullTextWrites;
+            if (index != null) index.update(isbn, book);
         } catch (MongoException e) {
             throw new BooksDbException("Error updating book in MongoDB database", e);
         }
@@ -196,6 +525,8 @@ public class BooksDbImpl implements BooksDbInterface{
             if (result.getDeletedCount() == 0) {
                 throw new BooksDbException("No book found with ISBN: " + isbn);
             }
+            FullTextIndex index = fullTextWrites;
+            if (index != null) index.remove(isbn);
         } catch (MongoException e) {
             throw new BooksDbException("Error deleting book from MongoDB database", e);
         }
@@ -236,31 +567,86 @@ public class BooksDbImpl implements BooksDbInterface{
     }
 
     /**
-     * Searches for books in the MongoDB database by author name using a case-insensitive regex pattern.
+     * Updates the ratings of several books with a single unordered bulkWrite, so a
+     * whole batch of ratings costs one round-trip instead of one per book. The updates
+     * are independent: one that fails, or finds no book, does not stop the others.
      *
-     * @param author The name of the author to search for.
-     * @return A list of Book objects authored by the specified author.
-     * @throws BooksDbException If there are issues with the database connection or the search operation.
+     * @param ratings The new rating of each book, by ISBN.
+     * @return The number of books whose rating changed.
+     * @throws RatingsNotWrittenException If some of the books do not exist or some updates failed;
+     *                                    the other ratings were written.
+     * @throws BooksDbException If there are issues with the database connection.
      */
     @Override
-    public List<Book> searchBooksByAuthor(String author) throws BooksDbException {
+    public int updateBookRatings(Map<String, Integer> ratings) throws BooksDbException {
         if (mongoDatabase == null) {
             throw new BooksDbException("Not connected to the database");
         }
-        List<Book> result = new ArrayList<>();
-
+        if (ratings.isEmpty()) {
+            return 0;
+        }
+        List<UpdateOneModel<Document>> updates = new ArrayList<>(ratings.size());
+        ratings.forEach((isbn, rating) ->
+                updates.add(new UpdateOneModel<>(Filters.eq("isbn", isbn), Updates.set("rating", rating))));
         try {
-            // Using regex to perform a case-insensitive search for the author
-            Pattern pattern = Pattern.compile(author, Pattern.CASE_INSENSITIVE);
-            Bson filter = Filters.elemMatch("authors", Filters.regex("name", pattern));
-
-            FindIterable<Document> foundBooks = booksCollection.find(filter);
-            getBooksFromDb(result, foundBooks);
+            BulkWriteResult result = booksCollection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+            if (result.getMatchedCount() < ratings.size()) {
+                Set<String> missing = missingIsbns(ratings.keySet(), Set.of());
+                throw new RatingsNotWrittenException("No book found for " + missing.size()
+                        + " of the ISBNs: " + missing, missing);
+            }
+            return result.getModifiedCount();
+        } catch (MongoBulkWriteException e) {
+            if (e.getWriteConcernError() != null) {
+                // not known which of the updates are durable
+                throw new BooksDbException("Error updating book ratings in MongoDB database", e);
+            }
+            List<String> isbns = new ArrayList<>(ratings.keySet());
+            Set<String> failed = new LinkedHashSet<>();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                failed.add(isbns.get(error.getIndex()));
+            }
+            Set<String> unwritten = new LinkedHashSet<>(failed);
+            if (e.getWriteResult().getMatchedCount() + failed.size() < ratings.size()) {
+                unwritten.addAll(missingIsbns(ratings.keySet(), failed));
+            }
+            throw new RatingsNotWrittenException("Could not write the ratings of " + unwritten.size()
+                    + " of the books: " + unwritten, unwritten, e);
         } catch (MongoException e) {
-            throw new BooksDbException("Error searching books by Author", e);
+            throw new BooksDbException("Error updating book ratings in MongoDB database", e);
+        }
+    }
+
+    /**
+     * Finds the ISBNs of a rating update that no book has, after its bulkWrite matched
+     * fewer books than it had updates.
+     *
+     * @param isbns   The ISBNs of the update.
+     * @param ignored The ISBNs whose updates failed for another reason.
+     * @return The ISBNs without a book.
+     */
+    private Set<String> missingIsbns(Set<String> isbns, Set<String> ignored) {
+        Set<String> asked = new HashSet<>(isbns);
+        asked.removeAll(ignored);
+        Set<String> found = new HashSet<>();
+        booksCollection.distinct("isbn", Filters.in("isbn", asked), String.class).into(found);
+        Set<String> missing = new LinkedHashSet<>();
+        for (String isbn : isbns) {
+            if (asked.contains(isbn) && !found.contains(isbn)) missing.add(isbn);
         }
+        return missing;
+    }
 
-        return result;
+    /**
+     * Searches for books in the MongoDB database by author name using a case-insensitive regex pattern.
+     *
+     * @param author The name of the author to search for.
+     * @return A list of Book objects authored by the specified author.
+     * @throws BooksDbException If there are issues with the database connection or the search operation.
+     */
+    @Override
+    public List<Book> searchBooksByAuthor(String author) throws BooksDbException {
+        return findBooks(SearchMode.Author, author);
     }
 
     /**
@@ -272,147 +658,460 @@ public class BooksDbImpl implements BooksDbInterface{
      */
     @Override
     public List<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        return findBooks(SearchMode.Genre, genre);
+    }
+
+    /**
+     * Searches for books in the MongoDB database by title using a case-insensitive regex pattern.
+     *
+     * @param searchTitle The title to search for.
+     * @return A list of Book objects with titles matching the specified search title.
+     * @throws BooksDbException If there are issues with the database connection or the search operation.
+     */
+    @Override
+    public List<Book> searchBooksByTitle(String searchTitle) throws BooksDbException {
+        return findBooks(SearchMode.Title, searchTitle);
+    }
+
+
+    /**
+     * Searches for books in the MongoDB database by ISBN using a case-insensitive regex pattern.
+     *
+     * @param isbnString The ISBN to search for.
+     * @return A list of Book objects with ISBNs matching the specified search ISBN.
+     * @throws BooksDbException If there are issues with the database connection or the search operation.
+     */
+    @Override
+    public List<Book> searchBooksByISBN(String isbnString) throws BooksDbException {
+        return findBooks(SearchMode.ISBN, isbnString);
+    }
+
+    /**
+     * Searches for books with a specified rating in the MongoDB database.
+     *
+     * @param ratingString The string representation of the desired rating.
+     * @return A list of Book objects with the specified rating.
+     * @throws BooksDbException If there are issues with the database connection or the search operation.
+     */
+    @Override
+    public List<Book> searchBooksByRating(String ratingString) throws BooksDbException {
+        return findBooks(SearchMode.Rating, ratingString);
+    }
+
+    /**
+     * Searches for books in the MongoDB database and delivers them in batches while the
+     * cursor is read, so no more than one batch of books is held at a time.
+     *
+     * @param mode      The field to search on.
+     * @param searchFor The value to search for.
+     * @param batchSize The number of books per batch, also used as the cursor batch size.
+     * @param consumer  Receives each batch of books, in order.
+     * @throws BooksDbException If there are issues with the database connection or the search operation.
+     */
+    @Override
+    public void searchBooks(SearchMode mode, String searchFor, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        searchBooks(mode, MatchMode.Substring, searchFor, batchSize, consumer);
+    }
+
+    /**
+     * Searches for books in the MongoDB database using the given match mode and delivers them in
+     * batches while the cursor is read. All match modes except Substring are anchored and use
+     * the indexes created at connect time.
+     *
+     * @param mode      The field to search on.
+     * @param match     How the search string is matched against the field.
+     * @param searchFor The value to search for.
+     * @param batchSize The number of books per batch, also used as the cursor batch size.
+     * @param consumer  Receives each batch of books, in order.
+     * @throws BooksDbException If there are issues with the database connection or the search operation.
+     */
+    @Override
+    public void searchBooks(SearchMode mode, MatchMode match, String searchFor, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        searchBooks(mode, match, searchFor, BookProjection.Full, batchSize, consumer);
+    }
+
+    /**
+     * Searches for books in the MongoDB database using the given match mode and projection.
+     * A Summary search leaves out the description and authors, which are usually the
+     * largest part of a document, and lets each book fetch them on first access.
+     *
+     * @param mode       The field to search on.
+     * @param match      How the search string is matched against the field.
+     * @param searchFor  The value to search for.
+     * @param projection Which fields to load.
+     * @param batchSize  The number of books per batch, also used as the cursor batch size.
+     * @param consumer   Receives each batch of books, in order.
+     * @throws BooksDbException If there are issues with the database connection or the search operation.
+     */
+    @Override
+    public void searchBooks(SearchMode mode, MatchMode match, String searchFor, BookProjection projection,
+                            int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
         if (mongoDatabase == null) {
             throw new BooksDbException("Not connected to the database");
         }
-        List<Book> result = new ArrayList<>();
+        if (batchSize < 1) {
+            throw new BooksDbException("Invalid batch size: " + batchSize);
+        }
+        if (mode == SearchMode.FullText) {
+            List<Book> ranked = rankedSearch(searchFor, fullTextLimit, projection);
+            for (int from = 0; from < ranked.size(); from += batchSize) {
+                consumer.accept(new ArrayList<>(ranked.subList(from, Math.min(from + batchSize, ranked.size()))));
+            }
+            return;
+        }
 
         try {
-            // Using regex to perform a case-insensitive partial search for the genre
-            Pattern pattern = Pattern.compile(genre, Pattern.CASE_INSENSITIVE);
-            Bson filter = Filters.elemMatch("genres", Filters.regex("name", pattern));
-
-            FindIterable<Document> foundBooks = booksCollection.find(filter);
-            getBooksFromDb(result, foundBooks);
+            Bson filter = BookDocuments.filterFor(mode, match, searchFor);
+            FindIterable<RawBsonDocument> foundBooks = rawBooks.find(filter).batchSize(batchSize);
+            if (projection == BookProjection.Summary) {
+                foundBooks.projection(BookDocuments.SUMMARY_FIELDS);
+            }
+            long started = System.nanoTime();
+            long found = getBooksFromDb(foundBooks, batchSize, projection, consumer);
+            recordIfSlow(mode.name(), match, filter, null, 0, System.nanoTime() - started, found);
         } catch (MongoException e) {
-            throw new BooksDbException("Error searching books by genre", e);
+            throw new BooksDbException("Error searching books by " + mode, e);
         }
-
-        return result;
     }
 
     /**
-     * Searches for books in the MongoDB database by title using a case-insensitive regex pattern.
+     * Searches for books matching a combination of criteria with a single query, so the
+     * server picks the best index for the whole combination, sorts and stops at the limit
+     * instead of the client intersecting the results of several searches.
      *
-     * @param searchTitle The title to search for.
-     * @return A list of Book objects with titles matching the specified search title.
+     * @param query      The criteria, order and limit.
+     * @param projection Which fields to load.
+     * @param batchSize  The number of books per batch, also used as the cursor batch size.
+     * @param consumer   Receives each batch of books, in order.
      * @throws BooksDbException If there are issues with the database connection or the search operation.
      */
     @Override
-    public List<Book> searchBooksByTitle(String searchTitle) throws BooksDbException {
+    public void searchBooks(BookQuery query, BookProjection projection, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
         if (mongoDatabase == null) {
             throw new BooksDbException("Not connected to the database");
         }
-
-        List<Book> result = new ArrayList<>();
+        if (batchSize < 1) {
+            throw new BooksDbException("Invalid batch size: " + batchSize);
+        }
 
         try {
-            // Using regex to perform a case-insensitive search for the title
-            FindIterable<Document> foundBooks = booksCollection.find(Filters.regex("title", searchTitle, "i"));
-
-            getBooksFromDb(result, foundBooks);
+            Bson filter = BookDocuments.filterFor(query);
+            FindIterable<RawBsonDocument> foundBooks = rawBooks.find(filter);
+            Bson sort = BookDocuments.sortFor(query);
+            if (sort != null) {
+                foundBooks.sort(sort);
+            }
+            if (query.getSkip() > 0) {
+                foundBooks.skip(query.getSkip());
+            }
+            if (query.getLimit() > 0) {
+                foundBooks.limit(query.getLimit());
+                batchSize = Math.min(batchSize, query.getLimit());
+            }
+            foundBooks.batchSize(batchSize);
+            if (projection == BookProjection.Summary) {
+                foundBooks.projection(BookDocuments.SUMMARY_FIELDS);
+            }
+            long started = System.nanoTime();
+            long found = getBooksFromDb(foundBooks, batchSize, projection, consumer);
+            recordIfSlow("Query", null, filter, sort, query.getLimit(), System.nanoTime() - started, found);
         } catch (MongoException e) {
-            throw new BooksDbException("Error searching books by title", e);
+            throw new BooksDbException("Error searching books by " + query, e);
         }
-
-        return result;
     }
 
-
     /**
-     * Searches for books in the MongoDB database by ISBN using a case-insensitive regex pattern.
+     * Counts the books matching the criteria of a query. Without criteria the count is
+     * taken from the collection metadata; a count that takes longer than
+     * COUNT_MAX_TIME_MILLIS is given up.
      *
-     * @param isbnString The ISBN to search for.
-     * @return A list of Book objects with ISBNs matching the specified search ISBN.
-     * @throws BooksDbException If there are issues with the database connection or the search operation.
+     * @param query The criteria.
+     * @return The number of matching books, or UNKNOWN_COUNT if counting timed out.
+     * @throws BooksDbException If there are issues with the database connection or a criterion is not valid.
      */
     @Override
-    public List<Book> searchBooksByISBN(String isbnString) throws BooksDbException {
+    public long countBooks(BookQuery query) throws BooksDbException {
         if (mongoDatabase == null) {
             throw new BooksDbException("Not connected to the database");
         }
-            List<Book> result = new ArrayList<>();
-
-            try {
-                // Using regex to perform a case-insensitive search for the title
-                FindIterable<Document> foundBooks = booksCollection.find(Filters.regex("isbn", isbnString, "i"));
 
-                getBooksFromDb(result, foundBooks);
-            } catch (MongoException e) {
-                throw new BooksDbException("Error searching books by ISBN", e);
+        Bson filter = BookDocuments.filterFor(query.toBuilder().after(null).build());
+        try {
+            if (filter.toBsonDocument().isEmpty()) {
+                return booksCollection.estimatedDocumentCount();
             }
+            return booksCollection.countDocuments(filter,
+                    new CountOptions().maxTime(COUNT_MAX_TIME_MILLIS, TimeUnit.MILLISECONDS));
+        } catch (MongoExecutionTimeoutException e) {
+            // the size of the whole collection says nothing about a selective query
+            return UNKNOWN_COUNT;
+        } catch (MongoException e) {
+            throw new BooksDbException("Error counting books by " + query, e);
+        }
+    }
 
-            return result;
+    /**
+     * Searches the titles and descriptions for the words of a free-text query with the
+     * in-process full-text index, which is loaded from its file or built from the books
+     * collection by the first full-text search.
+     *
+     * @param query The free-text query.
+     * @param limit The maximum number of books to return.
+     * @return The best matching books, best first.
+     * @throws BooksDbException If there are issues with the database connection or the search operation.
+     */
+    @Override
+    public List<Book> searchBooksByText(String query, int limit) throws BooksDbException {
+        return rankedSearch(query, limit, BookProjection.Full);
+    }
 
+    /**
+     * Sets the number of books returned by searchBooks in FullText mode.
+     *
+     * @param fullTextLimit The number of books, at least 1.
+     */
+    public void setFullTextLimit(int fullTextLimit) {
+        if (fullTextLimit < 1) throw new IllegalArgumentException("fullTextLimit must be at least 1");
+        this.fullTextLimit = fullTextLimit;
     }
 
     /**
-     * Converts MongoDB documents representing books to a list of Book objects.
+     * Sets the file the full-text index is saved to and loaded from. By default the
+     * index of a database is kept in ~/.books-db/&lt;database&gt;.fts.
      *
-     * @param result       The list to which Book objects will be added.
-     * @param foundBooks   The FindIterable<Document> containing MongoDB documents representing books.
+     * @param fullTextIndexFile The file.
      */
-    private void getBooksFromDb(List<Book> result, FindIterable<Document> foundBooks) {
-        for (Document doc : foundBooks) {
-            String bookId = doc.getString("bookId");
-            String title = doc.getString("title");
-            String isbn = doc.getString("isbn");
-            Date dateOfRelease = doc.getDate("dateOfRelease");
-            String description = doc.getString("description");
-            int rating = doc.getInteger("rating", 0);
+    public void setFullTextIndexFile(Path fullTextIndexFile) {
+        this.fullTextIndexFile = fullTextIndexFile;
+    }
 
-            // Convert Date to LocalDate
-            LocalDate localDateOfRelease = dateOfRelease.toInstant()
-                    .atZone(ZoneId.systemDefault())
-                    .toLocalDate();
+    private Path getFullTextIndexFile() {
+        Path file = fullTextIndexFile;
+        return file != null ? file : Path.of(System.getProperty("user.home"), ".books-db", databaseName + ".fts");
+    }
 
-            Book book = new Book(isbn, title, localDateOfRelease);
-            book.setStoryLine(description);
-            book.setRating(rating);
+    /**
+     * Ranks the books with the full-text index and reads the best ones in rank order.
+     */
+    private List<Book> rankedSearch(String query, int limit, BookProjection projection) throws BooksDbException {
+        if (mongoDatabase == null) {
+            throw new BooksDbException("Not connected to the database");
+        }
+        if (limit < 1) {
+            throw new BooksDbException("Invalid limit: " + limit);
+        }
+        List<FullTextIndex.Hit> hits = ensureFullTextIndex().search(query, limit);
+        List<Book> ranked = new ArrayList<>(hits.size());
+        if (hits.isEmpty()) return ranked;
+        try {
+            List<String> isbns = hits.stream().map(FullTextIndex.Hit::isbn).toList();
+            FindIterable<Book> found = typedBooks.find(Filters.in("isbn", isbns));
+            if (projection == BookProjection.Summary) {
+                found.projection(BookDocuments.SUMMARY_FIELDS);
+            }
+            Map<String, Book> byIsbn = new HashMap<>();
+            for (Book book : found) {
+                if (projection == BookProjection.Summary) {
+                    book.setDetailsLoader(detailsLoader);
+                }
+                byIsbn.put(book.getIsbn(), book);
+            }
+            for (String isbn : isbns) {
+                Book book = byIsbn.get(isbn);
+                if (book != null) ranked.add(book); // gone if deleted by another client
+            }
+            return ranked;
+        } catch (MongoException e) {
+            throw new BooksDbException("Error searching books by " + SearchMode.FullText, e);
+        }
+    }
 
-            // Process genres if they are present in the document
-            List<Document> genreDocs = (List<Document>) doc.get("genres");
-            if (genreDocs != null) {
-                ArrayList<Genre> genres = new ArrayList<>();
-                for (Document genreDoc : genreDocs) {
-                    genres.add(new Genre(genreDoc.getString("name")));
+    private FullTextIndex ensureFullTextIndex() throws BooksDbException {
+        FullTextIndex index = fullTextIndex;
+        if (index != null) return index;
+        synchronized (fullTextLock) {
+            if (fullTextIndex == null) {
+                fullTextIndex = openFullTextIndex();
+            }
+            return fullTextIndex;
+        }
+    }
+
+    /**
+     * Loads the saved full-text index if it holds as many books as the collection, and
+     * otherwise builds it from the collection and saves it. Writes made meanwhile through
+     * this object are applied to the new index; changes made by other clients since the
+     * index was saved are only picked up when the number of books differs.
+     */
+    private FullTextIndex openFullTextIndex() throws BooksDbException {
+        Path file = getFullTextIndexFile();
+        long started = System.nanoTime();
+        try {
+            if (Files.exists(file)) {
+                try {
+                    FullTextIndex loaded = FullTextIndex.load(file);
+                    fullTextWrites = loaded;
+                    if (loaded.size() == booksCollection.estimatedDocumentCount()) {
+                        System.out.println("Loaded full-text index " + file + ": " + loaded.size() + " books in "
+                                + (System.nanoTime() - started) / 1_000_000 + " ms");
+                        return loaded;
+                    }
+                    System.out.println("Full-text index " + file + " is out of date, rebuilding it");
+                } catch (IOException e) {
+                    System.err.println("Could not load the full-text index " + file + ": " + e.getMessage());
                 }
-                book.setGenres(genres);
             }
+            FullTextIndex built = new FullTextIndex();
+            fullTextWrites = built;
+            FindIterable<Document> documents = booksCollection.find()
+                    .projection(Projections.include("isbn", "title", "description"))
+                    .batchSize(FULL_TEXT_BUILD_BATCH_SIZE);
+            for (Document doc : documents) {
+                built.add(doc.getString("isbn"), doc.getString("title"), doc.getString("description"));
+            }
+            System.out.println("Built full-text index: " + built.size() + " books, " + built.getTermCount() + " words, "
+                    + built.getPostingBytes() / 1024 + " KB of postings in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+            try {
+                built.save(file);
+            } catch (IOException e) {
+                System.err.println("Could not save the full-text index " + file + ": " + e.getMessage());
+            }
+            return built;
+        } catch (MongoException e) {
+            fullTextWrites = null;
+            throw new BooksDbException("Error building the full-text index", e);
+        }
+    }
+
+    private void indexInserted(List<Document> docs, Set<Integer> failed) {
+        FullTextIndex index = fullTextWrites;
+        if (index == null) return;
+        for (int i = 0; i < docs.size(); i++) {
+            if (failed.contains(i)) continue;
+            Document doc = docs.get(i);
+            index.add(doc.getString("isbn"), doc.getString("title"), doc.getString("description"));
+        }
+    }
 
-            result.add(book);
+    private void saveFullTextIndex() {
+        FullTextIndex index = fullTextIndex;
+        if (index == null || !index.isDirty()) return;
+        try {
+            index.save(getFullTextIndexFile());
+        } catch (IOException e) {
+            System.err.println("Could not save the full-text index: " + e.getMessage());
         }
     }
 
     /**
-     * Searches for books with a specified rating in the MongoDB database.
+     * Loads the description and authors of a book returned by a Summary search.
      *
-     * @param ratingString The string representation of the desired rating.
-     * @return A list of Book objects with the specified rating.
-     * @throws BooksDbException If there are issues with the database connection or the search operation.
+     * @param book The book to load the details of.
+     * @throws BooksDbException If there are issues with the database connection, or the book no longer exists.
      */
     @Override
-    public List<Book> searchBooksByRating(String ratingString) throws BooksDbException {
+    public void loadBookDetails(Book book) throws BooksDbException {
         if (mongoDatabase == null) {
             throw new BooksDbException("Not connected to the database");
         }
+        try {
+            Book details = typedBooks.find(Filters.eq("isbn", book.getIsbn()))
+                    .projection(BookDocuments.DETAIL_FIELDS)
+                    .first();
+            if (details == null) {
+                throw new BooksDbException("No book found with ISBN: " + book.getIsbn());
+            }
+            book.setDetails(details.getStoryLine(), details.getAuthors());
+        } catch (MongoException e) {
+            throw new BooksDbException("Error loading book details from MongoDB database", e);
+        }
+    }
+
+    /**
+     * Runs a search and collects all batches into a single list.
+     */
+    private List<Book> findBooks(SearchMode mode, String searchFor) throws BooksDbException {
         List<Book> result = new ArrayList<>();
+        searchBooks(mode, searchFor, DEFAULT_BATCH_SIZE, result::addAll);
+        return result;
+    }
 
+    /**
+     * Subscribes to the changes of the books collection through a MongoDB change stream,
+     * which needs a replica set. Pre-images are enabled on the collection if the user may
+     * do so, so deletes and ISBN changes can be tied to the book they changed; without
+     * them those are delivered as a Reset. The subscription ends at disconnect.
+     *
+     * @param listener Receives each change, on the thread reading the stream.
+     * @param errors   Receives the error if the stream stops, e.g. on a standalone server.
+     * @return The subscription.
+     * @throws BooksDbException If there are issues with the database connection.
+     */
+    @Override
+    public BookSubscription watchBooks(Consumer<BookChange> listener, Consumer<BooksDbException> errors) throws BooksDbException {
+        if (mongoDatabase == null) {
+            throw new BooksDbException("Not connected to the database");
+        }
         try {
-            // Convert the rating string to an integer
-            int rating = Integer.parseInt(ratingString);
+            mongoDatabase.runCommand(new Document("collMod", booksCollection.getNamespace().getCollectionName())
+                    .append("changeStreamPreAndPostImages", new Document("enabled", true)));
+        } catch (MongoException e) {
+            // needs MongoDB 6.0 and the collMod privilege
+            System.out.println("Change stream pre-images not enabled, deletes re-run the search: " + e.getMessage());
+        }
+        BookChangeStream stream = new BookChangeStream(typedBooks, listener, errors);
+        changeStreams.removeIf(running -> !running.isRunning());
+        changeStreams.add(stream);
+        stream.start();
+        return stream;
+    }
 
-            // Find books with the specified rating
-            FindIterable<Document> foundBooks = booksCollection.find(Filters.eq("rating", rating));
+    /**
+     * Converts MongoDB documents representing books to Book objects, delivering them in batches.
+     *
+     * The cursor is closed as soon as the calling thread is interrupted, e.g. when
+     * the search has been superseded, so the server stops producing results.
+     *
+     * @param foundBooks   The FindIterable<RawBsonDocument> of the search.
+     * @param batchSize    The number of books per batch.
+     * @param projection   The projection used by the query.
+     * @param consumer     Receives each batch of books.
+     * @return The number of books delivered.
+     * @throws BooksDbException If the search was cancelled.
+     */
+    private long getBooksFromDb(FindIterable<RawBsonDocument> foundBooks, int batchSize, BookProjection projection,
+                                Consumer<List<Book>> consumer) throws BooksDbException {
+        ParallelBookDecoder decoder = new ParallelBookDecoder(
+                BookDocuments.CODECS.get(Book.class), ForkJoinPool.commonPool(), decodeParallelism);
+        Consumer<Book> prepare = projection == BookProjection.Summary
+                ? book -> book.setDetailsLoader(detailsLoader)
+                : book -> { };
+        // closing the cursor early kills it on the server
+        try (MongoCursor<RawBsonDocument> cursor = foundBooks.iterator()) {
+            return decoder.decode(cursor, batchSize, prepare, consumer);
+        }
+    }
 
-            getBooksFromDb(result, foundBooks);
-        } catch (NumberFormatException e) {
-            throw new BooksDbException("Invalid rating format: " + ratingString, e);
-        } catch (MongoException e) {
-            throw new BooksDbException("Error searching books by rating", e);
+    /**
+     * Hands a search to the slow-query log, which explains and logs it in the background
+     * if it took longer than the threshold.
+     */
+    private void recordIfSlow(String source, MatchMode match, Bson filter, Bson sort, int limit, long nanos, long found) {
+        SlowQueryLog slowQueries = slowQueryLog;
+        if (slowQueries != null && slowQueries.isSlow(nanos)) {
+            slowQueries.record(booksCollection, source, match, filter, sort, limit, nanos, found);
         }
+    }
 
-        return result;
+    /**
+     * Converts a MongoDB document representing a book to a Book object.
+     * Package-private so the mapping can be benchmarked on its own.
+     *
+     * @param doc The document to convert.
+     * @return The Book object.
+     */
+    Book toBook(Document doc) {
+        return BookDocuments.toBook(doc);
     }
 
     /**
@@ -425,21 +1124,12 @@ public class BooksDbImpl implements BooksDbInterface{
     public List<Author> getAllAuthors() throws BooksDbException {
         List<Author> authors = new ArrayList<>();
         try {
-            // Query all documents in the authors collection
-            FindIterable<Document> documents = authorsCollection.find();
-
-            // Iterate over each document and convert it to an Author object
-            for (Document doc : documents) {
-                String name = doc.getString("name");
-                Date dateOfBirth = doc.getDate("dateOfBirth");
-
-                // Convert Date to LocalDate
-                LocalDate localDateOfBirth = convertToLocalDateViaInstant(dateOfBirth);
-
-                // Create a new Author object and add it to the list
-                Author author = new Author(name, localDateOfBirth);
-                authors.add(author);
-            }
+            // Query all documents in the authors collection, reading only the fields we use;
+            // AuthorCodec decodes each document straight into an Author object
+            typedAuthors.find()
+                    .projection(BookDocuments.AUTHOR_FIELDS)
+                    .batchSize(AUTHORS_BATCH_SIZE)
+                    .into(authors);
         } catch (MongoException e) {
             throw new BooksDbException("Error retrieving authors from MongoDB database", e);
         }
@@ -453,9 +1143,7 @@ public class BooksDbImpl implements BooksDbInterface{
      * @param dateToConvert The Date object to be converted.
      * @return The LocalDate representation of the input Date.
      */
-    public LocalDate convertToLocalDateViaInstant(Date dateToConvert) { //convert Date to LocalDate, maybe need later
-        return dateToConvert.toInstant()
-                .atZone(ZoneId.systemDefault())
-                .toLocalDate();
+    public LocalDate convertToLocalDateViaInstant(Date dateToConvert) {
+        return BookDocuments.toLocalDate(dateToConvert);
     }
 }
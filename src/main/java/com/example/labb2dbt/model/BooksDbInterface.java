@@ -2,6 +2,9 @@ package com.example.labb2dbt.model;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * This interface declares methods for querying a Books database.
@@ -18,6 +21,21 @@ import java.util.List;
  */
 public interface BooksDbInterface {
 
+    /**
+     * The batch size used when a search does not specify one.
+     */
+    int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * Returned by countBooks when the books could not be counted in time.
+     */
+    long UNKNOWN_COUNT = -1;
+
+    /**
+     * The number of books returned by searchBooks in FullText mode, best first.
+     */
+    int DEFAULT_FULL_TEXT_LIMIT = 100;
+
     /**
      * Establishes a connection to a MongoDB server and database.
      *
@@ -29,6 +47,20 @@ public interface BooksDbInterface {
      */
     boolean connect(String database, String username, String password) throws BooksDbException;
 
+    /**
+     * Establishes a connection described by a connection profile, e.g. to a local or
+     * replica-set server with a tuned connection pool.
+     *
+     * The default implementation does not support profiles.
+     *
+     * @param profile The connection profile.
+     * @return {@code true} if the connection is successfully established, {@code false} otherwise.
+     * @throws BooksDbException If an error occurs while connecting, or profiles are not supported.
+     */
+    default boolean connect(ConnectionProfile profile) throws BooksDbException {
+        throw new BooksDbException("Connection profiles are not supported by " + getClass().getSimpleName());
+    }
+
     /**
      * Disconnects from the database.
      *
@@ -49,6 +81,54 @@ public interface BooksDbInterface {
      */
     void addAuthor(Author author) throws BooksDbException;
 
+    /**
+     * Adds many books to the database. A book that cannot be added is reported in the
+     * result and does not stop the others from being added.
+     *
+     * The default implementation adds the books one by one.
+     *
+     * @param books The books to be added.
+     * @return The number of added books, the failures and the throughput.
+     * @throws BooksDbException If there is an issue with the database that stops the whole import.
+     */
+    default BulkImportResult addBooks(Iterable<Book> books) throws BooksDbException {
+        BulkImportResult result = new BulkImportResult();
+        for (Book book : books) {
+            try {
+                addBook(book);
+                result.addInserted(1);
+            } catch (BooksDbException e) {
+                result.addFailure(-1, book.getIsbn(), e.getMessage());
+            }
+        }
+        result.finish();
+        return result;
+    }
+
+    /**
+     * Adds many authors to the database. An author that cannot be added is reported in the
+     * result and does not stop the others from being added.
+     *
+     * The default implementation adds the authors one by one.
+     *
+     * @param authors The authors to be added.
+     * @return The number of added authors, the failures and the throughput.
+     * @throws BooksDbException If there is an issue with the database that stops the whole import.
+     */
+    default BulkImportResult addAuthors(Iterable<Author> authors) throws BooksDbException {
+        BulkImportResult result = new BulkImportResult();
+        for (Author author : authors) {
+            try {
+                addAuthor(author);
+                result.addInserted(1);
+            } catch (BooksDbException e) {
+                result.addFailure(-1, author.getName(), e.getMessage());
+            }
+        }
+        result.finish();
+        return result;
+    }
+
     /**
      * Updates the information of an existing book.
      *
@@ -77,6 +157,43 @@ public interface BooksDbInterface {
      */
     void updateBookRating(Book book, int newRating) throws BooksDbException;
 
+    /**
+     * Updates the ratings of several books in one go. Unlike updateBookRating, a rating
+     * that is already set is not an error. This default updates the books one by one;
+     * the databases override it to write all ratings at once.
+     *
+     * @param ratings The new rating of each book, by ISBN.
+     * @return The number of books whose rating changed.
+     * @throws RatingsNotWrittenException If some of the ratings were not written, e.g. because
+     *                                    their books do not exist; all other ratings were written.
+     * @throws BooksDbException If the ratings could not be written; some of them may have been written.
+     */
+    default int updateBookRatings(Map<String, Integer> ratings) throws BooksDbException {
+        int changed = 0;
+        List<String> unwritten = new ArrayList<>();
+        BooksDbException firstError = null;
+        for (Map.Entry<String, Integer> rating : ratings.entrySet()) {
+            try {
+                Book book = searchBooksByISBN(rating.getKey()).stream()
+                        .filter(found -> found.getIsbn().equals(rating.getKey()))
+                        .findFirst()
+                        .orElseThrow(() -> new BooksDbException("No book found with ISBN: " + rating.getKey()));
+                if (book.getRating() != rating.getValue()) {
+                    updateBookRating(book, rating.getValue());
+                    changed++;
+                }
+            } catch (BooksDbException e) {
+                unwritten.add(rating.getKey());
+                if (firstError == null) firstError = e;
+            }
+        }
+        if (firstError != null) {
+            throw new RatingsNotWrittenException("Could not write the ratings of " + unwritten.size()
+                    + " of the books: " + unwritten, unwritten, firstError);
+        }
+        return changed;
+    }
+
     /**
      * Searches for books by author name.
      *
@@ -122,6 +239,180 @@ public interface BooksDbInterface {
      */
     List<Book> searchBooksByRating(String rating) throws BooksDbException;
 
+    /**
+     * Searches for books and delivers the result in batches, so a caller can show
+     * the first rows before the whole result has been read, and never needs to hold
+     * the full result in memory.
+     *
+     * The default implementation runs the corresponding list-based search and
+     * splits the result; implementations backed by a cursor should override it.
+     *
+     * @param mode      The field to search on.
+     * @param searchFor The value to search for.
+     * @param batchSize The maximum number of books per batch.
+     * @param consumer  Receives each batch of books, in order, on the calling thread.
+     * @throws BooksDbException If an error occurs while searching in the database.
+     */
+    default void searchBooks(SearchMode mode, String searchFor, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        if (batchSize < 1) {
+            throw new BooksDbException("Invalid batch size: " + batchSize);
+        }
+        List<Book> result;
+        switch (mode) {
+            case Title:
+                result = searchBooksByTitle(searchFor);
+                break;
+            case ISBN:
+                result = searchBooksByISBN(searchFor);
+                break;
+            case Author:
+                result = searchBooksByAuthor(searchFor);
+                break;
+            case Genre:
+                result = searchBooksByGenre(searchFor);
+                break;
+            case Rating:
+                result = searchBooksByRating(searchFor);
+                break;
+            default:
+                throw new BooksDbException("Unsupported search mode: " + mode);
+        }
+        for (int from = 0; from < result.size(); from += batchSize) {
+            consumer.accept(new ArrayList<>(result.subList(from, Math.min(from + batchSize, result.size()))));
+        }
+    }
+
+    /**
+     * Searches for books using the given match mode and delivers the result in batches.
+     * Use this instead of the substring searches above when an anchored match is enough,
+     * since anchored matches can be answered from an index.
+     *
+     * The default implementation only supports MatchMode.Substring.
+     *
+     * @param mode      The field to search on.
+     * @param match     How the search string is matched against the field.
+     * @param searchFor The value to search for.
+     * @param batchSize The maximum number of books per batch.
+     * @param consumer  Receives each batch of books, in order, on the calling thread.
+     * @throws BooksDbException If an error occurs while searching in the database,
+     *                          or the match mode is not supported.
+     */
+    default void searchBooks(SearchMode mode, MatchMode match, String searchFor, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        if (match != MatchMode.Substring) {
+            throw new BooksDbException("Match mode not supported: " + match);
+        }
+        searchBooks(mode, searchFor, batchSize, consumer);
+    }
+
+    /**
+     * Searches for books using the given match mode and delivers the result in batches,
+     * loading only the fields selected by the projection. Books from a Summary search
+     * fetch their story line and authors on first access.
+     *
+     * The default implementation ignores the projection and loads all fields.
+     *
+     * @param mode       The field to search on.
+     * @param match      How the search string is matched against the field.
+     * @param searchFor  The value to search for.
+     * @param projection Which fields to load.
+     * @param batchSize  The maximum number of books per batch.
+     * @param consumer   Receives each batch of books, in order, on the calling thread.
+     * @throws BooksDbException If an error occurs while searching in the database,
+     *                          or the match mode is not supported.
+     */
+    default void searchBooks(SearchMode mode, MatchMode match, String searchFor, BookProjection projection,
+                             int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        searchBooks(mode, match, searchFor, batchSize, consumer);
+    }
+
+    /**
+     * Searches for books matching a combination of criteria, ordered and limited as the
+     * query says, and delivers the result in batches. The whole combination is one
+     * search, so implementations backed by a server send it as a single query.
+     *
+     * The default implementation reads all books with a Substring search on the title,
+     * which leaves out books without a title, and filters them in memory, holding only
+     * the books of the requested page; the databases override it.
+     *
+     * @param query      The criteria, order, position and limit.
+     * @param projection Which fields to load.
+     * @param batchSize  The maximum number of books per batch.
+     * @param consumer   Receives each batch of books, in order, on the calling thread.
+     * @throws BooksDbException If an error occurs while searching in the database,
+     *                          or a criterion is not valid for its field.
+     */
+    default void searchBooks(BookQuery query, BookProjection projection, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        if (batchSize <= 0) {
+            throw new BooksDbException("Invalid batch size: " + batchSize);
+        }
+        Predicate<Book> matcher = query.matcher();
+        QuerySelection selection = new QuerySelection(query);
+        searchBooks(SearchMode.Title, MatchMode.Substring, "", projection, batchSize, batch -> {
+            for (Book book : batch) {
+                if (matcher.test(book)) selection.offer(book);
+            }
+        });
+        selection.deliver(batchSize, consumer);
+    }
+
+    /**
+     * Counts the books matching the criteria of a query; its order, position, skip and
+     * limit are ignored. Implementations backed by a server may give up when counting
+     * would take too long and return UNKNOWN_COUNT instead.
+     *
+     * The default implementation counts the books of a Substring search on the title,
+     * like the default searchBooks.
+     *
+     * @param query The criteria.
+     * @return The number of matching books, or UNKNOWN_COUNT if they could not be counted in time.
+     * @throws BooksDbException If an error occurs while counting, or a criterion is not valid for its field.
+     */
+    default long countBooks(BookQuery query) throws BooksDbException {
+        Predicate<Book> matcher = query.matcher();
+        long[] count = {0};
+        searchBooks(SearchMode.Title, MatchMode.Substring, "", BookProjection.Summary, 1000, batch -> {
+            for (Book book : batch) {
+                if (matcher.test(book)) count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Searches the titles and story lines for the words of a free-text query and
+     * returns the best matching books, best first. The same search is run by
+     * searchBooks with SearchMode.FullText.
+     *
+     * The default implementation does not support full-text searches.
+     *
+     * @param query The free-text query.
+     * @param limit The maximum number of books to return.
+     * @return The best matching books, best first.
+     * @throws BooksDbException If an error occurs while searching, or full-text searches are not supported.
+     */
+    default List<Book> searchBooksByText(String query, int limit) throws BooksDbException {
+        throw new BooksDbException("Full-text searches are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Loads the story line and authors of a book returned by a Summary search.
+     *
+     * The default implementation looks the book up by ISBN.
+     *
+     * @param book The book to load the details of.
+     * @throws BooksDbException If an error occurs while reading from the database,
+     *                          or the book no longer exists.
+     */
+    default void loadBookDetails(Book book) throws BooksDbException {
+        for (Book found : searchBooksByISBN(book.getIsbn())) {
+            if (found.getIsbn().equals(book.getIsbn())) {
+                book.setDetails(found.getStoryLine(), found.getAuthors());
+                return;
+            }
+        }
+        throw new BooksDbException("No book found with ISBN: " + book.getIsbn());
+    }
+
     /**
      * Retrieves all authors from the database.
      * @return A list of authors.
@@ -129,4 +420,20 @@ public interface BooksDbInterface {
      */
     List<Author> getAllAuthors() throws BooksDbException;
 
+    /**
+     * Subscribes to the inserts, updates and deletes of books made by any client, so
+     * the books read earlier can be kept up to date without searching again. The
+     * changes are delivered in order on a thread of the database.
+     *
+     * The default implementation does not support subscriptions.
+     *
+     * @param listener Receives each change.
+     * @param errors   Receives the error if the subscription stops by itself.
+     * @return The subscription, to be closed when the changes are no longer needed.
+     * @throws BooksDbException If the database is not connected or does not support subscriptions.
+     */
+    default BookSubscription watchBooks(Consumer<BookChange> listener, Consumer<BooksDbException> errors) throws BooksDbException {
+        throw new BooksDbException("Live updates are not supported by " + getClass().getSimpleName());
+    }
+
 }
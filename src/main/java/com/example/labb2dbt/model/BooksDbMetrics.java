@@ -0,0 +1,205 @@
+package com.example.labb2dbt.model;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The metrics of a books database: per operation and search mode, as recorded by
+ * InstrumentedBooksDb, and per command sent to MongoDB, as timed by the driver when
+ * this object is registered as a command listener, e.g. with
+ * {@link BooksDbImpl#addCommandListener(CommandListener)}. The command timings are
+ * the server round-trips, without the decoding and the waiting for a connection.
+ * <p>
+ * Metrics are created on first use. Once {@link #registerMBeans()} has been called
+ * they are published as MXBeans, and {@link #writePrometheus(StringBuilder)} writes
+ * them in the Prometheus text format.
+ */
+public class BooksDbMetrics implements CommandListener {
+
+    public static final String JMX_DOMAIN = "com.example.labb2dbt";
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private record Key(String operation, String mode) {
+    }
+
+    private final ConcurrentMap<Key, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, OperationMetrics> commands = new ConcurrentHashMap<>();
+    private volatile MBeanServer mbeanServer; // set once the metrics are published
+
+    /**
+     * Gets the metrics of an operation, creating them on first use.
+     *
+     * @param operation The name of the operation, e.g. searchBooks.
+     * @param mode      The search mode, or null for operations without one.
+     * @return The metrics.
+     */
+    public OperationMetrics operation(String operation, String mode) {
+        Key key = new Key(operation, mode == null ? "" : mode);
+        OperationMetrics metrics = operations.get(key);
+        if (metrics != null) return metrics;
+        return operations.computeIfAbsent(key, k -> publish("Operation", new OperationMetrics(k.operation(), k.mode())));
+    }
+
+    /**
+     * Gets the metrics of a MongoDB command, creating them on first use.
+     *
+     * @param command The command name, e.g. find or getMore.
+     * @return The metrics.
+     */
+    public OperationMetrics command(String command) {
+        OperationMetrics metrics = commands.get(command);
+        if (metrics != null) return metrics;
+        return commands.computeIfAbsent(command, name -> publish("Command", new OperationMetrics(name, "")));
+    }
+
+    /**
+     * Gets the metrics of all operations called so far.
+     *
+     * @return The metrics, ordered by operation and mode.
+     */
+    public List<OperationMetrics> getOperations() {
+        return sorted(operations.values());
+    }
+
+    /**
+     * Gets the metrics of all commands sent so far.
+     *
+     * @return The metrics, ordered by command.
+     */
+    public List<OperationMetrics> getCommands() {
+        return sorted(commands.values());
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        command(event.getCommandName()).record(event.getElapsedTime(TimeUnit.NANOSECONDS), 0, false);
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        command(event.getCommandName()).record(event.getElapsedTime(TimeUnit.NANOSECONDS), 0, true);
+    }
+
+    /**
+     * Publishes the metrics as MXBeans in the platform MBean server, named e.g.
+     * com.example.labb2dbt:type=Operation,operation=searchBooks,mode=Genre. Metrics
+     * created later are published as they are created.
+     */
+    public synchronized void registerMBeans() {
+        if (mbeanServer != null) return;
+        mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        operations.values().forEach(metrics -> publish("Operation", metrics));
+        commands.values().forEach(metrics -> publish("Command", metrics));
+    }
+
+    /**
+     * Removes the published MXBeans.
+     */
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = mbeanServer;
+        if (server == null) return;
+        mbeanServer = null;
+        operations.values().forEach(metrics -> unpublish(server, "Operation", metrics));
+        commands.values().forEach(metrics -> unpublish(server, "Command", metrics));
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format: a summary of the
+     * latencies in seconds with the 0.5, 0.99 and 0.999 quantiles, and counters of
+     * errors and results, for each operation and each command.
+     *
+     * @param out The text to append to.
+     */
+    public void writePrometheus(StringBuilder out) {
+        writeFamily(out, "books_db_operation", "BooksDbInterface call", getOperations(), true);
+        writeFamily(out, "books_db_command", "MongoDB command", getCommands(), false);
+    }
+
+    private static void writeFamily(StringBuilder out, String family, String what, List<OperationMetrics> all, boolean operations) {
+        out.append("# HELP ").append(family).append("_seconds Latency of each ").append(what).append(".\n");
+        out.append("# TYPE ").append(family).append("_seconds summary\n");
+        for (OperationMetrics metrics : all) {
+            String labels = labels(metrics, operations);
+            LatencyHistogram latencies = metrics.getLatencies();
+            for (double quantile : QUANTILES) {
+                out.append(family).append("_seconds{").append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(latencies.getPercentileNanos(quantile))).append('\n');
+            }
+            out.append(family).append("_seconds_sum{").append(labels).append("} ").append(seconds(latencies.getSumNanos())).append('\n');
+            out.append(family).append("_seconds_count{").append(labels).append("} ").append(latencies.getCount()).append('\n');
+        }
+        out.append("# HELP ").append(family).append("_errors_total Failed ").append(what).append("s.\n");
+        out.append("# TYPE ").append(family).append("_errors_total counter\n");
+        for (OperationMetrics metrics : all) {
+            out.append(family).append("_errors_total{").append(labels(metrics, operations)).append("} ").append(metrics.getErrors()).append('\n');
+        }
+        if (!operations) return;
+        out.append("# HELP ").append(family).append("_results_total Books, authors or documents returned or written.\n");
+        out.append("# TYPE ").append(family).append("_results_total counter\n");
+        for (OperationMetrics metrics : all) {
+            out.append(family).append("_results_total{").append(labels(metrics, true)).append("} ").append(metrics.getResults()).append('\n');
+        }
+    }
+
+    private static String labels(OperationMetrics metrics, boolean operations) {
+        if (!operations) return "command=\"" + escape(metrics.getOperation()) + '"';
+        return "operation=\"" + escape(metrics.getOperation()) + "\",mode=\"" + escape(metrics.getMode()) + '"';
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private OperationMetrics publish(String type, OperationMetrics metrics) {
+        MBeanServer server = mbeanServer;
+        if (server == null) return metrics;
+        try {
+            ObjectName name = objectName(type, metrics);
+            if (!server.isRegistered(name)) server.registerMBean(metrics, name);
+        } catch (JMException e) {
+            System.err.println("Could not publish the metrics of " + metrics.getOperation() + ": " + e.getMessage());
+        }
+        return metrics;
+    }
+
+    private static void unpublish(MBeanServer server, String type, OperationMetrics metrics) {
+        try {
+            ObjectName name = objectName(type, metrics);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        } catch (JMException e) {
+            System.err.println("Could not unpublish the metrics of " + metrics.getOperation() + ": " + e.getMessage());
+        }
+    }
+
+    private static ObjectName objectName(String type, OperationMetrics metrics) throws JMException {
+        StringBuilder name = new StringBuilder(JMX_DOMAIN).append(":type=").append(type)
+                .append(",operation=").append(metrics.getOperation());
+        if (!metrics.getMode().isEmpty()) name.append(",mode=").append(metrics.getMode());
+        return new ObjectName(name.toString());
+    }
+
+    private static List<OperationMetrics> sorted(Collection<OperationMetrics> metrics) {
+        List<OperationMetrics> list = new ArrayList<>(metrics);
+        list.sort(Comparator.comparing(OperationMetrics::getOperation).thenComparing(OperationMetrics::getMode));
+        return list;
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.labb2dbt.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The outcome of a bulk import: how many records were inserted, which ones failed
+ * and why, and the throughput. Failures do not abort an import, so a batch with a
+ * duplicate ISBN still inserts its other books.
+ * <p>
+ * The counters are updated concurrently by the batches of a parallel import.
+ */
+public class BulkImportResult {
+
+    /**
+     * A record that could not be imported.
+     *
+     * @param batch   The number of the batch the record belonged to, or -1 if it failed before batching.
+     * @param key     The ISBN of the book or the name of the author, if known.
+     * @param message The reason, e.g. a duplicate key error or a parse error.
+     */
+    public record Failure(long batch, String key, String message) {
+    }
+
+    /** Only this many failures are kept with details, the rest are counted. */
+    public static final int MAX_FAILURE_DETAILS = 1000;
+
+    private final AtomicLong inserted = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final List<Failure> failures = new ArrayList<>();
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+
+    void addInserted(long count) {
+        inserted.addAndGet(count);
+    }
+
+    void addBatch() {
+        batches.incrementAndGet();
+    }
+
+    void addFailure(long batch, String key, String message) {
+        failedCount.incrementAndGet();
+        synchronized (failures) {
+            if (failures.size() < MAX_FAILURE_DETAILS) {
+                failures.add(new Failure(batch, key, message));
+            }
+        }
+    }
+
+    void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * Gets the number of records inserted.
+     *
+     * @return The inserted count.
+     */
+    public long getInserted() {
+        return inserted.get();
+    }
+
+    /**
+     * Gets the number of records that could not be imported.
+     *
+     * @return The failed count.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Gets the number of batches written.
+     *
+     * @return The batch count.
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Gets the details of the first failures, at most MAX_FAILURE_DETAILS.
+     *
+     * @return A copy of the failures.
+     */
+    public List<Failure> getFailures() {
+        synchronized (failures) {
+            return new ArrayList<>(failures);
+        }
+    }
+
+    /**
+     * Gets the time the import took, or has taken so far.
+     *
+     * @return The elapsed time in milliseconds.
+     */
+    public long getElapsedMillis() {
+        long end = endNanos == 0 ? System.nanoTime() : endNanos;
+        return (end - startNanos) / 1_000_000;
+    }
+
+    /**
+     * Gets the import throughput.
+     *
+     * @return The number of records inserted per second.
+     */
+    public double getInsertedPerSecond() {
+        long millis = Math.max(1, getElapsedMillis());
+        return inserted.get() * 1000.0 / millis;
+    }
+
+    /**
+     * Provides a one-line summary of the import.
+     *
+     * @return The summary.
+     */
+    @Override
+    public String toString() {
+        return "BulkImportResult{" +
+                "inserted=" + getInserted() +
+                ", failed=" + getFailedCount() +
+                ", batches=" + getBatches() +
+                ", elapsedMillis=" + getElapsedMillis() +
+                ", insertedPerSecond=" + String.format("%.0f", getInsertedPerSecond()) +
+                '}';
+    }
+}
@@ -0,0 +1,608 @@
+package com.example.labb2dbt.model;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A read-through cache in front of another BooksDbInterface. Search results are kept
+ * per (search mode, match mode, projection, normalized search string), bounded by
+ * number of entries, age and an estimated memory budget, and evicted least recently
+ * used first. Writes through this object invalidate exactly the cached searches the
+ * written book matches, before or after the write; writes made by other clients are
+ * picked up as they arrive while a subscription from watchBooks is open, and otherwise
+ * only when the entries expire. Ranked full-text searches are dropped by
+ * every write, since any book can change their ranking.
+ * <p>
+ * Pages and counts of combined searches with a BookQuery are cached per query and
+ * projection the same way. A write drops the pages holding the book or whose criteria
+ * the written book matches, pages that skip books or depend on ratings when it cannot
+ * tell where the book was, and every count it may have changed.
+ * <p>
+ * The cached Book objects are shared with the callers, which must not modify them.
+ */
+public class CachingBooksDb implements BooksDbInterface {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_TTL_MILLIS = 60_000;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_MAX_ENTRY_BOOKS = 10_000;
+
+    /**
+     * The identity of a cached search.
+     */
+    private sealed interface CacheKey permits ModeKey, QueryKey, CountKey {
+    }
+
+    /**
+     * A search in one search mode.
+     */
+    private record ModeKey(SearchMode mode, MatchMode match, BookProjection projection, String query) implements CacheKey {
+    }
+
+    /**
+     * A page of a combined search.
+     */
+    private record QueryKey(BookQuery query, BookProjection projection) implements CacheKey {
+    }
+
+    /**
+     * The number of books matching a combined search.
+     */
+    private record CountKey(BookQuery query) implements CacheKey {
+    }
+
+    private static final class CacheEntry {
+        final List<Book> books;
+        final long count;
+        final Predicate<Book> matcher; // the criteria of a combined search, null for a mode search
+        final long bytes;
+        final long expiresAtNanos;
+
+        CacheEntry(List<Book> books, long count, Predicate<Book> matcher, long bytes, long expiresAtNanos) {
+            this.books = books;
+            this.count = count;
+            this.matcher = matcher;
+            this.bytes = bytes;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    /**
+     * A search run on the delegate, delivering its result in batches.
+     */
+    private interface DelegateSearch {
+        void run(Consumer<List<Book>> consumer) throws BooksDbException;
+    }
+
+    private final BooksDbInterface delegate;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long maxBytes;
+    private final int maxEntryBooks;
+
+    // access-ordered, so iteration starts at the least recently used entry; guarded by this
+    private final LinkedHashMap<CacheKey, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    // bumped by every write, so a search overlapping a write does not cache a stale result
+    private final AtomicLong writeGeneration = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Constructs a cache with the default limits.
+     *
+     * @param delegate The database to cache.
+     */
+    public CachingBooksDb(BooksDbInterface delegate) {
+        this(delegate, DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS, DEFAULT_MAX_BYTES, DEFAULT_MAX_ENTRY_BOOKS);
+    }
+
+    /**
+     * Constructs a cache with the given limits.
+     *
+     * @param delegate      The database to cache.
+     * @param maxEntries    The maximum number of cached searches.
+     * @param ttlMillis     How long a search stays cached.
+     * @param maxBytes      The memory budget, compared with the estimated size of the cached books.
+     * @param maxEntryBooks Searches with more books than this are not cached.
+     */
+    public CachingBooksDb(BooksDbInterface delegate, int maxEntries, long ttlMillis, long maxBytes, int maxEntryBooks) {
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000;
+        this.maxBytes = maxBytes;
+        this.maxEntryBooks = maxEntryBooks;
+    }
+
+    @Override
+    public boolean connect(String database, String username, String password) throws BooksDbException {
+        clear();
+        return delegate.connect(database, username, password);
+    }
+
+    @Override
+    public boolean connect(ConnectionProfile profile) throws BooksDbException {
+        clear();
+        return delegate.connect(profile);
+    }
+
+    @Override
+    public void disconnect() throws BooksDbException {
+        clear();
+        delegate.disconnect();
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        writeGeneration.incrementAndGet();
+        delegate.addBook(book);
+        invalidate(book, null);
+    }
+
+    @Override
+    public BulkImportResult addBooks(Iterable<Book> books) throws BooksDbException {
+        writeGeneration.incrementAndGet();
+        try {
+            return delegate.addBooks(books);
+        } finally {
+            // matching every imported book against every entry costs more than refilling
+            clear();
+        }
+    }
+
+    @Override
+    public void addAuthor(Author author) throws BooksDbException {
+        delegate.addAuthor(author);
+    }
+
+    @Override
+    public BulkImportResult addAuthors(Iterable<Author> authors) throws BooksDbException {
+        return delegate.addAuthors(authors);
+    }
+
+    @Override
+    public void updateBook(String isbn, Book book) throws BooksDbException {
+        writeGeneration.incrementAndGet();
+        try {
+            delegate.updateBook(isbn, book);
+        } finally {
+            invalidate(book, isbn);
+        }
+    }
+
+    @Override
+    public void deleteBook(Book book) throws BooksDbException {
+        writeGeneration.incrementAndGet();
+        try {
+            delegate.deleteBook(book);
+        } finally {
+            invalidate(null, book.getIsbn());
+        }
+    }
+
+    @Override
+    public void updateBookRating(Book book, int newRating) throws BooksDbException {
+        writeGeneration.incrementAndGet();
+        try {
+            delegate.updateBookRating(book, newRating);
+        } finally {
+            invalidate(null, book.getIsbn());
+            invalidateRating(newRating);
+        }
+    }
+
+    @Override
+    public int updateBookRatings(Map<String, Integer> ratings) throws BooksDbException {
+        writeGeneration.incrementAndGet();
+        try {
+            return delegate.updateBookRatings(ratings);
+        } finally {
+            for (String isbn : ratings.keySet()) {
+                invalidate(null, isbn);
+            }
+            for (int rating : new HashSet<>(ratings.values())) {
+                invalidateRating(rating);
+            }
+        }
+    }
+
+    /**
+     * Subscribes to the changes of the books through the delegate, invalidating the
+     * cached searches each change affects before the listener gets it.
+     */
+    @Override
+    public BookSubscription watchBooks(Consumer<BookChange> listener, Consumer<BooksDbException> errors) throws BooksDbException {
+        return delegate.watchBooks(change -> {
+            writeGeneration.incrementAndGet();
+            if (change.kind() == BookChange.Kind.Reset) {
+                clear();
+            } else {
+                invalidate(change.book(), change.getOldIsbn());
+            }
+            listener.accept(change);
+        }, errors);
+    }
+
+    @Override
+    public List<Book> searchBooksByAuthor(String author) throws BooksDbException {
+        return collect(SearchMode.Author, author);
+    }
+
+    @Override
+    public List<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        return collect(SearchMode.Genre, genre);
+    }
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        return collect(SearchMode.Title, title);
+    }
+
+    @Override
+    public List<Book> searchBooksByISBN(String isbn) throws BooksDbException {
+        return collect(SearchMode.ISBN, isbn);
+    }
+
+    @Override
+    public List<Book> searchBooksByRating(String rating) throws BooksDbException {
+        return collect(SearchMode.Rating, rating);
+    }
+
+    @Override
+    public void searchBooks(SearchMode mode, String searchFor, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        searchBooks(mode, MatchMode.Substring, searchFor, BookProjection.Full, batchSize, consumer);
+    }
+
+    @Override
+    public void searchBooks(SearchMode mode, MatchMode match, String searchFor, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        searchBooks(mode, match, searchFor, BookProjection.Full, batchSize, consumer);
+    }
+
+    /**
+     * Searches for books, answering from the cache if the same search is cached, and
+     * otherwise streaming the result from the delegate while keeping a copy for the cache.
+     */
+    @Override
+    public void searchBooks(SearchMode mode, MatchMode match, String searchFor, BookProjection projection,
+                            int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        if (batchSize < 1) {
+            throw new BooksDbException("Invalid batch size: " + batchSize);
+        }
+        searchThrough(keyFor(mode, match, projection, searchFor), null, batchSize, consumer,
+                copying -> delegate.searchBooks(mode, match, searchFor, projection, batchSize, copying));
+    }
+
+    /**
+     * Searches for the books matching a combined query, answering from the cache if the
+     * same page of the same query is cached, and otherwise streaming the page from the
+     * delegate while keeping a copy for the cache.
+     */
+    @Override
+    public void searchBooks(BookQuery query, BookProjection projection, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        if (batchSize < 1) {
+            throw new BooksDbException("Invalid batch size: " + batchSize);
+        }
+        searchThrough(new QueryKey(query, projection), query.matcher(), batchSize, consumer,
+                copying -> delegate.searchBooks(query, projection, batchSize, copying));
+    }
+
+    /**
+     * Counts the books matching a combined query, answering from the cache if the same
+     * count is cached. A count the delegate could not make in time is not cached.
+     */
+    @Override
+    public long countBooks(BookQuery query) throws BooksDbException {
+        CountKey key = new CountKey(query);
+        CacheEntry cached = lookup(key);
+        if (cached != null) return cached.count;
+
+        Predicate<Book> matcher = query.matcher();
+        long generation = writeGeneration.get();
+        long count = delegate.countBooks(query);
+        if (count != UNKNOWN_COUNT && generation == writeGeneration.get()) {
+            store(key, List.of(), count, matcher);
+        }
+        return count;
+    }
+
+    @Override
+    public List<Book> searchBooksByText(String query, int limit) throws BooksDbException {
+        return delegate.searchBooksByText(query, limit);
+    }
+
+    @Override
+    public void loadBookDetails(Book book) throws BooksDbException {
+        delegate.loadBookDetails(book);
+    }
+
+    @Override
+    public List<Author> getAllAuthors() throws BooksDbException {
+        return delegate.getAllAuthors();
+    }
+
+    private List<Book> collect(SearchMode mode, String searchFor) throws BooksDbException {
+        List<Book> result = new ArrayList<>();
+        searchBooks(mode, MatchMode.Substring, searchFor, BookProjection.Full, DEFAULT_BATCH_SIZE, result::addAll);
+        return result;
+    }
+
+    /**
+     * Delivers a cached result in batches, or runs the search on the delegate, passing
+     * each batch on as it arrives and caching a copy of the result unless it is too large
+     * or a write overlapped the search.
+     */
+    private void searchThrough(CacheKey key, Predicate<Book> matcher, int batchSize, Consumer<List<Book>> consumer,
+                               DelegateSearch search) throws BooksDbException {
+        CacheEntry cached = lookup(key);
+        if (cached != null) {
+            List<Book> books = cached.books;
+            for (int from = 0; from < books.size(); from += batchSize) {
+                consumer.accept(new ArrayList<>(books.subList(from, Math.min(from + batchSize, books.size()))));
+            }
+            return;
+        }
+
+        long generation = writeGeneration.get();
+        List<Book> copy = new ArrayList<>();
+        boolean[] tooLarge = {false};
+        search.run(batch -> {
+            if (!tooLarge[0]) {
+                copy.addAll(batch);
+                if (copy.size() > maxEntryBooks) {
+                    // stop copying, a result this large would crowd out everything else
+                    tooLarge[0] = true;
+                    copy.clear();
+                }
+            }
+            consumer.accept(batch);
+        });
+        if (!tooLarge[0] && generation == writeGeneration.get()) {
+            store(key, copy, copy.size(), matcher);
+        }
+    }
+
+    /**
+     * Normalizes the search string where the match mode ignores the difference,
+     * so e.g. "Tolkien" and "tolkien " share an entry in NormalizedPrefix mode.
+     */
+    private static ModeKey keyFor(SearchMode mode, MatchMode match, BookProjection projection, String searchFor) {
+        if (mode == SearchMode.Rating) {
+            return new ModeKey(mode, MatchMode.Exact, projection, searchFor.trim());
+        }
+        String query = searchFor;
+        if (match == MatchMode.NormalizedPrefix) {
+            query = mode == SearchMode.ISBN ? SearchNormalizer.normalizeIsbn(searchFor) : SearchNormalizer.normalize(searchFor);
+        }
+        return new ModeKey(mode, match, projection, query);
+    }
+
+    private synchronized CacheEntry lookup(CacheKey key) {
+        CacheEntry entry = entries.get(key);
+        if (entry != null && entry.expiresAtNanos - System.nanoTime() < 0) {
+            remove(key);
+            evictions.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    private synchronized void store(CacheKey key, List<Book> books, long count, Predicate<Book> matcher) {
+        long size = estimateBytes(books);
+        if (size > maxBytes) return;
+        remove(key);
+        entries.put(key, new CacheEntry(Collections.unmodifiableList(books), count, matcher, size, System.nanoTime() + ttlNanos));
+        bytes += size;
+
+        Iterator<Map.Entry<CacheKey, CacheEntry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(CacheKey key) {
+        CacheEntry removed = entries.remove(key);
+        if (removed != null) bytes -= removed.bytes;
+    }
+
+    /**
+     * Removes the entries a write may have changed: those holding the book with the old ISBN,
+     * and those whose search matches the written book. The old version of a changed book is
+     * not known, so every count it may have been part of is removed, and so are the pages
+     * that skip a number of books, which move when an earlier book leaves the result.
+     *
+     * @param written The book as written, or null if it was deleted.
+     * @param oldIsbn The ISBN the book had before the write, or null for a new book.
+     */
+    private synchronized void invalidate(Book written, String oldIsbn) {
+        Iterator<Map.Entry<CacheKey, CacheEntry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<CacheKey, CacheEntry> entry = it.next();
+            if (isChangedBy(entry.getKey(), entry.getValue(), written, oldIsbn)) {
+                bytes -= entry.getValue().bytes;
+                it.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    private static boolean isChangedBy(CacheKey key, CacheEntry entry, Book written, String oldIsbn) {
+        if (key instanceof ModeKey mode) {
+            return containsIsbn(entry.books, oldIsbn) || matches(mode, written);
+        }
+        if (written != null && entry.matcher.test(written)) return true;
+        if (oldIsbn == null) return false;
+        if (key instanceof QueryKey page) {
+            return containsIsbn(entry.books, oldIsbn) || page.query().getSkip() > 0;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the entries a rating change of a book that is not at hand may have changed:
+     * the searches for that rating and the combined searches with a rating criterion or
+     * ordered by rating, which the book may have moved into.
+     */
+    private synchronized void invalidateRating(int rating) {
+        String query = String.valueOf(rating);
+        Iterator<Map.Entry<CacheKey, CacheEntry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<CacheKey, CacheEntry> entry = it.next();
+            boolean changed;
+            if (entry.getKey() instanceof ModeKey mode) {
+                changed = mode.mode() == SearchMode.Rating && mode.query().equals(query);
+            } else {
+                BookQuery combined = entry.getKey() instanceof QueryKey page ? page.query() : ((CountKey) entry.getKey()).query();
+                changed = combined.getSortField() == BookQuery.SortField.Rating || hasRatingCriterion(combined.getCriterion());
+            }
+            if (changed) {
+                bytes -= entry.getValue().bytes;
+                it.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    private static boolean containsIsbn(List<Book> books, String isbn) {
+        if (isbn == null) return false;
+        for (Book book : books) {
+            if (isbn.equals(book.getIsbn())) return true;
+        }
+        return false;
+    }
+
+    private static boolean hasRatingCriterion(BookQuery.Criterion criterion) {
+        if (criterion instanceof BookQuery.RatingRange) return true;
+        List<BookQuery.Criterion> parts;
+        if (criterion instanceof BookQuery.AllOf all) {
+            parts = all.criteria();
+        } else if (criterion instanceof BookQuery.AnyOf any) {
+            parts = any.criteria();
+        } else {
+            return false;
+        }
+        for (BookQuery.Criterion part : parts) {
+            if (hasRatingCriterion(part)) return true;
+        }
+        return false;
+    }
+
+    private static boolean matches(ModeKey key, Book book) {
+        if (book == null) return false;
+        try {
+            return BookMatcher.of(key.mode(), key.match(), key.query()).matches(book);
+        } catch (BooksDbException e) {
+            return true; // cannot tell, so drop the entry to be safe
+        }
+    }
+
+    /**
+     * Estimates the heap used by a list of books: object headers and fields plus two
+     * bytes per character of the strings. Details not loaded yet count as empty.
+     */
+    static long estimateBytes(List<Book> books) {
+        long size = 64 + 8L * books.size();
+        for (Book book : books) {
+            size += 120 + 2L * (length(book.getIsbn()) + length(book.getTitle()));
+            if (book.isDetailsLoaded()) {
+                size += 2L * length(book.getStoryLine());
+                for (Author author : book.getAuthorsView()) {
+                    size += 80 + 2L * length(author.getName());
+                }
+            }
+            for (Genre genre : book.getGenresView()) {
+                size += 80 + 2L * length(genre.getGenreName());
+            }
+        }
+        return size;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    /**
+     * Removes all cached searches.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Gets the number of searches answered from the cache.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of searches passed on to the delegate.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of entries removed because they expired or the cache was full.
+     *
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Gets the number of entries removed because a write changed a book they held or matched.
+     *
+     * @return The invalidation count.
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * Gets the estimated memory used by the cached books.
+     *
+     * @return The estimated size in bytes.
+     */
+    public synchronized long getEstimatedBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the number of cached searches.
+     *
+     * @return The entry count.
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "CachingBooksDb{" +
+                "entries=" + getEntryCount() +
+                ", estimatedBytes=" + getEstimatedBytes() +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", evictions=" + getEvictionCount() +
+                ", invalidations=" + getInvalidationCount() +
+                '}';
+    }
+}
@@ -0,0 +1,490 @@
+package com.example.labb2dbt.model;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.event.ConnectionPoolListener;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The settings used to connect to MongoDB: the connection string and database, plus the
+ * pool size, timeouts, wire compression, read preference and write concern. Settings that
+ * are not given keep the value of the connection string, or the driver default.
+ * <p>
+ * Profiles are read from a properties file where every key can be prefixed with a profile
+ * name, e.g. {@code local.uri=mongodb://localhost:27017}; unprefixed keys apply to all
+ * profiles. Environment variables named {@code BOOKS_DB_} followed by the key in upper case
+ * with dots replaced by underscores, e.g. {@code BOOKS_DB_POOL_MAXSIZE}, override the file.
+ * The keys are:
+ * <pre>
+ * uri, database, appName,
+ * pool.maxSize, pool.minSize, pool.maxConnecting, pool.maxWaitMillis, pool.maxIdleMillis,
+ * connectTimeoutMillis, socketTimeoutMillis, serverSelectionTimeoutMillis,
+ * compressors (zlib or zlib:level), readPreference (e.g. secondaryPreferred),
+ * writeConcern (e.g. majority, w1, 2), journal, writeTimeoutMillis
+ * </pre>
+ */
+public final class ConnectionProfile {
+
+    /** The system property naming the properties file. */
+    public static final String CONFIG_PROPERTY = "books.db.config";
+    /** The system property naming the profile to use. */
+    public static final String PROFILE_PROPERTY = "books.db.profile";
+    /** The properties file used when none is named, in the working directory. */
+    public static final String DEFAULT_CONFIG_FILE = "books-db.properties";
+    /** The prefix of the environment variables overriding the file. */
+    public static final String ENV_PREFIX = "BOOKS_DB_";
+    public static final String DEFAULT_PROFILE = "default";
+    public static final String DEFAULT_DATABASE = "book_database";
+
+    private static final String[] KEYS = {
+            "uri", "database", "appName",
+            "pool.maxSize", "pool.minSize", "pool.maxConnecting", "pool.maxWaitMillis", "pool.maxIdleMillis",
+            "connectTimeoutMillis", "socketTimeoutMillis", "serverSelectionTimeoutMillis",
+            "compressors", "readPreference", "writeConcern", "journal", "writeTimeoutMillis"
+    };
+
+    private final String name;
+    private final String uri;
+    private final String database;
+    private final String appName;
+    private final Integer maxPoolSize;
+    private final Integer minPoolSize;
+    private final Integer maxConnecting;
+    private final Long maxWaitMillis;
+    private final Long maxIdleMillis;
+    private final Integer connectTimeoutMillis;
+    private final Integer socketTimeoutMillis;
+    private final Long serverSelectionTimeoutMillis;
+    private final List<MongoCompressor> compressors;
+    private final ReadPreference readPreference;
+    private final WriteConcern writeConcern;
+
+    private ConnectionProfile(Builder builder) {
+        this.name = builder.name;
+        this.uri = builder.uri;
+        this.database = builder.database;
+        this.appName = builder.appName;
+        this.maxPoolSize = builder.maxPoolSize;
+        this.minPoolSize = builder.minPoolSize;
+        this.maxConnecting = builder.maxConnecting;
+        this.maxWaitMillis = builder.maxWaitMillis;
+        this.maxIdleMillis = builder.maxIdleMillis;
+        this.connectTimeoutMillis = builder.connectTimeoutMillis;
+        this.socketTimeoutMillis = builder.socketTimeoutMillis;
+        this.serverSelectionTimeoutMillis = builder.serverSelectionTimeoutMillis;
+        this.compressors = List.copyOf(builder.compressors);
+        this.readPreference = builder.readPreference;
+        this.writeConcern = builder.writeConcern;
+    }
+
+    /**
+     * Creates a builder for a profile.
+     *
+     * @param uri The MongoDB connection string.
+     * @return The builder.
+     */
+    public static Builder builder(String uri) {
+        return new Builder(uri);
+    }
+
+    /**
+     * Creates the profile of the application's MongoDB Atlas cluster.
+     *
+     * @param database The database to connect to.
+     * @param username The name of the MongoDB user.
+     * @param password The password of the user.
+     * @return The profile.
+     */
+    public static ConnectionProfile atlas(String database, String username, String password) {
+        return builder("mongodb+srv://" + username + ":" + password + "@labb2dbt.qej8vzl.mongodb.net/?retryWrites=true&w=majority")
+                .name("atlas")
+                .database(database)
+                .build();
+    }
+
+    /**
+     * Finds the configured profile: the file named by the system property
+     * {@value #CONFIG_PROPERTY} or the environment variable BOOKS_DB_CONFIG, else
+     * {@value #DEFAULT_CONFIG_FILE} if it exists, overridden by BOOKS_DB_* environment
+     * variables. The profile is named by {@value #PROFILE_PROPERTY} or BOOKS_DB_PROFILE.
+     *
+     * @return The profile, or empty if no connection string is configured.
+     * @throws BooksDbException If the file cannot be read or a setting is invalid.
+     */
+    public static Optional<ConnectionProfile> configured() throws BooksDbException {
+        Map<String, String> env = System.getenv();
+        String file = System.getProperty(CONFIG_PROPERTY, env.get(ENV_PREFIX + "CONFIG"));
+        Properties properties = new Properties();
+        if (file != null) {
+            properties = read(Path.of(file));
+        } else if (Files.isRegularFile(Path.of(DEFAULT_CONFIG_FILE))) {
+            properties = read(Path.of(DEFAULT_CONFIG_FILE));
+        }
+        String profile = System.getProperty(PROFILE_PROPERTY, env.getOrDefault(ENV_PREFIX + "PROFILE", DEFAULT_PROFILE));
+        return resolve(profile, properties, env);
+    }
+
+    /**
+     * Reads a profile from a properties file.
+     *
+     * @param file    The properties file.
+     * @param profile The profile name.
+     * @return The profile.
+     * @throws BooksDbException If the file cannot be read, the profile has no connection
+     *                          string or a setting is invalid.
+     */
+    public static ConnectionProfile load(Path file, String profile) throws BooksDbException {
+        return resolve(profile, read(file), Map.of())
+                .orElseThrow(() -> new BooksDbException("No uri for profile " + profile + " in " + file));
+    }
+
+    /**
+     * Resolves a profile from properties and environment variables, the latter taking precedence.
+     *
+     * @param profile    The profile name.
+     * @param properties The properties, with keys optionally prefixed by a profile name.
+     * @param env        The environment variables.
+     * @return The profile, or empty if no connection string is given.
+     * @throws BooksDbException If a setting is invalid.
+     */
+    public static Optional<ConnectionProfile> resolve(String profile, Properties properties, Map<String, String> env) throws BooksDbException {
+        Properties values = new Properties();
+        for (String key : KEYS) {
+            String value = env.get(ENV_PREFIX + key.toUpperCase().replace('.', '_'));
+            if (value == null) value = properties.getProperty(profile + "." + key, properties.getProperty(key));
+            if (value != null && !value.isBlank()) values.setProperty(key, value.trim());
+        }
+        if (!values.containsKey("uri")) {
+            return Optional.empty();
+        }
+
+        Builder builder = builder(values.getProperty("uri")).name(profile);
+        builder.database(values.getProperty("database", DEFAULT_DATABASE));
+        builder.appName(values.getProperty("appName"));
+        builder.maxPoolSize(intValue(values, "pool.maxSize"));
+        builder.minPoolSize(intValue(values, "pool.minSize"));
+        builder.maxConnecting(intValue(values, "pool.maxConnecting"));
+        builder.maxWaitMillis(longValue(values, "pool.maxWaitMillis"));
+        builder.maxIdleMillis(longValue(values, "pool.maxIdleMillis"));
+        builder.connectTimeoutMillis(intValue(values, "connectTimeoutMillis"));
+        builder.socketTimeoutMillis(intValue(values, "socketTimeoutMillis"));
+        builder.serverSelectionTimeoutMillis(longValue(values, "serverSelectionTimeoutMillis"));
+        if (values.containsKey("compressors")) {
+            for (String compressor : values.getProperty("compressors").split("\\s*,\\s*")) {
+                builder.compressor(compressor);
+            }
+        }
+        if (values.containsKey("readPreference")) {
+            builder.readPreference(values.getProperty("readPreference"));
+        }
+        if (values.containsKey("writeConcern") || values.containsKey("journal") || values.containsKey("writeTimeoutMillis")) {
+            builder.writeConcern(values.getProperty("writeConcern", "acknowledged"),
+                    values.containsKey("journal") ? Boolean.parseBoolean(values.getProperty("journal")) : null,
+                    longValue(values, "writeTimeoutMillis"));
+        }
+        try {
+            return Optional.of(builder.build());
+        } catch (IllegalArgumentException e) {
+            throw new BooksDbException("Invalid uri for profile " + profile, e);
+        }
+    }
+
+    private static Properties read(Path file) throws BooksDbException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new BooksDbException("Could not read connection profiles from " + file, e);
+        }
+        return properties;
+    }
+
+    private static Integer intValue(Properties values, String key) throws BooksDbException {
+        Long value = longValue(values, key);
+        if (value != null && (value < 0 || value > Integer.MAX_VALUE)) {
+            throw new BooksDbException("Invalid value for " + key + ": " + value);
+        }
+        return value == null ? null : value.intValue();
+    }
+
+    private static Long longValue(Properties values, String key) throws BooksDbException {
+        String value = values.getProperty(key);
+        if (value == null) return null;
+        try {
+            long parsed = Long.parseLong(value);
+            if (parsed < 0) throw new NumberFormatException("negative");
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new BooksDbException("Invalid value for " + key + ": " + value, e);
+        }
+    }
+
+    /**
+     * Builds the client settings of this profile.
+     *
+     * @param listeners Listeners to register with the connection pool, e.g. a PoolStatistics.
+     * @return The settings.
+     */
+    public MongoClientSettings toSettings(ConnectionPoolListener... listeners) {
+        MongoClientSettings.Builder settings = MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(uri))
+                .applyToConnectionPoolSettings(pool -> {
+                    if (maxPoolSize != null) pool.maxSize(maxPoolSize);
+                    if (minPoolSize != null) pool.minSize(minPoolSize);
+                    if (maxConnecting != null) pool.maxConnecting(maxConnecting);
+                    if (maxWaitMillis != null) pool.maxWaitTime(maxWaitMillis, TimeUnit.MILLISECONDS);
+                    if (maxIdleMillis != null) pool.maxConnectionIdleTime(maxIdleMillis, TimeUnit.MILLISECONDS);
+                    for (ConnectionPoolListener listener : listeners) {
+                        pool.addConnectionPoolListener(listener);
+                    }
+                })
+                .applyToSocketSettings(socket -> {
+                    if (connectTimeoutMillis != null) socket.connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS);
+                    if (socketTimeoutMillis != null) socket.readTimeout(socketTimeoutMillis, TimeUnit.MILLISECONDS);
+                })
+                .applyToClusterSettings(cluster -> {
+                    if (serverSelectionTimeoutMillis != null) {
+                        cluster.serverSelectionTimeout(serverSelectionTimeoutMillis, TimeUnit.MILLISECONDS);
+                    }
+                });
+        if (appName != null) settings.applicationName(appName);
+        if (!compressors.isEmpty()) settings.compressorList(compressors);
+        if (readPreference != null) settings.readPreference(readPreference);
+        if (writeConcern != null) settings.writeConcern(writeConcern);
+        return settings.build();
+    }
+
+    /**
+     * Gets the name of the profile.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the connection string of the profile.
+     *
+     * @return The connection string, including the password if it has one.
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * Gets the database to connect to.
+     *
+     * @return The database name.
+     */
+    public String getDatabase() {
+        return database;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionProfile{" +
+                "name=" + name +
+                ", uri=" + uri.replaceFirst("(//[^:/@]+:)[^@]*@", "$1****@") +
+                ", database=" + database +
+                (maxPoolSize != null ? ", maxPoolSize=" + maxPoolSize : "") +
+                (minPoolSize != null ? ", minPoolSize=" + minPoolSize : "") +
+                (maxConnecting != null ? ", maxConnecting=" + maxConnecting : "") +
+                (maxWaitMillis != null ? ", maxWaitMillis=" + maxWaitMillis : "") +
+                (connectTimeoutMillis != null ? ", connectTimeoutMillis=" + connectTimeoutMillis : "") +
+                (socketTimeoutMillis != null ? ", socketTimeoutMillis=" + socketTimeoutMillis : "") +
+                (serverSelectionTimeoutMillis != null ? ", serverSelectionTimeoutMillis=" + serverSelectionTimeoutMillis : "") +
+                (!compressors.isEmpty() ? ", compressors=" + compressors.stream().map(MongoCompressor::getName).toList() : "") +
+                (readPreference != null ? ", readPreference=" + readPreference.getName() : "") +
+                (writeConcern != null ? ", writeConcern=" + writeConcern.asDocument().toJson() : "") +
+                '}';
+    }
+
+    /**
+     * Builds a ConnectionProfile. Settings left unset keep the value of the connection string.
+     */
+    public static final class Builder {
+        private final String uri;
+        private String name = DEFAULT_PROFILE;
+        private String database = DEFAULT_DATABASE;
+        private String appName;
+        private Integer maxPoolSize;
+        private Integer minPoolSize;
+        private Integer maxConnecting;
+        private Long maxWaitMillis;
+        private Long maxIdleMillis;
+        private Integer connectTimeoutMillis;
+        private Integer socketTimeoutMillis;
+        private Long serverSelectionTimeoutMillis;
+        private final List<MongoCompressor> compressors = new ArrayList<>();
+        private ReadPreference readPreference;
+        private WriteConcern writeConcern;
+
+        private Builder(String uri) {
+            if (uri == null || uri.isBlank()) throw new IllegalArgumentException("uri must not be empty");
+            this.uri = uri;
+        }
+
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public Builder database(String database) {
+            this.database = database;
+            return this;
+        }
+
+        public Builder appName(String appName) {
+            this.appName = appName;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of connections per server, which bounds the number of
+         * operations running on a server at the same time.
+         */
+        public Builder maxPoolSize(Integer maxPoolSize) {
+            this.maxPoolSize = maxPoolSize;
+            return this;
+        }
+
+        /**
+         * Sets the number of connections kept open per server even when idle.
+         */
+        public Builder minPoolSize(Integer minPoolSize) {
+            this.minPoolSize = minPoolSize;
+            return this;
+        }
+
+        /**
+         * Sets the number of connections a pool may be establishing at the same time.
+         */
+        public Builder maxConnecting(Integer maxConnecting) {
+            this.maxConnecting = maxConnecting;
+            return this;
+        }
+
+        /**
+         * Sets how long an operation waits for a free connection before it fails.
+         */
+        public Builder maxWaitMillis(Long maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+            return this;
+        }
+
+        /**
+         * Sets how long a connection may stay idle before it is closed.
+         */
+        public Builder maxIdleMillis(Long maxIdleMillis) {
+            this.maxIdleMillis = maxIdleMillis;
+            return this;
+        }
+
+        public Builder connectTimeoutMillis(Integer connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Sets how long a read from a socket may block; 0 waits forever.
+         */
+        public Builder socketTimeoutMillis(Integer socketTimeoutMillis) {
+            this.socketTimeoutMillis = socketTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Sets how long an operation waits for a suitable server, e.g. a primary after a failover.
+         */
+        public Builder serverSelectionTimeoutMillis(Long serverSelectionTimeoutMillis) {
+            this.serverSelectionTimeoutMillis = serverSelectionTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Adds a wire compressor, "zlib" or "zlib:level" with a level from -1 to 9.
+         * Snappy and zstd need native libraries the application does not ship.
+         *
+         * @throws BooksDbException If the compressor is not supported.
+         */
+        public Builder compressor(String compressor) throws BooksDbException {
+            String[] parts = compressor.trim().split(":");
+            if (!parts[0].equalsIgnoreCase("zlib")) {
+                throw new BooksDbException("Unsupported compressor: " + compressor + ", only zlib is available");
+            }
+            MongoCompressor zlib = MongoCompressor.createZlibCompressor();
+            if (parts.length > 1) {
+                try {
+                    int level = Integer.parseInt(parts[1]);
+                    if (level < -1 || level > 9) throw new NumberFormatException("out of range");
+                    zlib = zlib.withProperty(MongoCompressor.LEVEL, level);
+                } catch (NumberFormatException e) {
+                    throw new BooksDbException("Invalid zlib level: " + compressor, e);
+                }
+            }
+            compressors.add(zlib);
+            return this;
+        }
+
+        /**
+         * Sets the read preference, e.g. primary, primaryPreferred, secondary, secondaryPreferred or nearest.
+         *
+         * @throws BooksDbException If the name is not a read preference.
+         */
+        public Builder readPreference(String readPreference) throws BooksDbException {
+            try {
+                this.readPreference = ReadPreference.valueOf(readPreference);
+            } catch (IllegalArgumentException e) {
+                throw new BooksDbException("Invalid read preference: " + readPreference, e);
+            }
+            return this;
+        }
+
+        /**
+         * Sets the write concern.
+         *
+         * @param w                  A number of servers, or a name such as majority, acknowledged or w1.
+         * @param journal            Whether writes must reach the journal, or {@code null} for the server default.
+         * @param writeTimeoutMillis How long to wait for the servers, or {@code null} to wait forever.
+         * @throws BooksDbException If w is not a valid write concern.
+         */
+        public Builder writeConcern(String w, Boolean journal, Long writeTimeoutMillis) throws BooksDbException {
+            WriteConcern concern;
+            if (w.chars().allMatch(Character::isDigit)) {
+                concern = new WriteConcern(Integer.parseInt(w));
+            } else {
+                concern = WriteConcern.valueOf(w);
+                if (concern == null) concern = new WriteConcern(w); // a tag set name
+            }
+            if (journal != null) concern = concern.withJournal(journal);
+            if (writeTimeoutMillis != null) concern = concern.withWTimeout(writeTimeoutMillis, TimeUnit.MILLISECONDS);
+            this.writeConcern = concern;
+            return this;
+        }
+
+        /**
+         * Builds the profile.
+         *
+         * @return The profile.
+         * @throws IllegalArgumentException If the connection string is malformed.
+         */
+        public ConnectionProfile build() {
+            new ConnectionString(uri); // fail early on a malformed connection string
+            return new ConnectionProfile(this);
+        }
+    }
+}
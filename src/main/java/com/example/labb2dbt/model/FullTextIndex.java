@@ -0,0 +1,621 @@
+package com.example.labb2dbt.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An inverted index over the titles and story lines of books, answering free-text
+ * queries with the best matching ISBNs ranked by BM25.
+ * <p>
+ * Text is normalized with SearchNormalizer, split into words, stripped of common English
+ * stop words and reduced by a light suffix-stripping stemmer, so "rivers" finds "river".
+ * Title words count {@value #TITLE_WEIGHT} times. Each word has a posting list of
+ * (document, term frequency) pairs in document order, stored as delta-encoded varints.
+ * <p>
+ * Books are added, replaced and removed one at a time. A removed book only leaves a
+ * gap in the posting lists until more than a quarter of the documents are gaps; then
+ * the lists are rewritten without them. The index can be saved to and loaded from a file.
+ * Searches share a read lock and run concurrently, changes take the write lock.
+ */
+public class FullTextIndex {
+
+    /** BM25 term frequency saturation. */
+    public static final double K1 = 1.2;
+    /** BM25 document length normalization. */
+    public static final double B = 0.75;
+
+    private static final int TITLE_WEIGHT = 3;
+    private static final int SKIP_INTERVAL = 128;
+    private static final int MAGIC = 0x42465449; // "BFTI"
+    private static final int VERSION = 1;
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "from", "had", "has", "have",
+            "he", "her", "his", "if", "in", "into", "is", "it", "its", "no", "not", "of", "on", "or",
+            "she", "so", "such", "that", "the", "their", "then", "there", "these", "they", "this",
+            "to", "was", "were", "will", "with");
+
+    /**
+     * A book found by a search, with its BM25 score.
+     *
+     * @param isbn  The ISBN of the book.
+     * @param score The score, higher is better.
+     */
+    public record Hit(String isbn, double score) {
+    }
+
+    /**
+     * The postings of one word: varint document deltas, each followed by a varint frequency.
+     * Every {@value #SKIP_INTERVAL} postings a skip entry records where the next block
+     * starts and the document before it, so a search can jump over whole blocks.
+     */
+    private static final class PostingList {
+        byte[] data = new byte[8];
+        int size;
+        int count; // postings, including those of removed documents
+        int lastDoc = -1;
+        int maxFrequency;
+        int[] skipDocs = new int[0];
+        int[] skipOffsets = new int[0];
+        int skipCount;
+
+        void add(int doc, int frequency) {
+            if (count > 0 && count % SKIP_INTERVAL == 0) {
+                if (skipCount == skipDocs.length) {
+                    skipDocs = Arrays.copyOf(skipDocs, Math.max(4, skipCount * 2));
+                    skipOffsets = Arrays.copyOf(skipOffsets, skipDocs.length);
+                }
+                skipDocs[skipCount] = lastDoc;
+                skipOffsets[skipCount] = size;
+                skipCount++;
+            }
+            if (data.length - size < 10) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + 10));
+            }
+            size = writeVarint(data, size, doc - lastDoc);
+            size = writeVarint(data, size, frequency);
+            lastDoc = doc;
+            maxFrequency = Math.max(maxFrequency, frequency);
+            count++;
+        }
+    }
+
+    /**
+     * Reads a posting list in document order.
+     */
+    private static final class PostingCursor {
+        final PostingList postings;
+        final byte[] data;
+        final int size;
+        final double idf;
+        final double maxScore; // no document scores more for this word
+        int position;
+        int doc = -1;
+        int frequency;
+        int skip; // the next skip entry that may be ahead
+
+        PostingCursor(PostingList postings, double idf) {
+            this.postings = postings;
+            this.data = postings.data;
+            this.size = postings.size;
+            this.idf = idf;
+            double tf = postings.maxFrequency;
+            this.maxScore = idf * tf * (K1 + 1) / (tf + K1 * (1 - B));
+        }
+
+        /**
+         * Moves to the first posting at or after a document.
+         */
+        void advance(int target) {
+            if (doc >= target) return;
+            int last = -1;
+            while (skip < postings.skipCount && postings.skipDocs[skip] < target) {
+                last = skip++;
+            }
+            if (last >= 0 && postings.skipOffsets[last] > position) {
+                position = postings.skipOffsets[last];
+                doc = postings.skipDocs[last];
+            }
+            while (doc < target && next()) {
+                // decode up to the target
+            }
+        }
+
+        boolean next() {
+            if (position >= size) {
+                doc = Integer.MAX_VALUE;
+                return false;
+            }
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            doc += delta;
+            int tf = 0;
+            shift = 0;
+            do {
+                b = data[position++];
+                tf |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            frequency = tf;
+            return true;
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // guarded by lock
+    private final Map<String, Integer> docIds = new HashMap<>();
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private String[] isbns = new String[1024]; // null for a removed document
+    private int[] lengths = new int[1024];
+    private int docCount;
+    private long totalLength; // of the live documents
+    private boolean dirty;
+
+    /**
+     * Adds a book, replacing the book with the same ISBN if there is one.
+     *
+     * @param book The book.
+     */
+    public void add(Book book) {
+        add(book.getIsbn(), book.getTitle(), book.getStoryLine());
+    }
+
+    /**
+     * Adds a book, replacing the book with the same ISBN if there is one.
+     *
+     * @param isbn      The ISBN of the book.
+     * @param title     The title, may be null.
+     * @param storyLine The story line, may be null.
+     */
+    public void add(String isbn, String title, String storyLine) {
+        Terms terms = Terms.of(title, storyLine);
+        lock.writeLock().lock();
+        try {
+            removeLocked(isbn);
+            insertLocked(isbn, terms);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces a book, which may have got a new ISBN.
+     *
+     * @param oldIsbn The ISBN the book had.
+     * @param book    The book as it is now.
+     */
+    public void update(String oldIsbn, Book book) {
+        Terms terms = Terms.of(book.getTitle(), book.getStoryLine());
+        lock.writeLock().lock();
+        try {
+            removeLocked(oldIsbn);
+            removeLocked(book.getIsbn());
+            insertLocked(book.getIsbn(), terms);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The term frequencies and weighted length of a book.
+     */
+    private record Terms(Map<String, Integer> frequencies, int length) {
+
+        static Terms of(String title, String storyLine) {
+            Map<String, Integer> frequencies = new HashMap<>();
+            int length = 0;
+            for (String term : tokenize(title)) {
+                frequencies.merge(term, TITLE_WEIGHT, Integer::sum);
+                length += TITLE_WEIGHT;
+            }
+            for (String term : tokenize(storyLine)) {
+                frequencies.merge(term, 1, Integer::sum);
+                length++;
+            }
+            return new Terms(frequencies, length);
+        }
+    }
+
+    private void insertLocked(String isbn, Terms terms) {
+        int doc = docCount++;
+        if (doc == isbns.length) {
+            isbns = Arrays.copyOf(isbns, doc * 2);
+            lengths = Arrays.copyOf(lengths, doc * 2);
+        }
+        isbns[doc] = isbn;
+        lengths[doc] = terms.length();
+        docIds.put(isbn, doc);
+        totalLength += terms.length();
+        for (Map.Entry<String, Integer> entry : terms.frequencies().entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), term -> new PostingList()).add(doc, entry.getValue());
+        }
+        dirty = true;
+    }
+
+    /**
+     * Removes a book.
+     *
+     * @param isbn The ISBN of the book.
+     */
+    public void remove(String isbn) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(isbn);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeLocked(String isbn) {
+        Integer doc = docIds.remove(isbn);
+        if (doc == null) return;
+        isbns[doc] = null;
+        totalLength -= lengths[doc];
+        dirty = true;
+        if (docCount - docIds.size() > docCount / 4 && docCount > 1024) {
+            compactLocked();
+        }
+    }
+
+    /**
+     * Rewrites the posting lists without the removed documents, numbering the
+     * remaining documents from 0.
+     */
+    private void compactLocked() {
+        int[] renumbered = new int[docCount];
+        int live = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            if (isbns[doc] == null) {
+                renumbered[doc] = -1;
+                continue;
+            }
+            renumbered[doc] = live;
+            isbns[live] = isbns[doc];
+            lengths[live] = lengths[doc];
+            docIds.put(isbns[live], live);
+            live++;
+        }
+        Arrays.fill(isbns, live, docCount, null);
+        docCount = live;
+        postings.replaceAll((term, list) -> {
+            PostingList compacted = new PostingList();
+            PostingCursor cursor = new PostingCursor(list, 0);
+            while (cursor.next()) {
+                int doc = renumbered[cursor.doc];
+                if (doc >= 0) compacted.add(doc, cursor.frequency);
+            }
+            return compacted;
+        });
+        postings.values().removeIf(list -> list.count == 0);
+    }
+
+    /**
+     * Searches for books containing any of the words of a query, best first.
+     *
+     * @param query The free-text query.
+     * @param limit The maximum number of books to return.
+     * @return The best matching books with their scores, best first.
+     */
+    public List<Hit> search(String query, int limit) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        if (terms.isEmpty() || limit < 1) return new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            int live = docIds.size();
+            if (live == 0) return new ArrayList<>();
+            double averageLength = Math.max(1.0, (double) totalLength / live);
+            List<PostingCursor> cursors = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                PostingList list = postings.get(term);
+                if (list == null) continue;
+                int df = Math.min(list.count, live);
+                double idf = Math.log(1 + (live - df + 0.5) / (df + 0.5));
+                PostingCursor cursor = new PostingCursor(list, idf);
+                if (cursor.next()) cursors.add(cursor);
+            }
+
+            // document at a time with MaxScore pruning: the words are ordered by their highest
+            // possible score, and words whose scores together cannot lift a document into the
+            // best ones only check the documents found through the other words
+            cursors.sort(Comparator.comparingDouble(cursor -> cursor.maxScore));
+            double[] boundUpTo = new double[cursors.size()];
+            double bound = 0;
+            for (int i = 0; i < cursors.size(); i++) {
+                bound += cursors.get(i).maxScore;
+                boundUpTo[i] = bound;
+            }
+            int essential = 0; // cursors before this index are only checked
+            double threshold = 0;
+            PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1, Comparator.comparingDouble(Hit::score));
+            while (essential < cursors.size()) {
+                int doc = Integer.MAX_VALUE;
+                for (int i = essential; i < cursors.size(); i++) {
+                    doc = Math.min(doc, cursors.get(i).doc);
+                }
+                if (doc == Integer.MAX_VALUE) break;
+                double norm = K1 * (1 - B + B * lengths[doc] / averageLength);
+                double score = 0;
+                for (int i = essential; i < cursors.size(); i++) {
+                    PostingCursor cursor = cursors.get(i);
+                    if (cursor.doc != doc) continue;
+                    score += cursor.idf * cursor.frequency * (K1 + 1) / (cursor.frequency + norm);
+                    cursor.next();
+                }
+                String isbn = isbns[doc];
+                if (isbn == null) continue; // removed
+                for (int i = essential - 1; i >= 0 && score + boundUpTo[i] > threshold; i--) {
+                    PostingCursor cursor = cursors.get(i);
+                    cursor.advance(doc);
+                    if (cursor.doc == doc) {
+                        score += cursor.idf * cursor.frequency * (K1 + 1) / (cursor.frequency + norm);
+                    }
+                }
+                if (best.size() < limit) {
+                    best.add(new Hit(isbn, score));
+                } else if (score > threshold) {
+                    best.poll();
+                    best.add(new Hit(isbn, score));
+                }
+                if (best.size() == limit) {
+                    threshold = best.peek().score();
+                    while (essential < cursors.size() && boundUpTo[essential] <= threshold) {
+                        essential++;
+                    }
+                }
+            }
+            List<Hit> hits = new ArrayList<>(best);
+            hits.sort(Comparator.comparingDouble(Hit::score).reversed());
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of books in the index.
+     *
+     * @return The number of books.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of distinct words in the index.
+     *
+     * @return The number of words.
+     */
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the size of the compressed posting lists.
+     *
+     * @return The number of bytes used by postings.
+     */
+    public long getPostingBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (PostingList list : postings.values()) bytes += list.size;
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether the index has changed since it was loaded or last saved.
+     *
+     * @return {@code true} if there are unsaved changes.
+     */
+    public boolean isDirty() {
+        lock.readLock().lock();
+        try {
+            return dirty;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Saves the index to a file, replacing it atomically.
+     *
+     * @param file The file.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        // the write lock keeps changes out, and is not held long by a file write
+        lock.writeLock().lock();
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(docCount);
+                for (int doc = 0; doc < docCount; doc++) {
+                    out.writeBoolean(isbns[doc] != null);
+                    if (isbns[doc] != null) out.writeUTF(isbns[doc]);
+                    out.writeInt(lengths[doc]);
+                }
+                out.writeInt(postings.size());
+                for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+                    PostingList list = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(list.count);
+                    out.writeInt(list.lastDoc);
+                    out.writeInt(list.size);
+                    out.write(list.data, 0, list.size);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } finally {
+            lock.writeLock().unlock();
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Loads an index saved with {@link #save(Path)}.
+     *
+     * @param file The file.
+     * @return The index.
+     * @throws IOException If the file cannot be read or is not a full-text index.
+     */
+    public static FullTextIndex load(Path file) throws IOException {
+        FullTextIndex index = new FullTextIndex();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a full-text index: " + file);
+            }
+            int docCount = in.readInt();
+            index.isbns = new String[Math.max(1024, docCount)];
+            index.lengths = new int[index.isbns.length];
+            for (int doc = 0; doc < docCount; doc++) {
+                if (in.readBoolean()) {
+                    String isbn = in.readUTF();
+                    index.isbns[doc] = isbn;
+                    index.docIds.put(isbn, doc);
+                }
+                index.lengths[doc] = in.readInt();
+                if (index.isbns[doc] != null) index.totalLength += index.lengths[doc];
+            }
+            index.docCount = docCount;
+            int terms = in.readInt();
+            for (int i = 0; i < terms; i++) {
+                String term = in.readUTF();
+                PostingList saved = new PostingList();
+                saved.count = in.readInt();
+                saved.lastDoc = in.readInt();
+                saved.size = in.readInt();
+                saved.data = new byte[Math.max(8, saved.size)];
+                in.readFully(saved.data, 0, saved.size);
+                // the skip entries and highest frequency are not saved, add the postings again
+                PostingList list = new PostingList();
+                PostingCursor cursor = new PostingCursor(saved, 0);
+                while (cursor.next()) {
+                    list.add(cursor.doc, cursor.frequency);
+                }
+                index.postings.put(term, list);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Splits a text into the normalized, stemmed words used as index terms, leaving out
+     * stop words.
+     *
+     * @param text The text, may be null.
+     * @return The terms, in text order and with repetitions.
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) return terms;
+        String normalized = SearchNormalizer.normalize(text);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String word = normalized.substring(start, i);
+                // single letters, e.g. the s of a possessive, say nothing
+                boolean letter = word.length() == 1 && Character.isLetter(word.charAt(0));
+                if (!letter && !STOP_WORDS.contains(word)) terms.add(stem(word));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Strips common English inflections: plurals, -ing, -ed, -ly and a final e, so
+     * "rivers", "hoped" and "hoping" become "river", "hop" and "hop".
+     */
+    static String stem(String word) {
+        if (word.length() <= 3 || !Character.isLetter(word.charAt(word.length() - 1))) return word;
+        String stem = word;
+        if (stem.endsWith("sses")) {
+            stem = stem.substring(0, stem.length() - 2);
+        } else if (stem.endsWith("ies") && stem.length() > 4) {
+            stem = stem.substring(0, stem.length() - 3) + "y";
+        } else if (stem.endsWith("s") && !stem.endsWith("ss") && !stem.endsWith("us") && !stem.endsWith("is")) {
+            stem = stem.substring(0, stem.length() - 1);
+        }
+        if (stem.endsWith("ing") && hasVowel(stem, stem.length() - 3)) {
+            stem = undouble(stem.substring(0, stem.length() - 3));
+        } else if (stem.endsWith("ed") && hasVowel(stem, stem.length() - 2)) {
+            stem = undouble(stem.substring(0, stem.length() - 2));
+        } else if (stem.endsWith("ly") && stem.length() > 5) {
+            stem = stem.substring(0, stem.length() - 2);
+        }
+        if (stem.endsWith("e") && stem.length() > 3) {
+            stem = stem.substring(0, stem.length() - 1);
+        }
+        return stem.length() >= 2 ? stem : word;
+    }
+
+    private static boolean hasVowel(String word, int end) {
+        if (end < 2) return false;
+        for (int i = 0; i < end; i++) {
+            if ("aeiouy".indexOf(word.charAt(i)) >= 0) return true;
+        }
+        return false;
+    }
+
+    private static String undouble(String stem) {
+        int n = stem.length();
+        if (n >= 3 && stem.charAt(n - 1) == stem.charAt(n - 2) && "aeioulsz".indexOf(stem.charAt(n - 1)) < 0) {
+            return stem.substring(0, n - 1);
+        }
+        return stem;
+    }
+
+    private static int writeVarint(byte[] data, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            data[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[position++] = (byte) value;
+        return position;
+    }
+}
@@ -5,12 +5,15 @@ import java.util.ArrayList;
 /**
  * Represents a genre in the book database.
  * A genre can be associated with multiple books.
+ * The books read from a database share one Genre per name, see {@link #of}.
  */
 public class Genre {
 
+    private static final Interner<String, Genre> SHARED = new Interner<>(Genre::new);
+
     private int genreId;
     private final String name;
-    private ArrayList<Book> books;
+    private ArrayList<Book> books; // created by the first addBook, most genres never get one
 
     /**
      * Constructs a Genre with the specified genre ID and name.
@@ -21,7 +24,6 @@ public class Genre {
     public Genre(int genreId, String name){
         this.genreId = genreId;
         this.name = name;
-        this.books = new ArrayList<Book>();
     }
 
     /**
@@ -31,7 +33,26 @@ public class Genre {
      */
     public Genre(String name){
         this.name = name;
-        this.books = new ArrayList<Book>();
+    }
+
+    /**
+     * Gets the Genre shared by all books of a genre, creating it for a name not seen
+     * before. A shared Genre is kept as long as some book refers to it.
+     *
+     * @param name The name of the genre.
+     * @return The shared Genre, or a new one if the name is null.
+     */
+    public static Genre of(String name) {
+        return name == null ? new Genre(null) : SHARED.intern(name);
+    }
+
+    /**
+     * Gets the number of shared genres still in use.
+     *
+     * @return The number of genres.
+     */
+    static int sharedCount() {
+        return SHARED.size();
     }
 
     /**
@@ -39,7 +60,8 @@ public class Genre {
      *
      * @param book The book to be added.
      */
-    public void addBook(Book book){
+    public synchronized void addBook(Book book){
+        if (books == null) books = new ArrayList<>();
         if(books.contains(book)) books.add(book);
     }
 
@@ -48,9 +70,9 @@ public class Genre {
      *
      * @param book The book to be removed.
      */
-    public void removeBook(Book book)
+    public synchronized void removeBook(Book book)
     {
-        books.remove(book);
+        if (books != null) books.remove(book);
     }
 
     /**
@@ -58,8 +80,8 @@ public class Genre {
      *
      * @return An ArrayList of books associated with this genre.
      */
-    public ArrayList<Book> getBooks() {
-        return new ArrayList<>(books);
+    public synchronized ArrayList<Book> getBooks() {
+        return books == null ? new ArrayList<>() : new ArrayList<>(books);
     }
 
     /**
@@ -0,0 +1,855 @@
+package com.example.labb2dbt.model;
+
+import java.lang.ref.WeakReference;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Implementation of the BooksDbInterface that keeps all books in memory, for read-heavy
+ * terminals and for tests and benchmarks that should not depend on a server.
+ * <p>
+ * Every book is a chain of immutable versions, newest first, each stamped with the
+ * sequence number of the write that made it. A search reads the books as of the latest
+ * sequence number when it started, so it never sees half of an update, and never
+ * blocks or is blocked by writers. Writers of the same ISBN are serialized by one of
+ * {@value #STRIPES} striped locks; only assigning the sequence number is global.
+ * <p>
+ * Secondary indexes on the normalized title, ISBN, author names and genres, and on the
+ * rating, narrow a search to candidate ISBNs, which are then checked with BookMatcher,
+ * so the results are the same as those of BooksDbImpl. Substring searches, which no
+ * index can answer, scan all books. Versions and index entries a running search may
+ * still need are dropped by a background cleaner once no search can see them.
+ * <p>
+ * Full-text searches are ranked by a FullTextIndex of the latest versions, built by the
+ * first of them and kept up to date by every write after.
+ */
+public class InMemoryBooksDb implements BooksDbInterface {
+
+    private static final int STRIPES = 64;
+    private static final long IDLE = Long.MAX_VALUE;
+    private static final long CLEANUP_INTERVAL_MILLIS = 50;
+    private static final int MAX_RATING_KEYS = 100; // wider rating ranges scan all books
+
+    /**
+     * An immutable copy of a book as it was stored.
+     */
+    private record StoredBook(String isbn, String title, LocalDate published, int rating, String storyLine,
+                              List<String> genres, List<StoredAuthor> authors) {
+
+        static StoredBook of(Book book) {
+            List<String> genres = book.getGenresView().stream().map(Genre::getGenreName).toList();
+            List<StoredAuthor> authors = book.getAuthorsView().stream()
+                    .map(author -> new StoredAuthor(author.getName(), author.getBirthDate())).toList();
+            return new StoredBook(book.getIsbn(), book.getTitle(), book.getPublished(), book.getRating(),
+                    book.getStoryLine(), genres, authors);
+        }
+
+        StoredBook withRating(int newRating) {
+            return new StoredBook(isbn, title, published, newRating, storyLine, genres, authors);
+        }
+
+        Book toBook() {
+            Book book = new Book(isbn, title, published);
+            book.setRating(rating);
+            book.setStoryLine(storyLine);
+            ArrayList<Genre> bookGenres = new ArrayList<>(genres.size());
+            for (String genre : genres) bookGenres.add(new Genre(genre));
+            book.setGenres(bookGenres);
+            List<Author> bookAuthors = new ArrayList<>(authors.size());
+            for (StoredAuthor author : authors) bookAuthors.add(new Author(author.name(), author.birthDate()));
+            book.setAuthors(bookAuthors);
+            return book;
+        }
+    }
+
+    private record StoredAuthor(String name, LocalDate birthDate) {
+    }
+
+    /**
+     * A version of a book; a null book marks the book as deleted. The link to the
+     * previous version is cut by the cleaner when no search can reach it any more.
+     */
+    private static final class Version {
+        final long seq;
+        final StoredBook book;
+        volatile Version previous;
+
+        Version(long seq, StoredBook book, Version previous) {
+            this.seq = seq;
+            this.book = book;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * Old versions and index entries of a book that can be dropped once every search
+     * started after the write that replaced them.
+     */
+    private record Cleanup(String isbn, long seq) {
+    }
+
+    /**
+     * The snapshot of the searches running on one thread, IDLE when there are none.
+     */
+    private static final class ReaderSlot {
+        final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+        volatile long seq = IDLE;
+        int depth; // nested searches, e.g. from a consumer, share the outer snapshot
+    }
+
+    private final ConcurrentHashMap<String, Version> books = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Author> authors = new ConcurrentHashMap<>();
+    private final IsbnIndex titleIndex = new IsbnIndex();
+    private final IsbnIndex isbnIndex = new IsbnIndex();
+    private final IsbnIndex authorIndex = new IsbnIndex();
+    private final IsbnIndex genreIndex = new IsbnIndex();
+    private final IsbnIndex ratingIndex = new IsbnIndex();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    private final Object commitLock = new Object();
+    private long lastSeq; // guarded by commitLock
+    private volatile long visibleSeq;
+    private final ConcurrentLinkedQueue<Cleanup> cleanups = new ConcurrentLinkedQueue<>(); // in seq order
+
+    // a search publishes its snapshot in its slot; the cleaner takes the write lock while
+    // it looks for the oldest snapshot, so a search publishing meanwhile retries
+    private final StampedLock horizonLock = new StampedLock();
+    private final ConcurrentLinkedQueue<ReaderSlot> readerSlots = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<ReaderSlot> readerSlot = ThreadLocal.withInitial(() -> {
+        ReaderSlot slot = new ReaderSlot();
+        readerSlots.add(slot);
+        return slot;
+    });
+
+    private final Object fullTextLock = new Object();
+    private volatile FullTextIndex fullTextIndex; // ready for searches
+    private volatile FullTextIndex fullTextWrites; // kept up to date, also while being built
+
+    private volatile boolean connected;
+    private ScheduledExecutorService cleaner; // guarded by this
+
+    /**
+     * Constructs an empty store.
+     */
+    public InMemoryBooksDb() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Opens the store. The books are kept when the store is closed and opened again;
+     * the database and credentials are ignored.
+     *
+     * @param database Ignored.
+     * @param username Ignored.
+     * @param password Ignored.
+     * @return true.
+     */
+    @Override
+    public synchronized boolean connect(String database, String username, String password) {
+        if (!connected) {
+            cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "books-memory-cleaner");
+                thread.setDaemon(true);
+                return thread;
+            });
+            cleaner.scheduleWithFixedDelay(this::cleanUp, CLEANUP_INTERVAL_MILLIS, CLEANUP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            connected = true;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        if (!connected) return;
+        connected = false;
+        cleaner.shutdownNow();
+        cleaner = null;
+    }
+
+    /**
+     * Gets the number of books in the store.
+     *
+     * @return The number of books.
+     * @throws BooksDbException If the store is not open.
+     */
+    public int getBookCount() throws BooksDbException {
+        ensureOpen();
+        long snapshot = beginRead();
+        try {
+            int count = 0;
+            for (Version version : books.values()) {
+                if (visible(version, snapshot) != null) count++;
+            }
+            return count;
+        } finally {
+            endRead();
+        }
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        ensureOpen();
+        StoredBook stored = StoredBook.of(book);
+        ReentrantLock stripe = stripeOf(stored.isbn());
+        stripe.lock();
+        try {
+            if (latest(stored.isbn()) != null) {
+                throw new BooksDbException("A book with ISBN " + stored.isbn() + " already exists");
+            }
+            index(stored);
+            commit(stored.isbn(), stored, null);
+            FullTextIndex fullText = fullTextWrites;
+            if (fullText != null) fullText.add(stored.isbn(), stored.title(), stored.storyLine());
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public void addAuthor(Author author) throws BooksDbException {
+        ensureOpen();
+        authors.put(author.getName() + "\0" + author.getBirthDate(), new Author(author.getName(), author.getBirthDate()));
+    }
+
+    @Override
+    public void updateBook(String isbn, Book book) throws BooksDbException {
+        ensureOpen();
+        StoredBook stored = StoredBook.of(book);
+        boolean renamed = !isbn.equals(stored.isbn());
+        ReentrantLock first = stripeOf(isbn);
+        ReentrantLock second = stripeOf(stored.isbn());
+        // lock the stripes of both ISBNs in a fixed order
+        if (stripeIndex(isbn) > stripeIndex(stored.isbn())) {
+            ReentrantLock swap = first;
+            first = second;
+            second = swap;
+        }
+        first.lock();
+        second.lock();
+        try {
+            StoredBook current = latest(isbn);
+            if (current == null) {
+                throw new BooksDbException("No book found with ISBN: " + isbn);
+            }
+            if (renamed && latest(stored.isbn()) != null) {
+                throw new BooksDbException("A book with ISBN " + stored.isbn() + " already exists");
+            }
+            if (stored.equals(current)) {
+                throw new BooksDbException("Book not updated for ISBN: " + isbn);
+            }
+            index(stored);
+            if (renamed) {
+                commit(stored.isbn(), stored, isbn);
+            } else {
+                commit(isbn, stored, null);
+            }
+            FullTextIndex fullText = fullTextWrites;
+            if (fullText != null) fullText.update(isbn, book);
+        } finally {
+            second.unlock();
+            first.unlock();
+        }
+    }
+
+    @Override
+    public void deleteBook(Book book) throws BooksDbException {
+        ensureOpen();
+        String isbn = book.getIsbn();
+        ReentrantLock stripe = stripeOf(isbn);
+        stripe.lock();
+        try {
+            if (latest(isbn) == null) {
+                throw new BooksDbException("No book found with ISBN: " + isbn);
+            }
+            commit(isbn, null, null);
+            FullTextIndex fullText = fullTextWrites;
+            if (fullText != null) fullText.remove(isbn);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public void updateBookRating(Book book, int newRating) throws BooksDbException {
+        ensureOpen();
+        String isbn = book.getIsbn();
+        ReentrantLock stripe = stripeOf(isbn);
+        stripe.lock();
+        try {
+            StoredBook current = latest(isbn);
+            if (current == null) {
+                throw new BooksDbException("No book found with ISBN: " + isbn);
+            }
+            if (current.rating() == newRating) {
+                throw new BooksDbException("Book rating not updated for ISBN: " + isbn);
+            }
+            StoredBook stored = current.withRating(newRating);
+            ratingIndex.add(Integer.toString(newRating), isbn);
+            commit(isbn, stored, null);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public int updateBookRatings(Map<String, Integer> ratings) throws BooksDbException {
+        ensureOpen();
+        int changed = 0;
+        List<String> missing = new ArrayList<>();
+        for (Map.Entry<String, Integer> rating : ratings.entrySet()) {
+            String isbn = rating.getKey();
+            int newRating = rating.getValue();
+            ReentrantLock stripe = stripeOf(isbn);
+            stripe.lock();
+            try {
+                StoredBook current = latest(isbn);
+                if (current == null) {
+                    missing.add(isbn);
+                } else if (current.rating() != newRating) {
+                    ratingIndex.add(Integer.toString(newRating), isbn);
+                    commit(isbn, current.withRating(newRating), null);
+                    changed++;
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new RatingsNotWrittenException("No book found for " + missing.size() + " of the ISBNs: " + missing, missing);
+        }
+        return changed;
+    }
+
+    @Override
+    public List<Book> searchBooksByAuthor(String author) throws BooksDbException {
+        return findBooks(SearchMode.Author, author);
+    }
+
+    @Override
+    public List<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        return findBooks(SearchMode.Genre, genre);
+    }
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        return findBooks(SearchMode.Title, title);
+    }
+
+    @Override
+    public List<Book> searchBooksByISBN(String isbn) throws BooksDbException {
+        return findBooks(SearchMode.ISBN, isbn);
+    }
+
+    @Override
+    public List<Book> searchBooksByRating(String rating) throws BooksDbException {
+        return findBooks(SearchMode.Rating, rating);
+    }
+
+    @Override
+    public void searchBooks(SearchMode mode, String searchFor, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        searchBooks(mode, MatchMode.Substring, searchFor, batchSize, consumer);
+    }
+
+    @Override
+    public void searchBooks(SearchMode mode, MatchMode match, String searchFor, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        searchBooks(mode, match, searchFor, BookProjection.Full, batchSize, consumer);
+    }
+
+    /**
+     * Searches the books as of the start of the search. Books are always returned whole,
+     * the projection makes no difference in memory. Exact, Prefix and NormalizedPrefix
+     * searches read candidates from the secondary indexes, Substring searches scan all books,
+     * FullText searches return the best ranked books of the full-text index.
+     * The consumer runs without any lock held, and may write to the store.
+     */
+    @Override
+    public void searchBooks(SearchMode mode, MatchMode match, String searchFor, BookProjection projection,
+                            int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        if (batchSize < 1) {
+            throw new BooksDbException("Invalid batch size: " + batchSize);
+        }
+        if (mode == SearchMode.FullText) {
+            List<Book> ranked = rankedSearch(searchFor, DEFAULT_FULL_TEXT_LIMIT);
+            for (int from = 0; from < ranked.size(); from += batchSize) {
+                consumer.accept(new ArrayList<>(ranked.subList(from, Math.min(from + batchSize, ranked.size()))));
+            }
+            return;
+        }
+        BookMatcher matcher = BookMatcher.of(mode, match, searchFor);
+        if (mode != SearchMode.Rating && match == MatchMode.NormalizedPrefix && normalize(mode, searchFor).isEmpty()) {
+            throw new BooksDbException("Nothing to search for in: " + searchFor);
+        }
+        ensureOpen();
+
+        long snapshot = beginRead();
+        try {
+            BatchCollector collector = new BatchCollector(snapshot, matcher, batchSize, consumer);
+            forEachCandidate(mode, match, searchFor, collector);
+            collector.flush();
+        } catch (CancellationException e) {
+            throw new BooksDbException("Search cancelled", e);
+        } finally {
+            endRead();
+        }
+    }
+
+    /**
+     * Searches the books as of the start of the search. The candidates are read from the
+     * index of the first criterion that has one, an anchored text match or a rating range,
+     * otherwise all books are checked. Only the books that can still be part of the page
+     * are held meanwhile, so a page far down a large result costs a pass over the
+     * candidates but no sort of the whole result.
+     */
+    @Override
+    public void searchBooks(BookQuery query, BookProjection projection, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        if (batchSize < 1) {
+            throw new BooksDbException("Invalid batch size: " + batchSize);
+        }
+        QuerySelection selection = new QuerySelection(query);
+        forEachMatch(query, selection::offer);
+        selection.deliver(batchSize, consumer);
+    }
+
+    /**
+     * Counts the books matching the criteria as of the start of the count, reading the
+     * candidates like searchBooks does.
+     */
+    @Override
+    public long countBooks(BookQuery query) throws BooksDbException {
+        long[] count = {0};
+        forEachMatch(query, book -> count[0]++);
+        return count[0];
+    }
+
+    /**
+     * Searches the titles and story lines for the words of a free-text query with the
+     * full-text index, which is built from the books by the first full-text search.
+     *
+     * @param query The free-text query.
+     * @param limit The maximum number of books to return.
+     * @return The best matching books, best first.
+     * @throws BooksDbException If the store is not open.
+     */
+    @Override
+    public List<Book> searchBooksByText(String query, int limit) throws BooksDbException {
+        return rankedSearch(query, limit);
+    }
+
+    @Override
+    public List<Author> getAllAuthors() throws BooksDbException {
+        ensureOpen();
+        List<Author> result = new ArrayList<>(authors.size());
+        for (Author author : authors.values()) {
+            result.add(new Author(author.getName(), author.getBirthDate()));
+        }
+        return result;
+    }
+
+    /**
+     * Collects the visible, matching books of the candidate ISBNs into batches.
+     */
+    private final class BatchCollector implements Consumer<String> {
+        private final long snapshot;
+        private final BookMatcher matcher;
+        private final int batchSize;
+        private final Consumer<List<Book>> consumer;
+        private List<Book> batch;
+
+        BatchCollector(long snapshot, BookMatcher matcher, int batchSize, Consumer<List<Book>> consumer) {
+            this.snapshot = snapshot;
+            this.matcher = matcher;
+            this.batchSize = batchSize;
+            this.consumer = consumer;
+            this.batch = new ArrayList<>(batchSize);
+        }
+
+        @Override
+        public void accept(String isbn) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Search cancelled");
+            }
+            StoredBook stored = visible(books.get(isbn), snapshot);
+            if (stored == null) return;
+            Book book = stored.toBook();
+            if (!matcher.matches(book)) return;
+            batch.add(book);
+            if (batch.size() == batchSize) {
+                consumer.accept(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+
+        void flush() {
+            if (!batch.isEmpty()) {
+                consumer.accept(batch);
+            }
+        }
+    }
+
+    /**
+     * Ranks the books with the full-text index and reads the best ones in rank order, as
+     * of the start of the search. A book deleted since it was ranked is left out.
+     */
+    private List<Book> rankedSearch(String query, int limit) throws BooksDbException {
+        if (limit < 1) {
+            throw new BooksDbException("Invalid limit: " + limit);
+        }
+        ensureOpen();
+        List<FullTextIndex.Hit> hits = ensureFullTextIndex().search(query, limit);
+        List<Book> ranked = new ArrayList<>(hits.size());
+        long snapshot = beginRead();
+        try {
+            for (FullTextIndex.Hit hit : hits) {
+                StoredBook stored = visible(books.get(hit.isbn()), snapshot);
+                if (stored != null) ranked.add(stored.toBook());
+            }
+        } finally {
+            endRead();
+        }
+        return ranked;
+    }
+
+    private FullTextIndex ensureFullTextIndex() {
+        FullTextIndex index = fullTextIndex;
+        if (index != null) return index;
+        synchronized (fullTextLock) {
+            if (fullTextIndex == null) {
+                fullTextIndex = buildFullTextIndex();
+            }
+            return fullTextIndex;
+        }
+    }
+
+    /**
+     * Indexes the latest version of every book. The writers commit before they look for
+     * the index and update it under their stripe lock, and each book is read under its
+     * stripe lock here, so a write is never lost between the two.
+     */
+    private FullTextIndex buildFullTextIndex() {
+        long started = System.nanoTime();
+        FullTextIndex built = new FullTextIndex();
+        fullTextWrites = built;
+        for (String isbn : books.keySet()) {
+            ReentrantLock stripe = stripeOf(isbn);
+            stripe.lock();
+            try {
+                StoredBook book = latest(isbn);
+                if (book != null) built.add(isbn, book.title(), book.storyLine());
+            } finally {
+                stripe.unlock();
+            }
+        }
+        System.out.println("Built full-text index: " + built.size() + " books, " + built.getTermCount() + " words in "
+                + (System.nanoTime() - started) / 1_000_000 + " ms");
+        return built;
+    }
+
+    /**
+     * Passes the visible books matching the criteria of a query to an action, as of the
+     * start of the search. The action runs without any lock held.
+     */
+    private void forEachMatch(BookQuery query, Consumer<Book> action) throws BooksDbException {
+        Predicate<Book> matcher = query.matcher();
+        ensureOpen();
+
+        long snapshot = beginRead();
+        try {
+            forEachCandidate(query.getCriterion(), isbn -> {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Search cancelled");
+                }
+                StoredBook stored = visible(books.get(isbn), snapshot);
+                if (stored == null) return;
+                Book book = stored.toBook();
+                if (matcher.test(book)) action.accept(book);
+            });
+        } catch (CancellationException e) {
+            throw new BooksDbException("Search cancelled", e);
+        } finally {
+            endRead();
+        }
+    }
+
+    /**
+     * Passes the ISBNs of the books that may match a search to an action, each once:
+     * Exact, Prefix and NormalizedPrefix searches read them from the secondary indexes,
+     * Substring searches read all ISBNs. The books still have to be checked.
+     */
+    private void forEachCandidate(SearchMode mode, MatchMode match, String searchFor, Consumer<String> action) {
+        if (mode == SearchMode.ISBN && match == MatchMode.Exact) {
+            action.accept(searchFor);
+        } else if (mode == SearchMode.Rating) {
+            ratingIndex.forEach(Integer.toString(Integer.parseInt(searchFor.trim())), action);
+        } else if (match == MatchMode.Substring) {
+            books.keySet().forEach(action);
+        } else {
+            IsbnIndex index = indexOf(mode);
+            String key = normalize(mode, searchFor);
+            if (match == MatchMode.Exact) {
+                index.forEach(key, action);
+                return;
+            }
+            // a raw prefix may change its last character when normalized, e.g. a
+            // trailing combining mark, so it only narrows down to the shorter key
+            String prefix = match == MatchMode.Prefix ? key.substring(0, Math.max(0, key.length() - 1)) : key;
+            if (prefix.isEmpty()) {
+                books.keySet().forEach(action);
+            } else {
+                // an ISBN is filed under every matching key it has
+                Set<String> seen = new HashSet<>();
+                index.forEachWithPrefix(prefix, isbn -> {
+                    if (seen.add(isbn)) action.accept(isbn);
+                });
+            }
+        }
+    }
+
+    /**
+     * Passes the ISBNs of the books that may match a query criterion to an action, each
+     * once, narrowed by the first part of an AllOf that an index can answer.
+     */
+    private void forEachCandidate(BookQuery.Criterion criterion, Consumer<String> action) {
+        if (criterion instanceof BookQuery.AllOf all) {
+            for (BookQuery.Criterion part : all.criteria()) {
+                if (part instanceof BookQuery.TextCriterion text && text.match() != MatchMode.Substring) {
+                    forEachCandidate(text.field(), text.match(), text.value(), action);
+                    return;
+                }
+                if (part instanceof BookQuery.RatingRange range && (long) range.max() - range.min() < MAX_RATING_KEYS) {
+                    // a book changed meanwhile may still be filed under its old rating
+                    Set<String> seen = new HashSet<>();
+                    for (long rating = range.min(); rating <= range.max(); rating++) {
+                        ratingIndex.forEach(Long.toString(rating), isbn -> {
+                            if (seen.add(isbn)) action.accept(isbn);
+                        });
+                    }
+                    return;
+                }
+            }
+        }
+        books.keySet().forEach(action);
+    }
+
+    private static String normalize(SearchMode mode, String searchFor) {
+        return mode == SearchMode.ISBN ? SearchNormalizer.normalizeIsbn(searchFor) : SearchNormalizer.normalize(searchFor);
+    }
+
+    /**
+     * Publishes the snapshot of a search on this thread, so the cleaner keeps what it needs.
+     *
+     * @return The sequence number the search reads at.
+     */
+    private long beginRead() {
+        ReaderSlot slot = readerSlot.get();
+        if (slot.depth++ > 0) return slot.seq;
+        while (true) {
+            long stamp = horizonLock.tryOptimisticRead();
+            long seq = visibleSeq;
+            slot.seq = seq;
+            if (horizonLock.validate(stamp)) return seq;
+            // the cleaner may have missed the slot, wait until it is done and try again
+            slot.seq = IDLE;
+            horizonLock.unlockRead(horizonLock.readLock());
+        }
+    }
+
+    private void endRead() {
+        ReaderSlot slot = readerSlot.get();
+        if (--slot.depth == 0) slot.seq = IDLE;
+    }
+
+    /**
+     * Gets the version of a book a snapshot sees, or null if the book did not exist.
+     */
+    private static StoredBook visible(Version version, long snapshot) {
+        while (version != null && version.seq > snapshot) {
+            version = version.previous;
+        }
+        return version == null ? null : version.book;
+    }
+
+    /**
+     * Gets the latest version of a book; the caller holds its stripe lock.
+     */
+    private StoredBook latest(String isbn) {
+        Version version = books.get(isbn);
+        return version == null ? null : version.book;
+    }
+
+    /**
+     * Makes a new version of a book, and optionally deletes another one, visible to searches
+     * as one write. The caller holds the stripe locks and has indexed the new version.
+     */
+    private void commit(String isbn, StoredBook book, String deletedIsbn) {
+        synchronized (commitLock) {
+            long seq = ++lastSeq;
+            install(isbn, new Version(seq, book, books.get(isbn)));
+            if (deletedIsbn != null) {
+                install(deletedIsbn, new Version(seq, null, books.get(deletedIsbn)));
+            }
+            visibleSeq = seq;
+        }
+    }
+
+    // guarded by commitLock, which keeps the cleanups in sequence order
+    private void install(String isbn, Version version) {
+        books.put(isbn, version);
+        if (version.previous != null) {
+            cleanups.add(new Cleanup(isbn, version.seq));
+        }
+    }
+
+    private void index(StoredBook book) {
+        String isbn = book.isbn();
+        titleIndex.add(SearchNormalizer.normalize(book.title()), isbn);
+        isbnIndex.add(SearchNormalizer.normalizeIsbn(isbn), isbn);
+        for (StoredAuthor author : book.authors()) authorIndex.add(SearchNormalizer.normalize(author.name()), isbn);
+        for (String genre : book.genres()) genreIndex.add(SearchNormalizer.normalize(genre), isbn);
+        ratingIndex.add(Integer.toString(book.rating()), isbn);
+    }
+
+    /**
+     * Removes the index entries of a dropped version that none of the kept versions has.
+     */
+    private void unindex(StoredBook dropped, List<StoredBook> kept) {
+        String isbn = dropped.isbn();
+        Set<String> titles = new HashSet<>();
+        Set<String> authorNames = new HashSet<>();
+        Set<String> genres = new HashSet<>();
+        Set<Integer> ratings = new HashSet<>();
+        for (StoredBook book : kept) {
+            titles.add(SearchNormalizer.normalize(book.title()));
+            for (StoredAuthor author : book.authors()) authorNames.add(SearchNormalizer.normalize(author.name()));
+            for (String genre : book.genres()) genres.add(SearchNormalizer.normalize(genre));
+            ratings.add(book.rating());
+        }
+        String title = SearchNormalizer.normalize(dropped.title());
+        if (!titles.contains(title)) titleIndex.remove(title, isbn);
+        if (kept.isEmpty()) isbnIndex.remove(SearchNormalizer.normalizeIsbn(isbn), isbn);
+        for (StoredAuthor author : dropped.authors()) {
+            String name = SearchNormalizer.normalize(author.name());
+            if (!authorNames.contains(name)) authorIndex.remove(name, isbn);
+        }
+        for (String genre : dropped.genres()) {
+            String name = SearchNormalizer.normalize(genre);
+            if (!genres.contains(name)) genreIndex.remove(name, isbn);
+        }
+        if (!ratings.contains(dropped.rating())) ratingIndex.remove(Integer.toString(dropped.rating()), isbn);
+    }
+
+    /**
+     * Drops the versions and index entries that no running or future search can see.
+     */
+    private void cleanUp() {
+        try {
+            dropUnreachable();
+        } catch (RuntimeException e) {
+            // keep the schedule running, the cleanup is retried on the next run
+            System.err.println("Could not clean up the in-memory store: " + e);
+        }
+    }
+
+    private void dropUnreachable() {
+        long horizon;
+        long stamp = horizonLock.writeLock();
+        try {
+            horizon = visibleSeq;
+            for (ReaderSlot slot : readerSlots) {
+                long seq = slot.seq;
+                if (seq == IDLE && slot.owner.get() == null) {
+                    readerSlots.remove(slot); // the thread is gone
+                } else if (seq < horizon) {
+                    horizon = seq;
+                }
+            }
+        } finally {
+            horizonLock.unlockWrite(stamp);
+        }
+        // searches starting from now on read at least at the horizon
+        Cleanup cleanup;
+        while ((cleanup = cleanups.peek()) != null && cleanup.seq() <= horizon) {
+            cleanups.poll();
+            ReentrantLock stripe = stripeOf(cleanup.isbn());
+            stripe.lock();
+            try {
+                prune(cleanup.isbn(), horizon);
+            } finally {
+                stripe.unlock();
+            }
+        }
+    }
+
+    /**
+     * Cuts the versions of a book older than the one seen at the horizon; the caller
+     * holds its stripe lock.
+     */
+    private void prune(String isbn, long horizon) {
+        Version head = books.get(isbn);
+        List<StoredBook> kept = new ArrayList<>();
+        Version base = head;
+        while (base != null && base.seq > horizon) {
+            if (base.book != null) kept.add(base.book);
+            base = base.previous;
+        }
+        if (base == null) return;
+        if (base.book != null) kept.add(base.book);
+        for (Version dropped = base.previous; dropped != null; dropped = dropped.previous) {
+            if (dropped.book != null) unindex(dropped.book, kept);
+        }
+        base.previous = null;
+        if (base == head && base.book == null) {
+            books.remove(isbn, base);
+        }
+    }
+
+    private IsbnIndex indexOf(SearchMode mode) {
+        switch (mode) {
+            case Title:
+                return titleIndex;
+            case ISBN:
+                return isbnIndex;
+            case Author:
+                return authorIndex;
+            case Genre:
+                return genreIndex;
+            default:
+                return ratingIndex;
+        }
+    }
+
+    private int stripeIndex(String isbn) {
+        return (isbn.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    private ReentrantLock stripeOf(String isbn) {
+        return stripes[stripeIndex(isbn)];
+    }
+
+    private void ensureOpen() throws BooksDbException {
+        if (!connected) {
+            throw new BooksDbException("Not connected to the database");
+        }
+    }
+
+    private List<Book> findBooks(SearchMode mode, String searchFor) throws BooksDbException {
+        List<Book> result = new ArrayList<>();
+        searchBooks(mode, searchFor, DEFAULT_BATCH_SIZE, result::addAll);
+        return result;
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.labb2dbt.model;
+
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.*;
+
+/**
+ * Declares the indexes the books collection needs, creates the missing ones at
+ * connect time and reports on how well the existing indexes serve the searches.
+ */
+public class IndexManager {
+
+    /**
+     * The indexes required by the searches in BooksDbImpl. The embedded author and genre
+     * names are multikey indexes. The compound genre/rating and rating/title indexes
+     * also serve searches on their first field alone, so those get no index of their own.
+     * The genre/rating indexes serve the combined searches of a BookQuery, e.g. a genre
+     * with a rating range ordered by rating. The title, release date and rating indexes
+     * end with the ISBN, the tiebreak of a sorted query, so a page of a sorted query is
+     * read from the index in either direction, starting at its keyset position.
+     */
+    public static final List<IndexSpec> REQUIRED_INDEXES = List.of(
+            new IndexSpec("isbn_unique", new Document("isbn", 1), true),
+            new IndexSpec("isbnNorm_1", new Document("isbnNorm", 1), false),
+            new IndexSpec("title_1", new Document("title", 1), false),
+            new IndexSpec("titleNorm_1_isbn_1", new Document("titleNorm", 1).append("isbn", 1), false),
+            new IndexSpec("authors.name_1", new Document("authors.name", 1), false),
+            new IndexSpec("authors.nameNorm_1", new Document("authors.nameNorm", 1), false),
+            new IndexSpec("genres.name_1_rating_-1", new Document("genres.name", 1).append("rating", -1), false),
+            new IndexSpec("genres.nameNorm_1_rating_-1", new Document("genres.nameNorm", 1).append("rating", -1), false),
+            new IndexSpec("rating_1_titleNorm_1", new Document("rating", 1).append("titleNorm", 1), false),
+            new IndexSpec("rating_1_isbn_1", new Document("rating", 1).append("isbn", 1), false),
+            new IndexSpec("dateOfRelease_1_isbn_1", new Document("dateOfRelease", 1).append("isbn", 1), false)
+    );
+
+    private final MongoCollection<Document> collection;
+    private final List<IndexSpec> required;
+
+    /**
+     * Constructs an IndexManager for the books collection with the required indexes.
+     *
+     * @param collection The books collection.
+     */
+    public IndexManager(MongoCollection<Document> collection) {
+        this(collection, REQUIRED_INDEXES);
+    }
+
+    /**
+     * Constructs an IndexManager for a collection with the given index declarations.
+     *
+     * @param collection The collection.
+     * @param required   The indexes the collection must have.
+     */
+    public IndexManager(MongoCollection<Document> collection, List<IndexSpec> required) {
+        this.collection = collection;
+        this.required = List.copyOf(required);
+    }
+
+    /**
+     * Creates the declared indexes that are missing. An existing index with the same keys
+     * but other options is left alone and reported as conflicting, since replacing it
+     * could lose it, e.g. a unique index that cannot be built again on duplicate ISBNs.
+     * Failures are recorded in the report rather than thrown, so a collection with e.g.
+     * duplicate ISBNs can still be used.
+     *
+     * @return A report listing the created, failed and conflicting indexes.
+     * @throws BooksDbException If the existing indexes cannot be listed.
+     */
+    public IndexReport ensureIndexes() throws BooksDbException {
+        IndexReport report = new IndexReport();
+        ensureIndexes(report);
+        return report;
+    }
+
+    private void ensureIndexes(IndexReport report) throws BooksDbException {
+        List<Document> existing = listIndexes();
+        for (IndexSpec spec : required) {
+            if (existing.stream().anyMatch(spec::matches)) continue;
+
+            // the server refuses two indexes with the same keys
+            Optional<Document> conflicting = existing.stream().filter(spec::hasSameKeys).findFirst();
+            if (conflicting.isPresent()) {
+                report.addConflicting(spec.name(), conflicting.get().getString("name"));
+                continue;
+            }
+            try {
+                collection.createIndex(spec.keys(), spec.toOptions());
+                report.addCreated(spec.name());
+            } catch (MongoException e) {
+                report.addFailed(spec.name(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Verifies the indexes: creates the missing ones, finds unused and redundant ones
+     * and explains the given queries to see which plan the server picks for each.
+     *
+     * A query that cannot be explained gets an unknown plan with the reason.
+     *
+     * @param queries The queries to explain, keyed by a description such as the search method.
+     * @return The report.
+     * @throws BooksDbException If the indexes cannot be listed.
+     */
+    public IndexReport verify(Map<String, Bson> queries) throws BooksDbException {
+        IndexReport report = new IndexReport();
+        ensureIndexes(report);
+
+        List<Document> existing = listIndexes();
+        findRedundant(existing, report);
+        findUnused(report);
+
+        for (Map.Entry<String, Bson> query : queries.entrySet()) {
+            try {
+                Document explained = collection.find(query.getValue()).explain(ExplainVerbosity.QUERY_PLANNER);
+                Document planner = explained.get("queryPlanner", Document.class);
+                Document winningPlan = planner == null ? null : planner.get("winningPlan", Document.class);
+                report.addQueryPlan(query.getKey(), describePlan(winningPlan));
+            } catch (MongoException e) {
+                report.addQueryPlan(query.getKey(), "unknown (" + e.getMessage() + ")");
+            }
+        }
+        return report;
+    }
+
+    private List<Document> listIndexes() throws BooksDbException {
+        try {
+            return collection.listIndexes().into(new ArrayList<>());
+        } catch (MongoException e) {
+            throw new BooksDbException("Error listing indexes", e);
+        }
+    }
+
+    /**
+     * An index is redundant if its keys are a leading prefix of another index's keys,
+     * unless it enforces uniqueness.
+     */
+    private void findRedundant(List<Document> existing, IndexReport report) {
+        for (Document index : existing) {
+            Document keys = index.get("key", Document.class);
+            if (index.getBoolean("unique", false) || "_id_".equals(index.getString("name"))) continue;
+            for (Document other : existing) {
+                if (other == index) continue;
+                Document otherKeys = other.get("key", Document.class);
+                if (otherKeys.size() > keys.size() && isPrefix(keys, otherKeys)) {
+                    report.addRedundant(index.getString("name"), other.getString("name"));
+                    break;
+                }
+            }
+        }
+    }
+
+    private void findUnused(IndexReport report) {
+        try {
+            List<Document> stats = collection.aggregate(List.of(new Document("$indexStats", new Document())))
+                    .into(new ArrayList<>());
+            for (Document stat : stats) {
+                String name = stat.getString("name");
+                Document accesses = stat.get("accesses", Document.class);
+                Number ops = accesses == null ? null : accesses.get("ops", Number.class);
+                // an index created just now has not had the chance to be used
+                if (!"_id_".equals(name) && ops != null && ops.longValue() == 0 && !report.getCreated().contains(name)) {
+                    report.addUnused(name);
+                }
+            }
+        } catch (MongoException e) {
+            // $indexStats needs extra privileges on some hosted clusters
+            report.setUsageStatsError(e.getMessage());
+        }
+    }
+
+    /**
+     * Describes a winning plan as its stages from the root down, with the index used,
+     * e.g. "FETCH > IXSCAN titleNorm_1_isbn_1".
+     */
+    static String describePlan(Document plan) {
+        if (plan == null) return "unknown";
+        List<String> stages = new ArrayList<>();
+        Document stage = plan;
+        while (stage != null) {
+            // newer servers wrap the classic plan in a queryPlan document
+            if (stage.containsKey("queryPlan")) {
+                stage = stage.get("queryPlan", Document.class);
+                continue;
+            }
+            String name = stage.getString("stage");
+            String index = stage.getString("indexName");
+            stages.add(index == null ? name : name + " " + index);
+            Document input = stage.get("inputStage", Document.class);
+            if (input == null && stage.containsKey("inputStages")) {
+                List<Document> inputs = stage.getList("inputStages", Document.class);
+                input = inputs.isEmpty() ? null : inputs.get(0);
+            }
+            stage = input;
+        }
+        return String.join(" > ", stages);
+    }
+
+    private static boolean isPrefix(Document prefix, Document keys) {
+        Iterator<Map.Entry<String, Object>> it = keys.entrySet().iterator();
+        for (Map.Entry<String, Object> entry : prefix.entrySet()) {
+            if (!it.hasNext()) return false;
+            Map.Entry<String, Object> other = it.next();
+            if (!entry.getKey().equals(other.getKey()) || !sameDirection(entry.getValue(), other.getValue())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compares index keys, treating 1 and 1.0 as equal since the server may return either.
+     */
+    static boolean sameKeys(Document a, Document b) {
+        return a.size() == b.size() && isPrefix(a, b);
+    }
+
+    private static boolean sameDirection(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue()) == 0;
+        }
+        return Objects.equals(a, b);
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.labb2dbt.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of verifying the indexes of the books collection: which of the
+ * declared indexes were created, could not be created or conflict with an existing
+ * index, which existing indexes
+ * look unused or redundant, and which query plan each search would use.
+ */
+public class IndexReport {
+
+    private final List<String> created = new ArrayList<>();
+    private final Map<String, String> failed = new LinkedHashMap<>();
+    private final Map<String, String> conflicting = new LinkedHashMap<>();
+    private final List<String> unused = new ArrayList<>();
+    private final Map<String, String> redundant = new LinkedHashMap<>();
+    private final Map<String, String> queryPlans = new LinkedHashMap<>();
+    private String usageStatsError;
+
+    void addCreated(String indexName) {
+        created.add(indexName);
+    }
+
+    void addFailed(String indexName, String reason) {
+        failed.put(indexName, reason);
+    }
+
+    void addConflicting(String indexName, String existingIndexName) {
+        conflicting.put(indexName, existingIndexName);
+    }
+
+    void addUnused(String indexName) {
+        unused.add(indexName);
+    }
+
+    void addRedundant(String indexName, String coveredBy) {
+        redundant.put(indexName, coveredBy);
+    }
+
+    void addQueryPlan(String query, String plan) {
+        queryPlans.put(query, plan);
+    }
+
+    void setUsageStatsError(String usageStatsError) {
+        this.usageStatsError = usageStatsError;
+    }
+
+    /**
+     * Gets the names of the declared indexes that were missing and have been created.
+     *
+     * @return The created index names.
+     */
+    public List<String> getCreated() {
+        return new ArrayList<>(created);
+    }
+
+    /**
+     * Gets the declared indexes that could not be created, e.g. a unique ISBN index
+     * while the collection holds duplicate ISBNs.
+     *
+     * @return A map from index name to the reason.
+     */
+    public Map<String, String> getFailed() {
+        return new LinkedHashMap<>(failed);
+    }
+
+    /**
+     * Gets the declared indexes that were not created because an existing index has the
+     * same keys but other options, e.g. another name or no uniqueness. The existing index
+     * is kept; replacing it is left to an administrator.
+     *
+     * @return A map from declared index name to the name of the existing index.
+     */
+    public Map<String, String> getConflicting() {
+        return new LinkedHashMap<>(conflicting);
+    }
+
+    /**
+     * Checks whether the report has anything to act on: created, failed, conflicting,
+     * unused or redundant indexes, or searches scanning the whole collection.
+     *
+     * @return {@code true} if there are findings.
+     */
+    public boolean hasFindings() {
+        return !created.isEmpty() || !failed.isEmpty() || !conflicting.isEmpty() || !unused.isEmpty()
+                || !redundant.isEmpty() || usageStatsError != null || !getCollectionScans().isEmpty();
+    }
+
+    /**
+     * Gets the indexes that have not been used since the server started.
+     *
+     * @return The unused index names.
+     */
+    public List<String> getUnused() {
+        return new ArrayList<>(unused);
+    }
+
+    /**
+     * Gets the indexes whose keys are a prefix of another index, which can serve the same queries.
+     *
+     * @return A map from the redundant index name to the index covering it.
+     */
+    public Map<String, String> getRedundant() {
+        return new LinkedHashMap<>(redundant);
+    }
+
+    /**
+     * Gets the winning query plan of each search, e.g. "FETCH > IXSCAN titleNorm_1_isbn_1" or "COLLSCAN".
+     *
+     * @return A map from search description to plan.
+     */
+    public Map<String, String> getQueryPlans() {
+        return new LinkedHashMap<>(queryPlans);
+    }
+
+    /**
+     * Gets the searches whose winning plan scans the whole collection.
+     *
+     * @return The search descriptions.
+     */
+    public List<String> getCollectionScans() {
+        List<String> scans = new ArrayList<>();
+        for (Map.Entry<String, String> entry : queryPlans.entrySet()) {
+            if (entry.getValue().contains("COLLSCAN")) scans.add(entry.getKey());
+        }
+        return scans;
+    }
+
+    /**
+     * Provides a readable multi-line summary of the report.
+     *
+     * @return The summary.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Index report\n");
+        sb.append("  created: ").append(created).append('\n');
+        failed.forEach((name, reason) -> sb.append("  failed: ").append(name).append(" (").append(reason).append(")\n"));
+        conflicting.forEach((name, existing) -> sb.append("  conflicting: ").append(name)
+                .append(" (same keys as ").append(existing).append(" with other options)\n"));
+        if (usageStatsError != null) {
+            sb.append("  usage stats unavailable: ").append(usageStatsError).append('\n');
+        } else {
+            sb.append("  unused: ").append(unused).append('\n');
+        }
+        redundant.forEach((name, by) -> sb.append("  redundant: ").append(name).append(" (covered by ").append(by).append(")\n"));
+        queryPlans.forEach((query, plan) -> sb.append("  plan: ").append(query).append(" -> ").append(plan).append('\n'));
+        return sb.toString();
+    }
+}
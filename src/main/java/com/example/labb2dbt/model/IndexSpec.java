@@ -0,0 +1,44 @@
+package com.example.labb2dbt.model;
+
+import com.mongodb.client.model.IndexOptions;
+import org.bson.Document;
+
+/**
+ * Declaration of an index the books collection is expected to have.
+ *
+ * @param name    The name of the index.
+ * @param keys    The index keys, e.g. {"isbn": 1}.
+ * @param unique  {@code true} if the index must be unique.
+ */
+public record IndexSpec(String name, Document keys, boolean unique) {
+
+    /**
+     * Creates the options used when the index is created.
+     *
+     * @return The index options.
+     */
+    public IndexOptions toOptions() {
+        return new IndexOptions().name(name).unique(unique);
+    }
+
+    /**
+     * Checks whether an existing index, as returned by listIndexes, has the same keys.
+     *
+     * @param indexInfo The index description from the server.
+     * @return {@code true} if the keys are equal, in order.
+     */
+    public boolean hasSameKeys(Document indexInfo) {
+        Document existingKeys = indexInfo.get("key", Document.class);
+        return existingKeys != null && IndexManager.sameKeys(keys, existingKeys);
+    }
+
+    /**
+     * Checks whether an existing index, as returned by listIndexes, matches this declaration.
+     *
+     * @param indexInfo The index description from the server.
+     * @return {@code true} if the keys and the uniqueness are the same.
+     */
+    public boolean matches(Document indexInfo) {
+        return hasSameKeys(indexInfo) && unique == indexInfo.getBoolean("unique", false);
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.labb2dbt.model;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Records the latency, result size and outcome of every call to another
+ * BooksDbInterface in a BooksDbMetrics, per operation and, for searches, per
+ * search mode. Batched searches are timed until the last batch has been consumed.
+ * Exceptions are counted as errors and passed on unchanged.
+ */
+public class InstrumentedBooksDb implements BooksDbInterface {
+
+    /**
+     * A call to the delegate returning a result.
+     */
+    @FunctionalInterface
+    private interface Call<T> {
+        T run() throws BooksDbException;
+    }
+
+    /**
+     * A call to the delegate without a result.
+     */
+    @FunctionalInterface
+    private interface VoidCall {
+        void run() throws BooksDbException;
+    }
+
+    private final BooksDbInterface delegate;
+    private final BooksDbMetrics metrics;
+
+    /**
+     * Constructs an instrumented database recording into new metrics.
+     *
+     * @param delegate The database to instrument.
+     */
+    public InstrumentedBooksDb(BooksDbInterface delegate) {
+        this(delegate, new BooksDbMetrics());
+    }
+
+    /**
+     * Constructs an instrumented database recording into the given metrics.
+     *
+     * @param delegate The database to instrument.
+     * @param metrics  The metrics to record into.
+     */
+    public InstrumentedBooksDb(BooksDbInterface delegate, BooksDbMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the metrics recorded by this database.
+     *
+     * @return The metrics.
+     */
+    public BooksDbMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public boolean connect(String database, String username, String password) throws BooksDbException {
+        return timed("connect", null, () -> delegate.connect(database, username, password));
+    }
+
+    @Override
+    public boolean connect(ConnectionProfile profile) throws BooksDbException {
+        return timed("connect", null, () -> delegate.connect(profile));
+    }
+
+    @Override
+    public void disconnect() throws BooksDbException {
+        timed("disconnect", null, delegate::disconnect, () -> 0);
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        timed("addBook", null, () -> delegate.addBook(book), () -> 1);
+    }
+
+    @Override
+    public void addAuthor(Author author) throws BooksDbException {
+        timed("addAuthor", null, () -> delegate.addAuthor(author), () -> 1);
+    }
+
+    @Override
+    public BulkImportResult addBooks(Iterable<Book> books) throws BooksDbException {
+        return timed("addBooks", null, () -> delegate.addBooks(books), BulkImportResult::getInserted);
+    }
+
+    @Override
+    public BulkImportResult addAuthors(Iterable<Author> authors) throws BooksDbException {
+        return timed("addAuthors", null, () -> delegate.addAuthors(authors), BulkImportResult::getInserted);
+    }
+
+    @Override
+    public void updateBook(String id, Book book) throws BooksDbException {
+        timed("updateBook", null, () -> delegate.updateBook(id, book), () -> 1);
+    }
+
+    @Override
+    public void deleteBook(Book book) throws BooksDbException {
+        timed("deleteBook", null, () -> delegate.deleteBook(book), () -> 1);
+    }
+
+    @Override
+    public void updateBookRating(Book book, int newRating) throws BooksDbException {
+        timed("updateBookRating", null, () -> delegate.updateBookRating(book, newRating), () -> 1);
+    }
+
+    @Override
+    public int updateBookRatings(Map<String, Integer> ratings) throws BooksDbException {
+        return timed("updateBookRatings", null, () -> delegate.updateBookRatings(ratings), changed -> changed);
+    }
+
+    @Override
+    public List<Book> searchBooksByAuthor(String author) throws BooksDbException {
+        return timedList("searchBooksByAuthor", SearchMode.Author, () -> delegate.searchBooksByAuthor(author));
+    }
+
+    @Override
+    public List<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        return timedList("searchBooksByGenre", SearchMode.Genre, () -> delegate.searchBooksByGenre(genre));
+    }
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        return timedList("searchBooksByTitle", SearchMode.Title, () -> delegate.searchBooksByTitle(title));
+    }
+
+    @Override
+    public List<Book> searchBooksByISBN(String isbn) throws BooksDbException {
+        return timedList("searchBooksByISBN", SearchMode.ISBN, () -> delegate.searchBooksByISBN(isbn));
+    }
+
+    @Override
+    public List<Book> searchBooksByRating(String rating) throws BooksDbException {
+        return timedList("searchBooksByRating", SearchMode.Rating, () -> delegate.searchBooksByRating(rating));
+    }
+
+    @Override
+    public void searchBooks(SearchMode mode, String searchFor, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        LongAdder found = new LongAdder();
+        timed("searchBooks", mode.name(),
+                () -> delegate.searchBooks(mode, searchFor, batchSize, counting(found, consumer)), found::sum);
+    }
+
+    @Override
+    public void searchBooks(SearchMode mode, MatchMode match, String searchFor, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        LongAdder found = new LongAdder();
+        timed("searchBooks", mode.name(),
+                () -> delegate.searchBooks(mode, match, searchFor, batchSize, counting(found, consumer)), found::sum);
+    }
+
+    @Override
+    public void searchBooks(SearchMode mode, MatchMode match, String searchFor, BookProjection projection,
+                            int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        LongAdder found = new LongAdder();
+        timed("searchBooks", mode.name(),
+                () -> delegate.searchBooks(mode, match, searchFor, projection, batchSize, counting(found, consumer)), found::sum);
+    }
+
+    @Override
+    public void searchBooks(BookQuery query, BookProjection projection, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        LongAdder found = new LongAdder();
+        timed("searchBooks", "Query",
+                () -> delegate.searchBooks(query, projection, batchSize, counting(found, consumer)), found::sum);
+    }
+
+    @Override
+    public long countBooks(BookQuery query) throws BooksDbException {
+        return timed("countBooks", "Query", () -> delegate.countBooks(query));
+    }
+
+    @Override
+    public List<Book> searchBooksByText(String query, int limit) throws BooksDbException {
+        return timedList("searchBooksByText", SearchMode.FullText, () -> delegate.searchBooksByText(query, limit));
+    }
+
+    @Override
+    public void loadBookDetails(Book book) throws BooksDbException {
+        timed("loadBookDetails", null, () -> delegate.loadBookDetails(book), () -> 1);
+    }
+
+    @Override
+    public List<Author> getAllAuthors() throws BooksDbException {
+        return timed("getAllAuthors", null, delegate::getAllAuthors, List::size);
+    }
+
+    @Override
+    public BookSubscription watchBooks(Consumer<BookChange> listener, Consumer<BooksDbException> errors) throws BooksDbException {
+        return timed("watchBooks", null, () -> delegate.watchBooks(listener, errors));
+    }
+
+    private <T> List<T> timedList(String operation, SearchMode mode, Call<List<T>> call) throws BooksDbException {
+        return timed(operation, mode.name(), call, List::size);
+    }
+
+    private <T> T timed(String operation, String mode, Call<T> call) throws BooksDbException {
+        return timed(operation, mode, call, result -> 0);
+    }
+
+    private void timed(String operation, String mode, VoidCall call, LongSupplier results) throws BooksDbException {
+        timed(operation, mode, () -> {
+            call.run();
+            return null;
+        }, result -> results.getAsLong());
+    }
+
+    private <T> T timed(String operation, String mode, Call<T> call, ToLongFunction<T> results) throws BooksDbException {
+        OperationMetrics operationMetrics = metrics.operation(operation, mode);
+        long started = System.nanoTime();
+        boolean failed = true;
+        T result = null;
+        try {
+            result = call.run();
+            failed = false;
+            return result;
+        } finally {
+            operationMetrics.record(System.nanoTime() - started, failed ? 0 : results.applyAsLong(result), failed);
+        }
+    }
+
+    private static Consumer<List<Book>> counting(LongAdder found, Consumer<List<Book>> consumer) {
+        return batch -> {
+            found.add(batch.size());
+            consumer.accept(batch);
+        };
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.labb2dbt.model;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Hands out one shared instance per key, e.g. one Genre per genre name, so the books of
+ * a large result refer to a few shared objects instead of a copy each. The instances
+ * are only weakly held: once no book refers to one any more it is collected, and its
+ * entry is removed by a later call. Safe for use by several threads; two threads
+ * interning the same new key at once may both create an instance, but only one is kept.
+ *
+ * @param <K> The key, compared with equals.
+ * @param <V> The shared instances.
+ */
+final class Interner<K, V> {
+
+    private static final class Entry<K, V> extends WeakReference<V> {
+        private final K key;
+
+        private Entry(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Entry<K, V>> entries = new ConcurrentHashMap<>();
+    private final ReferenceQueue<V> collected = new ReferenceQueue<>();
+    private final Function<K, V> factory;
+
+    /**
+     * Constructs an interner.
+     *
+     * @param factory Creates the instance for a key not seen before, or whose instance was collected.
+     */
+    Interner(Function<K, V> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Gets the shared instance for a key, creating it if there is none.
+     *
+     * @param key The key, not null.
+     * @return The shared instance.
+     */
+    V intern(K key) {
+        expunge();
+        while (true) {
+            Entry<K, V> entry = entries.get(key);
+            V value = entry == null ? null : entry.get();
+            if (value != null) return value;
+            V created = factory.apply(key);
+            Entry<K, V> fresh = new Entry<>(key, created, collected);
+            boolean stored = entry == null
+                    ? entries.putIfAbsent(key, fresh) == null
+                    : entries.replace(key, entry, fresh);
+            if (stored) return created;
+            // another thread stored one first, use that one
+        }
+    }
+
+    /**
+     * Gets the number of keys with an instance that may still be in use.
+     *
+     * @return The number of keys.
+     */
+    int size() {
+        expunge();
+        return entries.size();
+    }
+
+    private void expunge() {
+        Reference<? extends V> reference;
+        while ((reference = collected.poll()) != null) {
+            @SuppressWarnings("unchecked")
+            Entry<K, V> entry = (Entry<K, V>) reference;
+            // only if it was not replaced by a new instance meanwhile
+            entries.remove(entry.key, entry);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.labb2dbt.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * A sorted, concurrent secondary index from a key, e.g. a normalized title, to the ISBNs
+ * of the books having it, used by InMemoryBooksDb.
+ * <p>
+ * Most keys belong to a few books, so their ISBNs are kept in a small array that is
+ * copied on write. Once a key has more than {@value #MAX_ARRAY_SIZE} books, e.g. a genre
+ * or a rating, its ISBNs move to a concurrent set, which is never moved back.
+ * Lookups never block and may see an update in progress; callers re-check the books.
+ */
+final class IsbnIndex {
+
+    private static final int MAX_ARRAY_SIZE = 16;
+
+    // a String[] or a concurrent Set<String> per key
+    private final ConcurrentSkipListMap<String, Object> entries = new ConcurrentSkipListMap<>();
+
+    /**
+     * Adds an ISBN to a key.
+     */
+    @SuppressWarnings("unchecked")
+    void add(String key, String isbn) {
+        if (key == null) return;
+        Object current = entries.putIfAbsent(key, new String[]{isbn});
+        if (current == null) return;
+        if (current instanceof Set<?> set) {
+            ((Set<String>) set).add(isbn);
+            return;
+        }
+        // the remapping may run more than once, so it only builds new values
+        entries.compute(key, (k, value) -> {
+            if (value == null) return new String[]{isbn};
+            if (value instanceof Set<?> set) {
+                ((Set<String>) set).add(isbn);
+                return set;
+            }
+            String[] isbns = (String[]) value;
+            for (String existing : isbns) {
+                if (existing.equals(isbn)) return isbns;
+            }
+            if (isbns.length == MAX_ARRAY_SIZE) {
+                Set<String> grown = ConcurrentHashMap.newKeySet();
+                grown.addAll(Arrays.asList(isbns));
+                grown.add(isbn);
+                return grown;
+            }
+            String[] added = Arrays.copyOf(isbns, isbns.length + 1);
+            added[isbns.length] = isbn;
+            return added;
+        });
+    }
+
+    /**
+     * Removes an ISBN from a key.
+     */
+    void remove(String key, String isbn) {
+        if (key == null) return;
+        if (entries.get(key) instanceof Set<?> set) {
+            set.remove(isbn);
+            return;
+        }
+        entries.computeIfPresent(key, (k, value) -> {
+            if (value instanceof Set<?> set) {
+                set.remove(isbn);
+                return set;
+            }
+            String[] isbns = (String[]) value;
+            int index = Arrays.asList(isbns).indexOf(isbn);
+            if (index < 0) return isbns;
+            if (isbns.length == 1) return null;
+            String[] removed = new String[isbns.length - 1];
+            System.arraycopy(isbns, 0, removed, 0, index);
+            System.arraycopy(isbns, index + 1, removed, index, isbns.length - index - 1);
+            return removed;
+        });
+    }
+
+    /**
+     * Passes the ISBNs of a key to an action.
+     */
+    void forEach(String key, Consumer<String> action) {
+        forEachIsbn(entries.get(key), action);
+    }
+
+    /**
+     * Passes the ISBNs of every key starting with a prefix to an action, in key order.
+     * An ISBN filed under several matching keys is passed once per key.
+     */
+    void forEachWithPrefix(String prefix, Consumer<String> action) {
+        for (Map.Entry<String, Object> entry : entries.tailMap(prefix).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) break;
+            forEachIsbn(entry.getValue(), action);
+        }
+    }
+
+    /**
+     * Gets the number of keys.
+     */
+    int size() {
+        return entries.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void forEachIsbn(Object value, Consumer<String> action) {
+        if (value instanceof String[] isbns) {
+            for (String isbn : isbns) action.accept(isbn);
+        } else if (value != null) {
+            ((Set<String>) value).forEach(action);
+        }
+    }
+}
@@ -0,0 +1,1107 @@
+package com.example.labb2dbt.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
+
+/**
+ * Implementation of the BooksDbInterface that stores the books and authors in a local,
+ * append-only log file, for terminals that cannot always reach MongoDB.
+ * <p>
+ * Every change appends a record {@code [payload length][CRC-32C][type][payload]} to
+ * {@code <database>.log} in the store directory. An in-memory index maps each ISBN to
+ * the offset of its latest record, so lookups by ISBN read a single record. On connect
+ * the log is replayed through a memory mapping, reading only the ISBN of each book; a
+ * torn or corrupt record at the end, left by a crash during a write, is cut off.
+ * <p>
+ * Superseded records are dead space. When the dead bytes exceed the live bytes, a
+ * background compaction copies the live records to a new file, catches up with the
+ * writes made meanwhile and atomically renames it over the log.
+ * <p>
+ * Searches scan the log under a read lock, so a search consumer must not write to
+ * the same store. Full-text searches are answered by an in-memory FullTextIndex, built
+ * from the live records by the first of them and kept up to date by every write after.
+ */
+public class LocalBooksDb implements BooksDbInterface {
+
+    /** Compaction only runs once at least this many bytes are dead. */
+    public static final long DEFAULT_COMPACTION_MIN_DEAD_BYTES = 4L * 1024 * 1024;
+
+    private static final int MAGIC = 0x424B4C47; // "BKLG"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 9; // payload length, crc, type
+    private static final int MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+    private static final long MAP_WINDOW_SIZE = 256L * 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+    private static final int BULK_CHUNK_SIZE = 1000;
+
+    private static final byte PUT_BOOK = 1;
+    private static final byte REPLACE_BOOK = 2; // a book whose ISBN was changed
+    private static final byte DELETE_BOOK = 3;
+    private static final byte PUT_AUTHOR = 4;
+
+    private record Location(long offset, int size) {
+    }
+
+    private record AuthorEntry(Author author, Location location) {
+    }
+
+    private final Path directory;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock compaction = new ReentrantLock(); // one compaction at a time
+    private volatile boolean syncOnWrite = true;
+    private volatile long compactionMinDeadBytes = DEFAULT_COMPACTION_MIN_DEAD_BYTES;
+
+    // guarded by lock
+    private Path logFile;
+    private FileChannel channel;
+    private long end;
+    private LogIndex index;
+    private ExecutorService compactor;
+    private FullTextIndex fullTextIndex; // null until the first full-text search
+
+    /**
+     * Constructs a store keeping its log files in a directory.
+     *
+     * @param directory The directory, created on connect if missing.
+     */
+    public LocalBooksDb(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the log of a database in the store directory, replaying it into the index.
+     * The credentials are ignored, the files are protected by the file system.
+     *
+     * @param database The database, i.e. the name of the log file.
+     * @param username Ignored.
+     * @param password Ignored.
+     * @return true if the log was opened.
+     * @throws BooksDbException If the log cannot be read or is not a books log.
+     */
+    @Override
+    public boolean connect(String database, String username, String password) throws BooksDbException {
+        disconnect();
+        Path file = directory.resolve(database + ".log");
+        lock.writeLock().lock();
+        try {
+            Files.createDirectories(directory);
+            // an unfinished compaction is discarded, the log itself is still complete
+            Files.deleteIfExists(compactFile(file));
+            FileChannel opened = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                long started = System.nanoTime();
+                LogIndex replayed = new LogIndex();
+                this.end = replay(opened, file, replayed);
+                this.channel = opened;
+                this.logFile = file;
+                this.index = replayed;
+                this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "books-log-compactor");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                System.out.println("Opened local store " + file + ": " + replayed.books.size() + " books, "
+                        + replayed.authors.size() + " authors in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+                return true;
+            } catch (IOException | BooksDbException e) {
+                opened.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new BooksDbException("Could not open the local store " + file, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replays a log into an index, writing the file header of a new log and cutting off
+     * a torn tail.
+     *
+     * @return The end of the last complete record.
+     */
+    private long replay(FileChannel opened, Path file, LogIndex replayed) throws IOException, BooksDbException {
+        long size = opened.size();
+        if (size == 0) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+            writeFully(opened, header, 0);
+            opened.force(true);
+            return FILE_HEADER_SIZE;
+        }
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        if (size < FILE_HEADER_SIZE || opened.read(header, 0) < FILE_HEADER_SIZE
+                || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new BooksDbException("Not a books log: " + file);
+        }
+        long validEnd = scan(opened, FILE_HEADER_SIZE, size, replayed::apply);
+        if (validEnd < size) {
+            System.err.println("Recovered local store " + file + ": discarded " + (size - validEnd)
+                    + " bytes after the last complete record");
+            opened.truncate(validEnd);
+            opened.force(true);
+        }
+        return validEnd;
+    }
+
+    /**
+     * Closes the log. A running compaction is abandoned.
+     *
+     * @throws BooksDbException If the log cannot be closed.
+     */
+    @Override
+    public void disconnect() throws BooksDbException {
+        ExecutorService stopping;
+        lock.writeLock().lock();
+        try {
+            if (channel == null) return;
+            stopping = compactor;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new BooksDbException("Error closing the local store", e);
+            } finally {
+                channel = null;
+                index = null;
+                compactor = null;
+                fullTextIndex = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        stopping.shutdownNow();
+    }
+
+    /**
+     * Sets whether every write is forced to the disk before it returns. Without it, a
+     * crash of the machine, not only of the application, can lose the latest writes.
+     *
+     * @param syncOnWrite {@code true} to force every write, the default.
+     */
+    public void setSyncOnWrite(boolean syncOnWrite) {
+        this.syncOnWrite = syncOnWrite;
+    }
+
+    /**
+     * Sets the number of dead bytes below which no compaction runs.
+     *
+     * @param compactionMinDeadBytes The threshold in bytes.
+     */
+    public void setCompactionMinDeadBytes(long compactionMinDeadBytes) {
+        this.compactionMinDeadBytes = compactionMinDeadBytes;
+    }
+
+    /**
+     * Gets the number of books in the store.
+     *
+     * @return The number of books.
+     * @throws BooksDbException If the store is not open.
+     */
+    public int getBookCount() throws BooksDbException {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            return index.books.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the bytes of the log taken by records that are still current.
+     *
+     * @return The live bytes.
+     * @throws BooksDbException If the store is not open.
+     */
+    public long getLiveBytes() throws BooksDbException {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            return index.liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the bytes of the log taken by superseded and delete records.
+     *
+     * @return The dead bytes, reclaimed by the next compaction.
+     * @throws BooksDbException If the store is not open.
+     */
+    public long getDeadBytes() throws BooksDbException {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            return index.deadBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        byte[] payload = BookLogCodec.encodeBook(book);
+        boolean compact;
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            if (index.books.containsKey(book.getIsbn())) {
+                throw new BooksDbException("A book with ISBN " + book.getIsbn() + " already exists");
+            }
+            append(PUT_BOOK, payload);
+            if (fullTextIndex != null) fullTextIndex.add(book);
+            sync();
+            compact = needsCompaction();
+        } catch (IOException e) {
+            throw new BooksDbException("Error adding book to the local store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (compact) scheduleCompaction();
+    }
+
+    /**
+     * Adds many books, forcing the log to the disk once per chunk instead of once per book.
+     *
+     * @param books The books to be added.
+     * @return The number of added books and the duplicates that were skipped.
+     * @throws BooksDbException If the log cannot be written.
+     */
+    @Override
+    public BulkImportResult addBooks(Iterable<Book> books) throws BooksDbException {
+        BulkImportResult result = new BulkImportResult();
+        List<Book> chunk = new ArrayList<>(BULK_CHUNK_SIZE);
+        for (Book book : books) {
+            chunk.add(book);
+            if (chunk.size() == BULK_CHUNK_SIZE) {
+                addChunk(chunk, result);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) addChunk(chunk, result);
+        result.finish();
+        return result;
+    }
+
+    private void addChunk(List<Book> chunk, BulkImportResult result) throws BooksDbException {
+        List<byte[]> payloads = new ArrayList<>(chunk.size());
+        for (Book book : chunk) {
+            payloads.add(BookLogCodec.encodeBook(book));
+        }
+        boolean compact;
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            for (int i = 0; i < chunk.size(); i++) {
+                String isbn = chunk.get(i).getIsbn();
+                if (index.books.containsKey(isbn)) {
+                    result.addFailure(-1, isbn, "A book with ISBN " + isbn + " already exists");
+                    continue;
+                }
+                append(PUT_BOOK, payloads.get(i));
+                if (fullTextIndex != null) fullTextIndex.add(chunk.get(i));
+                result.addInserted(1);
+            }
+            sync();
+            result.addBatch();
+            compact = needsCompaction();
+        } catch (IOException e) {
+            throw new BooksDbException("Error adding books to the local store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (compact) scheduleCompaction();
+    }
+
+    @Override
+    public void addAuthor(Author author) throws BooksDbException {
+        write(PUT_AUTHOR, BookLogCodec.encodeAuthor(author), "Error adding author to the local store");
+    }
+
+    @Override
+    public void updateBook(String isbn, Book book) throws BooksDbException {
+        boolean renamed = !isbn.equals(book.getIsbn());
+        byte[] payload = renamed ? BookLogCodec.encodeReplacement(isbn, book) : BookLogCodec.encodeBook(book);
+        boolean compact;
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            Location current = index.books.get(isbn);
+            if (current == null) {
+                throw new BooksDbException("No book found with ISBN: " + isbn);
+            }
+            if (renamed && index.books.containsKey(book.getIsbn())) {
+                throw new BooksDbException("A book with ISBN " + book.getIsbn() + " already exists");
+            }
+            if (!renamed && samePayload(current, payload)) {
+                throw new BooksDbException("Book not updated for ISBN: " + isbn);
+            }
+            append(renamed ? REPLACE_BOOK : PUT_BOOK, payload);
+            if (fullTextIndex != null) fullTextIndex.update(isbn, book);
+            sync();
+            compact = needsCompaction();
+        } catch (IOException e) {
+            throw new BooksDbException("Error updating book in the local store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (compact) scheduleCompaction();
+    }
+
+    @Override
+    public void deleteBook(Book book) throws BooksDbException {
+        String isbn = book.getIsbn();
+        boolean compact;
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            if (!index.books.containsKey(isbn)) {
+                throw new BooksDbException("No book found with ISBN: " + isbn);
+            }
+            append(DELETE_BOOK, BookLogCodec.encodeIsbn(isbn));
+            if (fullTextIndex != null) fullTextIndex.remove(isbn);
+            sync();
+            compact = needsCompaction();
+        } catch (IOException e) {
+            throw new BooksDbException("Error deleting book from the local store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (compact) scheduleCompaction();
+    }
+
+    @Override
+    public void updateBookRating(Book book, int newRating) throws BooksDbException {
+        String isbn = book.getIsbn();
+        boolean compact;
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            Location current = index.books.get(isbn);
+            if (current == null) {
+                throw new BooksDbException("No book found with ISBN: " + isbn);
+            }
+            Book stored = readBook(current);
+            if (stored.getRating() == newRating) {
+                throw new BooksDbException("Book rating not updated for ISBN: " + isbn);
+            }
+            stored.setRating(newRating);
+            append(PUT_BOOK, BookLogCodec.encodeBook(stored));
+            sync();
+            compact = needsCompaction();
+        } catch (IOException e) {
+            throw new BooksDbException("Error updating book rating in the local store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (compact) scheduleCompaction();
+    }
+
+    /**
+     * Updates the ratings of several books with one sync of the log for all of them.
+     */
+    @Override
+    public int updateBookRatings(Map<String, Integer> ratings) throws BooksDbException {
+        int changed = 0;
+        List<String> missing = new ArrayList<>();
+        boolean compact;
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            for (Map.Entry<String, Integer> rating : ratings.entrySet()) {
+                Location current = index.books.get(rating.getKey());
+                if (current == null) {
+                    missing.add(rating.getKey());
+                    continue;
+                }
+                Book stored = readBook(current);
+                if (stored.getRating() != rating.getValue()) {
+                    stored.setRating(rating.getValue());
+                    append(PUT_BOOK, BookLogCodec.encodeBook(stored));
+                    changed++;
+                }
+            }
+            if (changed > 0) sync();
+            compact = needsCompaction();
+        } catch (IOException e) {
+            throw new BooksDbException("Error updating book ratings in the local store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (compact) scheduleCompaction();
+        if (!missing.isEmpty()) {
+            throw new RatingsNotWrittenException("No book found for " + missing.size() + " of the ISBNs: " + missing, missing);
+        }
+        return changed;
+    }
+
+    @Override
+    public List<Book> searchBooksByAuthor(String author) throws BooksDbException {
+        return findBooks(SearchMode.Author, author);
+    }
+
+    @Override
+    public List<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        return findBooks(SearchMode.Genre, genre);
+    }
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        return findBooks(SearchMode.Title, title);
+    }
+
+    @Override
+    public List<Book> searchBooksByISBN(String isbn) throws BooksDbException {
+        return findBooks(SearchMode.ISBN, isbn);
+    }
+
+    @Override
+    public List<Book> searchBooksByRating(String rating) throws BooksDbException {
+        return findBooks(SearchMode.Rating, rating);
+    }
+
+    @Override
+    public void searchBooks(SearchMode mode, String searchFor, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        searchBooks(mode, MatchMode.Substring, searchFor, batchSize, consumer);
+    }
+
+    @Override
+    public void searchBooks(SearchMode mode, MatchMode match, String searchFor, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        searchBooks(mode, match, searchFor, BookProjection.Full, batchSize, consumer);
+    }
+
+    /**
+     * Searches the log. Books are always read whole, the projection makes no difference
+     * locally. An exact ISBN search is answered from the index and a FullText search from
+     * the full-text index, every other search scans the live records of the log.
+     */
+    @Override
+    public void searchBooks(SearchMode mode, MatchMode match, String searchFor, BookProjection projection,
+                            int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        if (batchSize < 1) {
+            throw new BooksDbException("Invalid batch size: " + batchSize);
+        }
+        if (mode == SearchMode.FullText) {
+            List<Book> ranked = rankedSearch(searchFor, DEFAULT_FULL_TEXT_LIMIT);
+            for (int from = 0; from < ranked.size(); from += batchSize) {
+                consumer.accept(new ArrayList<>(ranked.subList(from, Math.min(from + batchSize, ranked.size()))));
+            }
+            return;
+        }
+        BookMatcher matcher = BookMatcher.of(mode, match, searchFor);
+        if (match == MatchMode.NormalizedPrefix && mode != SearchMode.Rating) {
+            String normalized = mode == SearchMode.ISBN ? SearchNormalizer.normalizeIsbn(searchFor) : SearchNormalizer.normalize(searchFor);
+            if (normalized.isEmpty()) {
+                throw new BooksDbException("Nothing to search for in: " + searchFor);
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            if (mode == SearchMode.ISBN && match == MatchMode.Exact) {
+                Location location = index.books.get(searchFor);
+                if (location != null) {
+                    consumer.accept(new ArrayList<>(List.of(readBook(location))));
+                }
+                return;
+            }
+            LogIndex current = index;
+            boolean headOnly = mode == SearchMode.Title || mode == SearchMode.ISBN || mode == SearchMode.Rating;
+            List<List<Book>> batch = new ArrayList<>(List.of(new ArrayList<>(batchSize)));
+            scan(channel, FILE_HEADER_SIZE, end, (offset, type, payload, size) -> {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new BooksDbException("Search cancelled");
+                }
+                if (type != PUT_BOOK && type != REPLACE_BOOK) return;
+                if (type == REPLACE_BOOK) BookLogCodec.readString(payload);
+                int bookStart = payload.position();
+                Location live = current.books.get(BookLogCodec.readString(payload));
+                if (live == null || live.offset() != offset) return; // superseded or deleted
+                // title, ISBN and rating are in the head of the record, reject on those first
+                if (headOnly && !matcher.matches(BookLogCodec.decodeBookHead(payload.position(bookStart)))) return;
+                Book book = BookLogCodec.decodeBook(payload.position(bookStart));
+                if (headOnly || matcher.matches(book)) {
+                    batch.get(0).add(book);
+                    if (batch.get(0).size() == batchSize) {
+                        consumer.accept(batch.get(0));
+                        batch.set(0, new ArrayList<>(batchSize));
+                    }
+                }
+            });
+            if (!batch.get(0).isEmpty()) {
+                consumer.accept(batch.get(0));
+            }
+        } catch (IOException e) {
+            throw new BooksDbException("Error searching books by " + mode + " in the local store", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the live records of the log for the books matching a query. Only the books
+     * that can still be part of the page are held while the log is scanned, so a page far
+     * down a large result costs a scan but no sort of the whole result. The consumer runs
+     * after the scan, without the lock, and may write to the store.
+     */
+    @Override
+    public void searchBooks(BookQuery query, BookProjection projection, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        if (batchSize < 1) {
+            throw new BooksDbException("Invalid batch size: " + batchSize);
+        }
+        QuerySelection selection = new QuerySelection(query);
+        forEachMatch(query, selection::offer);
+        selection.deliver(batchSize, consumer);
+    }
+
+    /**
+     * Counts the books matching the criteria of a query with one scan of the live records.
+     */
+    @Override
+    public long countBooks(BookQuery query) throws BooksDbException {
+        long[] count = {0};
+        forEachMatch(query, book -> count[0]++);
+        return count[0];
+    }
+
+    /**
+     * Passes the live books matching the criteria of a query to an action, under the read lock.
+     */
+    private void forEachMatch(BookQuery query, Consumer<Book> action) throws BooksDbException {
+        Predicate<Book> matcher = query.matcher();
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            LogIndex current = index;
+            scan(channel, FILE_HEADER_SIZE, end, (offset, type, payload, size) -> {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new BooksDbException("Search cancelled");
+                }
+                if (type != PUT_BOOK && type != REPLACE_BOOK) return;
+                if (type == REPLACE_BOOK) BookLogCodec.readString(payload);
+                int bookStart = payload.position();
+                Location live = current.books.get(BookLogCodec.readString(payload));
+                if (live == null || live.offset() != offset) return; // superseded or deleted
+                Book book = BookLogCodec.decodeBook(payload.position(bookStart));
+                if (matcher.test(book)) action.accept(book);
+            });
+        } catch (IOException e) {
+            throw new BooksDbException("Error searching books by " + query + " in the local store", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the titles and story lines for the words of a free-text query with the
+     * in-memory full-text index, which is built from the log by the first full-text search.
+     *
+     * @param query The free-text query.
+     * @param limit The maximum number of books to return.
+     * @return The best matching books, best first.
+     * @throws BooksDbException If the log cannot be read.
+     */
+    @Override
+    public List<Book> searchBooksByText(String query, int limit) throws BooksDbException {
+        return rankedSearch(query, limit);
+    }
+
+    /**
+     * Ranks the live books with the full-text index and reads the best ones in rank order.
+     */
+    private List<Book> rankedSearch(String query, int limit) throws BooksDbException {
+        if (limit < 1) {
+            throw new BooksDbException("Invalid limit: " + limit);
+        }
+        readLockWithFullTextIndex();
+        try {
+            List<FullTextIndex.Hit> hits = fullTextIndex.search(query, limit);
+            List<Book> ranked = new ArrayList<>(hits.size());
+            for (FullTextIndex.Hit hit : hits) {
+                Location location = index.books.get(hit.isbn());
+                if (location != null) ranked.add(readBook(location));
+            }
+            return ranked;
+        } catch (IOException e) {
+            throw new BooksDbException("Error searching books by " + SearchMode.FullText + " in the local store", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the read lock, first building the full-text index under the write lock if
+     * there has been no full-text search since the log was opened.
+     */
+    private void readLockWithFullTextIndex() throws BooksDbException {
+        lock.readLock().lock();
+        if (fullTextIndex != null) return;
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            if (fullTextIndex == null) fullTextIndex = buildFullTextIndex();
+            lock.readLock().lock(); // downgrade, so no write comes in between
+        } catch (IOException e) {
+            throw new BooksDbException("Error building the full-text index of the local store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes the words of the live books of the log. Called with the write lock held.
+     */
+    private FullTextIndex buildFullTextIndex() throws IOException, BooksDbException {
+        long started = System.nanoTime();
+        FullTextIndex built = new FullTextIndex();
+        LogIndex current = index;
+        scan(channel, FILE_HEADER_SIZE, end, (offset, type, payload, size) -> {
+            if (type != PUT_BOOK && type != REPLACE_BOOK) return;
+            if (type == REPLACE_BOOK) BookLogCodec.readString(payload);
+            int bookStart = payload.position();
+            Location live = current.books.get(BookLogCodec.readString(payload));
+            if (live == null || live.offset() != offset) return; // superseded or deleted
+            built.add(BookLogCodec.decodeBook(payload.position(bookStart)));
+        });
+        System.out.println("Built full-text index of " + logFile + ": " + built.size() + " books, " + built.getTermCount()
+                + " words in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+        return built;
+    }
+
+    @Override
+    public List<Author> getAllAuthors() throws BooksDbException {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            List<Author> authors = new ArrayList<>(index.authors.size());
+            for (AuthorEntry entry : index.authors.values()) {
+                authors.add(new Author(entry.author().getName(), entry.author().getBirthDate()));
+            }
+            return authors;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Compacts the log now: copies the live records to a new file and renames it over
+     * the log. Writes may continue while the live records are copied; they are only
+     * blocked while the records written meanwhile are copied and the files are swapped.
+     * Waits for a background compaction that is already running.
+     *
+     * @throws BooksDbException If the log cannot be compacted; the old log is then kept.
+     */
+    public void compact() throws BooksDbException {
+        compaction.lock();
+        try {
+            compactNow();
+        } finally {
+            compaction.unlock();
+        }
+    }
+
+    private void compactNow() throws BooksDbException {
+        Path target = null;
+        try {
+            FileChannel source;
+            LogIndex snapshot;
+            long snapshotEnd;
+            lock.readLock().lock();
+            try {
+                ensureOpen();
+                source = channel;
+                snapshot = index.copy();
+                snapshotEnd = end;
+                target = compactFile(logFile);
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            long started = System.nanoTime();
+            LogIndex compacted = new LogIndex();
+            long compactedEnd;
+            boolean locked = false;
+            try {
+                try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+                    RecordWriter writer = new RecordWriter(out);
+                    // the live records as of the snapshot, in log order
+                    scan(source, FILE_HEADER_SIZE, snapshotEnd, (offset, type, payload, size) -> {
+                        if (snapshot.isLive(offset, type, payload.duplicate())) {
+                            compacted.apply(writer.append(type, payload.duplicate()), type, payload, size);
+                        }
+                    });
+
+                    // writes wait from here until the compacted log has replaced the old one
+                    lock.writeLock().lock();
+                    locked = true;
+                    if (channel != source) return; // disconnected meanwhile
+                    // the records written while copying
+                    scan(source, snapshotEnd, end, (offset, type, payload, size) ->
+                            compacted.apply(writer.append(type, payload.duplicate()), type, payload, size));
+                    writer.flush();
+                    out.force(true);
+                    compactedEnd = writer.position;
+                }
+
+                long before = end;
+                channel.close();
+                try {
+                    Files.move(target, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    // the compacted log if the move succeeded, else the old one again
+                    channel = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                syncDirectory();
+                end = compactedEnd;
+                index = compacted;
+                System.out.println("Compacted local store " + logFile + " from " + before + " to " + end
+                        + " bytes in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+            } finally {
+                if (locked) lock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            throw new BooksDbException("Error compacting the local store", e);
+        } finally {
+            if (target != null) {
+                try {
+                    Files.deleteIfExists(target);
+                } catch (IOException e) {
+                    System.err.println("Could not delete " + target + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private boolean needsCompaction() {
+        return index.deadBytes >= compactionMinDeadBytes && index.deadBytes > index.liveBytes;
+    }
+
+    private boolean needsCompactionNow() {
+        lock.readLock().lock();
+        try {
+            return channel != null && needsCompaction();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void scheduleCompaction() {
+        ExecutorService executor;
+        lock.readLock().lock();
+        try {
+            executor = compactor;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (executor == null || compaction.isLocked()) return;
+        try {
+            executor.execute(() -> {
+                if (!compaction.tryLock()) return;
+                try {
+                    if (needsCompactionNow()) compactNow();
+                } catch (BooksDbException e) {
+                    System.err.println(e.getMessage() + ": " + e.getCause());
+                } finally {
+                    compaction.unlock();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // disconnected meanwhile
+        }
+    }
+
+    private void write(byte type, byte[] payload, String errorMessage) throws BooksDbException {
+        boolean compact;
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            append(type, payload);
+            sync();
+            compact = needsCompaction();
+        } catch (IOException e) {
+            throw new BooksDbException(errorMessage, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (compact) scheduleCompaction();
+    }
+
+    /**
+     * Appends a record at the end of the log and applies it to the index. Called with the write lock held.
+     */
+    private void append(byte type, byte[] payload) throws IOException, BooksDbException {
+        if (payload.length > MAX_PAYLOAD_SIZE) {
+            throw new BooksDbException("Record too large: " + payload.length + " bytes");
+        }
+        ByteBuffer record = encodeRecord(type, ByteBuffer.wrap(payload));
+        int size = record.remaining();
+        writeFully(channel, record, end);
+        long offset = end;
+        end += size;
+        index.apply(offset, type, ByteBuffer.wrap(payload), size);
+    }
+
+    private void sync() throws IOException {
+        if (syncOnWrite) channel.force(false);
+    }
+
+    private boolean samePayload(Location location, byte[] payload) throws IOException {
+        if (location.size() != RECORD_HEADER_SIZE + payload.length) return false;
+        ByteBuffer record = readRecord(location);
+        return record.get(8) == PUT_BOOK && record.position(RECORD_HEADER_SIZE).equals(ByteBuffer.wrap(payload));
+    }
+
+    private Book readBook(Location location) throws IOException {
+        ByteBuffer record = readRecord(location);
+        byte type = record.get(8);
+        record.position(RECORD_HEADER_SIZE);
+        if (type == REPLACE_BOOK) BookLogCodec.readString(record);
+        return BookLogCodec.decodeBook(record);
+    }
+
+    private ByteBuffer readRecord(Location location) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(location.size());
+        while (record.hasRemaining()) {
+            if (channel.read(record, location.offset() + record.position()) < 0) {
+                throw new IOException("Unexpected end of the local store at " + location.offset());
+            }
+        }
+        return record.flip();
+    }
+
+    private void ensureOpen() throws BooksDbException {
+        if (channel == null) {
+            throw new BooksDbException("Not connected to the database");
+        }
+    }
+
+    private List<Book> findBooks(SearchMode mode, String searchFor) throws BooksDbException {
+        List<Book> result = new ArrayList<>();
+        searchBooks(mode, searchFor, DEFAULT_BATCH_SIZE, result::addAll);
+        return result;
+    }
+
+    private void syncDirectory() {
+        // makes the rename durable; not supported on every platform
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // best effort
+        }
+    }
+
+    private static Path compactFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".compact");
+    }
+
+    private static ByteBuffer encodeRecord(byte type, ByteBuffer payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(type);
+        crc.update(payload.duplicate());
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.remaining());
+        return record.putInt(payload.remaining()).putInt((int) crc.getValue()).put(type).put(payload).flip();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(long offset, byte type, ByteBuffer payload, int size) throws BooksDbException;
+    }
+
+    /**
+     * Reads the records between two offsets through memory-mapped windows and stops at
+     * the first record that is incomplete or fails its checksum.
+     *
+     * @return The end of the last complete record.
+     */
+    private static long scan(FileChannel in, long from, long to, RecordVisitor visitor) throws IOException, BooksDbException {
+        CRC32C crc = new CRC32C();
+        long position = from;
+        while (position < to) {
+            long windowSize = Math.min(to - position, MAP_WINDOW_SIZE);
+            MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            int start = 0;
+            while (window.limit() - start >= RECORD_HEADER_SIZE) {
+                int length = window.getInt(start);
+                byte type = window.get(start + 8);
+                if (length < 0 || length > MAX_PAYLOAD_SIZE || type < PUT_BOOK || type > PUT_AUTHOR) {
+                    return position + start; // corrupt header
+                }
+                int size = RECORD_HEADER_SIZE + length;
+                if (window.limit() - start < size) break; // continues in the next window, or torn
+                ByteBuffer payload = window.slice(start + RECORD_HEADER_SIZE, length);
+                crc.reset();
+                crc.update(type);
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != window.getInt(start + 4)) {
+                    return position + start; // torn or corrupt payload
+                }
+                visitor.visit(position + start, type, payload, size);
+                start += size;
+            }
+            if (start == 0) return position; // not even one complete record left
+            position += start;
+        }
+        return position;
+    }
+
+    /**
+     * Writes records to a new log through a buffer.
+     */
+    private static final class RecordWriter {
+        private final FileChannel out;
+        private final ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        private long position = FILE_HEADER_SIZE;
+        private long flushed = 0;
+
+        RecordWriter(FileChannel out) {
+            this.out = out;
+            buffer.putInt(MAGIC).putInt(VERSION);
+        }
+
+        long append(byte type, ByteBuffer payload) throws BooksDbException {
+            ByteBuffer record = encodeRecord(type, payload);
+            try {
+                if (record.remaining() > buffer.remaining()) flush();
+                long offset = position;
+                if (record.remaining() > buffer.capacity()) {
+                    writeFully(out, record, offset);
+                    flushed = offset + RECORD_HEADER_SIZE + payload.limit();
+                } else {
+                    buffer.put(record);
+                }
+                position = offset + RECORD_HEADER_SIZE + payload.limit();
+                return offset;
+            } catch (IOException e) {
+                throw new BooksDbException("Error writing the compacted local store", e);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            int length = buffer.remaining();
+            writeFully(out, buffer, flushed);
+            flushed += length;
+            buffer.clear();
+        }
+    }
+
+    /**
+     * The index of a log: the location of the latest record of every book and author,
+     * and how many bytes of the log are live and dead.
+     */
+    private static final class LogIndex {
+        private final Map<String, Location> books;
+        private final LinkedHashMap<String, AuthorEntry> authors;
+        private long liveBytes;
+        private long deadBytes;
+
+        LogIndex() {
+            this(new HashMap<>(), new LinkedHashMap<>());
+        }
+
+        private LogIndex(Map<String, Location> books, LinkedHashMap<String, AuthorEntry> authors) {
+            this.books = books;
+            this.authors = authors;
+        }
+
+        LogIndex copy() {
+            LogIndex copy = new LogIndex(new HashMap<>(books), new LinkedHashMap<>(authors));
+            copy.liveBytes = liveBytes;
+            copy.deadBytes = deadBytes;
+            return copy;
+        }
+
+        /**
+         * Applies a record, given its payload, to the index.
+         */
+        void apply(long offset, byte type, ByteBuffer payload, int size) {
+            Location location = new Location(offset, size);
+            switch (type) {
+                case PUT_BOOK:
+                    replaced(books.put(BookLogCodec.readString(payload), location));
+                    liveBytes += size;
+                    break;
+                case REPLACE_BOOK:
+                    replaced(books.remove(BookLogCodec.readString(payload)));
+                    replaced(books.put(BookLogCodec.readString(payload), location));
+                    liveBytes += size;
+                    break;
+                case DELETE_BOOK:
+                    replaced(books.remove(BookLogCodec.readString(payload)));
+                    deadBytes += size;
+                    break;
+                case PUT_AUTHOR:
+                    Author author = BookLogCodec.decodeAuthor(payload);
+                    AuthorEntry old = authors.put(authorKey(author), new AuthorEntry(author, location));
+                    replaced(old == null ? null : old.location());
+                    liveBytes += size;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Checks whether a record is the latest one of its book or author.
+         */
+        boolean isLive(long offset, byte type, ByteBuffer payload) {
+            Location location;
+            switch (type) {
+                case PUT_BOOK:
+                    location = books.get(BookLogCodec.readString(payload));
+                    break;
+                case REPLACE_BOOK:
+                    BookLogCodec.readString(payload); // the old ISBN, the record belongs to the new one
+                    location = books.get(BookLogCodec.readString(payload));
+                    break;
+                case PUT_AUTHOR:
+                    AuthorEntry entry = authors.get(authorKey(BookLogCodec.decodeAuthor(payload)));
+                    location = entry == null ? null : entry.location();
+                    break;
+                default:
+                    return false; // a delete only matters while the book it deletes is in the log
+            }
+            return location != null && location.offset() == offset;
+        }
+
+        private void replaced(Location old) {
+            if (old != null) {
+                liveBytes -= old.size();
+                deadBytes += old.size();
+            }
+        }
+
+        private static String authorKey(Author author) {
+            return author.getName() + "\0" + author.getBirthDate();
+        }
+    }
+}
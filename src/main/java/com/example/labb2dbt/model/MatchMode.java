@@ -0,0 +1,18 @@
+package com.example.labb2dbt.model;
+
+/**
+ * Enumeration representing how a search string is matched against a field.
+ * All modes except Substring are anchored at the start of the field and can
+ * be answered from an index; Substring scans every book and is kept for
+ * free-form regex searches.
+ */
+public enum MatchMode {
+    /** The field equals the search string. */
+    Exact,
+    /** The field starts with the search string, case-sensitive. */
+    Prefix,
+    /** The normalized field starts with the normalized search string, see SearchNormalizer. */
+    NormalizedPrefix,
+    /** The field contains the search string, interpreted as a case-insensitive regex. Slow. */
+    Substring
+}
@@ -0,0 +1,100 @@
+package com.example.labb2dbt.model;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves a BooksDbMetrics in the Prometheus text format on /metrics, e.g.
+ * http://localhost:9464/metrics. The server only listens on the loopback address,
+ * so the metrics are reachable by a local agent but not from other machines.
+ */
+public class MetricsHttpServer {
+
+    public static final String PATH = "/metrics";
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final BooksDbMetrics metrics;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Constructs a server for the given metrics.
+     *
+     * @param metrics The metrics to serve.
+     */
+    public MetricsHttpServer(BooksDbMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts serving the metrics.
+     *
+     * @param port The port, or 0 for any free port.
+     * @throws IOException If the port cannot be bound.
+     */
+    public synchronized void start(int port) throws IOException {
+        if (server != null) throw new IllegalStateException("Already started on port " + getPort());
+        HttpServer started = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        started.createContext(PATH, this::handle);
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        started.setExecutor(executor);
+        started.start();
+        server = started;
+        System.out.println("Serving metrics on http://localhost:" + getPort() + PATH);
+    }
+
+    /**
+     * Stops serving the metrics.
+     */
+    public synchronized void stop() {
+        if (server == null) return;
+        server.stop(0);
+        executor.shutdown();
+        server = null;
+        executor = null;
+    }
+
+    /**
+     * Gets the port the server listens on.
+     *
+     * @return The port, or -1 if the server is not started.
+     */
+    public synchronized int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            StringBuilder text = new StringBuilder(4096);
+            metrics.writePrometheus(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.labb2dbt.model;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latency histogram, error count and result count of one operation or command,
+ * updated concurrently by the calling threads.
+ */
+public final class OperationMetrics implements OperationMetricsMXBean {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final String operation;
+    private final String mode;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder results = new LongAdder();
+    private final long createdNanos = System.nanoTime();
+
+    /**
+     * Constructs the metrics of an operation.
+     *
+     * @param operation The name of the operation or command.
+     * @param mode      The search mode, or an empty string.
+     */
+    public OperationMetrics(String operation, String mode) {
+        this.operation = operation;
+        this.mode = mode;
+    }
+
+    /**
+     * Records a completed call.
+     *
+     * @param nanos   The latency in nanoseconds.
+     * @param results The number of results of the call.
+     * @param failed  {@code true} if the call failed.
+     */
+    public void record(long nanos, long results, boolean failed) {
+        latencies.record(nanos);
+        if (results > 0) this.results.add(results);
+        if (failed) errors.increment();
+    }
+
+    /**
+     * Gets the latency histogram.
+     *
+     * @return The histogram, in nanoseconds.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public String getOperation() {
+        return operation;
+    }
+
+    @Override
+    public String getMode() {
+        return mode;
+    }
+
+    @Override
+    public long getCount() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getResults() {
+        return results.sum();
+    }
+
+    @Override
+    public double getThroughputPerSecond() {
+        double seconds = (System.nanoTime() - createdNanos) / 1e9;
+        return seconds <= 0 ? 0 : getCount() / seconds;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latencies.getMeanNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latencies.getPercentileNanos(0.5) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latencies.getPercentileNanos(0.99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP999Millis() {
+        return latencies.getPercentileNanos(0.999) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latencies.getMaxNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s%s: %d calls, %d errors, p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms",
+                operation, mode.isEmpty() ? "" : "[" + mode + "]", getCount(), getErrors(),
+                getP50Millis(), getP99Millis(), getP999Millis(), getMaxMillis());
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.labb2dbt.model;
+
+/**
+ * The JMX view of the metrics of one operation, e.g. searchBooks in Genre mode,
+ * or of one command sent to MongoDB. Times are in milliseconds.
+ */
+public interface OperationMetricsMXBean {
+
+    /**
+     * Gets the name of the operation or command.
+     *
+     * @return The name.
+     */
+    String getOperation();
+
+    /**
+     * Gets the search mode of the operation.
+     *
+     * @return The search mode, or an empty string for operations without one.
+     */
+    String getMode();
+
+    /**
+     * Gets the number of completed calls, failed ones included.
+     *
+     * @return The number of calls.
+     */
+    long getCount();
+
+    /**
+     * Gets the number of calls that failed.
+     *
+     * @return The number of errors.
+     */
+    long getErrors();
+
+    /**
+     * Gets the total number of books, authors or documents returned or written by the calls.
+     *
+     * @return The number of results.
+     */
+    long getResults();
+
+    /**
+     * Gets the number of calls per second since the metrics were created.
+     *
+     * @return The throughput.
+     */
+    double getThroughputPerSecond();
+
+    /**
+     * Gets the mean latency.
+     *
+     * @return The mean in milliseconds.
+     */
+    double getMeanMillis();
+
+    /**
+     * Gets the median latency.
+     *
+     * @return The 50th percentile in milliseconds.
+     */
+    double getP50Millis();
+
+    /**
+     * Gets the 99th percentile latency.
+     *
+     * @return The 99th percentile in milliseconds.
+     */
+    double getP99Millis();
+
+    /**
+     * Gets the 99.9th percentile latency.
+     *
+     * @return The 99.9th percentile in milliseconds.
+     */
+    double getP999Millis();
+
+    /**
+     * Gets the largest latency.
+     *
+     * @return The maximum in milliseconds.
+     */
+    double getMaxMillis();
+}
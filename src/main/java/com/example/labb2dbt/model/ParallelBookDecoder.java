@@ -0,0 +1,128 @@
+package com.example.labb2dbt.model;
+
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Decodes a search result in two stages: the calling thread reads the raw documents
+ * from the cursor, which is mostly waiting for the network, and hands each full batch
+ * to the executor, where the batches are decoded into books in parallel. The batches
+ * are delivered to the consumer on the calling thread in cursor order, as soon as each
+ * one and all batches before it are decoded.
+ * <p>
+ * At most parallelism batches are decoding or waiting to be delivered at a time, so a
+ * slow consumer holds back the cursor instead of the books piling up. The first batch
+ * is decoded on the calling thread, so a result of one batch, e.g. a page of the table,
+ * is not handed between threads at all.
+ */
+final class ParallelBookDecoder {
+
+    private final Codec<Book> codec;
+    private final Executor executor;
+    private final int parallelism;
+
+    /**
+     * Constructs a decoder.
+     *
+     * @param codec       Decodes a document into a book.
+     * @param executor    Runs the decoding of the batches.
+     * @param parallelism The number of batches decoded at the same time; 1 decodes on the calling thread.
+     */
+    ParallelBookDecoder(Codec<Book> codec, Executor executor, int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1");
+        this.codec = codec;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Decodes all documents and delivers the books in batches.
+     *
+     * @param documents The documents, e.g. a cursor, read on the calling thread only.
+     * @param batchSize The number of books per batch.
+     * @param prepare   Applied to each book after decoding it, on a decoding thread.
+     * @param consumer  Receives each batch of books, in order, on the calling thread.
+     * @return The number of books delivered.
+     * @throws BooksDbException If the calling thread was interrupted, i.e. the search was cancelled.
+     */
+    long decode(Iterator<RawBsonDocument> documents, int batchSize, Consumer<Book> prepare,
+                Consumer<List<Book>> consumer) throws BooksDbException {
+        ArrayDeque<CompletableFuture<List<Book>>> decoding = new ArrayDeque<>();
+        long found = 0;
+        boolean first = true;
+        try {
+            List<RawBsonDocument> batch = new ArrayList<>(batchSize);
+            while (documents.hasNext()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new BooksDbException("Search cancelled");
+                }
+                batch.add(documents.next());
+                if (batch.size() < batchSize) continue;
+                if (first || parallelism == 1) {
+                    List<Book> books = decodeBatch(batch, prepare);
+                    found += books.size();
+                    consumer.accept(books);
+                    first = false;
+                } else {
+                    if (decoding.size() == parallelism) {
+                        found += deliver(decoding.removeFirst(), consumer);
+                    }
+                    List<RawBsonDocument> raw = batch;
+                    decoding.addLast(CompletableFuture.supplyAsync(() -> decodeBatch(raw, prepare), executor));
+                }
+                batch = new ArrayList<>(batchSize);
+            }
+            while (!decoding.isEmpty()) {
+                found += deliver(decoding.removeFirst(), consumer);
+            }
+            if (!batch.isEmpty()) {
+                List<Book> books = decodeBatch(batch, prepare);
+                found += books.size();
+                consumer.accept(books);
+            }
+            return found;
+        } finally {
+            // left over after a failure or a cancel
+            decoding.forEach(future -> future.cancel(false));
+        }
+    }
+
+    private long deliver(CompletableFuture<List<Book>> future, Consumer<List<Book>> consumer) throws BooksDbException {
+        List<Book> books;
+        try {
+            books = future.get();
+        } catch (InterruptedException e) {
+            // no longer in the queue, so the finally of decode does not cancel it
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new BooksDbException("Search cancelled", e);
+        } catch (ExecutionException | CancellationException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RuntimeException runtime) throw runtime;
+            if (cause instanceof Error error) throw error;
+            throw new BooksDbException("Error decoding books", (Exception) cause);
+        }
+        consumer.accept(books);
+        return books.size();
+    }
+
+    private List<Book> decodeBatch(List<RawBsonDocument> documents, Consumer<Book> prepare) {
+        List<Book> books = new ArrayList<>(documents.size());
+        for (RawBsonDocument document : documents) {
+            Book book = document.decode(codec);
+            prepare.accept(book);
+            books.add(book);
+        }
+        return books;
+    }
+}
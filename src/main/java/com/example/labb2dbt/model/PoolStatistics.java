@@ -0,0 +1,202 @@
+package com.example.labb2dbt.model;
+
+import com.mongodb.event.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection pool statistics of a MongoDB client, collected from the driver's pool
+ * events: how many connections exist and are in use, how often operations had to
+ * wait for a connection, and for how long. Register it with
+ * {@link ConnectionProfile#toSettings(com.mongodb.event.ConnectionPoolListener...)}.
+ * <p>
+ * The counters are updated concurrently by the driver threads and cover all servers
+ * the client is connected to.
+ */
+public class PoolStatistics implements ConnectionPoolListener {
+
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger peakWaiting = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong closed = new AtomicLong();
+    private final AtomicLong checkedOut = new AtomicLong();
+    private final AtomicLong checkOutFailed = new AtomicLong();
+    private final AtomicLong checkOutNanos = new AtomicLong();
+    private final AtomicLong maxCheckOutNanos = new AtomicLong();
+    private final AtomicLong cleared = new AtomicLong();
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        created.incrementAndGet();
+        open.incrementAndGet();
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        closed.incrementAndGet();
+        open.decrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        peakWaiting.accumulateAndGet(waiting.incrementAndGet(), Math::max);
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        waiting.decrementAndGet();
+        checkedOut.incrementAndGet();
+        peakInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+        long nanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+        checkOutNanos.addAndGet(nanos);
+        maxCheckOutNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        waiting.decrementAndGet();
+        checkOutFailed.incrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        inUse.decrementAndGet();
+    }
+
+    @Override
+    public void connectionPoolCleared(ConnectionPoolClearedEvent event) {
+        cleared.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of open connections.
+     *
+     * @return The number of connections created and not yet closed.
+     */
+    public int getOpenConnections() {
+        return open.get();
+    }
+
+    /**
+     * Gets the number of connections currently checked out by operations.
+     *
+     * @return The connections in use.
+     */
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * Gets the highest number of connections checked out at the same time.
+     *
+     * @return The peak number of connections in use.
+     */
+    public int getPeakInUse() {
+        return peakInUse.get();
+    }
+
+    /**
+     * Gets the number of operations currently waiting for a connection.
+     *
+     * @return The wait queue length.
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * Gets the highest number of operations waiting for a connection at the same time.
+     *
+     * @return The peak wait queue length.
+     */
+    public int getPeakWaiting() {
+        return peakWaiting.get();
+    }
+
+    /**
+     * Gets the number of connections created, including replaced ones.
+     *
+     * @return The number of created connections.
+     */
+    public long getCreated() {
+        return created.get();
+    }
+
+    /**
+     * Gets the number of connections closed, e.g. when idle or stale.
+     *
+     * @return The number of closed connections.
+     */
+    public long getClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Gets the number of successful check-outs.
+     *
+     * @return The number of check-outs.
+     */
+    public long getCheckedOut() {
+        return checkedOut.get();
+    }
+
+    /**
+     * Gets the number of check-outs that failed, e.g. because the wait timed out.
+     *
+     * @return The number of failed check-outs.
+     */
+    public long getCheckOutFailed() {
+        return checkOutFailed.get();
+    }
+
+    /**
+     * Gets the average time an operation waited for a connection.
+     *
+     * @return The average check-out time in microseconds.
+     */
+    public double getAverageCheckOutMicros() {
+        long count = checkedOut.get();
+        return count == 0 ? 0 : checkOutNanos.get() / 1000.0 / count;
+    }
+
+    /**
+     * Gets the longest time an operation waited for a connection.
+     *
+     * @return The longest check-out time in microseconds.
+     */
+    public double getMaxCheckOutMicros() {
+        return maxCheckOutNanos.get() / 1000.0;
+    }
+
+    /**
+     * Gets the number of times a pool was cleared after a network or server error.
+     *
+     * @return The number of clears.
+     */
+    public long getCleared() {
+        return cleared.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStatistics{" +
+                "open=" + getOpenConnections() +
+                ", inUse=" + getInUse() +
+                ", peakInUse=" + getPeakInUse() +
+                ", waiting=" + getWaiting() +
+                ", peakWaiting=" + getPeakWaiting() +
+                ", created=" + getCreated() +
+                ", closed=" + getClosed() +
+                ", checkedOut=" + getCheckedOut() +
+                ", checkOutFailed=" + getCheckOutFailed() +
+                ", avgCheckOutMicros=" + String.format("%.1f", getAverageCheckOutMicros()) +
+                ", maxCheckOutMicros=" + String.format("%.1f", getMaxCheckOutMicros()) +
+                ", cleared=" + getCleared() +
+                '}';
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.labb2dbt.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Picks the books of one page of a BookQuery from matching books offered in any order,
+ * for the databases that check the criteria themselves. Only the books that can still
+ * be part of the page are held: the first skip + limit in the order of the query, kept
+ * in a heap with the last of them on top, so a page of a large result costs one pass
+ * over the candidates and no sort of the whole result. A query without a limit holds
+ * all books after its position.
+ */
+final class QuerySelection {
+
+    private final BookQuery query;
+    private final Comparator<Book> order;
+    private final long capacity;
+    private final PriorityQueue<Book> kept; // the last book kept on top; null without an order or a limit
+    private final List<Book> books;
+
+    /**
+     * Constructs a selection.
+     *
+     * @param query The query, whose position, order, skip and limit are applied;
+     *              its criteria are checked by the caller.
+     */
+    QuerySelection(BookQuery query) {
+        this.query = query;
+        this.order = query.comparator();
+        this.capacity = query.getLimit() == 0 ? Long.MAX_VALUE : (long) query.getSkip() + query.getLimit();
+        this.kept = order != null && query.getLimit() != 0
+                ? new PriorityQueue<>((int) Math.min(capacity, 1024) + 1, order.reversed())
+                : null;
+        this.books = kept == null ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Offers a book matching the criteria of the query.
+     *
+     * @param book The book.
+     */
+    void offer(Book book) {
+        if (!query.isAfterPosition(book)) return;
+        if (kept == null) {
+            // without an order the first books found are the page
+            if (books.size() < capacity) books.add(book);
+        } else if (kept.size() < capacity) {
+            kept.add(book);
+        } else if (order.compare(book, kept.peek()) < 0) {
+            kept.poll();
+            kept.add(book);
+        }
+    }
+
+    /**
+     * Delivers the books of the page, in the order of the query.
+     *
+     * @param batchSize The maximum number of books per batch.
+     * @param consumer  Receives each batch of books.
+     */
+    void deliver(int batchSize, Consumer<List<Book>> consumer) {
+        List<Book> result = kept == null ? books : new ArrayList<>(kept);
+        if (order != null) {
+            result.sort(order);
+        }
+        int start = Math.min(query.getSkip(), result.size());
+        for (int from = start; from < result.size(); from += batchSize) {
+            consumer.accept(new ArrayList<>(result.subList(from, Math.min(from + batchSize, result.size()))));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.labb2dbt.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Thrown by updateBookRatings when only some of the ratings could be written, e.g.
+ * because another client deleted some of the books. The ratings of the books that
+ * are not listed were written.
+ */
+public class RatingsNotWrittenException extends BooksDbException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LinkedHashSet<String> unwrittenIsbns;
+
+    public RatingsNotWrittenException(String msg, Collection<String> unwrittenIsbns) {
+        super(msg);
+        this.unwrittenIsbns = new LinkedHashSet<>(unwrittenIsbns);
+    }
+
+    public RatingsNotWrittenException(String msg, Collection<String> unwrittenIsbns, Exception cause) {
+        super(msg, cause);
+        this.unwrittenIsbns = new LinkedHashSet<>(unwrittenIsbns);
+    }
+
+    /**
+     * Gets the books whose ratings were not written.
+     *
+     * @return The ISBNs of the books, unmodifiable.
+     */
+    public Set<String> getUnwrittenIsbns() {
+        return Collections.unmodifiableSet(unwrittenIsbns);
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.labb2dbt.model;
+
+import com.mongodb.MongoException;
+import org.reactivestreams.FlowAdapters;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Bridges the Reactive Streams publishers of the MongoDB driver to CompletableFuture
+ * and java.util.concurrent.Flow. Completing a future early, by cancel or timeout,
+ * cancels the subscription, which makes the driver kill the cursor on the server.
+ */
+final class ReactiveFutures {
+
+    private ReactiveFutures() {
+    }
+
+    /**
+     * Collects all items of a publisher.
+     *
+     * @param publisher    The publisher.
+     * @param timeout      The time after which the future fails.
+     * @param errorMessage The message of the BooksDbException thrown on driver errors.
+     * @return Completes with the items, in order.
+     */
+    static <T> CompletableFuture<List<T>> toList(Publisher<T> publisher, Duration timeout, String errorMessage) {
+        List<T> items = new ArrayList<>();
+        FutureSubscriber<T, List<T>> subscriber = new FutureSubscriber<>(Long.MAX_VALUE, errorMessage) {
+            @Override
+            void item(T item) {
+                items.add(item);
+            }
+
+            @Override
+            List<T> result() {
+                return items;
+            }
+        };
+        publisher.subscribe(subscriber);
+        return subscriber.withTimeout(timeout);
+    }
+
+    /**
+     * Takes the first item of a publisher.
+     *
+     * @param publisher    The publisher.
+     * @param timeout      The time after which the future fails.
+     * @param errorMessage The message of the BooksDbException thrown on driver errors.
+     * @return Completes with the first item, or {@code null} if there was none.
+     */
+    static <T> CompletableFuture<T> first(Publisher<T> publisher, Duration timeout, String errorMessage) {
+        FutureSubscriber<T, T> subscriber = new FutureSubscriber<>(1, errorMessage) {
+            private T first;
+
+            @Override
+            void item(T item) {
+                if (first == null) first = item;
+            }
+
+            @Override
+            T result() {
+                return first;
+            }
+        };
+        publisher.subscribe(subscriber);
+        return subscriber.withTimeout(timeout);
+    }
+
+    /**
+     * Maps the items of a publisher, adapting it to a Flow.Publisher. Driver errors
+     * are delivered to the subscriber as BooksDbExceptions.
+     *
+     * @param publisher    The publisher.
+     * @param mapper       Converts each item.
+     * @param errorMessage The message of the BooksDbException thrown on driver errors.
+     * @return The mapped publisher.
+     */
+    static <T, R> Flow.Publisher<R> map(Publisher<T> publisher, Function<T, R> mapper, String errorMessage) {
+        Flow.Publisher<T> source = FlowAdapters.toFlowPublisher(publisher);
+        return subscriber -> source.subscribe(new MappingSubscriber<>(subscriber, mapper, errorMessage));
+    }
+
+    /**
+     * Creates a publisher that fails every subscriber at once.
+     *
+     * @param error The error to deliver.
+     * @return The publisher.
+     */
+    static <T> Flow.Publisher<T> failed(Throwable error) {
+        return subscriber -> {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(error);
+        };
+    }
+
+    /**
+     * Waits for a future, unwrapping the BooksDbException it failed with.
+     *
+     * @param future The future.
+     * @return The result.
+     * @throws BooksDbException If the future failed or the thread was interrupted.
+     */
+    static <T> T await(CompletableFuture<T> future) throws BooksDbException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new BooksDbException("Interrupted while waiting for the database", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BooksDbException booksDbException) {
+                throw booksDbException;
+            }
+            throw new BooksDbException(e.getCause().getMessage(), e);
+        }
+    }
+
+    /**
+     * Wraps driver errors in a BooksDbException, like the blocking implementation does.
+     */
+    static Throwable translate(Throwable error, String errorMessage) {
+        return error instanceof MongoException ? new BooksDbException(errorMessage, (Exception) error) : error;
+    }
+
+    /**
+     * Subscribes to a driver publisher and completes a future with the reduced items.
+     */
+    private abstract static class FutureSubscriber<T, R> implements Subscriber<T> {
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+        private final long demand;
+        private final String errorMessage;
+        private Subscription subscription; // guarded by this
+
+        FutureSubscriber(long demand, String errorMessage) {
+            this.demand = demand;
+            this.errorMessage = errorMessage;
+            // cancel the server-side work when the future is completed early
+            future.whenComplete((result, error) -> {
+                if (error != null) cancel();
+            });
+        }
+
+        abstract void item(T item);
+
+        abstract R result();
+
+        CompletableFuture<R> withTimeout(Duration timeout) {
+            return future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void cancel() {
+            if (subscription != null) subscription.cancel();
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            synchronized (this) {
+                this.subscription = subscription;
+            }
+            if (future.isDone()) {
+                subscription.cancel();
+            } else {
+                subscription.request(demand);
+            }
+        }
+
+        @Override
+        public void onNext(T item) {
+            item(item);
+            if (demand == 1) {
+                // one item is all that was asked for
+                cancel();
+                future.complete(result());
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            future.completeExceptionally(translate(error, errorMessage));
+        }
+
+        @Override
+        public void onComplete() {
+            future.complete(result());
+        }
+    }
+
+    /**
+     * Forwards the items of a Flow.Publisher converted by a mapper. A failing mapper
+     * cancels the upstream subscription and fails the downstream subscriber.
+     */
+    private static final class MappingSubscriber<T, R> implements Flow.Subscriber<T> {
+        private final Flow.Subscriber<? super R> downstream;
+        private final Function<T, R> mapper;
+        private final String errorMessage;
+        private Flow.Subscription upstream;
+        private boolean done;
+
+        MappingSubscriber(Flow.Subscriber<? super R> downstream, Function<T, R> mapper, String errorMessage) {
+            this.downstream = downstream;
+            this.mapper = mapper;
+            this.errorMessage = errorMessage;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.upstream = subscription;
+            downstream.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(T item) {
+            if (done) return;
+            R mapped;
+            try {
+                mapped = mapper.apply(item);
+            } catch (RuntimeException e) {
+                done = true;
+                upstream.cancel();
+                downstream.onError(e);
+                return;
+            }
+            downstream.onNext(mapped);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            if (done) return;
+            done = true;
+            downstream.onError(translate(error, errorMessage));
+        }
+
+        @Override
+        public void onComplete() {
+            if (done) return;
+            done = true;
+            downstream.onComplete();
+        }
+    }
+}
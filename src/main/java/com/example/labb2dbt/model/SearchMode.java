@@ -2,7 +2,9 @@ package com.example.labb2dbt.model;
 
 /**
  * Enumeration representing different search modes for the book database.
+ * FullText searches the words of the titles and story lines and ranks the
+ * results, best first; it ignores the match mode.
  */
 public enum SearchMode {
-    Title, ISBN, Author, Genre, Rating
+    Title, ISBN, Author, Genre, Rating, FullText
 }
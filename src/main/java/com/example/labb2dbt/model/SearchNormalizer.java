@@ -0,0 +1,61 @@
+package com.example.labb2dbt.model;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes text for the NormalizedPrefix search mode. The same normalization is
+ * applied to the values stored in the shadow fields (titleNorm, isbnNorm,
+ * authors.nameNorm and genres.nameNorm) and to the search string, so a
+ * case-sensitive, anchored and index-friendly prefix regex on the shadow
+ * field gives a case- and accent-insensitive prefix search.
+ */
+public final class SearchNormalizer {
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern NON_ISBN_CHARS = Pattern.compile("[^0-9X]");
+    private static final Pattern REGEX_META = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+
+    private SearchNormalizer() {
+    }
+
+    /**
+     * Normalizes a text value: accents are removed, the text is case-folded
+     * and runs of whitespace are collapsed to a single space.
+     *
+     * @param text The text to normalize, may be null.
+     * @return The normalized text, or null if the text was null.
+     */
+    public static String normalize(String text) {
+        if (text == null) return null;
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD);
+        String stripped = DIACRITICS.matcher(decomposed).replaceAll("");
+        return WHITESPACE.matcher(stripped.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    /**
+     * Normalizes an ISBN by dropping everything but digits and the check character X,
+     * so "978-91-0-012345-6" and "9789100123456" are the same.
+     *
+     * @param isbn The ISBN to normalize, may be null.
+     * @return The normalized ISBN, or null if the ISBN was null.
+     */
+    public static String normalizeIsbn(String isbn) {
+        if (isbn == null) return null;
+        return NON_ISBN_CHARS.matcher(isbn.toUpperCase(Locale.ROOT)).replaceAll("");
+    }
+
+    /**
+     * Creates an anchored regex matching values that start with the given literal text.
+     * Regex metacharacters are escaped one by one, so the server can still use the
+     * literal prefix for an index range scan.
+     *
+     * @param prefix The literal prefix.
+     * @return The regex.
+     */
+    public static String prefixRegex(String prefix) {
+        return "^" + REGEX_META.matcher(prefix).replaceAll("\\\\$0");
+    }
+}
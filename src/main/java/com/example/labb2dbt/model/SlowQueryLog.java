@@ -0,0 +1,451 @@
+package com.example.labb2dbt.model;
+
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Records the searches of BooksDbImpl that take longer than a threshold. Each slow
+ * find is re-run in the background with explain, to learn the winning plan and how
+ * many index keys and documents the server examined, and then written as a JSON line
+ * to a log file, which is rotated when it grows past a size limit. The summary groups
+ * the slow finds by query shape, i.e. the filter with its values left out, so e.g. all
+ * unanchored author regex searches count as one shape.
+ * <p>
+ * The explains run one at a time on a daemon thread; when too many slow finds are
+ * waiting, new ones are dropped rather than slowing the searches down.
+ */
+public class SlowQueryLog {
+
+    public static final long DEFAULT_THRESHOLD_MILLIS = 200;
+    public static final long DEFAULT_MAX_FILE_BYTES = 10L * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 5;
+
+    private static final int MAX_PENDING = 100;
+
+    /**
+     * A slow find, with the execution statistics of its explain.
+     *
+     * @param time         When the find finished.
+     * @param source       Where the find came from, e.g. the search mode.
+     * @param match        The match mode, or null.
+     * @param shape        The filter and sort with the values left out.
+     * @param filter       The filter as JSON.
+     * @param millis       How long the find took, until the last document was read.
+     * @param returned     The number of documents returned.
+     * @param keysExamined The index keys examined by the explain, or -1 if unknown.
+     * @param docsExamined The documents examined by the explain, or -1 if unknown.
+     * @param plan         The winning plan, e.g. "FETCH > IXSCAN titleNorm_1_isbn_1", or the explain error.
+     */
+    public record SlowQuery(Instant time, String source, MatchMode match, String shape, String filter, long millis,
+                            long returned, long keysExamined, long docsExamined, String plan) {
+    }
+
+    /**
+     * The slow finds of one query shape.
+     */
+    public static final class ShapeSummary {
+        private final String shape;
+        private final String source;
+        private long count;
+        private long totalMillis;
+        private long maxMillis;
+        private long returned;
+        private long docsExamined;
+        private String plan;
+
+        private ShapeSummary(String shape, String source) {
+            this.shape = shape;
+            this.source = source;
+        }
+
+        private void add(SlowQuery query) {
+            count++;
+            totalMillis += query.millis();
+            maxMillis = Math.max(maxMillis, query.millis());
+            returned += query.returned();
+            if (query.docsExamined() > 0) docsExamined += query.docsExamined();
+            plan = query.plan();
+        }
+
+        public String getShape() {
+            return shape;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        /**
+         * Gets the number of documents examined per document returned, 0 if unknown.
+         * Far above 1 means the filter is not served by an index.
+         *
+         * @return The ratio.
+         */
+        public double getExaminedPerReturned() {
+            return returned == 0 ? docsExamined : (double) docsExamined / returned;
+        }
+
+        /**
+         * Gets the winning plan of the latest slow find of this shape.
+         *
+         * @return The plan.
+         */
+        public String getPlan() {
+            return plan;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%5d x %-8s total %7d ms, max %6d ms, examined/returned %8.1f, %s%n        %s",
+                    count, source, totalMillis, maxMillis, getExaminedPerReturned(), plan, shape);
+        }
+    }
+
+    private final Path file;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private volatile long thresholdNanos;
+
+    private final ThreadPoolExecutor explainer;
+    private final AtomicLong dropped = new AtomicLong();
+    // guarded by this
+    private final Map<String, ShapeSummary> shapes = new HashMap<>();
+
+    /**
+     * Constructs a slow-query log with the default threshold and rotation.
+     *
+     * @param file The log file; rotated files get the suffixes .1, .2 and so on.
+     */
+    public SlowQueryLog(Path file) {
+        this(file, DEFAULT_THRESHOLD_MILLIS, DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * Constructs a slow-query log.
+     *
+     * @param file            The log file; rotated files get the suffixes .1, .2 and so on.
+     * @param thresholdMillis Finds taking longer than this are recorded.
+     * @param maxFileBytes    The size at which the log file is rotated.
+     * @param maxFiles        The number of rotated files kept besides the current one.
+     */
+    public SlowQueryLog(Path file, long thresholdMillis, long maxFileBytes, int maxFiles) {
+        if (maxFileBytes < 1 || maxFiles < 0) throw new IllegalArgumentException("Invalid rotation limits");
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.thresholdNanos = toThresholdNanos(thresholdMillis);
+        this.explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_PENDING),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "slow-query-explainer");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, executor) -> dropped.incrementAndGet());
+    }
+
+    /**
+     * Sets how long a find may take before it is recorded.
+     *
+     * @param thresholdMillis The threshold in milliseconds, 0 to record every find.
+     */
+    public void setThresholdMillis(long thresholdMillis) {
+        this.thresholdNanos = toThresholdNanos(thresholdMillis);
+    }
+
+    private static long toThresholdNanos(long thresholdMillis) {
+        if (thresholdMillis < 0) throw new IllegalArgumentException("thresholdMillis must not be negative");
+        return TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Gets how long a find may take before it is recorded.
+     *
+     * @return The threshold in milliseconds.
+     */
+    public long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+    }
+
+    /**
+     * Gets the log file.
+     *
+     * @return The current log file.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the number of slow finds that were not recorded because too many were waiting.
+     *
+     * @return The number of dropped finds.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Checks whether a find took long enough to be recorded.
+     *
+     * @param nanos How long the find took.
+     * @return {@code true} if it is slow.
+     */
+    public boolean isSlow(long nanos) {
+        return nanos > thresholdNanos;
+    }
+
+    /**
+     * Records a find if it is slow, explaining it in the background. Returns at once.
+     *
+     * @param collection The collection the find ran on.
+     * @param source     Where the find came from, e.g. the search mode.
+     * @param match      The match mode, or null.
+     * @param filter     The filter.
+     * @param sort       The sort, or null.
+     * @param limit      The limit, or 0.
+     * @param nanos      How long the find took.
+     * @param returned   The number of documents returned.
+     */
+    public void record(MongoCollection<Document> collection, String source, MatchMode match, Bson filter, Bson sort,
+                       int limit, long nanos, long returned) {
+        if (!isSlow(nanos)) return;
+        Instant time = Instant.now();
+        BsonDocument filterDocument = filter.toBsonDocument(Document.class, collection.getCodecRegistry());
+        BsonDocument sortDocument = sort == null ? null : sort.toBsonDocument(Document.class, collection.getCodecRegistry());
+        String shape = shapeOf(filterDocument) + (sortDocument == null ? "" : " sort " + sortDocument.toJson());
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        explainer.execute(() -> {
+            SlowQuery query;
+            try {
+                FindIterable<Document> find = collection.find(filterDocument);
+                if (sortDocument != null) find.sort(sortDocument);
+                if (limit > 0) find.limit(limit);
+                Document explained = find.explain(ExplainVerbosity.EXECUTION_STATS);
+                Document planner = explained.get("queryPlanner", Document.class);
+                Document stats = explained.get("executionStats", Document.class);
+                query = new SlowQuery(time, source, match, shape, filterDocument.toJson(), millis, returned,
+                        number(stats, "totalKeysExamined"), number(stats, "totalDocsExamined"),
+                        IndexManager.describePlan(planner == null ? null : planner.get("winningPlan", Document.class)));
+            } catch (RuntimeException e) {
+                // e.g. disconnected meanwhile, the find itself is still worth logging
+                query = new SlowQuery(time, source, match, shape, filterDocument.toJson(), millis, returned,
+                        -1, -1, "explain failed: " + e.getClass().getSimpleName());
+            }
+            add(query);
+        });
+    }
+
+    /**
+     * Waits until the slow finds recorded so far are explained and written.
+     *
+     * @param timeoutMillis How long to wait at most.
+     */
+    public void awaitPending(long timeoutMillis) {
+        Future<?> marker = explainer.submit(() -> { });
+        try {
+            marker.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("Slow queries still being explained: " + explainer.getQueue().size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the slow query shapes seen since this log was created, the ones costing
+     * the most time in total first.
+     *
+     * @param top The maximum number of shapes.
+     * @return The shapes.
+     */
+    public synchronized List<ShapeSummary> getTopShapes(int top) {
+        return top(shapes.values(), top);
+    }
+
+    /**
+     * Describes the slow query shapes seen since this log was created.
+     *
+     * @param top The maximum number of shapes.
+     * @return The report, one shape per entry.
+     */
+    public String getReport(int top) {
+        return report(getTopShapes(top));
+    }
+
+    /**
+     * Describes the slow query shapes in a log file and its rotated files, e.g. to
+     * see which searches of past sessions need an index.
+     *
+     * @param file The log file.
+     * @param top  The maximum number of shapes.
+     * @return The report, one shape per entry.
+     * @throws IOException If a file cannot be read.
+     */
+    public static String report(Path file, int top) throws IOException {
+        Map<String, ShapeSummary> shapes = new HashMap<>();
+        for (Path logFile : filesOf(file)) {
+            try (Stream<String> lines = Files.lines(logFile, StandardCharsets.UTF_8)) {
+                lines.filter(line -> !line.isBlank()).forEach(line -> {
+                    SlowQuery query = fromJson(Document.parse(line));
+                    shapes.computeIfAbsent(query.shape(), shape -> new ShapeSummary(shape, query.source())).add(query);
+                });
+            }
+        }
+        return report(top(shapes.values(), top));
+    }
+
+    private synchronized void add(SlowQuery query) {
+        shapes.computeIfAbsent(query.shape(), shape -> new ShapeSummary(shape, query.source())).add(query);
+        try {
+            write(toJson(query).toJson());
+        } catch (IOException e) {
+            System.err.println("Could not write the slow-query log " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void write(String line) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null) Files.createDirectories(directory);
+        if (Files.exists(file) && Files.size(file) >= maxFileBytes) rotate();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(line);
+            writer.newLine();
+        }
+    }
+
+    private void rotate() throws IOException {
+        if (maxFiles == 0) {
+            Files.delete(file);
+            return;
+        }
+        Files.deleteIfExists(rotated(file, maxFiles));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path older = rotated(file, i);
+            if (Files.exists(older)) Files.move(older, rotated(file, i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(file, rotated(file, 1), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Path rotated(Path file, int number) {
+        return file.resolveSibling(file.getFileName() + "." + number);
+    }
+
+    private static List<Path> filesOf(Path file) {
+        List<Path> files = new ArrayList<>();
+        if (Files.exists(file)) files.add(file);
+        for (int i = 1; Files.exists(rotated(file, i)); i++) files.add(rotated(file, i));
+        return files;
+    }
+
+    private static Document toJson(SlowQuery query) {
+        return new Document("time", query.time().toString())
+                .append("source", query.source())
+                .append("match", query.match() == null ? null : query.match().name())
+                .append("millis", query.millis())
+                .append("returned", query.returned())
+                .append("keysExamined", query.keysExamined())
+                .append("docsExamined", query.docsExamined())
+                .append("plan", query.plan())
+                .append("shape", query.shape())
+                .append("filter", query.filter());
+    }
+
+    private static SlowQuery fromJson(Document doc) {
+        String match = doc.getString("match");
+        return new SlowQuery(Instant.parse(doc.getString("time")), doc.getString("source"),
+                match == null ? null : MatchMode.valueOf(match), doc.getString("shape"), doc.getString("filter"),
+                number(doc, "millis"), number(doc, "returned"), number(doc, "keysExamined"),
+                number(doc, "docsExamined"), doc.getString("plan"));
+    }
+
+    private static long number(Document doc, String key) {
+        Number value = doc == null ? null : doc.get(key, Number.class);
+        return value == null ? -1 : value.longValue();
+    }
+
+    private static List<ShapeSummary> top(Iterable<ShapeSummary> shapes, int top) {
+        List<ShapeSummary> sorted = new ArrayList<>();
+        shapes.forEach(sorted::add);
+        sorted.sort(Comparator.comparingLong(ShapeSummary::getTotalMillis).reversed());
+        return sorted.size() > top ? new ArrayList<>(sorted.subList(0, top)) : sorted;
+    }
+
+    private static String report(List<ShapeSummary> shapes) {
+        StringBuilder report = new StringBuilder("Slow query shapes, most total time first:\n");
+        if (shapes.isEmpty()) report.append("  none\n");
+        for (ShapeSummary shape : shapes) {
+            report.append(shape).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * Describes a filter without its values, keeping the fields and operators. Regexes
+     * show whether they are anchored, since only anchored ones can use an index.
+     */
+    static String shapeOf(BsonValue value) {
+        if (value instanceof BsonDocument document) {
+            StringBuilder shape = new StringBuilder("{");
+            for (Map.Entry<String, BsonValue> entry : document.entrySet()) {
+                if (shape.length() > 1) shape.append(", ");
+                shape.append(entry.getKey()).append(": ");
+                // the values of $in and the like are not part of the shape, the branches of $and and $or are
+                boolean branches = entry.getKey().equals("$and") || entry.getKey().equals("$or") || entry.getKey().equals("$nor");
+                shape.append(branches || !(entry.getValue() instanceof BsonArray) ? shapeOf(entry.getValue()) : "[?]");
+            }
+            return shape.append('}').toString();
+        } else if (value instanceof BsonArray array) {
+            StringBuilder shape = new StringBuilder("[");
+            for (BsonValue element : array) {
+                if (shape.length() > 1) shape.append(", ");
+                shape.append(shapeOf(element));
+            }
+            return shape.append(']').toString();
+        } else if (value instanceof BsonRegularExpression regex) {
+            return (regex.getPattern().startsWith("^") ? "/^?/" : "/?/") + regex.getOptions();
+        }
+        return "?";
+    }
+}
@@ -0,0 +1,383 @@
+package com.example.labb2dbt.model;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Buffers the rating changes made through another BooksDbInterface and writes them
+ * behind the caller's back. updateBookRating only sets the new rating on the Book and
+ * returns; repeated changes of the same book are coalesced into its latest rating, and
+ * the buffer is written with one updateBookRatings call when it has been waiting for
+ * the flush delay or holds the maximum number of books, whichever comes first.
+ * <p>
+ * The buffer is written before every search, update and delete of a book, so they
+ * see the new ratings, and before disconnecting. A rating set to what it already is
+ * is not an error. When a write fails, the books whose ratings were not written get
+ * their previous ratings back; if the database reports which ratings it did write,
+ * e.g. when another client deleted one of the books, the other books keep their new
+ * ones. The error of a write made before a search, update or delete goes to the flush
+ * error handler like that of a background write, and the operation goes ahead.
+ */
+public class WriteBehindBooksDb implements BooksDbInterface {
+
+    public static final long DEFAULT_FLUSH_DELAY_MILLIS = 500;
+    public static final int DEFAULT_MAX_PENDING = 200;
+
+    /**
+     * A buffered rating change, with the rating the book had before the buffer took it.
+     */
+    private record Pending(Book book, int original, int rating) {
+    }
+
+    private final BooksDbInterface delegate;
+    private final long flushDelayMillis;
+    private final int maxPending;
+    private final ScheduledExecutorService flusher;
+    private volatile Consumer<BooksDbException> flushErrorHandler =
+            e -> System.err.println("Could not write the buffered ratings: " + e.getMessage());
+
+    // guarded by this
+    private LinkedHashMap<String, Pending> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+    // held while a batch is written, so the batches reach the database in order
+    private final Object flushLock = new Object();
+
+    private final AtomicLong buffered = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+
+    /**
+     * Constructs a write-behind buffer with the default flush delay and size.
+     *
+     * @param delegate The database to write the ratings to.
+     */
+    public WriteBehindBooksDb(BooksDbInterface delegate) {
+        this(delegate, DEFAULT_FLUSH_DELAY_MILLIS, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * Constructs a write-behind buffer.
+     *
+     * @param delegate         The database to write the ratings to.
+     * @param flushDelayMillis How long a rating change may wait in the buffer.
+     * @param maxPending       The number of buffered books that triggers a write at once.
+     */
+    public WriteBehindBooksDb(BooksDbInterface delegate, long flushDelayMillis, int maxPending) {
+        if (flushDelayMillis < 0) throw new IllegalArgumentException("flushDelayMillis must not be negative");
+        if (maxPending < 1) throw new IllegalArgumentException("maxPending must be at least 1");
+        this.delegate = delegate;
+        this.flushDelayMillis = flushDelayMillis;
+        this.maxPending = maxPending;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rating-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sets what is done with the errors of the writes made in the background or before
+     * another operation, e.g. showing them to the user. By default they are printed.
+     *
+     * @param flushErrorHandler Receives each failed write, on the writing thread.
+     */
+    public void setFlushErrorHandler(Consumer<BooksDbException> flushErrorHandler) {
+        this.flushErrorHandler = flushErrorHandler;
+    }
+
+    /**
+     * Gets the number of books with a rating change waiting to be written.
+     *
+     * @return The number of books.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Gets the number of rating changes that replaced a change still waiting to be written.
+     *
+     * @return The number of coalesced changes.
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Gets the number of rating changes made through this buffer.
+     *
+     * @return The number of changes.
+     */
+    public long getBufferedCount() {
+        return buffered.get();
+    }
+
+    /**
+     * Gets the number of ratings written to the database.
+     *
+     * @return The number of ratings.
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * Gets the number of batches written to the database.
+     *
+     * @return The number of batches.
+     */
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    /**
+     * Writes the buffered ratings now and waits until they are written.
+     *
+     * @throws BooksDbException If the ratings could not be written; the books whose ratings were
+     *                          not written get their previous ratings back.
+     */
+    public void flush() throws BooksDbException {
+        synchronized (flushLock) {
+            LinkedHashMap<String, Pending> batch;
+            synchronized (this) {
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                if (scheduledFlush != null) {
+                    scheduledFlush.cancel(false);
+                    scheduledFlush = null;
+                }
+            }
+            if (batch.isEmpty()) return;
+            Map<String, Integer> ratings = new LinkedHashMap<>();
+            batch.forEach((isbn, change) -> ratings.put(isbn, change.rating()));
+            try {
+                delegate.updateBookRatings(ratings);
+                written.addAndGet(ratings.size());
+                flushes.incrementAndGet();
+            } catch (RatingsNotWrittenException e) {
+                // the other ratings are in the database, their books keep them
+                Map<String, Pending> unwritten = new LinkedHashMap<>();
+                for (String isbn : e.getUnwrittenIsbns()) {
+                    Pending change = batch.get(isbn);
+                    if (change != null) unwritten.put(isbn, change);
+                }
+                revert(unwritten);
+                written.addAndGet(ratings.size() - unwritten.size());
+                flushes.incrementAndGet();
+                throw e;
+            } catch (BooksDbException | RuntimeException e) {
+                revert(batch);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Sets the new rating on the book at once and buffers the change, to be written
+     * with the other buffered changes.
+     *
+     * @param book      The book.
+     * @param newRating The new rating.
+     */
+    @Override
+    public void updateBookRating(Book book, int newRating) {
+        String isbn = book.getIsbn();
+        boolean full;
+        synchronized (this) {
+            Pending previous = pending.get(isbn);
+            if (previous == null && book.getRating() == newRating) return;
+            buffered.incrementAndGet();
+            if (previous != null) coalesced.incrementAndGet();
+            int original = previous == null ? book.getRating() : previous.original();
+            if (newRating == original) {
+                // changed back before it was written
+                pending.remove(isbn);
+            } else {
+                pending.put(isbn, new Pending(book, original, newRating));
+            }
+            book.setRating(newRating);
+            full = pending.size() >= maxPending;
+            if (!full && !pending.isEmpty() && scheduledFlush == null) {
+                scheduledFlush = flusher.schedule(this::flushAndReport, flushDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full) flusher.execute(this::flushAndReport);
+    }
+
+    /**
+     * Buffers the rating changes like updateBookRating, for books known by ISBN only.
+     * The changes are written at once, since there are no Book objects to show them on.
+     */
+    @Override
+    public int updateBookRatings(Map<String, Integer> ratings) throws BooksDbException {
+        flushAndReport();
+        return delegate.updateBookRatings(ratings);
+    }
+
+    /**
+     * Writes the buffered ratings, then disconnects, also if writing them failed.
+     */
+    @Override
+    public void disconnect() throws BooksDbException {
+        try {
+            flush();
+        } finally {
+            delegate.disconnect();
+        }
+    }
+
+    @Override
+    public boolean connect(String database, String username, String password) throws BooksDbException {
+        return delegate.connect(database, username, password);
+    }
+
+    @Override
+    public boolean connect(ConnectionProfile profile) throws BooksDbException {
+        return delegate.connect(profile);
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        delegate.addBook(book);
+    }
+
+    @Override
+    public void addAuthor(Author author) throws BooksDbException {
+        delegate.addAuthor(author);
+    }
+
+    @Override
+    public BulkImportResult addBooks(Iterable<Book> books) throws BooksDbException {
+        return delegate.addBooks(books);
+    }
+
+    @Override
+    public BulkImportResult addAuthors(Iterable<Author> authors) throws BooksDbException {
+        return delegate.addAuthors(authors);
+    }
+
+    @Override
+    public void updateBook(String id, Book book) throws BooksDbException {
+        flushAndReport();
+        delegate.updateBook(id, book);
+    }
+
+    @Override
+    public void deleteBook(Book book) throws BooksDbException {
+        flushAndReport();
+        delegate.deleteBook(book);
+    }
+
+    @Override
+    public List<Book> searchBooksByAuthor(String author) throws BooksDbException {
+        flushAndReport();
+        return delegate.searchBooksByAuthor(author);
+    }
+
+    @Override
+    public List<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        flushAndReport();
+        return delegate.searchBooksByGenre(genre);
+    }
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        flushAndReport();
+        return delegate.searchBooksByTitle(title);
+    }
+
+    @Override
+    public List<Book> searchBooksByISBN(String isbn) throws BooksDbException {
+        flushAndReport();
+        return delegate.searchBooksByISBN(isbn);
+    }
+
+    @Override
+    public List<Book> searchBooksByRating(String rating) throws BooksDbException {
+        flushAndReport();
+        return delegate.searchBooksByRating(rating);
+    }
+
+    @Override
+    public void searchBooks(SearchMode mode, String searchFor, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        flushAndReport();
+        delegate.searchBooks(mode, searchFor, batchSize, consumer);
+    }
+
+    @Override
+    public void searchBooks(SearchMode mode, MatchMode match, String searchFor, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        flushAndReport();
+        delegate.searchBooks(mode, match, searchFor, batchSize, consumer);
+    }
+
+    @Override
+    public void searchBooks(SearchMode mode, MatchMode match, String searchFor, BookProjection projection,
+                            int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        flushAndReport();
+        delegate.searchBooks(mode, match, searchFor, projection, batchSize, consumer);
+    }
+
+    @Override
+    public void searchBooks(BookQuery query, BookProjection projection, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+        flushAndReport();
+        delegate.searchBooks(query, projection, batchSize, consumer);
+    }
+
+    @Override
+    public long countBooks(BookQuery query) throws BooksDbException {
+        flushAndReport();
+        return delegate.countBooks(query);
+    }
+
+    @Override
+    public List<Book> searchBooksByText(String query, int limit) throws BooksDbException {
+        flushAndReport();
+        return delegate.searchBooksByText(query, limit);
+    }
+
+    @Override
+    public void loadBookDetails(Book book) throws BooksDbException {
+        delegate.loadBookDetails(book);
+    }
+
+    @Override
+    public List<Author> getAllAuthors() throws BooksDbException {
+        return delegate.getAllAuthors();
+    }
+
+    @Override
+    public BookSubscription watchBooks(Consumer<BookChange> listener, Consumer<BooksDbException> errors) throws BooksDbException {
+        return delegate.watchBooks(listener, errors);
+    }
+
+    /**
+     * Writes the buffered ratings, giving an error to the flush error handler instead of
+     * the caller, whose operation has nothing to do with it.
+     */
+    private void flushAndReport() {
+        try {
+            flush();
+        } catch (BooksDbException e) {
+            flushErrorHandler.accept(e);
+        } catch (RuntimeException e) {
+            flushErrorHandler.accept(new BooksDbException("Error writing the buffered ratings", e));
+        }
+    }
+
+    private synchronized void revert(Map<String, Pending> batch) {
+        batch.forEach((isbn, change) -> {
+            // a book changed again meanwhile keeps its newer rating
+            if (!pending.containsKey(isbn) && change.book().getRating() == change.rating()) {
+                change.book().setRating(change.original());
+            }
+        });
+    }
+}
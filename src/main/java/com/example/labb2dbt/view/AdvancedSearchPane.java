@@ -0,0 +1,112 @@
+package com.example.labb2dbt.view;
+
+import com.example.labb2dbt.model.BookQuery;
+import com.example.labb2dbt.model.MatchMode;
+import javafx.geometry.Insets;
+import javafx.scene.control.*;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
+
+import java.time.LocalDate;
+
+/**
+ * Advanced search form combining title, ISBN, author, genre, rating range and release
+ * date range into one BookQuery. Empty fields are left out of the query, so the user
+ * only fills in the criteria they care about.
+ */
+public final class AdvancedSearchPane extends GridPane {
+
+    private static final String ORDER_NONE = "Any order";
+
+    private final TextField titleField = new TextField();
+    private final TextField isbnField = new TextField();
+    private final TextField authorField = new TextField();
+    private final TextField genreField = new TextField();
+    private final ComboBox<MatchMode> matchModeBox = new ComboBox<>();
+    private final Spinner<Integer> minRatingSpinner = new Spinner<>(1, 5, 1);
+    private final Spinner<Integer> maxRatingSpinner = new Spinner<>(1, 5, 5);
+    private final DatePicker publishedFromPicker = new DatePicker();
+    private final DatePicker publishedToPicker = new DatePicker();
+    private final ToggleGroup combineGroup = new ToggleGroup();
+    private final RadioButton allButton = new RadioButton("All criteria");
+    private final RadioButton anyButton = new RadioButton("Any criterion");
+    private final ComboBox<String> sortBox = new ComboBox<>();
+    private final CheckBox descendingBox = new CheckBox("Descending");
+    private final Spinner<Integer> limitSpinner = new Spinner<>(0, 100_000, 0, 50);
+
+    public AdvancedSearchPane() {
+        matchModeBox.getItems().addAll(MatchMode.values());
+        matchModeBox.setValue(MatchMode.NormalizedPrefix); // index-friendly default
+        matchModeBox.setTooltip(new Tooltip("How the title, ISBN, author and genre are matched"));
+        minRatingSpinner.setPrefWidth(70);
+        maxRatingSpinner.setPrefWidth(70);
+        allButton.setToggleGroup(combineGroup);
+        anyButton.setToggleGroup(combineGroup);
+        allButton.setSelected(true);
+        sortBox.getItems().add(ORDER_NONE);
+        for (BookQuery.SortField field : BookQuery.SortField.values()) {
+            sortBox.getItems().add(field.name());
+        }
+        sortBox.setValue(ORDER_NONE);
+        limitSpinner.setEditable(true);
+        limitSpinner.setTooltip(new Tooltip("0 returns all matching books"));
+
+        setHgap(10);
+        setVgap(10);
+        setPadding(new Insets(10, 10, 10, 10));
+
+        int row = 0;
+        add(new Label("Title:"), 0, row);
+        add(titleField, 1, row++);
+        add(new Label("ISBN:"), 0, row);
+        add(isbnField, 1, row++);
+        add(new Label("Author:"), 0, row);
+        add(authorField, 1, row++);
+        add(new Label("Genre:"), 0, row);
+        add(genreField, 1, row++);
+        add(new Label("Match:"), 0, row);
+        add(matchModeBox, 1, row++);
+        add(new Label("Rating:"), 0, row);
+        add(new HBox(10, minRatingSpinner, new Label("to"), maxRatingSpinner), 1, row++);
+        add(new Label("Published:"), 0, row);
+        add(new HBox(10, publishedFromPicker, new Label("to"), publishedToPicker), 1, row++);
+        add(new Label("Combine:"), 0, row);
+        add(new HBox(10, allButton, anyButton), 1, row++);
+        add(new Label("Order by:"), 0, row);
+        add(new HBox(10, sortBox, descendingBox), 1, row++);
+        add(new Label("Limit:"), 0, row);
+        add(limitSpinner, 1, row);
+    }
+
+    /**
+     * Builds the query from the form. The rating range is only part of the query if it
+     * is narrower than 1 to 5, and each date bound only if it is set.
+     *
+     * @return The query.
+     * @throws IllegalArgumentException If a range is inverted, or "Any criterion" is
+     *                                  chosen without any criteria.
+     */
+    public BookQuery toQuery() {
+        MatchMode match = matchModeBox.getValue();
+        BookQuery.Builder builder = BookQuery.builder();
+        if (!titleField.getText().isBlank()) builder.title(match, titleField.getText().trim());
+        if (!isbnField.getText().isBlank()) builder.isbn(match, isbnField.getText().trim());
+        if (!authorField.getText().isBlank()) builder.author(match, authorField.getText().trim());
+        if (!genreField.getText().isBlank()) builder.genre(match, genreField.getText().trim());
+
+        int minRating = minRatingSpinner.getValue();
+        int maxRating = maxRatingSpinner.getValue();
+        if (minRating > 1 || maxRating < 5) builder.ratingBetween(minRating, maxRating);
+
+        LocalDate from = publishedFromPicker.getValue();
+        LocalDate to = publishedToPicker.getValue();
+        if (from != null || to != null) builder.publishedBetween(from, to);
+
+        if (anyButton.isSelected()) builder.matchAny();
+        if (!ORDER_NONE.equals(sortBox.getValue())) {
+            builder.sortBy(BookQuery.SortField.valueOf(sortBox.getValue()), descendingBox.isSelected());
+        }
+        builder.limit(limitSpinner.getValue());
+        return builder.build();
+    }
+}
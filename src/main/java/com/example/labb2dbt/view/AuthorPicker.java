@@ -0,0 +1,81 @@
+package com.example.labb2dbt.view;
+
+import com.example.labb2dbt.model.Author;
+import com.example.labb2dbt.model.AuthorIndex;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.geometry.Insets;
+import javafx.scene.control.*;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+
+import java.util.List;
+
+/**
+ * Type-ahead author picker for the Add Book dialog. The suggestions are looked up
+ * in the in-memory AuthorIndex on every keystroke, so only a page of matching
+ * authors is ever shown, however many authors there are.
+ */
+public final class AuthorPicker extends VBox {
+
+    private static final int MAX_SUGGESTIONS = 20;
+
+    private final AuthorIndex authorIndex;
+    private final TextField searchField = new TextField();
+    private final ListView<Author> suggestions = new ListView<>();
+    private final ObservableList<Author> selected = FXCollections.observableArrayList();
+
+    public AuthorPicker(AuthorIndex authorIndex) {
+        this.authorIndex = authorIndex;
+
+        searchField.setPromptText("Type to find authors");
+        suggestions.setPrefHeight(150);
+        suggestions.setPlaceholder(new Label(authorIndex.isLoaded() ? "No matching authors" : "Loading authors..."));
+        ListView<Author> selectedView = new ListView<>(selected);
+        selectedView.setPrefHeight(80);
+        selectedView.setPlaceholder(new Label("No authors selected"));
+
+        Button addButton = new Button("Add");
+        Button removeButton = new Button("Remove");
+        HBox buttons = new HBox(10, addButton, removeButton);
+
+        searchField.textProperty().addListener((observable, oldText, newText) -> updateSuggestions());
+        searchField.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.DOWN) suggestions.requestFocus();
+        });
+        suggestions.setOnMouseClicked(event -> {
+            if (event.getClickCount() == 2) addSelectedSuggestion();
+        });
+        suggestions.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.ENTER) addSelectedSuggestion();
+        });
+        addButton.setOnAction(event -> addSelectedSuggestion());
+        removeButton.setOnAction(event -> selected.remove(selectedView.getSelectionModel().getSelectedItem()));
+
+        setSpacing(5);
+        setPadding(new Insets(0));
+        getChildren().addAll(searchField, suggestions, buttons, new Label("Selected:"), selectedView);
+        updateSuggestions();
+    }
+
+    /**
+     * Gets the authors picked by the user.
+     *
+     * @return The selected authors, in the order they were picked.
+     */
+    public List<Author> getSelectedAuthors() {
+        return List.copyOf(selected);
+    }
+
+    private void updateSuggestions() {
+        suggestions.getItems().setAll(authorIndex.search(searchField.getText(), MAX_SUGGESTIONS));
+    }
+
+    private void addSelectedSuggestion() {
+        Author author = suggestions.getSelectionModel().getSelectedItem();
+        if (author != null && !selected.contains(author)) {
+            selected.add(author);
+        }
+    }
+}
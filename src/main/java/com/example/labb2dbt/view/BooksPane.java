@@ -1,11 +1,16 @@
 package com.example.labb2dbt.view;
 
+import java.io.File;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import com.example.labb2dbt.model.*;
-import javafx.beans.property.SimpleStringProperty;
+import javafx.animation.PauseTransition;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
@@ -13,11 +18,14 @@ import javafx.event.EventHandler;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.*;
-import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.input.KeyCode;
 import javafx.scene.layout.*;
+import javafx.stage.FileChooser;
+import javafx.stage.Window;
+import javafx.stage.WindowEvent;
+import javafx.util.Callback;
+import javafx.util.Duration;
 import javafx.util.StringConverter;
-import org.controlsfx.control.CheckListView;
 import java.util.Date;
 
 
@@ -32,18 +40,25 @@ import java.util.Date;
  */
 public class BooksPane extends VBox {
 
+    private static final int SEARCH_DEBOUNCE_MILLIS = 300;
+
     private TableView<Book> booksTable;
     private ObservableList<Book> booksInTable; // the data backing the table view
+    private PagedBookList pagedBooks; // backs the table instead while a paged search is shown
+    private boolean showingPagedBooks; // the sort order is being set to the one of the paged search
 
     private ComboBox<SearchMode> searchModeBox;
+    private ComboBox<MatchMode> matchModeBox;
     private TextField searchField;
     private Button searchButton;
+    private PauseTransition searchDebounce; // delays incremental searches while typing
+    private boolean exiting; // disconnecting before the application terminates
 
     private MenuBar menuBar;
 
     private Controller controller;
 
-    public BooksPane(BooksDbImpl booksDb) {
+    public BooksPane(BooksDbInterface booksDb) {
         final Controller controller = new Controller(booksDb, this);
         this.init(controller);
         this.controller = controller;
@@ -56,10 +71,130 @@ public class BooksPane extends VBox {
      * @param books the books to display
      */
     public void displayBooks(List<Book> books) {
+        showBooksInTable();
         booksInTable.clear();
         booksInTable.addAll(books);
     }
+
+    /**
+     * Display a paged search result, read page by page as the table is
+     * scrolled. The column headers show its order, and sorting by a column
+     * searches again in that order.
+     *
+     * @param books the paged books to display
+     */
+    public void displayPagedBooks(PagedBookList books) {
+        showingPagedBooks = true;
+        try {
+            pagedBooks = books;
+            booksInTable.clear();
+            BookQuery query = books.getQuery();
+            TableColumn<Book, ?> sortColumn = null;
+            for (TableColumn<Book, ?> column : booksTable.getColumns()) {
+                if (column.getUserData() == query.getSortField()) sortColumn = column;
+            }
+            if (sortColumn != null) {
+                sortColumn.setSortType(query.isDescending() ? TableColumn.SortType.DESCENDING : TableColumn.SortType.ASCENDING);
+                booksTable.getSortOrder().setAll(List.of(sortColumn));
+            }
+            booksTable.setItems(books);
+            booksTable.scrollTo(0);
+        } finally {
+            showingPagedBooks = false;
+        }
+    }
+
+    private void showBooksInTable() {
+        if (pagedBooks == null) return;
+        pagedBooks = null;
+        showingPagedBooks = true;
+        try {
+            booksTable.setItems(booksInTable);
+            booksTable.getSortOrder().clear();
+        } finally {
+            showingPagedBooks = false;
+        }
+    }
+
+    /**
+     * Get the books the table holds, i.e. the loaded pages of a paged
+     * search, e.g. to choose from in a dialog.
+     */
+    private ObservableList<Book> getLoadedBooks() {
+        return pagedBooks == null ? booksInTable : FXCollections.observableArrayList(pagedBooks.getLoadedBooks());
+    }
+
+    /**
+     * Append books to the ones already displayed, e.g. the next batch of
+     * a search whose first batch was shown with displayBooks.
+     *
+     * @param books the books to add
+     */
+    public void appendBooks(List<Book> books) {
+        showBooksInTable();
+        booksInTable.addAll(books);
+    }
+
+    /**
+     * Apply a change of a book to the displayed books: its row is replaced or
+     * removed, or a row is added for a book that now matches the search, so the
+     * table follows the changes without searching again.
+     *
+     * @param change the change
+     * @param filter the books the displayed search matches, or null if unknown,
+     *               in which case only the displayed rows are updated
+     */
+    public void applyChange(BookChange change, Predicate<Book> filter) {
+        if (pagedBooks != null) {
+            pagedBooks.applyChange(change, filter);
+            return;
+        }
+        int row = indexOfIsbn(change.getOldIsbn());
+        if (change.kind() == BookChange.Kind.Delete) {
+            if (row >= 0) booksInTable.remove(row);
+            return;
+        }
+        Book book = change.book();
+        boolean matches = filter == null ? row >= 0 : filter.test(book);
+        if (row >= 0) {
+            if (matches) {
+                booksInTable.set(row, book);
+            } else {
+                booksInTable.remove(row);
+            }
+        } else if (matches && indexOfIsbn(book.getIsbn()) < 0) {
+            booksInTable.add(book);
+        }
+    }
+
+    private int indexOfIsbn(String isbn) {
+        for (int i = 0; i < booksInTable.size(); i++) {
+            if (booksInTable.get(i).getIsbn().equals(isbn)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Redraw the rows of the booksTable, e.g. after the details of a
+     * displayed book have been loaded.
+     */
+    public void refreshBooks() {
+        booksTable.refresh();
+    }
     
+    /**
+     * Disconnects off the FX thread, letting the queued database operations finish,
+     * then runs onExited on the FX thread, e.g. to terminate the application. Calls
+     * made while already exiting are ignored.
+     *
+     * @param onExited run when disconnected, also after an error has been shown
+     */
+    public void exit(Runnable onExited) {
+        if (exiting) return;
+        exiting = true;
+        controller.exitButtonDisconnect(onExited);
+    }
+
     /**
      * Notify user on input error or exceptions.
      * 
@@ -84,7 +219,7 @@ public class BooksPane extends VBox {
         FlowPane bottomPane = new FlowPane();
         bottomPane.setHgap(10);
         bottomPane.setPadding(new Insets(10, 10, 10, 10));
-        bottomPane.getChildren().addAll(searchModeBox, searchField, searchButton);
+        bottomPane.getChildren().addAll(searchModeBox, matchModeBox, searchField, searchButton);
 
         BorderPane mainPane = new BorderPane();
         mainPane.setCenter(booksTable);
@@ -104,26 +239,68 @@ public class BooksPane extends VBox {
         TableColumn<Book, String> titleCol = new TableColumn<>("Title");
         TableColumn<Book, String> isbnCol = new TableColumn<>("ISBN");
         TableColumn<Book, LocalDate> publishedCol = new TableColumn<>("Published");
-        publishedCol.setCellValueFactory(new PropertyValueFactory<>("published"));
         TableColumn<Book, String> storyLine = new TableColumn<>("Story Line");
         TableColumn<Book, Integer> rating = new TableColumn<>("Rating");
-        rating.setCellValueFactory(new PropertyValueFactory<>("rating"));
         TableColumn<Book, String> genre = new TableColumn<>("Genres");
+        // the fields a paged search is ordered by on the server
+        titleCol.setUserData(BookQuery.SortField.Title);
+        isbnCol.setUserData(BookQuery.SortField.ISBN);
+        publishedCol.setUserData(BookQuery.SortField.Published);
+        rating.setUserData(BookQuery.SortField.Rating);
 
         booksTable.getColumns().addAll(titleCol, isbnCol, publishedCol, storyLine, rating, genre);
         // give title column some extra space
         titleCol.prefWidthProperty().bind(booksTable.widthProperty().multiply(0.5));
 
-        // define how to fill data for each cell, 
-        // get values from Book properties
-        titleCol.setCellValueFactory(new PropertyValueFactory<>("title"));
-        isbnCol.setCellValueFactory(new PropertyValueFactory<>("isbn"));
-        publishedCol.setCellValueFactory(new PropertyValueFactory<>("published"));
-        storyLine.setCellValueFactory(new PropertyValueFactory<>("storyLine"));
-        genre.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().getGenresAsString()));
+        // define how to fill data for each cell,
+        // get values from the Book snapshots, which are kept until a book changes
+        titleCol.setCellValueFactory(fromSnapshot(BookSnapshot::getTitle));
+        isbnCol.setCellValueFactory(fromSnapshot(BookSnapshot::getIsbn));
+        publishedCol.setCellValueFactory(fromSnapshot(BookSnapshot::getPublished));
+        // the story line is not part of search results, it is shown once the row's details are loaded
+        storyLine.setCellValueFactory(fromSnapshot(BookSnapshot::getStoryLine));
+        rating.setCellValueFactory(fromSnapshot(BookSnapshot::getRating));
+        genre.setCellValueFactory(fromSnapshot(BookSnapshot::getGenresAsString));
 
         // associate the table view with the data
         booksTable.setItems(booksInTable);
+        // rows of one height let the table place any row of a long result without measuring the others
+        booksTable.setFixedCellSize(24);
+
+        // a paged search is sorted by the server, the other results in memory
+        booksTable.setSortPolicy(table -> {
+            if (showingPagedBooks) return true;
+            if (pagedBooks == null) return TableView.DEFAULT_SORT_POLICY.call(table);
+            List<TableColumn<Book, ?>> sortOrder = table.getSortOrder();
+            BookQuery.SortField field = null;
+            boolean descending = false;
+            if (!sortOrder.isEmpty()) {
+                TableColumn<Book, ?> column = sortOrder.get(0);
+                if (!(column.getUserData() instanceof BookQuery.SortField)) return false; // e.g. the genres
+                field = (BookQuery.SortField) column.getUserData();
+                descending = column.getSortType() == TableColumn.SortType.DESCENDING;
+            }
+            BookQuery.SortField sortField = field;
+            boolean sortDescending = descending;
+            // search again once the table is done sorting
+            javafx.application.Platform.runLater(() -> controller.onSortChanged(sortField, sortDescending));
+            return true;
+        });
+
+        // fetch story line and authors of the selected book in the background
+        booksTable.getSelectionModel().selectedItemProperty().addListener((observable, oldBook, newBook) -> {
+            if (newBook != null) controller.loadBookDetails(newBook);
+        });
+    }
+
+    /**
+     * Creates a cell value factory reading a field of the row's snapshot. A row of
+     * a paged search is null until its page is read, and shows an empty cell.
+     */
+    private static <T> Callback<TableColumn.CellDataFeatures<Book, T>, ObservableValue<T>> fromSnapshot(
+            Function<BookSnapshot, T> field) {
+        return cellData -> new ReadOnlyObjectWrapper<>(
+                cellData.getValue() == null ? null : field.apply(cellData.getValue().snapshot()));
     }
 
     private void initSearchView(Controller controller) {
@@ -132,10 +309,19 @@ public class BooksPane extends VBox {
         searchModeBox = new ComboBox<>();
         searchModeBox.getItems().addAll(SearchMode.values());
         searchModeBox.setValue(SearchMode.Title);
+        matchModeBox = new ComboBox<>();
+        matchModeBox.getItems().addAll(MatchMode.values());
+        matchModeBox.setValue(MatchMode.NormalizedPrefix); // index-friendly default
+        matchModeBox.setTooltip(new Tooltip("Substring searches scan the whole catalogue"));
         searchButton = new Button("Search");
         
         // event handling (dispatch to controller)
 
+        // search as the user types, but only once the keystrokes pause
+        searchDebounce = new PauseTransition(Duration.millis(SEARCH_DEBOUNCE_MILLIS));
+        searchDebounce.setOnFinished(event -> controller.onSearchTyped(searchField.getText(), searchModeBox.getValue(), matchModeBox.getValue()));
+        searchField.textProperty().addListener((observable, oldText, newText) -> searchDebounce.playFromStart());
+
         searchField.setOnKeyPressed(event -> {
             if (event.getCode() == KeyCode.ENTER) {
                 executeSearch();
@@ -150,9 +336,11 @@ public class BooksPane extends VBox {
         });
     }
     private void executeSearch(){
+        searchDebounce.stop(); // the explicit search supersedes the pending one
         String searchFor = searchField.getText();
         SearchMode mode = searchModeBox.getValue();
-        controller.onSearchSelected(searchFor, mode);
+        MatchMode match = matchModeBox.getValue();
+        controller.onSearchSelected(searchFor, mode, match);
     }
 
     private void initMenus() {
@@ -166,25 +354,21 @@ public class BooksPane extends VBox {
         // Adding event handlers for file menu items
         exitItem.setOnAction(event -> {
             System.out.println("Exit button pressed");
-            controller.exitButtonDisconnect();
-            javafx.application.Platform.exit(); // Terminate the application
+            // like the close button of the window, whose handler disconnects and terminates the application
+            Window window = getScene().getWindow();
+            window.fireEvent(new WindowEvent(window, WindowEvent.WINDOW_CLOSE_REQUEST));
         });
         connectItem.setOnAction(event -> {
             System.out.println("Connect to Db button pressed");
-            try {
-                if(controller.connectToDatabase()) System.out.println("Connect successful");
-            } catch (BooksDbException e) {
-                throw new RuntimeException(e);
-            }
+            connectItem.setDisable(true); // until this connect is done
+            controller.connectToDatabase(connected -> {
+                connectItem.setDisable(false);
+                if (connected) System.out.println("Connect successful");
+            });
         });
         disconnectItem.setOnAction(event -> {
             System.out.println("Disconnect button pressed");
-            try {
-                controller.disconnectFromDatabase();
-                System.out.println("Disconnect successful");
-            } catch (BooksDbException e) {
-                throw new RuntimeException(e);
-            }
+            controller.disconnectFromDatabase();
         });
 
         Menu searchMenu = new Menu("Search");
@@ -193,8 +377,11 @@ public class BooksPane extends VBox {
         MenuItem authorItem = new MenuItem("Author");
         MenuItem genreItem = new MenuItem("Genre");
         MenuItem ratingItem = new MenuItem("Rating");
+        MenuItem fullTextItem = new MenuItem("Full text");
+        MenuItem advancedItem = new MenuItem("Advanced Search...");
 
-        searchMenu.getItems().addAll(titleItem, isbnItem, authorItem, genreItem, ratingItem);
+        searchMenu.getItems().addAll(titleItem, isbnItem, authorItem, genreItem, ratingItem, fullTextItem,
+                new SeparatorMenuItem(), advancedItem);
 
         // Adding event handlers for search menu items
         titleItem.setOnAction(event -> searchModeBox.setValue(SearchMode.Title));
@@ -202,6 +389,11 @@ public class BooksPane extends VBox {
         authorItem.setOnAction(event -> searchModeBox.setValue(SearchMode.Author));
         genreItem.setOnAction(event -> searchModeBox.setValue(SearchMode.Genre));
         ratingItem.setOnAction(event -> searchModeBox.setValue(SearchMode.Rating));
+        fullTextItem.setOnAction(event -> searchModeBox.setValue(SearchMode.FullText));
+        advancedItem.setOnAction(event -> {
+            System.out.println("Advanced Search button pressed");
+            showAdvancedSearchDialog();
+        });
 
         Menu manageMenu = new Menu("Manage");
 
@@ -213,15 +405,27 @@ public class BooksPane extends VBox {
 
         MenuItem addAuthorItem = new MenuItem("Add Author");
         MenuItem addBookItem = new MenuItem("Add Book");
+        MenuItem importBooksItem = new MenuItem("Import Books...");
 
         manageMenu.getItems().addAll(addItemMenu, removeItem, updateItem, setRatingItem);
-        addItemMenu.getItems().addAll(addBookItem, addAuthorItem);
+        addItemMenu.getItems().addAll(addBookItem, addAuthorItem, importBooksItem);
 
         addBookItem.setOnAction(event -> {
             System.out.println("Add Book button pressed");
             showAddBookDialog();
         });
 
+        importBooksItem.setOnAction(event -> {
+            System.out.println("Import Books button pressed");
+            FileChooser fileChooser = new FileChooser();
+            fileChooser.setTitle("Import Books");
+            fileChooser.getExtensionFilters().addAll(
+                    new FileChooser.ExtensionFilter("CSV or JSON Lines", "*.csv", "*.jsonl", "*.json"),
+                    new FileChooser.ExtensionFilter("All files", "*.*"));
+            File file = fileChooser.showOpenDialog(getScene().getWindow());
+            if (file != null) controller.importBooks(file.toPath());
+        });
+
         addAuthorItem.setOnAction(event -> {
             System.out.println("Add Author button pressed");
             showAddAuthorDialog();
@@ -240,10 +444,8 @@ public class BooksPane extends VBox {
         updateItem.setOnAction(event -> {
             System.out.println("Update button pressed");
             Optional<Book> selectedBook = showSelectBookDialog();
-            selectedBook.ifPresent(book -> {
-                // Proceed with updating the book
-                showUpdateBookDialog(book);
-            });
+            // the dialog shows and writes back the description and authors, so they are loaded first
+            selectedBook.ifPresent(book -> controller.loadBookDetails(book, () -> showUpdateBookDialog(book)));
         });
 
 
@@ -255,6 +457,36 @@ public class BooksPane extends VBox {
 
 
 
+    private void showAdvancedSearchDialog() {
+        Dialog<BookQuery> dialog = new Dialog<>();
+        dialog.setTitle("Advanced Search");
+        dialog.setHeaderText("Fill in the criteria to combine");
+
+        AdvancedSearchPane searchPane = new AdvancedSearchPane();
+        dialog.getDialogPane().setContent(searchPane);
+        ButtonType searchButtonType = new ButtonType("Search", ButtonBar.ButtonData.OK_DONE);
+        dialog.getDialogPane().getButtonTypes().addAll(searchButtonType, ButtonType.CANCEL);
+
+        // keep the dialog open while the criteria are invalid
+        Button searchDialogButton = (Button) dialog.getDialogPane().lookupButton(searchButtonType);
+        searchDialogButton.addEventFilter(ActionEvent.ACTION, event -> {
+            try {
+                searchPane.toQuery();
+            } catch (IllegalArgumentException e) {
+                showAlertAndWait(e.getMessage(), Alert.AlertType.WARNING);
+                event.consume();
+            }
+        });
+
+        dialog.setResultConverter(dialogButton -> dialogButton == searchButtonType ? searchPane.toQuery() : null);
+
+        Optional<BookQuery> result = dialog.showAndWait();
+        result.ifPresent(query -> {
+            System.out.println("Searching for " + query);
+            controller.onAdvancedSearch(query);
+        });
+    }
+
     private void showAddBookDialog() {
         Dialog<Book> dialog = new Dialog<>();
         dialog.setTitle("Add New Book");
@@ -279,9 +511,7 @@ public class BooksPane extends VBox {
         DatePicker publishedDatePicker = new DatePicker();
         publishedDatePicker.setPromptText("Published Date");
 
-        CheckListView<Author> authorCheckListView = new CheckListView<>();
-        List<Author> existingAuthors = getExistingAuthors();
-        authorCheckListView.getItems().addAll(existingAuthors);
+        AuthorPicker authorPicker = new AuthorPicker(controller.getAuthorIndex());
 
         Label authorLabel = new Label("Authors:");
         authorLabel.setTooltip(new Tooltip("Select Authors"));
@@ -302,7 +532,7 @@ public class BooksPane extends VBox {
         grid.add(publishedDatePicker, 1, 2);
 
         grid.add(authorLabel, 0, 3);
-        grid.add(authorCheckListView, 1, 3);
+        grid.add(authorPicker, 1, 3);
 
         grid.add(new Label("Genres:"), 0, 4);
         grid.add(genreField, 1, 4);
@@ -316,19 +546,19 @@ public class BooksPane extends VBox {
 
         dialog.setResultConverter(dialogButton -> {
             if (dialogButton == ButtonType.OK) {
-                LocalDate publishedDate = publishedDatePicker.getValue();
-                Book book = new Book(-1, isbnField.getText(), titleField.getText(), publishedDate);
-                book.setStoryLine(descriptionArea.getText());
-
-                List<Author> selectedAuthors = authorCheckListView.getCheckModel().getCheckedItems();
-                book.setAuthors(new ArrayList<>(selectedAuthors));
-
                 List<Genre> genres = Arrays.stream(genreField.getText().split("\\s*,\\s*"))
-                        .map(Genre::new)
+                        .map(Genre::of)
                         .collect(Collectors.toList());
-                book.setGenres(new ArrayList<>(genres));
 
-                return book;
+                return Book.builder()
+                        .bookId(-1)
+                        .isbn(isbnField.getText())
+                        .title(titleField.getText())
+                        .published(publishedDatePicker.getValue())
+                        .storyLine(descriptionArea.getText())
+                        .authors(authorPicker.getSelectedAuthors())
+                        .genres(genres)
+                        .build();
             }
             return null;
         });
@@ -344,13 +574,6 @@ public class BooksPane extends VBox {
         });
     }
 
-    private List<Author> getExistingAuthors() {
-        try {
-            return controller.booksDb.getAllAuthors();
-        } catch (BooksDbException e) {
-            throw new RuntimeException(e);
-        }
-    }
     private void showAddAuthorDialog() {
         Dialog<Author> dialog = new Dialog<>();
         dialog.setTitle("Add New Author");
@@ -414,7 +637,7 @@ public class BooksPane extends VBox {
 
         ComboBox<Book> bookComboBox = new ComboBox<>();
         bookComboBox.setPromptText("Select a book to remove");
-        bookComboBox.setItems(booksInTable); // Assuming booksInTable is your ObservableList<Book>
+        bookComboBox.setItems(getLoadedBooks());
 
         grid.add(new Label("Select Book:"), 0, 0);
         grid.add(bookComboBox, 1, 0);
@@ -450,7 +673,7 @@ public class BooksPane extends VBox {
 
         // Create the ComboBox for book selection
         ComboBox<Book> bookComboBox = new ComboBox<>();
-        bookComboBox.setItems(booksInTable);
+        bookComboBox.setItems(getLoadedBooks());
         bookComboBox.setConverter(new StringConverter<Book>() {
             @Override
             public String toString(Book book) {
@@ -509,17 +732,13 @@ public class BooksPane extends VBox {
 
         dialog.setResultConverter(dialogButton -> {
             if (dialogButton == ButtonType.OK) {
-                // Create a new Book object to capture updates
-                Book updatedBook = new Book(
-                        bookToUpdate.getBookId(), // Retain the same book ID
-                        isbnField.getText(),
-                        titleField.getText(),
-                        publishedDatePicker.getValue(),
-                        bookToUpdate.getGenres(), // Use existing genres
-                        bookToUpdate.getAuthors() // Use existing authors
-                );
-
-                updatedBook.setStoryLine(descriptionArea.getText());
+                // a new Book with the edited fields, keeping the ID, rating, genres and authors
+                Book updatedBook = bookToUpdate.toBuilder()
+                        .isbn(isbnField.getText())
+                        .title(titleField.getText())
+                        .published(publishedDatePicker.getValue())
+                        .storyLine(descriptionArea.getText())
+                        .build();
 
                 System.out.println("Dialog updated book details: " + updatedBook);
                 return updatedBook;
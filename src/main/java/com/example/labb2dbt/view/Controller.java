@@ -3,8 +3,16 @@ package com.example.labb2dbt.view;
 import com.example.labb2dbt.model.*;
 import javafx.application.Platform;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import static javafx.scene.control.Alert.AlertType.*;
 
@@ -18,67 +26,372 @@ public class Controller {
 
     private final BooksPane booksView; // view
     BooksDbInterface booksDb; // model
+    private final DbExecutor dbExecutor; // runs all database calls off the FX thread
+
+    // only the latest search generation may update the table
+    private final AtomicLong searchGeneration = new AtomicLong();
+    private Future<?> currentSearch; // accessed on the FX thread only
+    private volatile int searchBatchSize = BooksDbInterface.DEFAULT_BATCH_SIZE;
+    private final AuthorIndex authorIndex = new AuthorIndex(); // feeds the author picker
+
+    // the latest search and the books it matches, to apply live changes; FX thread only
+    private SearchCall lastSearch;
+    private Predicate<Book> lastSearchFilter;
+    private BookSubscription liveUpdates;
+    private PagedBookList pagedBooks; // the shown paged search, if any; FX thread only
 
     public Controller(BooksDbInterface booksDb, BooksPane booksView) {
+        this(booksDb, booksView, new DbExecutor());
+    }
+
+    public Controller(BooksDbInterface booksDb, BooksPane booksView, DbExecutor dbExecutor) {
         this.booksDb = booksDb;
         this.booksView = booksView;
+        this.dbExecutor = dbExecutor;
+        if (booksDb instanceof WriteBehindBooksDb writeBehind) {
+            // a failed background write has put the previous ratings back on the books
+            writeBehind.setFlushErrorHandler(e -> {
+                Platform.runLater(booksView::refreshBooks);
+                handleException(e);
+            });
+        }
+    }
+
+    /**
+     * Runs an explicit search, e.g. from the search button or the enter key.
+     * Any search still running is superseded by this one.
+     */
+    protected void onSearchSelected(String searchFor, SearchMode mode, MatchMode match) {
+        if (searchFor != null && !searchFor.isEmpty()) {
+            startSearch(searchFor, mode, match, true);
+        } else {
+            cancelCurrentSearch();
+            booksView.showAlertAndWait(
+                    "Enter a search string!", WARNING);
+        }
     }
 
-    protected void onSearchSelected(String searchFor, SearchMode mode) {
+    /**
+     * Runs an incremental search while the user is typing. Called by the view
+     * after the keystrokes have been debounced. Unlike an explicit search, no
+     * alerts are shown for empty results or errors.
+     */
+    protected void onSearchTyped(String searchFor, SearchMode mode, MatchMode match) {
         if (searchFor != null && !searchFor.isEmpty()) {
-            Runnable searchTask = () -> {
+            startSearch(searchFor, mode, match, false);
+        } else {
+            cancelCurrentSearch();
+        }
+    }
+
+    /**
+     * Runs a combined search from the advanced search form. Like an explicit search,
+     * it supersedes any search still running and reports empty results and errors.
+     */
+    protected void onAdvancedSearch(BookQuery query) {
+        startPagedSearch(query, true);
+    }
+
+    /**
+     * Searches again in another order after a column header of a paged search
+     * was clicked, so the server sorts the whole result instead of the table
+     * sorting the rows it holds.
+     *
+     * @param sortField  The field to order by, or null for the default order.
+     * @param descending {@code true} to start with the highest value.
+     */
+    protected void onSortChanged(BookQuery.SortField sortField, boolean descending) {
+        if (pagedBooks == null) return;
+        BookQuery query = pagedBooks.getQuery();
+        if (sortField == null) {
+            sortField = BookQuery.SortField.Title;
+            descending = false;
+        }
+        if (query.getSortField() == sortField && query.isDescending() == descending) return;
+        startPagedSearch(query.toBuilder().sortBy(sortField, descending).build(), false);
+    }
+
+    /**
+     * Sets the number of books delivered to the table per batch during a search.
+     *
+     * @param searchBatchSize The batch size, at least 1.
+     */
+    public void setSearchBatchSize(int searchBatchSize) {
+        if (searchBatchSize < 1) throw new IllegalArgumentException("searchBatchSize must be at least 1");
+        this.searchBatchSize = searchBatchSize;
+    }
+
+    /**
+     * A search delivering its result in batches, run by startSearch on a worker thread.
+     */
+    private interface SearchCall {
+        void run(int batchSize, Consumer<List<Book>> consumer) throws BooksDbException;
+    }
+
+    private void startSearch(String searchFor, SearchMode mode, MatchMode match, boolean explicit) {
+        if (mode != SearchMode.FullText) {
+            // read page by page in title order, however many books match
+            BookQuery.Builder query = BookQuery.builder();
+            if (mode == SearchMode.Rating) {
                 try {
-                    List<Book> result = null;
-                    switch (mode) {
-                        case Title:
-                            result = booksDb.searchBooksByTitle(searchFor);
-                            break;
-                        case ISBN:
-                            result = booksDb.searchBooksByISBN(searchFor);
-                            break;
-                        case Author:
-                            result = booksDb.searchBooksByAuthor(searchFor);
-                            break;
-                        case Genre:
-                            result = booksDb.searchBooksByGenre(searchFor);
-                            break;
-                        case Rating:
-                            result = booksDb.searchBooksByRating(searchFor);
-                            break;
-                        default:
-                            result = new ArrayList<>();
-                    }
-                    // Update UI with the result
-                    List<Book> finalResult = result;
+                    int rating = Integer.parseInt(searchFor.trim());
+                    query.ratingBetween(rating, rating);
+                } catch (NumberFormatException e) {
+                    cancelCurrentSearch();
+                    if (explicit) booksView.showAlertAndWait("Invalid rating format: " + searchFor, WARNING);
+                    return;
+                }
+            } else {
+                query.where(BookQuery.text(mode, match, searchFor));
+            }
+            startPagedSearch(query.build(), explicit);
+            return;
+        }
+        Predicate<Book> filter;
+        try {
+            filter = BookMatcher.of(mode, match, searchFor)::matches;
+        } catch (BooksDbException e) {
+            filter = null; // e.g. a ranked full-text search, whose live changes only update shown rows
+        }
+        startSearch((batchSize, consumer) ->
+                booksDb.searchBooks(mode, match, searchFor, BookProjection.Summary, batchSize, consumer), filter, explicit);
+    }
+
+    /**
+     * Shows the result of a search as a paged list, read from the server page by
+     * page as the table is scrolled. Must be called on the FX thread.
+     */
+    private void startPagedSearch(BookQuery query, boolean explicit) {
+        cancelCurrentSearch();
+        closePagedSearch();
+        Predicate<Book> filter;
+        try {
+            filter = query.matcher();
+        } catch (BooksDbException e) {
+            filter = null;
+        }
+        lastSearch = null;
+        lastSearchFilter = filter;
+        PagedBookList books = new PagedBookList(booksDb, query, dbExecutor::submit, Platform::runLater);
+        books.setOnError(e -> {
+            if (pagedBooks != books) return;
+            if (explicit) {
+                booksView.showAlertAndWait("Database error.", ERROR);
+            } else {
+                System.err.println(e.getMessage());
+            }
+        });
+        books.setOnEmpty(() -> {
+            if (explicit && pagedBooks == books) booksView.showAlertAndWait("No results found.", INFORMATION);
+        });
+        pagedBooks = books;
+        booksView.displayPagedBooks(books);
+        books.start();
+    }
+
+    private void closePagedSearch() {
+        if (pagedBooks != null) {
+            pagedBooks.close();
+            pagedBooks = null;
+        }
+    }
+
+    // must be called on the FX thread, which owns currentSearch
+    private void startSearch(SearchCall search, Predicate<Book> filter, boolean explicit) {
+        final long generation = cancelCurrentSearch();
+        closePagedSearch();
+        lastSearch = search;
+        lastSearchFilter = filter;
+        final int batchSize = searchBatchSize;
+        Runnable searchTask = () -> {
+            try {
+                // show the first batch as soon as it arrives and append the rest
+                AtomicInteger delivered = new AtomicInteger();
+                search.run(batchSize, batch -> {
+                    boolean first = delivered.getAndAdd(batch.size()) == 0;
                     Platform.runLater(() -> {
-                        if (finalResult == null || finalResult.isEmpty()) {
-                            booksView.showAlertAndWait(
-                                    "No results found.", INFORMATION);
+                        if (!isCurrentSearch(generation)) return;
+                        if (first) {
+                            booksView.displayBooks(batch);
                         } else {
-                            booksView.displayBooks(finalResult);
+                            booksView.appendBooks(batch);
                         }
                     });
-                } catch (Exception e) {
-                    // Handle exceptions
+                });
+                if (delivered.get() == 0) {
                     Platform.runLater(() -> {
-                        booksView.showAlertAndWait("Database error.", ERROR);
+                        if (!isCurrentSearch(generation)) return;
+                        booksView.displayBooks(new ArrayList<>());
+                        if (explicit) {
+                            booksView.showAlertAndWait(
+                                    "No results found.", INFORMATION);
+                        }
                     });
                 }
-            };
+            } catch (Exception e) {
+                // a superseded search fails with an interrupt, which is expected
+                if (!explicit || !isCurrentSearch(generation)) return;
+                Platform.runLater(() -> {
+                    booksView.showAlertAndWait("Database error.", ERROR);
+                });
+            }
+        };
+
+        currentSearch = runAsync(searchTask);
+    }
 
-            Thread searchThread = new Thread(searchTask);
-            searchThread.start();
+    /**
+     * Cancels the running search, if any, interrupting its worker so the
+     * cursor is closed on the server, and starts a new search generation.
+     *
+     * @return The new search generation.
+     */
+    private long cancelCurrentSearch() {
+        long generation = searchGeneration.incrementAndGet();
+        if (currentSearch != null) {
+            currentSearch.cancel(true);
+            currentSearch = null;
+        }
+        return generation;
+    }
+
+    private boolean isCurrentSearch(long generation) {
+        return searchGeneration.get() == generation;
+    }
+
+    /**
+     * Loads the story line and authors of a book from a search result in the
+     * background, then refreshes the view.
+     */
+    protected void loadBookDetails(Book book) {
+        if (book.isDetailsLoaded()) return;
+        loadBookDetails(book, booksView::refreshBooks);
+    }
+
+    /**
+     * Loads the story line and authors of a book in the background, then continues on
+     * the FX thread, e.g. to edit the book. If they cannot be loaded the error is shown
+     * and the continuation is not run, so no book with missing details is written back.
+     *
+     * @param book     The book.
+     * @param onLoaded Run on the FX thread once the details are loaded; at once if they already are.
+     */
+    protected void loadBookDetails(Book book, Runnable onLoaded) {
+        if (book.isDetailsLoaded()) {
+            onLoaded.run();
+            return;
+        }
+        runAsync(() -> {
+            try {
+                booksDb.loadBookDetails(book);
+                Platform.runLater(onLoaded);
+            } catch (BooksDbException e) {
+                handleException(e);
+            }
+        });
+    }
+
+    /**
+     * Connects on the executor, since connecting may backfill the normalized fields of
+     * the stored books and build the indexes, which takes long on a large catalogue.
+     * Then loads the author index and subscribes to the changes of the books.
+     *
+     * @param onConnected Run on the FX thread when done, with whether the connect succeeded.
+     */
+    public void connectToDatabase(Consumer<Boolean> onConnected) {
+        Future<?> connecting = runAsync(() -> {
+            boolean connected = false;
+            try {
+                // a books-db.properties file or BOOKS_DB_* variables replace the shared Atlas cluster
+                Optional<ConnectionProfile> profile = ConnectionProfile.configured();
+                connected = profile.isPresent()
+                        ? booksDb.connect(profile.get())
+                        : booksDb.connect("book_database", "spaydar01", "Aa1sLwVNTwqPfXFy"); //"daniel", "MTzK4KGuHrcH63Bs"
+                if (connected) loadAuthorIndex();
+            } catch (BooksDbException e) {
+                handleException(e);
+            }
+            boolean result = connected;
+            Platform.runLater(() -> {
+                if (result) startLiveUpdates();
+                onConnected.accept(result);
+            });
+        });
+        if (connecting == null) onConnected.accept(false);
+    }
+
+    /**
+     * Subscribes to the changes of the books made by any client, so the table follows
+     * them row by row instead of being searched again. Without support for this, e.g.
+     * on a standalone MongoDB server, the table is only updated by searching.
+     */
+    private void startLiveUpdates() {
+        stopLiveUpdates();
+        try {
+            liveUpdates = booksDb.watchBooks(change -> Platform.runLater(() -> onBookChanged(change)),
+                    e -> System.err.println(e.getMessage()));
+        } catch (BooksDbException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private void stopLiveUpdates() {
+        if (liveUpdates != null) {
+            liveUpdates.close();
+            liveUpdates = null;
+        }
+    }
+
+    // called on the FX thread
+    private void onBookChanged(BookChange change) {
+        if (change.kind() == BookChange.Kind.Reset) {
+            // the changes cannot be applied row by row, so read the books again
+            if (pagedBooks != null) {
+                pagedBooks.reload();
+            } else if (lastSearch != null) {
+                startSearch(lastSearch, lastSearchFilter, false);
+            }
         } else {
-            booksView.showAlertAndWait(
-                    "Enter a search string!", WARNING);
+            booksView.applyChange(change, lastSearchFilter);
         }
     }
 
-    public boolean connectToDatabase() throws BooksDbException {
-        return booksDb.connect("book_database", "spaydar01", "Aa1sLwVNTwqPfXFy"); //"daniel", "MTzK4KGuHrcH63Bs"
+    /**
+     * Gets the in-memory author index used by the author picker.
+     */
+    protected AuthorIndex getAuthorIndex() {
+        return authorIndex;
     }
-    public void disconnectFromDatabase() throws BooksDbException{
-        booksDb.disconnect();
+
+    /**
+     * Loads all authors into the author index in the background.
+     */
+    private void loadAuthorIndex() {
+        runAsync(() -> {
+            try {
+                authorIndex.load(booksDb);
+            } catch (BooksDbException e) {
+                handleException(e);
+            }
+        });
+    }
+
+    /**
+     * Disconnects on the executor, after the operations queued before it, since the
+     * disconnect writes the buffered ratings and may save indexes. An error, e.g. ratings
+     * that could not be written, is shown to the user.
+     */
+    public void disconnectFromDatabase() {
+        stopLiveUpdates();
+        closePagedSearch();
+        runAsync(() -> {
+            try {
+                booksDb.disconnect();
+                System.out.println("Disconnect successful");
+            } catch (BooksDbException e) {
+                handleException(e);
+            }
+        });
     }
     public void addBook(Book book) throws BooksDbException {
         Runnable addTask = () -> {
@@ -89,21 +402,38 @@ public class Controller {
             }
         };
 
-        Thread addThread = new Thread(addTask);
-        addThread.start();
+        runAsync(addTask);
     }
     public void addAuthor(Author author) throws BooksDbException {
         Runnable addTask = () -> {
             try {
                 booksDb.addAuthor(author);
+                authorIndex.add(author);
             } catch (BooksDbException e) {
                 handleException(e);
             }
         };
 
-        Thread addThread = new Thread(addTask);
-        addThread.start();
+        runAsync(addTask);
     }
+    /**
+     * Imports books from a CSV or JSON Lines file in the background and
+     * reports the number of imported and failed books.
+     */
+    public void importBooks(Path file) {
+        runAsync(() -> {
+            try {
+                BulkImportResult result = new BookImporter(booksDb).importFile(file);
+                Platform.runLater(() -> booksView.showAlertAndWait(
+                        "Imported " + result.getInserted() + " books, " + result.getFailedCount() + " failed, in "
+                                + result.getElapsedMillis() + " ms.",
+                        result.getFailedCount() == 0 ? INFORMATION : WARNING));
+            } catch (BooksDbException e) {
+                handleException(e);
+            }
+        });
+    }
+
     public void deleteBook(Book book) throws BooksDbException {
         Runnable deleteTask = () -> {
             try {
@@ -113,8 +443,7 @@ public class Controller {
             }
         };
 
-        Thread deleteThread = new Thread(deleteTask);
-        deleteThread.start();
+        runAsync(deleteTask);
     }
 
     public void updateBook(String isbn, Book book) throws BooksDbException {
@@ -126,25 +455,60 @@ public class Controller {
             }
         };
 
-        Thread updateThread = new Thread(updateTask);
-        updateThread.start();
+        runAsync(updateTask);
+    }
+    /**
+     * Lets the queued operations finish and disconnects, on a thread of its own, since
+     * shutting down the executor can wait for its shutdown timeout and the disconnect
+     * writes the buffered ratings; the window stays responsive meanwhile.
+     *
+     * @param onDisconnected Run on the FX thread when done, also after an error, e.g. to close the window.
+     */
+    public void exitButtonDisconnect(Runnable onDisconnected) {
+        stopLiveUpdates();
+        closePagedSearch();
+        Thread exit = new Thread(() -> {
+            // let queued operations finish before the client is closed
+            dbExecutor.shutdown();
+            try {
+                booksDb.disconnect();
+                System.out.println("disconnected from DB");
+                Platform.runLater(onDisconnected);
+            } catch (Exception e) {
+                Platform.runLater(() -> {
+                    booksView.showAlertAndWait("Error: " + e.getMessage(), ERROR);
+                    onDisconnected.run();
+                });
+            }
+        }, "books-db-exit");
+        exit.start();
     }
-    public void exitButtonDisconnect(){
+    /**
+     * Queues a database task on the executor, reporting to the user if the
+     * executor is saturated instead of starting yet another thread.
+     */
+    private Future<?> runAsync(Runnable task) {
         try {
-            booksDb.disconnect();
-            System.out.println("disconnected from DB");
-        } catch (Exception e) {
-            handleException(e);
+            return dbExecutor.submit(task);
+        } catch (RejectedExecutionException e) {
+            handleException(new BooksDbException("Too many pending database requests, try again", e));
+            return null;
         }
     }
+
     private void handleException(Exception e) {
         Platform.runLater(() -> {
             booksView.showAlertAndWait("Error: " + e.getMessage(), ERROR);
         });
     }
 
+    /**
+     * Changes the rating of a book. With a WriteBehindBooksDb this only buffers the
+     * change, so it is shown at once and written in the background.
+     */
     public void updateBookRating(Book book, int newRating) throws BooksDbException {
         booksDb.updateBookRating(book, newRating);
+        booksView.refreshBooks();
     }
 
 }
@@ -0,0 +1,169 @@
+package com.example.labb2dbt.view;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded execution layer for the database calls made by the controller.
+ * Instead of starting a new thread per request, all work is queued on a
+ * fixed pool of worker threads (platform or virtual) with a bounded queue.
+ * When both the workers and the queue are busy, the configured
+ * {@link RejectionPolicy} decides what happens to the new task.
+ */
+public class DbExecutor {
+
+    /**
+     * What to do with a task when all workers are busy and the queue is full.
+     */
+    public enum RejectionPolicy {
+        /** Refuse the new task, the caller gets a RejectedExecutionException. */
+        REJECT,
+        /** Run the new task on the calling thread, slowing the caller down. */
+        CALLER_RUNS,
+        /** Drop the oldest queued task to make room for the new one. */
+        DISCARD_OLDEST
+    }
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+    private final ThreadPoolExecutor executor;
+    private final long shutdownTimeoutMillis;
+
+    /**
+     * Constructs an executor with the default limits, platform worker threads
+     * and the REJECT policy.
+     */
+    public DbExecutor() {
+        this(DEFAULT_MAX_CONCURRENCY, DEFAULT_QUEUE_CAPACITY, RejectionPolicy.REJECT, false);
+    }
+
+    /**
+     * Constructs an executor with the given limits.
+     *
+     * @param maxConcurrency    The maximum number of tasks running at the same time.
+     * @param queueCapacity     The maximum number of tasks waiting for a worker.
+     * @param rejectionPolicy   What to do with tasks that do not fit in the queue.
+     * @param virtualThreads    {@code true} to run the workers on virtual threads.
+     */
+    public DbExecutor(int maxConcurrency, int queueCapacity, RejectionPolicy rejectionPolicy, boolean virtualThreads) {
+        if (maxConcurrency < 1) throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        if (queueCapacity < 1) throw new IllegalArgumentException("queueCapacity must be at least 1");
+
+        this.shutdownTimeoutMillis = DEFAULT_SHUTDOWN_TIMEOUT_MILLIS;
+        this.executor = new ThreadPoolExecutor(
+                maxConcurrency, maxConcurrency,
+                30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                createThreadFactory(virtualThreads),
+                createHandler(rejectionPolicy));
+        // let idle workers die so an idle client holds no threads
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory createThreadFactory(boolean virtualThreads) {
+        if (virtualThreads) {
+            return Thread.ofVirtual().name("books-db-", 0).factory();
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "books-db-" + counter.getAndIncrement());
+            thread.setDaemon(true); // never keep the JVM alive after the UI closed
+            return thread;
+        };
+    }
+
+    private static RejectedExecutionHandler createHandler(RejectionPolicy policy) {
+        switch (policy) {
+            case CALLER_RUNS:
+                return new ThreadPoolExecutor.CallerRunsPolicy();
+            case DISCARD_OLDEST:
+                return new ThreadPoolExecutor.DiscardOldestPolicy();
+            case REJECT:
+            default:
+                return new ThreadPoolExecutor.AbortPolicy();
+        }
+    }
+
+    /**
+     * Queues a task for execution on one of the workers.
+     *
+     * @param task The task to run.
+     * @return A future that can be used to cancel the task.
+     * @throws RejectedExecutionException If the task was rejected, either because the
+     *                                    queue is full or the executor has been shut down.
+     */
+    public Future<?> submit(Runnable task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Changes the maximum number of tasks running at the same time.
+     *
+     * @param maxConcurrency The new concurrency limit, at least 1.
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 1) throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        // keep core <= max during the transition
+        if (maxConcurrency > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(maxConcurrency);
+            executor.setCorePoolSize(maxConcurrency);
+        } else {
+            executor.setCorePoolSize(maxConcurrency);
+            executor.setMaximumPoolSize(maxConcurrency);
+        }
+    }
+
+    /**
+     * Gets the maximum number of tasks running at the same time.
+     *
+     * @return The concurrency limit.
+     */
+    public int getMaxConcurrency() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Gets the number of tasks currently waiting for a worker.
+     *
+     * @return The queue length.
+     */
+    public int getQueuedTaskCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Gets the number of tasks currently running.
+     *
+     * @return The number of active workers.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Stops accepting new tasks and waits for the queued and running ones to finish.
+     * Tasks still running after the shutdown timeout are interrupted.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Checks whether the executor has been shut down.
+     *
+     * @return {@code true} if no more tasks are accepted.
+     */
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+}
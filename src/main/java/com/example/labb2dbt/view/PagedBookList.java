@@ -0,0 +1,657 @@
+package com.example.labb2dbt.view;
+
+import com.example.labb2dbt.model.*;
+import javafx.collections.ObservableListBase;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The result of a search as a list the books table can show without reading it all.
+ * The list has the size of the whole result, from a count made in the background, but
+ * holds only the pages of it the table has asked for; a row that is not loaded yet is
+ * null and its page is read in the background, after which the row is replaced. If the
+ * database cannot count the result in time, the size grows instead: each full page
+ * read at the end of the list adds the rows of the next one.
+ * <p>
+ * Pages are read with keyset pagination, never by skipping books: a page is the query
+ * {@link BookQuery.Builder#after} the last book of the page before it, or the query in
+ * reverse order after the first book of the page after it, so the server reads it from
+ * the index on the sort field however far down the result it is. A page a few pages
+ * from one read before is reached by reading the pages in between. A page further away,
+ * e.g. after dragging the scroll bar, is read after a position estimated between the
+ * nearest known ones, and its rows are only as exact as the estimate. Pages read next
+ * to each other form a region; where a page is read next to a held page of another
+ * region, which may overlap it or leave a gap, the region not read from the start of
+ * the result is read again.
+ * <p>
+ * The next page is read ahead once the table shows the second half of a page, and the
+ * pages not used for the longest time are dropped when more than maxPages are held.
+ * The first and last books of every page read are kept, also across reloads, so the
+ * pages can be read again from the nearest of them.
+ * <p>
+ * All methods must be called on the FX thread.
+ */
+public class PagedBookList extends ObservableListBase<Book> {
+
+    public static final int DEFAULT_PAGE_SIZE = 200;
+    public static final int DEFAULT_MAX_PAGES = 25;
+    private static final int MAX_LOADING = 2; // pages read at the same time
+    private static final int MAX_WANTED = 4; // pages waiting to be read, the most recent first
+    private static final int MAX_WALK = 10; // pages read on the way to a page instead of estimating its position
+    private static final int RADIX = 128; // characters of an estimated string key, ASCII
+    private static final int DIGITS = 6;
+
+    /**
+     * Where a page read so far starts and ends in the order of the query, and the region
+     * of pages read next to each other it belongs to. Stale bounds were read before the
+     * last reload, they only serve as a place to start reading from.
+     */
+    private record Bounds(BookQuery.Position first, BookQuery.Position last, int count, int region, boolean stale) {
+    }
+
+    /**
+     * A known position and the row it is thought to be in.
+     */
+    private record Anchor(long index, BookQuery.Position position) {
+    }
+
+    private enum Direction {
+        After, Before, Estimated
+    }
+
+    /**
+     * How to read a page: After a position, or from the start if it is null; Before a
+     * position in reverse order; or after a position Estimated between two anchors, which
+     * are the first and the last book of the result if they are null.
+     */
+    private record Read(int page, Direction direction, BookQuery.Position from, Anchor low, Anchor high, int region) {
+    }
+
+    /**
+     * The books of a read, and whether they reach the start or the end of the result.
+     */
+    private record PageResult(List<Book> books, boolean atStart, boolean atEnd) {
+    }
+
+    private final BooksDbInterface booksDb;
+    private final BookQuery query;
+    private final BookProjection projection;
+    private final int pageSize;
+    private final int maxPages;
+    private final int maxSize;
+    private final Executor worker;
+    private final Executor fx;
+
+    private final LinkedHashMap<Integer, List<Book>> pages = new LinkedHashMap<>(16, 0.75f, true);
+    // the bounds of each page read, also of the dropped ones
+    private final TreeMap<Integer, Bounds> bounds = new TreeMap<>();
+    private final Set<Integer> loading = new HashSet<>();
+    private final Set<Integer> droppedRegions = new HashSet<>(); // reads of these are ignored
+    private int startRegion; // the region read from the start of the result
+    private int nextRegion = 1;
+    private final Deque<Integer> wanted = new ArrayDeque<>();
+    private int size;
+    private boolean sizeExact;
+    private int lastPage; // the page the table asked for most recently
+    private int generation; // responses of an earlier generation are dropped
+    private boolean failed;
+    private boolean closed;
+    private boolean reloadScheduled;
+
+    private Consumer<Exception> onError = e -> System.err.println(e.getMessage());
+    private Runnable onEmpty = () -> { };
+
+    /**
+     * Constructs a paged list with the default page size and number of pages held.
+     *
+     * @param booksDb The database to read the pages from.
+     * @param query   The search, ordered by Title if it has no order.
+     * @param worker  Runs the reads.
+     * @param fx      Runs the updates of the list on the FX thread.
+     */
+    public PagedBookList(BooksDbInterface booksDb, BookQuery query, Executor worker, Executor fx) {
+        this(booksDb, query, BookProjection.Summary, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES, worker, fx);
+    }
+
+    /**
+     * Constructs a paged list. Nothing is read until {@link #start} is called.
+     *
+     * @param booksDb    The database to read the pages from.
+     * @param query      The search, ordered by Title if it has no order; its limit caps the size.
+     * @param projection Which fields to load.
+     * @param pageSize   The number of books per page.
+     * @param maxPages   The number of pages held, at least 2.
+     * @param worker     Runs the reads.
+     * @param fx         Runs the updates of the list on the FX thread.
+     */
+    public PagedBookList(BooksDbInterface booksDb, BookQuery query, BookProjection projection,
+                         int pageSize, int maxPages, Executor worker, Executor fx) {
+        if (pageSize < 1) throw new IllegalArgumentException("pageSize must be at least 1");
+        if (maxPages < 2) throw new IllegalArgumentException("maxPages must be at least 2");
+        this.booksDb = booksDb;
+        this.query = query.getSortField() == null
+                ? query.toBuilder().sortBy(BookQuery.SortField.Title, false).build()
+                : query;
+        this.projection = projection;
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.maxSize = query.getLimit() == 0 ? Integer.MAX_VALUE : query.getLimit();
+        this.worker = worker;
+        this.fx = fx;
+    }
+
+    /**
+     * Sets what is done with the errors of the reads. The reads stop after an error
+     * until the list is reloaded.
+     *
+     * @param onError Receives each error, on the FX thread.
+     */
+    public void setOnError(Consumer<Exception> onError) {
+        this.onError = onError;
+    }
+
+    /**
+     * Sets what is done when the search finds no books.
+     *
+     * @param onEmpty Run on the FX thread.
+     */
+    public void setOnEmpty(Runnable onEmpty) {
+        this.onEmpty = onEmpty;
+    }
+
+    /**
+     * Gets the search the list shows, with its order.
+     *
+     * @return The query.
+     */
+    public BookQuery getQuery() {
+        return query;
+    }
+
+    /**
+     * Starts reading the first page and counting the books.
+     */
+    public void start() {
+        request(0);
+        count();
+    }
+
+    /**
+     * Stops reading pages and drops the pages held; the rows not shown yet stay empty.
+     */
+    public void close() {
+        closed = true;
+        generation++;
+        pages.clear();
+        wanted.clear();
+        loading.clear();
+    }
+
+    /**
+     * Reads the pages again, e.g. after books were changed in a way that may have moved
+     * or removed rows. The size is kept until the new count is known, so the table stays
+     * where it is, and the shown pages are read again from the positions known around
+     * them. Several reloads before the next pulse of the FX thread are one reload.
+     */
+    public void reload() {
+        if (closed || reloadScheduled) return;
+        reloadScheduled = true;
+        fx.execute(() -> {
+            reloadScheduled = false;
+            if (closed) return;
+            generation++;
+            pages.clear();
+            bounds.replaceAll((page, known) -> new Bounds(known.first(), known.last(), known.count(), known.region(), true));
+            loading.clear();
+            wanted.clear();
+            droppedRegions.clear();
+            failed = false;
+            sizeExact = false;
+            // the shown rows keep their books until their pages are read again
+            if (lastPage > 0) request(lastPage - 1);
+            if ((lastPage + 1) * pageSize < size) request(lastPage + 1);
+            request(lastPage);
+            count();
+        });
+    }
+
+    /**
+     * Gets the book of a row, reading its page in the background if it is not held.
+     *
+     * @param index The row.
+     * @return The book, or null until its page is read.
+     */
+    @Override
+    public Book get(int index) {
+        Objects.checkIndex(index, size);
+        int page = index / pageSize;
+        int offset = index % pageSize;
+        List<Book> books = pages.get(page);
+        lastPage = page;
+        if (books == null) {
+            request(page);
+            return null;
+        }
+        if (offset >= pageSize / 2 && (page + 1) * pageSize < size) {
+            request(page + 1);
+        }
+        return offset < books.size() ? books.get(offset) : null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the books of the pages held, in order, e.g. to choose from in a dialog.
+     *
+     * @return The books.
+     */
+    public List<Book> getLoadedBooks() {
+        List<Book> books = new ArrayList<>();
+        new TreeMap<>(pages).values().forEach(books::addAll);
+        return books;
+    }
+
+    /**
+     * Applies a change of a book: an update that keeps the book in its place replaces
+     * its row, an insert of a book the search does not match is ignored, and anything
+     * else reloads the list.
+     *
+     * @param change The change.
+     * @param filter The books the search matches, or null if unknown.
+     */
+    public void applyChange(BookChange change, Predicate<Book> filter) {
+        Book book = change.book();
+        if (change.kind() == BookChange.Kind.Insert && filter != null && !filter.test(book)) {
+            return;
+        }
+        if (change.kind() == BookChange.Kind.Update && change.previousIsbn() == null
+                && (filter == null || filter.test(book)) && replace(book)) {
+            return;
+        }
+        reload();
+    }
+
+    private boolean replace(Book book) {
+        for (Map.Entry<Integer, List<Book>> page : pages.entrySet()) {
+            List<Book> books = page.getValue();
+            for (int i = 0; i < books.size(); i++) {
+                Book old = books.get(i);
+                if (old.getIsbn().equals(book.getIsbn())) {
+                    if (!query.positionOf(old).equals(query.positionOf(book))) return false;
+                    books.set(i, book);
+                    int index = page.getKey() * pageSize + i;
+                    beginChange();
+                    nextSet(index, old);
+                    endChange();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void request(int page) {
+        if (closed || failed || pages.containsKey(page) || loading.contains(page)) return;
+        wanted.remove(page);
+        wanted.addFirst(page);
+        while (wanted.size() > MAX_WANTED) {
+            wanted.removeLast();
+        }
+        loadWanted();
+    }
+
+    private void loadWanted() {
+        for (int page : new ArrayList<>(wanted)) {
+            if (loading.size() >= MAX_LOADING) return;
+            if (pages.containsKey(page)) {
+                wanted.remove(page);
+                continue;
+            }
+            Read read = plan(page);
+            if (read == null) continue; // waits for a page next to it
+            if (read.page() == page) wanted.remove(page);
+            load(read);
+        }
+    }
+
+    /**
+     * Chooses how to read a page: next to a page read since the last reload, then next
+     * to one read before it, then by reading the pages on the way from the nearest one
+     * known, and only from further away at an estimated position.
+     *
+     * @return The read, which may be of a page on the way, or null to wait for a page
+     * next to it that is being read.
+     */
+    private Read plan(int page) {
+        Bounds below = bounds.get(page - 1);
+        Bounds above = bounds.get(page + 1);
+        if (below != null && !below.stale()) return new Read(page, Direction.After, below.last(), null, null, below.region());
+        if (above != null && !above.stale()) return new Read(page, Direction.Before, above.first(), null, null, above.region());
+        if (loading.contains(page - 1) || loading.contains(page + 1)) return null;
+        if (page == 0) return new Read(0, Direction.After, null, null, null, startRegion);
+        if (below != null) return new Read(page, Direction.After, below.last(), null, null, below.region());
+        if (above != null) return new Read(page, Direction.Before, above.first(), null, null, above.region());
+
+        Map.Entry<Integer, Bounds> lower = bounds.lowerEntry(page);
+        Map.Entry<Integer, Bounds> higher = bounds.higherEntry(page);
+        int fromLower = lower == null ? page + 1 : page - lower.getKey(); // the start is before page 0
+        int fromHigher = higher == null ? Integer.MAX_VALUE : higher.getKey() - page;
+        // the last book of a limited result is not the last of the query, so it is not estimated
+        if (Math.min(fromLower, fromHigher) <= MAX_WALK || query.getLimit() > 0) {
+            int step = fromLower <= fromHigher ? (lower == null ? 0 : lower.getKey() + 1) : higher.getKey() - 1;
+            return loading.contains(step) || pages.containsKey(step) ? null : plan(step);
+        }
+        Anchor low = lower == null ? null : new Anchor((long) lower.getKey() * pageSize + lower.getValue().count() - 1,
+                lower.getValue().last());
+        Anchor high = higher == null ? new Anchor(size - 1, null) : new Anchor((long) higher.getKey() * pageSize,
+                higher.getValue().first());
+        return new Read(page, Direction.Estimated, null, low, high, nextRegion++);
+    }
+
+    private void load(Read read) {
+        int page = read.page();
+        long start = (long) page * pageSize;
+        if (start >= maxSize) return;
+        int limit = (int) Math.min(pageSize, maxSize - start);
+        int current = generation;
+        loading.add(page);
+        try {
+            worker.execute(() -> {
+                try {
+                    PageResult result = read(read, limit);
+                    fx.execute(() -> loaded(current, read, result));
+                } catch (BooksDbException | RuntimeException e) {
+                    fx.execute(() -> failed(current, page, e));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // too busy now, the page is asked for again when its rows are shown
+            loading.remove(page);
+        }
+    }
+
+    private PageResult read(Read read, int limit) throws BooksDbException {
+        if (read.direction() == Direction.After) {
+            List<Book> books = readAfter(read.from(), limit);
+            return new PageResult(books, false, books.size() < limit);
+        }
+        if (read.direction() == Direction.Before) {
+            List<Book> books = readBefore(read.from(), limit);
+            return new PageResult(books, books.size() < limit, false);
+        }
+        Anchor low = read.low();
+        if (low == null) {
+            List<Book> first = readAfter(null, 1);
+            if (first.isEmpty()) return new PageResult(first, true, true);
+            low = new Anchor(0, query.positionOf(first.get(0)));
+        }
+        Anchor high = read.high();
+        if (high.position() == null) {
+            List<Book> last = readBefore(null, 1);
+            if (last.isEmpty()) return new PageResult(last, true, true);
+            high = new Anchor(high.index(), query.positionOf(last.get(0)));
+        }
+        long target = (long) read.page() * pageSize;
+        double fraction = high.index() <= low.index() ? 0
+                : Math.max(0, Math.min(1, (double) (target - low.index()) / (high.index() - low.index())));
+        List<Book> books = readAfter(estimate(low.position(), high.position(), fraction), limit);
+        if (books.size() < limit) {
+            // the estimate is too close to the end for a whole page, show the last books
+            books = readBefore(null, limit);
+            return new PageResult(books, books.size() < limit, true);
+        }
+        return new PageResult(books, false, false);
+    }
+
+    /**
+     * Reads the books after a position, or the first books if it is null.
+     */
+    private List<Book> readAfter(BookQuery.Position after, int limit) throws BooksDbException {
+        BookQuery pageQuery = query.toBuilder().skip(0).after(after).limit(limit).build();
+        List<Book> books = new ArrayList<>(limit);
+        booksDb.searchBooks(pageQuery, projection, limit, books::addAll);
+        return books;
+    }
+
+    /**
+     * Reads the books before a position, or the last books if it is null, in the order
+     * of the query. The reverse order is the query order reversed, ties included, so its
+     * books after the position are exactly those before it.
+     */
+    private List<Book> readBefore(BookQuery.Position before, int limit) throws BooksDbException {
+        BookQuery pageQuery = query.toBuilder().sortBy(query.getSortField(), !query.isDescending())
+                .skip(0).after(before).limit(limit).build();
+        List<Book> books = new ArrayList<>(limit);
+        booksDb.searchBooks(pageQuery, projection, limit, books::addAll);
+        Collections.reverse(books);
+        return books;
+    }
+
+    /**
+     * Estimates the position a fraction of the way from one position to another, by
+     * interpolating the sort keys, or the ISBNs where the keys are equal. The estimate
+     * is at the start of its key, so a read after it includes all books of that key.
+     */
+    private BookQuery.Position estimate(BookQuery.Position low, BookQuery.Position high, double fraction) {
+        Object from = low.key();
+        Object to = high.key();
+        String startOfKey = query.isDescending() ? "\uffff" : "";
+        if (Objects.equals(from, to)) {
+            return new BookQuery.Position(from, interpolate(low.isbn(), high.isbn(), fraction));
+        } else if (from instanceof Integer a && to instanceof Integer b) {
+            return new BookQuery.Position((int) Math.round(a + (b - a) * fraction), startOfKey);
+        } else if (from instanceof LocalDate a && to instanceof LocalDate b) {
+            long day = Math.round(a.toEpochDay() + (b.toEpochDay() - a.toEpochDay()) * fraction);
+            return new BookQuery.Position(LocalDate.ofEpochDay(day), startOfKey);
+        } else if (from instanceof String a && to instanceof String b) {
+            return new BookQuery.Position(interpolate(a, b, fraction), startOfKey);
+        }
+        // books without a release date sort first, read on from the nearest known position
+        return low;
+    }
+
+    /**
+     * Interpolates two strings, reading the characters after their common prefix as the
+     * digits of a fraction. Characters beyond ASCII count as the last ASCII character.
+     */
+    private static String interpolate(String from, String to, double fraction) {
+        int common = 0;
+        while (common < from.length() && common < to.length() && from.charAt(common) == to.charAt(common)) {
+            common++;
+        }
+        double a = digits(from, common);
+        double value = a + (digits(to, common) - a) * fraction;
+        StringBuilder result = new StringBuilder(from.substring(0, common));
+        for (int i = 0; i < DIGITS; i++) {
+            value *= RADIX;
+            int digit = Math.min(RADIX - 1, (int) value);
+            result.append((char) digit);
+            value -= digit;
+        }
+        int length = result.length();
+        while (length > common && result.charAt(length - 1) == 0) length--;
+        result.setLength(length);
+        return result.toString();
+    }
+
+    private static double digits(String s, int from) {
+        double value = 0;
+        double scale = 1;
+        for (int i = from; i < from + DIGITS && i < s.length(); i++) {
+            scale /= RADIX;
+            value += Math.min(RADIX - 1, s.charAt(i)) * scale;
+        }
+        return value;
+    }
+
+    private void failed(int current, int page, Exception e) {
+        if (current != generation) return;
+        loading.remove(page);
+        failed = true;
+        wanted.clear();
+        onError.accept(e);
+    }
+
+    private void loaded(int current, Read read, PageResult result) {
+        if (current != generation) return;
+        int page = read.page();
+        loading.remove(page);
+        if (droppedRegions.contains(read.region())) {
+            loadWanted();
+            return;
+        }
+        if (result.atStart() && page > 0) {
+            // fewer books before the page than its place says, e.g. after an estimate or
+            // deletes since the last reload; read the region again from other positions
+            dropRegion(read.region());
+            request(page);
+            return;
+        }
+        // a page next to it read from elsewhere may overlap it or leave a gap; the
+        // region read from the start is kept, otherwise the one read before
+        for (int neighbour : new int[]{page - 1, page + 1}) {
+            Bounds other = bounds.get(neighbour);
+            if (other == null || other.region() == read.region() || !pages.containsKey(neighbour)) continue;
+            if (other.region() == startRegion) {
+                dropRegion(read.region());
+                request(page);
+                return;
+            }
+            dropRegion(other.region());
+        }
+
+        List<Book> books = result.books();
+        int start = page * pageSize;
+        int end = start + books.size();
+        pages.put(page, books);
+        if (!books.isEmpty()) {
+            bounds.put(page, new Bounds(query.positionOf(books.get(0)), query.positionOf(books.get(books.size() - 1)),
+                    books.size(), read.region(), false));
+        }
+        evict(page);
+
+        int newSize = size;
+        if (books.isEmpty() && page > 0) {
+            // past the end, which is somewhere before this page
+            newSize = Math.min(size, start);
+        } else if (result.atEnd() || end >= maxSize) {
+            // the last page
+            newSize = end;
+            if (read.region() == startRegion) sizeExact = true;
+        } else if (end >= size) {
+            // the count was low, make room for the next page
+            newSize = (int) Math.min(maxSize, (long) end + pageSize);
+        }
+
+        beginChange();
+        int replaced = Math.min(end, size) - Math.min(start, size);
+        if (replaced > 0) {
+            nextReplace(start, start + replaced, Collections.<Book>nCopies(replaced, null));
+        }
+        resize(newSize);
+        endChange();
+        dropPagesFrom(newSize);
+
+        if (page == 0 && books.isEmpty()) {
+            onEmpty.run();
+        }
+        loadWanted();
+    }
+
+    /**
+     * Drops the pages and bounds of a region, whose rows become empty until they are read
+     * again next to another region.
+     */
+    private void dropRegion(int region) {
+        droppedRegions.add(region);
+        if (region == startRegion) startRegion = nextRegion++;
+        beginChange();
+        Iterator<Map.Entry<Integer, List<Book>>> held = pages.entrySet().iterator();
+        while (held.hasNext()) {
+            Map.Entry<Integer, List<Book>> page = held.next();
+            Bounds known = bounds.get(page.getKey());
+            if (known == null || known.region() != region) continue;
+            held.remove();
+            int start = page.getKey() * pageSize;
+            int rows = Math.min(page.getValue().size(), size - start);
+            if (rows > 0) {
+                nextReplace(start, start + rows, page.getValue().subList(0, rows));
+            }
+        }
+        endChange();
+        bounds.values().removeIf(known -> known.region() == region);
+    }
+
+    private void dropPagesFrom(int index) {
+        int firstDropped = (index + pageSize - 1) / pageSize;
+        pages.keySet().removeIf(page -> page >= firstDropped);
+        bounds.keySet().removeIf(page -> page >= firstDropped);
+    }
+
+    private void evict(int keep) {
+        Iterator<Integer> oldest = pages.keySet().iterator();
+        while (pages.size() > maxPages && oldest.hasNext()) {
+            if (oldest.next() != keep) oldest.remove();
+        }
+    }
+
+    // must be called between beginChange and endChange
+    private void resize(int newSize) {
+        if (newSize > size) {
+            int from = size;
+            size = newSize;
+            nextAdd(from, newSize);
+        } else if (newSize < size) {
+            List<Book> removed = new ArrayList<>(size - newSize);
+            for (int i = newSize; i < size; i++) {
+                List<Book> books = pages.get(i / pageSize);
+                removed.add(books != null && i % pageSize < books.size() ? books.get(i % pageSize) : null);
+            }
+            size = newSize;
+            nextRemove(newSize, removed);
+        }
+    }
+
+    private void count() {
+        int current = generation;
+        try {
+            worker.execute(() -> {
+                try {
+                    long count = booksDb.countBooks(query);
+                    fx.execute(() -> counted(current, count));
+                } catch (BooksDbException | RuntimeException e) {
+                    // the size then grows page by page
+                    System.err.println("Could not count the books: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            System.err.println("Could not count the books: " + e.getMessage());
+        }
+    }
+
+    private void counted(int current, long count) {
+        if (current != generation || sizeExact) return;
+        if (count == BooksDbInterface.UNKNOWN_COUNT) {
+            // the size keeps growing page by page
+            System.out.println("Could not count the books of " + query + " in time");
+            return;
+        }
+        int newSize = (int) Math.min(maxSize, count);
+        Integer lastRead = pages.isEmpty() ? null : Collections.max(pages.keySet());
+        if (lastRead != null) {
+            // a count may be an estimate, it cannot hide books already read
+            newSize = Math.max(newSize, lastRead * pageSize + pages.get(lastRead).size());
+        }
+        beginChange();
+        resize(newSize);
+        endChange();
+    }
+}
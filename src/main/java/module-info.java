@@ -5,11 +5,16 @@ module com.example.labb2dbt {
     requires org.mongodb.driver.core;
     requires org.mongodb.bson;
     requires org.mongodb.driver.sync.client;
+    requires org.mongodb.driver.reactivestreams;
+    requires org.reactivestreams;
     requires org.controlsfx.controls;
+    requires java.management;
+    requires jdk.httpserver;
 
 
     opens com.example.labb2dbt to javafx.fxml;
     opens com.example.labb2dbt.model to javafx.base;
+    exports com.example.labb2dbt.model to java.management; // the metrics MXBeans
     exports com.example.labb2dbt;
     exports com.example.labb2dbt.view;
 }
\ No newline at end of file
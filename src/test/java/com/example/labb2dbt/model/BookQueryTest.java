@@ -0,0 +1,260 @@
+package com.example.labb2dbt.model;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BookQueryTest {
+
+    // titles that are equal once normalized, so the ISBN has to break the ties
+    private static final String[] TITLES = {"Älva", "alva", "ALVA", "Berg", "berg", "Öar", "oar", "Dal"};
+    private static final LocalDate[] DATES = {null, LocalDate.of(1999, 1, 1), LocalDate.of(2010, 6, 15), LocalDate.of(2010, 6, 15)};
+
+    private final List<Book> catalogue = new ArrayList<>();
+    private InMemoryBooksDb memory;
+    private ListBooksDb list;
+
+    /**
+     * Keeps the books in a list and leaves the queries to the default methods of the
+     * interface, which filter and order in memory.
+     */
+    private static final class ListBooksDb implements BooksDbInterface {
+        private final List<Book> books;
+
+        ListBooksDb(List<Book> books) {
+            this.books = books;
+        }
+
+        private List<Book> matching(Predicate<Book> test) {
+            List<Book> result = new ArrayList<>();
+            for (Book book : books) {
+                if (test.test(book)) result.add(book);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean connect(String database, String username, String password) {
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void addBook(Book book) {
+            books.add(book);
+        }
+
+        @Override
+        public void addAuthor(Author author) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void updateBook(String id, Book book) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deleteBook(Book book) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void updateBookRating(Book book, int newRating) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Book> searchBooksByAuthor(String author) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<Book> searchBooksByGenre(String genre) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<Book> searchBooksByTitle(String title) {
+            return matching(book -> book.getTitle() != null && book.getTitle().contains(title));
+        }
+
+        @Override
+        public List<Book> searchBooksByISBN(String isbn) {
+            return matching(book -> book.getIsbn().contains(isbn));
+        }
+
+        @Override
+        public List<Book> searchBooksByRating(String rating) {
+            return matching(book -> String.valueOf(book.getRating()).equals(rating));
+        }
+
+        @Override
+        public List<Author> getAllAuthors() {
+            return new ArrayList<>();
+        }
+    }
+
+    @BeforeEach
+    void fill() throws BooksDbException {
+        Random random = new Random(11);
+        for (int i = 0; i < 120; i++) {
+            catalogue.add(Book.builder()
+                    .isbn(String.format("978%010d", random.nextInt(1_000_000)))
+                    .title(TITLES[random.nextInt(TITLES.length)])
+                    .published(DATES[random.nextInt(DATES.length)])
+                    .rating(1 + random.nextInt(5))
+                    .build());
+        }
+        // ISBNs must be unique
+        Set<String> seen = new HashSet<>();
+        catalogue.removeIf(book -> !seen.add(book.getIsbn()));
+
+        memory = new InMemoryBooksDb();
+        memory.connect("test", "", "");
+        for (Book book : catalogue) memory.addBook(book.toBuilder().build());
+        list = new ListBooksDb(new ArrayList<>(catalogue));
+    }
+
+    @AfterEach
+    void disconnect() {
+        memory.disconnect();
+    }
+
+    private static List<String> isbns(List<Book> books) {
+        return books.stream().map(Book::getIsbn).toList();
+    }
+
+    private static List<Book> search(BooksDbInterface db, BookQuery query, int batchSize) throws BooksDbException {
+        List<Book> result = new ArrayList<>();
+        db.searchBooks(query, BookProjection.Summary, batchSize, result::addAll);
+        return result;
+    }
+
+    /**
+     * Reads all books of a query page by page, each page after the last book of the one before.
+     */
+    private static List<Book> readPages(BooksDbInterface db, BookQuery query, int pageSize) throws BooksDbException {
+        List<Book> all = new ArrayList<>();
+        BookQuery page = query.toBuilder().limit(pageSize).build();
+        while (true) {
+            List<Book> books = search(db, page, 7);
+            all.addAll(books);
+            if (books.size() < pageSize) return all;
+            page = page.toBuilder().after(query.positionOf(books.get(books.size() - 1))).build();
+        }
+    }
+
+    private List<Book> sorted(BookQuery query) throws BooksDbException {
+        Predicate<Book> matcher = query.matcher();
+        List<Book> expected = new ArrayList<>();
+        for (Book book : catalogue) {
+            if (matcher.test(book)) expected.add(book);
+        }
+        expected.sort(query.comparator());
+        return expected;
+    }
+
+    @Test
+    void descendingIsTheAscendingOrderReversed() {
+        for (BookQuery.SortField field : BookQuery.SortField.values()) {
+            List<Book> ascending = new ArrayList<>(catalogue);
+            ascending.sort(BookQuery.builder().sortBy(field, false).build().comparator());
+            List<Book> descending = new ArrayList<>(catalogue);
+            descending.sort(BookQuery.builder().sortBy(field, true).build().comparator());
+
+            Collections.reverse(descending);
+            assertEquals(isbns(ascending), isbns(descending), field.name());
+        }
+    }
+
+    @Test
+    void tiesAreBrokenByIsbn() {
+        BookQuery query = BookQuery.builder().sortBy(BookQuery.SortField.Title, false).build();
+        // "alva" comes before "älva", so only the ISBN puts the accented title first
+        Book first = new Book("9780000000001", "Älva", null);
+        Book second = new Book("9780000000002", "ALVA", null);
+
+        assertEquals(List.of(first, second), sort(query, second, first));
+        BookQuery descending = query.toBuilder().sortBy(BookQuery.SortField.Title, true).build();
+        assertEquals(List.of(second, first), sort(descending, first, second));
+    }
+
+    private static List<Book> sort(BookQuery query, Book... books) {
+        List<Book> result = new ArrayList<>(List.of(books));
+        result.sort(query.comparator());
+        return result;
+    }
+
+    @Test
+    void isAfterPositionAgreesWithTheComparator() {
+        for (BookQuery.SortField field : BookQuery.SortField.values()) {
+            for (boolean descending : new boolean[]{false, true}) {
+                BookQuery ordered = BookQuery.builder().sortBy(field, descending).build();
+                Comparator<Book> order = ordered.comparator();
+                for (Book at : catalogue) {
+                    BookQuery after = ordered.toBuilder().after(ordered.positionOf(at)).build();
+                    for (Book book : catalogue) {
+                        assertEquals(order.compare(book, at) > 0, after.isAfterPosition(book),
+                                field + (descending ? " desc " : " ") + book + " after " + at);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void keysetPagesReadEveryBookOnceInOrder() throws BooksDbException {
+        List<BookQuery> queries = new ArrayList<>();
+        for (BookQuery.SortField field : BookQuery.SortField.values()) {
+            for (boolean descending : new boolean[]{false, true}) {
+                queries.add(BookQuery.builder().sortBy(field, descending).build());
+                queries.add(BookQuery.builder().ratingBetween(2, 4).sortBy(field, descending).build());
+                queries.add(BookQuery.builder().title(MatchMode.NormalizedPrefix, "alv").sortBy(field, descending).build());
+            }
+        }
+        for (BookQuery query : queries) {
+            List<String> expected = isbns(sorted(query));
+            for (int pageSize : new int[]{1, 5, 16, 1000}) {
+                assertEquals(expected, isbns(readPages(memory, query, pageSize)), query + " in memory, pages of " + pageSize);
+                assertEquals(expected, isbns(readPages(list, query, pageSize)), query + " by default, pages of " + pageSize);
+            }
+            assertEquals(expected.size(), memory.countBooks(query), query.toString());
+            assertEquals(expected.size(), list.countBooks(query), query.toString());
+        }
+    }
+
+    @Test
+    void skipAndLimitCutTheOrderedResult() throws BooksDbException {
+        BookQuery query = BookQuery.builder().sortBy(BookQuery.SortField.Rating, true).skip(10).limit(25).build();
+        List<String> all = isbns(sorted(query));
+
+        List<String> expected = all.subList(10, 35);
+        assertEquals(expected, isbns(search(memory, query, 4)));
+        assertEquals(expected, isbns(search(list, query, 4)));
+    }
+
+    @Test
+    void aPositionNeedsAnOrder() {
+        assertThrows(IllegalArgumentException.class,
+                () -> BookQuery.builder().after(new BookQuery.Position(3, "9780000000001")).build());
+        assertThrows(IllegalStateException.class,
+                () -> BookQuery.builder().build().positionOf(catalogue.get(0)));
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.labb2dbt.model;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CachingBooksDbTest {
+
+    private InMemoryBooksDb memory;
+    private CachingBooksDb cache;
+
+    @BeforeEach
+    void connect() throws BooksDbException {
+        memory = new InMemoryBooksDb();
+        cache = new CachingBooksDb(memory);
+        cache.connect("test", "", "");
+        cache.addBook(book("9780000000001", "Alva", 3));
+        cache.addBook(book("9780000000002", "Alvar", 4));
+        cache.addBook(book("9780000000003", "Alvin", 5));
+        cache.addBook(book("9780000000004", "Berg", 2));
+    }
+
+    @AfterEach
+    void disconnect() throws BooksDbException {
+        cache.disconnect();
+    }
+
+    private static Book book(String isbn, String title, int rating) {
+        return Book.builder()
+                .isbn(isbn)
+                .title(title)
+                .published(LocalDate.of(2000, 1, 1))
+                .rating(rating)
+                .build();
+    }
+
+    private static List<String> isbns(BooksDbInterface db, BookQuery query) throws BooksDbException {
+        List<String> isbns = new ArrayList<>();
+        db.searchBooks(query, BookProjection.Summary, 1, batch -> batch.forEach(book -> isbns.add(book.getIsbn())));
+        return isbns;
+    }
+
+    /**
+     * Checks that the cache answers a page and a count like the store behind it, and
+     * whether it answered the page and the count from its entries.
+     */
+    private void assertCached(BookQuery query, boolean page, boolean count) throws BooksDbException {
+        long hits = cache.getHitCount();
+        assertEquals(isbns(memory, query), isbns(cache, query), query.toString());
+        assertEquals(hits + (page ? 1 : 0), cache.getHitCount(), "page of " + query);
+        assertEquals(memory.countBooks(query), cache.countBooks(query), query.toString());
+        assertEquals(hits + (page ? 1 : 0) + (count ? 1 : 0), cache.getHitCount(), "count of " + query);
+    }
+
+    @Test
+    void pagesAndCountsAreCachedUntilAWriteChangesThem() throws BooksDbException {
+        BookQuery first = BookQuery.builder().title(MatchMode.NormalizedPrefix, "alv")
+                .sortBy(BookQuery.SortField.Title, false).limit(2).build();
+        BookQuery second = first.toBuilder().after(first.positionOf(book("9780000000002", "Alvar", 4))).build();
+        assertCached(first, false, false);
+        assertCached(second, false, false);
+        assertCached(first, true, true);
+
+        // neither matches nor is on the pages
+        cache.addBook(book("9780000000005", "Dal", 1));
+        assertCached(first, true, true);
+        // the old version is not known, so it may have been counted
+        cache.updateBook("9780000000004", book("9780000000004", "Berget", 2));
+        assertCached(second, true, false);
+        assertCached(second, true, true);
+
+        // matches, and lands on the first page
+        cache.addBook(book("9780000000006", "Alv", 1));
+        assertCached(first, false, false);
+        assertCached(second, false, false);
+
+        // on the second page only, the first page ends before it
+        cache.deleteBook(book("9780000000003", "Alvin", 5));
+        assertCached(first, true, false);
+        assertCached(second, false, false);
+    }
+
+    @Test
+    void ratingChangesDropTheQueriesOnRatings() throws BooksDbException {
+        BookQuery byTitle = BookQuery.builder().title(MatchMode.NormalizedPrefix, "alv")
+                .sortBy(BookQuery.SortField.Title, false).limit(1).build();
+        BookQuery byRating = BookQuery.builder().sortBy(BookQuery.SortField.Rating, true).limit(1).build();
+        assertCached(byTitle, false, false);
+        assertCached(byRating, false, false);
+
+        // the book is on neither page, but moves to the top of the ratings
+        cache.updateBookRating(book("9780000000004", "Berg", 2), 5);
+        assertCached(byTitle, true, false);
+        assertCached(byRating, false, false);
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.labb2dbt.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FullTextIndexTest {
+
+    private static final String[] WORDS = {
+            "river", "mountain", "dragon", "castle", "winter", "garden", "shadow", "ocean", "forest", "king",
+            "queen", "sword", "stone", "fire", "storm", "island", "night", "silver", "secret", "journey",
+            "war", "peace", "city", "desert", "moon", "star", "road", "bridge", "tower", "wolf"};
+
+    @TempDir
+    Path directory;
+
+    /**
+     * The title and story line of the books in an index, to score them the slow way.
+     */
+    private static final class Corpus {
+        final Map<String, String[]> books = new LinkedHashMap<>();
+
+        void add(FullTextIndex index, String isbn, String title, String storyLine) {
+            books.put(isbn, new String[]{title, storyLine});
+            index.add(isbn, title, storyLine);
+        }
+
+        void remove(FullTextIndex index, String isbn) {
+            books.remove(isbn);
+            index.remove(isbn);
+        }
+
+        /**
+         * Scores every book like BM25 with title words counted three times.
+         */
+        Map<String, Double> scores(String query) {
+            Map<String, Map<String, Integer>> frequencies = new HashMap<>();
+            Map<String, Integer> lengths = new HashMap<>();
+            Map<String, Integer> documentFrequencies = new HashMap<>();
+            long total = 0;
+            for (Map.Entry<String, String[]> book : books.entrySet()) {
+                Map<String, Integer> tf = new HashMap<>();
+                int length = 0;
+                for (String term : FullTextIndex.tokenize(book.getValue()[0])) {
+                    tf.merge(term, 3, Integer::sum);
+                    length += 3;
+                }
+                for (String term : FullTextIndex.tokenize(book.getValue()[1])) {
+                    tf.merge(term, 1, Integer::sum);
+                    length++;
+                }
+                frequencies.put(book.getKey(), tf);
+                lengths.put(book.getKey(), length);
+                total += length;
+                tf.keySet().forEach(term -> documentFrequencies.merge(term, 1, Integer::sum));
+            }
+            int n = books.size();
+            double average = Math.max(1.0, (double) total / n);
+            Map<String, Double> scores = new HashMap<>();
+            for (String isbn : books.keySet()) {
+                double score = 0;
+                boolean found = false;
+                for (String term : new LinkedHashSet<>(FullTextIndex.tokenize(query))) {
+                    Integer tf = frequencies.get(isbn).get(term);
+                    if (tf == null) continue;
+                    found = true;
+                    int df = documentFrequencies.get(term);
+                    double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+                    double norm = FullTextIndex.K1 * (1 - FullTextIndex.B + FullTextIndex.B * lengths.get(isbn) / average);
+                    score += idf * tf * (FullTextIndex.K1 + 1) / (tf + norm);
+                }
+                if (found) scores.put(isbn, score);
+            }
+            return scores;
+        }
+    }
+
+    private static String words(Random random, int min, int max) {
+        int count = min + random.nextInt(max - min + 1);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) text.append(' ');
+            // a skewed choice, so some words are much rarer than others
+            text.append(WORDS[(int) (WORDS.length * Math.pow(random.nextDouble(), 2))]);
+        }
+        return text.toString();
+    }
+
+    private static Corpus fill(FullTextIndex index, int books, long seed) {
+        Random random = new Random(seed);
+        Corpus corpus = new Corpus();
+        for (int i = 0; i < books; i++) {
+            corpus.add(index, String.format("978%010d", i), words(random, 1, 4), words(random, 5, 30));
+        }
+        return corpus;
+    }
+
+    /**
+     * Checks that a search finds the best books with their BM25 scores, best first.
+     */
+    private static void assertRanking(Corpus corpus, FullTextIndex index, String query, int limit) {
+        Map<String, Double> expected = corpus.scores(query);
+        List<Double> best = new ArrayList<>(expected.values());
+        best.sort((a, b) -> Double.compare(b, a));
+        List<FullTextIndex.Hit> hits = index.search(query, limit);
+
+        assertEquals(Math.min(limit, expected.size()), hits.size(), query);
+        for (int i = 0; i < hits.size(); i++) {
+            FullTextIndex.Hit hit = hits.get(i);
+            assertTrue(expected.containsKey(hit.isbn()), query);
+            assertEquals(expected.get(hit.isbn()), hit.score(), 1e-9, query);
+            // the same score as the i-th best book, which may be another one with an equal score
+            assertEquals(best.get(i), hit.score(), 1e-9, query);
+        }
+    }
+
+    @Test
+    void tokenizeStemsAndDropsStopWords() {
+        assertEquals(List.of("river", "dragon"), FullTextIndex.tokenize("The Rivers of the Dragons"));
+        assertEquals(List.of(), FullTextIndex.tokenize(null));
+        assertEquals(List.of(), FullTextIndex.tokenize("and the of"));
+    }
+
+    @Test
+    void titleWordsRankAboveStoryWords() {
+        FullTextIndex index = new FullTextIndex();
+        index.add("1", "Dragon", "A story about a castle by the sea.");
+        index.add("2", "Castle", "A story about a dragon by the sea.");
+        index.add("3", "Garden", "Nothing to see here.");
+
+        List<FullTextIndex.Hit> hits = index.search("dragons", 10);
+
+        assertEquals(List.of("1", "2"), hits.stream().map(FullTextIndex.Hit::isbn).toList());
+        assertTrue(hits.get(0).score() > hits.get(1).score());
+    }
+
+    @Test
+    void rareWordsWeighMore() {
+        FullTextIndex index = new FullTextIndex();
+        index.add("1", "Winter", "winter winter");
+        index.add("2", "Winter", "winter storm");
+        index.add("3", "Winter", "winter");
+        index.add("4", "Summer", "winter");
+
+        // storm is in one book, winter in all of them
+        assertEquals("2", index.search("winter storm", 1).get(0).isbn());
+    }
+
+    @Test
+    void searchMatchesBm25() {
+        FullTextIndex index = new FullTextIndex();
+        Corpus corpus = fill(index, 3000, 42);
+
+        for (String query : List.of("river", "dragon castle", "wolf", "war and peace", "silver moon tower bridge",
+                "river mountain dragon castle winter garden")) {
+            for (int limit : new int[]{1, 10, 100, 5000}) {
+                assertRanking(corpus, index, query, limit);
+            }
+        }
+        assertEquals(List.of(), index.search("unicorn", 10));
+        assertEquals(List.of(), index.search("the", 10));
+        assertEquals(List.of(), index.search("river", 0));
+    }
+
+    @Test
+    void removedBooksAreNotFound() {
+        FullTextIndex index = new FullTextIndex();
+        index.add("1", "Dragon", null);
+        index.add("2", "Dragon castle", null);
+        index.remove("1");
+        index.remove("3");
+
+        assertEquals(List.of("2"), index.search("dragon", 10).stream().map(FullTextIndex.Hit::isbn).toList());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void removalGapsAreRewritten() {
+        FullTextIndex index = new FullTextIndex();
+        Corpus corpus = fill(index, 2000, 7);
+        long bytes = index.getPostingBytes();
+
+        // just over a quarter of the documents, so the last removal rewrites the lists
+        for (int i = 0; i <= 500; i++) {
+            corpus.remove(index, String.format("978%010d", i * 3));
+        }
+
+        assertEquals(1499, index.size());
+        assertTrue(index.getPostingBytes() < bytes);
+        for (String query : List.of("river", "dragon castle", "wolf desert")) {
+            assertRanking(corpus, index, query, 20);
+            assertRanking(corpus, index, query, 2000);
+        }
+
+        // the renumbered documents can still be replaced and removed
+        corpus.add(index, String.format("978%010d", 1), "Unicorn", "a unicorn");
+        corpus.remove(index, String.format("978%010d", 2));
+        assertEquals(List.of(String.format("978%010d", 1)),
+                index.search("unicorn", 10).stream().map(FullTextIndex.Hit::isbn).toList());
+        assertEquals(1498, index.size());
+    }
+
+    @Test
+    void updateFollowsARename() {
+        FullTextIndex index = new FullTextIndex();
+        index.add("1", "Dragon", null);
+        index.add("2", "Castle", null);
+
+        index.update("1", new Book("3", "Dragon castle", null));
+
+        assertEquals(Set.of("2", "3"), index.search("castle", 10).stream().map(FullTextIndex.Hit::isbn).collect(Collectors.toSet()));
+        assertEquals(List.of("3"), index.search("dragon", 10).stream().map(FullTextIndex.Hit::isbn).toList());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void saveAndLoadGiveTheSameResults() throws IOException {
+        FullTextIndex index = new FullTextIndex();
+        fill(index, 1500, 3);
+        // a few gaps that are saved with the index
+        for (int i = 0; i < 100; i++) {
+            index.remove(String.format("978%010d", i * 7));
+        }
+        assertTrue(index.isDirty());
+        Path file = directory.resolve("books.fti");
+
+        index.save(file);
+        FullTextIndex loaded = FullTextIndex.load(file);
+
+        assertFalse(index.isDirty());
+        assertFalse(loaded.isDirty());
+        assertEquals(index.size(), loaded.size());
+        assertEquals(index.getTermCount(), loaded.getTermCount());
+        for (String query : List.of("river", "dragon castle", "silver moon tower bridge")) {
+            assertEquals(index.search(query, 50), loaded.search(query, 50));
+        }
+
+        // the loaded index takes more books after the saved ones
+        index.add("new", "Unicorn", null);
+        loaded.add("new", "Unicorn", null);
+        assertTrue(loaded.isDirty());
+        assertEquals(index.search("unicorn river", 50), loaded.search("unicorn river", 50));
+    }
+
+    @Test
+    void loadRejectsAnotherFile() throws IOException {
+        Path file = directory.resolve("other.fti");
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        assertThrows(IOException.class, () -> FullTextIndex.load(file));
+    }
+}
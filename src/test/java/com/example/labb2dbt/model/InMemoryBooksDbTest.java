@@ -0,0 +1,67 @@
+package com.example.labb2dbt.model;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class InMemoryBooksDbTest {
+
+    private InMemoryBooksDb db;
+
+    @BeforeEach
+    void connect() {
+        db = new InMemoryBooksDb();
+        db.connect("test", "", "");
+    }
+
+    @AfterEach
+    void disconnect() {
+        db.disconnect();
+    }
+
+    private static Book book(String isbn, String title) {
+        return Book.builder()
+                .isbn(isbn)
+                .title(title)
+                .published(LocalDate.of(2000, 1, 1))
+                .storyLine("The story of " + title)
+                .rating(1)
+                .build();
+    }
+
+    private static List<String> rankedIsbns(BooksDbInterface db, String query) throws BooksDbException {
+        List<String> isbns = db.searchBooksByText(query, 10).stream().map(Book::getIsbn).toList();
+        List<String> searched = new ArrayList<>();
+        db.searchBooks(SearchMode.FullText, MatchMode.Substring, query, BookProjection.Summary, 1,
+                batch -> batch.forEach(book -> searched.add(book.getIsbn())));
+        assertEquals(isbns, searched, query);
+        return isbns;
+    }
+
+    @Test
+    void fullTextSearchesFollowTheWrites() throws BooksDbException {
+        db.addBook(book("9780000000001", "River Song"));
+        db.addBook(book("9780000000002", "Mountain Pass"));
+        db.addBook(book("9780000000003", "Rivers of Stone and Sand"));
+        assertEquals(List.of("9780000000001", "9780000000003"), rankedIsbns(db, "river"));
+
+        // written after the index was built
+        db.addBook(book("9780000000004", "Down the River"));
+        db.updateBook("9780000000001", book("9780000000011", "Lake Song"));
+        db.deleteBook(book("9780000000003", "Rivers of Stone and Sand"));
+        assertEquals(List.of("9780000000004"), rankedIsbns(db, "river"));
+        assertEquals(List.of("9780000000011"), rankedIsbns(db, "lake"));
+
+        // the books, and so the index, are kept while the store is closed
+        db.disconnect();
+        db.connect("test", "", "");
+        assertEquals(List.of("9780000000004"), rankedIsbns(db, "river"));
+        assertEquals(List.of(), rankedIsbns(db, "stone"));
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.labb2dbt.model;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalBooksDbTest {
+
+    private static final String DATABASE = "books";
+
+    @TempDir
+    Path directory;
+
+    private LocalBooksDb db;
+
+    @BeforeEach
+    void connect() throws BooksDbException {
+        db = open();
+    }
+
+    @AfterEach
+    void disconnect() throws BooksDbException {
+        db.disconnect();
+    }
+
+    private LocalBooksDb open() throws BooksDbException {
+        LocalBooksDb opened = new LocalBooksDb(directory);
+        opened.setSyncOnWrite(false);
+        // compactions only when a test asks for them
+        opened.setCompactionMinDeadBytes(Long.MAX_VALUE);
+        opened.connect(DATABASE, "", "");
+        return opened;
+    }
+
+    private void reopen() throws BooksDbException {
+        db.disconnect();
+        db = open();
+    }
+
+    private Path logFile() {
+        return directory.resolve(DATABASE + ".log");
+    }
+
+    private static Book book(String isbn, String title, int rating) {
+        return Book.builder()
+                .isbn(isbn)
+                .title(title)
+                .published(LocalDate.of(2000, 1, 1))
+                .storyLine("The story of " + title)
+                .rating(rating)
+                .build();
+    }
+
+    /**
+     * Gets the title and rating of every book, by ISBN.
+     */
+    private static Map<String, String> contents(BooksDbInterface db) throws BooksDbException {
+        Map<String, String> contents = new TreeMap<>();
+        db.searchBooks(BookQuery.builder().build(), BookProjection.Full, 100, batch -> {
+            for (Book book : batch) contents.put(book.getIsbn(), book.getTitle() + "/" + book.getRating());
+        });
+        return contents;
+    }
+
+    @Test
+    void replayCutsOffATornTail() throws BooksDbException, IOException {
+        for (int i = 0; i < 3; i++) {
+            db.addBook(book("978000000000" + i, "Book " + i, 1));
+        }
+        db.disconnect();
+        long complete = Files.size(logFile());
+
+        // a record whose payload never reached the disk
+        try (FileChannel channel = FileChannel.open(logFile(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(13).putInt(100).putInt(0).put((byte) 1).putInt(42).flip());
+        }
+        db = open();
+
+        assertEquals(3, db.getBookCount());
+        assertEquals(complete, Files.size(logFile()));
+
+        db.addBook(book("9780000000003", "Book 3", 2));
+        reopen();
+        assertEquals(4, db.getBookCount());
+        assertEquals("Book 3/2", contents(db).get("9780000000003"));
+    }
+
+    @Test
+    void replayStopsAtACorruptRecord() throws BooksDbException, IOException {
+        db.addBook(book("9780000000001", "First", 1));
+        db.disconnect();
+        long first = Files.size(logFile());
+        db = open();
+        db.addBook(book("9780000000002", "Second", 1));
+        db.disconnect();
+
+        // flip the last byte of the second record, as if its write was torn
+        try (FileChannel channel = FileChannel.open(logFile(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long last = channel.size() - 1;
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, last);
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) (b.get(0) ^ 0xFF)}), last);
+        }
+        db = open();
+
+        assertEquals(Map.of("9780000000001", "First/1"), contents(db));
+        assertEquals(first, Files.size(logFile()));
+    }
+
+    @Test
+    void connectRejectsAFileThatIsNotALog() throws BooksDbException, IOException {
+        db.disconnect();
+        Files.write(directory.resolve("other.log"), new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+        LocalBooksDb other = new LocalBooksDb(directory);
+
+        assertThrows(BooksDbException.class, () -> other.connect("other", "", ""));
+    }
+
+    @Test
+    void compactionKeepsOnlyTheLiveRecords() throws BooksDbException {
+        db.addBook(book("9780000000001", "Kept", 1));
+        db.addBook(book("9780000000002", "Deleted", 1));
+        for (int rating = 2; rating <= 5; rating++) {
+            db.updateBookRatings(Map.of("9780000000001", rating));
+        }
+        db.deleteBook(book("9780000000002", "Deleted", 1));
+        Map<String, String> before = contents(db);
+        assertTrue(db.getDeadBytes() > 0);
+
+        db.compact();
+
+        assertEquals(0, db.getDeadBytes());
+        assertEquals(before, contents(db));
+        reopen();
+        assertEquals(before, contents(db));
+        assertEquals(0, db.getDeadBytes());
+    }
+
+    @Test
+    void compactionKeepsTheWritesMadeWhileItRuns() throws Exception {
+        int books = 200;
+        for (int i = 0; i < books; i++) {
+            db.addBook(book(String.format("978%010d", i), "Book " + i, 1));
+        }
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Map<String, String> expected = new TreeMap<>();
+        CountDownLatch started = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            try {
+                int round = 0;
+                while (!stop.get() || round < 10) {
+                    round++;
+                    for (int i = round % 7; i < books; i += 7) {
+                        String isbn = String.format("978%010d", i);
+                        int rating = round % 5 + 1;
+                        if (db.updateBookRatings(Map.of(isbn, rating)) == 1) {
+                            synchronized (expected) {
+                                expected.put(isbn, "Book " + i + "/" + rating);
+                            }
+                        }
+                    }
+                    String added = String.format("979%010d", round);
+                    db.addBook(book(added, "Added " + round, 3));
+                    synchronized (expected) {
+                        expected.put(added, "Added " + round + "/3");
+                    }
+                    started.countDown();
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+                started.countDown();
+            }
+        });
+
+        Map<String, String> initial = contents(db);
+        writer.start();
+        started.await();
+        for (int i = 0; i < 20; i++) {
+            db.compact();
+        }
+        stop.set(true);
+        writer.join();
+        assertNull(failure.get());
+
+        Map<String, String> all = new TreeMap<>(initial);
+        all.putAll(expected);
+        assertEquals(all, contents(db));
+        reopen();
+        assertEquals(all, contents(db));
+        db.compact();
+        assertEquals(all, contents(db));
+    }
+
+    @Test
+    void renamesSurviveCompaction() throws BooksDbException {
+        db.addBook(book("9780000000001", "Renamed", 1));
+        db.addBook(book("9780000000002", "Other", 1));
+
+        // rename, then reuse the old ISBN for another book
+        db.updateBook("9780000000001", book("9780000000011", "Renamed", 2));
+        db.addBook(book("9780000000001", "Reused", 4));
+        // rename back and forth
+        db.updateBook("9780000000002", book("9780000000022", "Other", 3));
+        db.updateBook("9780000000022", book("9780000000002", "Other", 5));
+        Map<String, String> expected = Map.of(
+                "9780000000001", "Reused/4",
+                "9780000000002", "Other/5",
+                "9780000000011", "Renamed/2");
+        assertEquals(expected, contents(db));
+
+        db.compact();
+        assertEquals(expected, contents(db));
+        reopen();
+        assertEquals(expected, contents(db));
+
+        // a rename after the compaction replays over the compacted log
+        db.updateBook("9780000000011", book("9780000000033", "Renamed", 2));
+        db.compact();
+        reopen();
+        assertEquals(Map.of(
+                "9780000000001", "Reused/4",
+                "9780000000002", "Other/5",
+                "9780000000033", "Renamed/2"), contents(db));
+    }
+
+    @Test
+    void renameToAnExistingIsbnIsRejected() throws BooksDbException {
+        db.addBook(book("9780000000001", "First", 1));
+        db.addBook(book("9780000000002", "Second", 1));
+
+        assertThrows(BooksDbException.class,
+                () -> db.updateBook("9780000000001", book("9780000000002", "First", 1)));
+        List<String> isbns = new ArrayList<>(contents(db).keySet());
+        assertEquals(List.of("9780000000001", "9780000000002"), isbns);
+    }
+
+    private static List<String> rankedIsbns(BooksDbInterface db, String query) throws BooksDbException {
+        List<String> isbns = db.searchBooksByText(query, 10).stream().map(Book::getIsbn).toList();
+        List<String> searched = new ArrayList<>();
+        db.searchBooks(SearchMode.FullText, MatchMode.Substring, query, BookProjection.Summary, 1,
+                batch -> batch.forEach(book -> searched.add(book.getIsbn())));
+        assertEquals(isbns, searched, query);
+        return isbns;
+    }
+
+    @Test
+    void fullTextSearchesFollowTheWrites() throws BooksDbException {
+        db.addBook(book("9780000000001", "River Song", 1));
+        db.addBook(book("9780000000002", "Mountain Pass", 1));
+        db.addBooks(List.of(book("9780000000003", "Rivers of Stone and Sand", 1)));
+        assertEquals(List.of("9780000000001", "9780000000003"), rankedIsbns(db, "river"));
+
+        // written after the index was built
+        db.addBook(book("9780000000004", "Down the River", 2));
+        db.updateBook("9780000000001", book("9780000000011", "Lake Song", 1));
+        db.deleteBook(book("9780000000003", "Rivers of Stone and Sand", 1));
+        assertEquals(List.of("9780000000004"), rankedIsbns(db, "river"));
+        assertEquals(List.of("9780000000011"), rankedIsbns(db, "lake"));
+
+        reopen();
+        assertEquals(List.of("9780000000004"), rankedIsbns(db, "river"));
+        assertEquals(List.of("9780000000011"), rankedIsbns(db, "lake"));
+        assertEquals(List.of(), rankedIsbns(db, "stone"));
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.labb2dbt.model;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelBookDecoderTest {
+
+    private static final Codec<Book> CODEC = BookDocuments.CODECS.get(Book.class);
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static List<RawBsonDocument> documents(int count) {
+        Codec<Document> documentCodec = BookDocuments.CODECS.get(Document.class);
+        List<RawBsonDocument> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Book book = Book.builder()
+                    .isbn(String.format("978%010d", i))
+                    .title("Book " + i)
+                    .published(LocalDate.of(2000, 1, 1).plusDays(i))
+                    .rating(i % 5 + 1)
+                    .build();
+            documents.add(new RawBsonDocument(BookDocuments.toDocument(book), documentCodec));
+        }
+        return documents;
+    }
+
+    @Test
+    void deliversTheBooksInCursorOrder() throws BooksDbException {
+        List<RawBsonDocument> documents = documents(250);
+        Thread caller = Thread.currentThread();
+
+        for (int parallelism : new int[]{1, 2, 4, 8}) {
+            for (int batchSize : new int[]{1, 3, 10, 100, 1000}) {
+                ParallelBookDecoder decoder = new ParallelBookDecoder(CODEC, executor, parallelism);
+                List<String> isbns = new ArrayList<>();
+                AtomicInteger prepared = new AtomicInteger();
+                String what = "parallelism " + parallelism + ", batches of " + batchSize;
+
+                long found = decoder.decode(documents.iterator(), batchSize, book -> prepared.incrementAndGet(), batch -> {
+                    assertSame(caller, Thread.currentThread(), what);
+                    assertTrue(batch.size() <= batchSize, what);
+                    batch.forEach(book -> isbns.add(book.getIsbn()));
+                });
+
+                assertEquals(250, found, what);
+                assertEquals(250, prepared.get(), what);
+                List<String> expected = new ArrayList<>();
+                for (int i = 0; i < 250; i++) expected.add(String.format("978%010d", i));
+                assertEquals(expected, isbns, what);
+            }
+        }
+    }
+
+    @Test
+    void decodesNothingFromAnEmptyCursor() throws BooksDbException {
+        ParallelBookDecoder decoder = new ParallelBookDecoder(CODEC, executor, 4);
+        List<List<Book>> batches = new ArrayList<>();
+
+        assertEquals(0, decoder.decode(List.<RawBsonDocument>of().iterator(), 10, book -> {
+        }, batches::add));
+        assertEquals(List.of(), batches);
+    }
+
+    @Test
+    void interruptCancelsReadingTheCursor() {
+        List<RawBsonDocument> documents = documents(100);
+        ParallelBookDecoder decoder = new ParallelBookDecoder(CODEC, executor, 2);
+        AtomicInteger read = new AtomicInteger();
+        Iterator<RawBsonDocument> cursor = new Iterator<>() {
+            private final Iterator<RawBsonDocument> delegate = documents.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return delegate.hasNext();
+            }
+
+            @Override
+            public RawBsonDocument next() {
+                if (read.incrementAndGet() == 25) Thread.currentThread().interrupt();
+                return delegate.next();
+            }
+        };
+        List<Book> delivered = new ArrayList<>();
+
+        try {
+            BooksDbException e = assertThrows(BooksDbException.class,
+                    () -> decoder.decode(cursor, 10, book -> {
+                    }, delivered::addAll));
+            assertEquals("Search cancelled", e.getMessage());
+        } finally {
+            Thread.interrupted();
+        }
+        assertEquals(25, read.get());
+        assertTrue(delivered.size() < 25);
+    }
+
+    @Test
+    void interruptCancelsWaitingForABatch() throws InterruptedException {
+        // batches handed to the executor are never decoded, so the caller waits for the first of them
+        List<Runnable> queued = new CopyOnWriteArrayList<>();
+        ParallelBookDecoder decoder = new ParallelBookDecoder(CODEC, queued::add, 2);
+        AtomicInteger prepared = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread searching = new Thread(() -> {
+            try {
+                decoder.decode(documents(50).iterator(), 5, book -> prepared.incrementAndGet(), batch -> {
+                });
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+
+        searching.start();
+        while (queued.size() < 2) {
+            Thread.sleep(1);
+        }
+        searching.interrupt();
+        searching.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertFalse(searching.isAlive());
+        assertInstanceOf(BooksDbException.class, failure.get());
+        assertEquals("Search cancelled", failure.get().getMessage());
+        // the queued batches were cancelled and are not decoded when they get to run
+        queued.forEach(Runnable::run);
+        assertEquals(5, prepared.get());
+    }
+
+    @Test
+    void aDecodingErrorReachesTheCaller() {
+        ParallelBookDecoder decoder = new ParallelBookDecoder(CODEC, executor, 4);
+        IllegalStateException error = new IllegalStateException("bad book");
+
+        IllegalStateException thrown = assertThrows(IllegalStateException.class,
+                () -> decoder.decode(documents(100).iterator(), 10, book -> {
+                    if (book.getIsbn().endsWith("57")) throw error;
+                }, batch -> {
+                }));
+        assertSame(error, thrown);
+    }
+
+    @Test
+    void parallelismMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new ParallelBookDecoder(CODEC, executor, 0));
+    }
+}
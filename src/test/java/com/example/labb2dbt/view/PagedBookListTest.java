@@ -0,0 +1,185 @@
+package com.example.labb2dbt.view;
+
+import com.example.labb2dbt.model.Book;
+import com.example.labb2dbt.model.BookProjection;
+import com.example.labb2dbt.model.BookQuery;
+import com.example.labb2dbt.model.BooksDbException;
+import com.example.labb2dbt.model.InMemoryBooksDb;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class PagedBookListTest {
+
+    private static final int BOOKS = 3000;
+    private static final int PAGE_SIZE = 10;
+
+    private final Deque<Runnable> tasks = new ArrayDeque<>();
+    private final List<Book> catalogue = new ArrayList<>();
+    private RecordingBooksDb db;
+
+    /**
+     * Keeps the page queries it is asked for.
+     */
+    private static final class RecordingBooksDb extends InMemoryBooksDb {
+        final List<BookQuery> queries = new ArrayList<>();
+
+        @Override
+        public void searchBooks(BookQuery query, BookProjection projection, int batchSize, Consumer<List<Book>> consumer) throws BooksDbException {
+            queries.add(query);
+            super.searchBooks(query, projection, batchSize, consumer);
+        }
+    }
+
+    @BeforeEach
+    void fill() throws BooksDbException {
+        db = new RecordingBooksDb();
+        db.connect("test", "", "");
+        Random random = new Random(5);
+        for (int i = 0; i < BOOKS; i++) {
+            Book book = Book.builder()
+                    .isbn(String.format("978%010d", i))
+                    .title(String.format("Book %05d", random.nextInt(100_000)))
+                    .published(LocalDate.of(2000, 1, 1))
+                    .rating(1 + random.nextInt(5))
+                    .build();
+            catalogue.add(book);
+            db.addBook(book);
+        }
+    }
+
+    @AfterEach
+    void disconnect() {
+        db.disconnect();
+    }
+
+    private PagedBookList open(BookQuery query) {
+        PagedBookList list = new PagedBookList(db, query, BookProjection.Summary, PAGE_SIZE, 5, tasks::add, tasks::add);
+        list.setOnError(e -> fail(e));
+        list.start();
+        drain();
+        return list;
+    }
+
+    private void drain() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Shows rows like the table does, a window of them at a time, asking for them until
+     * their pages are read.
+     */
+    private List<String> show(PagedBookList list, int from, int to) {
+        List<String> shown = new ArrayList<>();
+        for (int window = from; window < Math.min(to, list.size()); window += 2 * PAGE_SIZE) {
+            shown.addAll(showWindow(list, window, Math.min(to, window + 2 * PAGE_SIZE)));
+        }
+        return shown;
+    }
+
+    private List<String> showWindow(PagedBookList list, int from, int to) {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            List<String> rows = new ArrayList<>();
+            for (int i = from; i < Math.min(to, list.size()); i++) {
+                Book book = list.get(i);
+                rows.add(book == null ? null : book.getIsbn());
+            }
+            if (!rows.contains(null)) return rows;
+            drain();
+        }
+        fail("rows " + from + " to " + to + " were not read");
+        return null;
+    }
+
+    private List<String> sorted(BookQuery query) {
+        List<Book> books = new ArrayList<>(catalogue);
+        books.sort(query.comparator());
+        return books.stream().map(Book::getIsbn).toList();
+    }
+
+    /**
+     * Checks that rows are books that follow each other in the order of the query.
+     */
+    private static void assertContiguous(List<String> expected, List<String> rows) {
+        int first = expected.indexOf(rows.get(0));
+        assertTrue(first >= 0);
+        assertEquals(expected.subList(first, Math.min(expected.size(), first + rows.size())), rows);
+    }
+
+    private void assertNoSkips() {
+        for (BookQuery query : db.queries) {
+            assertEquals(0, query.getSkip(), query.toString());
+        }
+    }
+
+    @Test
+    void scrollingReadsEveryBookInOrder() {
+        BookQuery query = BookQuery.builder().sortBy(BookQuery.SortField.Title, false).build();
+        PagedBookList list = open(query);
+
+        assertEquals(BOOKS, list.size());
+        assertEquals(sorted(query), show(list, 0, BOOKS));
+        assertNoSkips();
+    }
+
+    @Test
+    void aLongJumpSeeksAnEstimatedPosition() {
+        for (boolean descending : new boolean[]{false, true}) {
+            for (BookQuery.SortField field : BookQuery.SortField.values()) {
+                BookQuery query = BookQuery.builder().sortBy(field, descending).build();
+                List<String> expected = sorted(query);
+                PagedBookList list = open(query);
+                db.queries.clear();
+
+                // a few reads near the row instead of walking the 200 pages before it
+                List<String> rows = show(list, 2000, 2030);
+                assertContiguous(expected, rows);
+                assertTrue(db.queries.size() <= 6, field + ": " + db.queries);
+                // scrolling on from there reads the pages next to it
+                assertContiguous(expected, show(list, 1980, 2060));
+                // walking down from the top meets the estimated pages, which are read again
+                assertEquals(expected.subList(0, 2060), show(list, 0, 2060));
+                assertNoSkips();
+                list.close();
+            }
+        }
+    }
+
+    @Test
+    void aReloadReadsThePagesAgainFromTheKnownPositions() throws BooksDbException {
+        BookQuery query = BookQuery.builder().sortBy(BookQuery.SortField.Title, false).build();
+        PagedBookList list = open(query);
+        show(list, 1500, 1520);
+        show(list, 0, 100);
+        show(list, 1500, 1520);
+
+        Book deleted = catalogue.remove(catalogue.size() - 1);
+        db.deleteBook(deleted);
+        db.queries.clear();
+        list.reload();
+        drain();
+        List<String> rows = show(list, 1500, 1520);
+
+        assertContiguous(sorted(query), rows);
+        for (BookQuery read : db.queries) {
+            assertNotNull(read.getAfter(), "read from the start instead of a known position: " + read);
+        }
+        assertNoSkips();
+    }
+}